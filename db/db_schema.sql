@@ -148,7 +148,8 @@ CREATE TABLE runs (
     model_url text NOT NULL,
     model_repo_type character varying(16) NOT NULL,
     runner_flags text NOT NULL,
-    host_ip text
+    host_ip text,
+    passed_over_since timestamp without time zone
 );
 
 
@@ -175,6 +176,13 @@ COMMENT ON COLUMN runs.run_start_time IS 'Time run began (UTC)';
 COMMENT ON COLUMN runs.run_end_time IS 'Time run finished (UTC)';
 
 
+--
+-- Name: COLUMN runs.passed_over_since; Type: COMMENT; Schema: public; Owner: tzar
+--
+
+COMMENT ON COLUMN runs.passed_over_since IS 'Time a node first claimed a later run in preference to this one (UTC)';
+
+
 --
 -- Name: runs_run_id_seq; Type: SEQUENCE; Schema: public; Owner: tzar
 --
@@ -196,6 +204,232 @@ ALTER TABLE public.runs_run_id_seq OWNER TO tzar;
 ALTER SEQUENCE runs_run_id_seq OWNED BY runs.run_id;
 
 
+--
+-- Name: runs_history; Type: TABLE; Schema: public; Owner: tzar; Tablespace: 
+--
+-- Finished runs are moved out of the runs table (along with their parameters and library associations) by
+-- archive_runs(), so that the runs table and its indexes only grow with the amount of outstanding work.
+--
+
+CREATE TABLE runs_history (
+    run_id integer NOT NULL,
+    project_name text NOT NULL,
+    scenario_name text NOT NULL,
+    state text NOT NULL,
+    seed integer,
+    model_revision text NOT NULL,
+    hostname text,
+    output_path text,
+    output_host text,
+    run_start_time timestamp without time zone,
+    run_end_time timestamp without time zone,
+    runset text,
+    cluster_name text,
+    runner_class text,
+    run_submission_time timestamp without time zone,
+    model_url text NOT NULL,
+    model_repo_type character varying(16) NOT NULL,
+    runner_flags text NOT NULL,
+    host_ip text
+);
+
+
+ALTER TABLE public.runs_history OWNER TO tzar;
+
+--
+-- Name: run_params_history; Type: TABLE; Schema: public; Owner: tzar; Tablespace: 
+--
+
+CREATE TABLE run_params_history (
+    run_param_id integer NOT NULL,
+    run_id integer,
+    param_name text,
+    param_value text,
+    param_type text,
+    data_type text NOT NULL
+);
+
+
+ALTER TABLE public.run_params_history OWNER TO tzar;
+
+--
+-- Name: run_libraries_history; Type: TABLE; Schema: public; Owner: tzar; Tablespace: 
+--
+
+CREATE TABLE run_libraries_history (
+    id bigint NOT NULL,
+    run_id integer,
+    library_id integer
+);
+
+
+ALTER TABLE public.run_libraries_history OWNER TO tzar;
+
+--
+-- Name: all_runs; Type: VIEW; Schema: public; Owner: tzar
+--
+
+CREATE VIEW all_runs AS
+    SELECT run_id, project_name, scenario_name, state, seed, model_revision, hostname, output_path, output_host,
+        run_start_time, run_end_time, runset, cluster_name, runner_class, run_submission_time, model_url,
+        model_repo_type, runner_flags, host_ip FROM runs
+    UNION ALL
+    SELECT run_id, project_name, scenario_name, state, seed, model_revision, hostname, output_path, output_host,
+        run_start_time, run_end_time, runset, cluster_name, runner_class, run_submission_time, model_url,
+        model_repo_type, runner_flags, host_ip FROM runs_history;
+
+
+ALTER TABLE public.all_runs OWNER TO tzar;
+
+--
+-- Name: all_run_params; Type: VIEW; Schema: public; Owner: tzar
+--
+
+CREATE VIEW all_run_params AS
+    SELECT run_param_id, run_id, param_name, param_value, param_type, data_type FROM run_params
+    UNION ALL
+    SELECT run_param_id, run_id, param_name, param_value, param_type, data_type FROM run_params_history;
+
+
+ALTER TABLE public.all_run_params OWNER TO tzar;
+
+--
+-- Name: all_run_libraries; Type: VIEW; Schema: public; Owner: tzar
+--
+
+CREATE VIEW all_run_libraries AS
+    SELECT id, run_id, library_id FROM run_libraries
+    UNION ALL
+    SELECT id, run_id, library_id FROM run_libraries_history;
+
+
+ALTER TABLE public.all_run_libraries OWNER TO tzar;
+
+--
+-- Name: runset_stats; Type: TABLE; Schema: public; Owner: tzar; Tablespace: 
+--
+-- Per runset summary of the runs table, maintained incrementally by triggers on the runs table so that
+-- dashboards and the printrunsets command don't need to scan the runs table.
+--
+
+CREATE TABLE runset_stats (
+    runset text NOT NULL,
+    num_runs integer DEFAULT 0 NOT NULL,
+    scheduled integer DEFAULT 0 NOT NULL,
+    in_progress integer DEFAULT 0 NOT NULL,
+    completed integer DEFAULT 0 NOT NULL,
+    failed integer DEFAULT 0 NOT NULL,
+    copied integer DEFAULT 0 NOT NULL,
+    copy_failed integer DEFAULT 0 NOT NULL,
+    first_submission_time timestamp without time zone,
+    last_end_time timestamp without time zone,
+    total_cpu_seconds double precision DEFAULT 0 NOT NULL,
+    held integer DEFAULT 0 NOT NULL,
+    cancelled integer DEFAULT 0 NOT NULL
+);
+
+
+ALTER TABLE public.runset_stats OWNER TO tzar;
+
+--
+-- Name: COLUMN runset_stats.total_cpu_seconds; Type: COMMENT; Schema: public; Owner: tzar
+--
+
+COMMENT ON COLUMN runset_stats.total_cpu_seconds IS 'Sum of (run_end_time - run_start_time) over the runs in the runset, in seconds.';
+
+
+--
+-- Name: runset_stats_delta; Type: TABLE; Schema: public; Owner: tzar; Tablespace: 
+--
+-- Changes to runset_stats which haven't yet been applied. Only ever contains rows written by transactions
+-- which are still in progress.
+--
+
+CREATE TABLE runset_stats_delta (
+    runset text NOT NULL,
+    state text NOT NULL,
+    delta integer NOT NULL,
+    submission_time timestamp without time zone,
+    end_time timestamp without time zone,
+    cpu_seconds double precision NOT NULL
+);
+
+
+ALTER TABLE public.runset_stats_delta OWNER TO tzar;
+
+--
+-- Name: run_metrics; Type: TABLE; Schema: public; Owner: tzar; Tablespace: 
+--
+-- Scalar outputs reported by runs (in the metrics.yaml file in their output directory), used by adaptive
+-- runsets to decide which runs to schedule next. Not archived with the runs.
+--
+
+CREATE TABLE run_metrics (
+    run_id integer NOT NULL,
+    name text NOT NULL,
+    value double precision NOT NULL,
+    CONSTRAINT run_metrics_pkey PRIMARY KEY (run_id, name)
+);
+
+
+ALTER TABLE public.run_metrics OWNER TO tzar;
+
+--
+-- Name: runset_metadata; Type: TABLE; Schema: public; Owner: tzar; Tablespace: 
+--
+-- Information about how the runs in a runset were generated, eg the hash of the repetitions file.
+--
+
+CREATE TABLE runset_metadata (
+    runset text NOT NULL,
+    name text NOT NULL,
+    value text NOT NULL,
+    CONSTRAINT runset_metadata_pkey PRIMARY KEY (runset, name)
+);
+
+
+ALTER TABLE public.runset_metadata OWNER TO tzar;
+
+--
+-- Name: content_peers; Type: TABLE; Schema: public; Owner: tzar; Tablespace: 
+--
+-- Models and libraries in the content caches of the nodes, which other nodes can copy rather than downloading
+-- them from the origin server. A row with a null content_id is a claim by a node to download the location.
+--
+
+CREATE TABLE content_peers (
+    location_id text NOT NULL,
+    hostname text NOT NULL,
+    cache_url text NOT NULL,
+    content_id text,
+    manifest_sha256 text,
+    etag text,
+    last_modified text,
+    advertised timestamp without time zone DEFAULT timezone('utc'::text, now()) NOT NULL,
+    CONSTRAINT content_peers_pkey PRIMARY KEY (location_id, hostname)
+);
+
+
+ALTER TABLE public.content_peers OWNER TO tzar;
+
+--
+-- Name: node_caches; Type: TABLE; Schema: public; Owner: tzar; Tablespace: 
+--
+-- The models and libraries which each node has most recently retrieved, so that nodes can prefer to claim runs
+-- whose code they already have.
+--
+
+CREATE TABLE node_caches (
+    hostname text NOT NULL,
+    cluster_name text NOT NULL,
+    code_keys text[] NOT NULL,
+    published timestamp without time zone DEFAULT timezone('utc'::text, now()) NOT NULL,
+    CONSTRAINT node_caches_pkey PRIMARY KEY (hostname)
+);
+
+
+ALTER TABLE public.node_caches OWNER TO tzar;
+
 --
 -- Name: library_id; Type: DEFAULT; Schema: public; Owner: tzar
 --
@@ -256,6 +490,22 @@ ALTER TABLE ONLY run_params
     ADD CONSTRAINT run_params_run_id_key UNIQUE (run_id, param_name);
 
 
+--
+-- Name: runs_history_pkey; Type: CONSTRAINT; Schema: public; Owner: tzar; Tablespace: 
+--
+
+ALTER TABLE ONLY runs_history
+    ADD CONSTRAINT runs_history_pkey PRIMARY KEY (run_id);
+
+
+--
+-- Name: runset_stats_pkey; Type: CONSTRAINT; Schema: public; Owner: tzar; Tablespace: 
+--
+
+ALTER TABLE ONLY runset_stats
+    ADD CONSTRAINT runset_stats_pkey PRIMARY KEY (runset);
+
+
 --
 -- Name: fki_run_id; Type: INDEX; Schema: public; Owner: tzar; Tablespace: 
 --
@@ -270,6 +520,44 @@ CREATE INDEX fki_run_id ON run_params USING btree (run_id);
 CREATE INDEX fki_run_libraries_run_id_fk ON run_libraries USING btree (library_id);
 
 
+--
+-- Name: runs_scheduled_idx; Type: INDEX; Schema: public; Owner: tzar; Tablespace: 
+--
+-- Partial indexes covering only the scheduled runs, used by nodes polling for their next run. These stay
+-- small however many finished runs are in the table.
+--
+
+CREATE INDEX runs_scheduled_idx ON runs USING btree (cluster_name, runset, run_id) WHERE state = 'scheduled';
+
+
+--
+-- Name: runs_scheduled_cluster_idx; Type: INDEX; Schema: public; Owner: tzar; Tablespace: 
+--
+
+CREATE INDEX runs_scheduled_cluster_idx ON runs USING btree (cluster_name, run_id) WHERE state = 'scheduled';
+
+
+--
+-- Name: run_libraries_run_id_idx; Type: INDEX; Schema: public; Owner: tzar; Tablespace: 
+--
+
+CREATE INDEX run_libraries_run_id_idx ON run_libraries USING btree (run_id);
+
+
+--
+-- Name: run_params_history_run_id_idx; Type: INDEX; Schema: public; Owner: tzar; Tablespace: 
+--
+
+CREATE INDEX run_params_history_run_id_idx ON run_params_history USING btree (run_id);
+
+
+--
+-- Name: run_libraries_history_run_id_idx; Type: INDEX; Schema: public; Owner: tzar; Tablespace: 
+--
+
+CREATE INDEX run_libraries_history_run_id_idx ON run_libraries_history USING btree (run_id);
+
+
 --
 -- Name: run_id; Type: FK CONSTRAINT; Schema: public; Owner: tzar
 --
@@ -299,6 +587,183 @@ ALTER TABLE ONLY run_libraries
 ALTER TABLE ONLY run_libraries ADD CONSTRAINT run_libraries_pkey PRIMARY KEY (id);
 
 
+--
+-- Name: record_runset_stats_delta; Type: FUNCTION; Schema: public; Owner: tzar
+--
+-- Row level trigger function which records each run's change in contribution to its runset's statistics in
+-- runset_stats_delta. Updating runset_stats directly from a row level trigger makes bulk inserts and updates
+-- quadratic, as every row would update the same runset_stats row within a single transaction.
+--
+
+CREATE OR REPLACE FUNCTION record_runset_stats_delta() RETURNS trigger AS $$
+BEGIN
+    IF TG_OP = 'UPDATE' AND OLD.runset IS NOT DISTINCT FROM NEW.runset AND OLD.state = NEW.state
+            AND OLD.run_start_time IS NOT DISTINCT FROM NEW.run_start_time
+            AND OLD.run_end_time IS NOT DISTINCT FROM NEW.run_end_time THEN
+        RETURN NULL;
+    END IF;
+    IF TG_OP = 'DELETE' AND EXISTS (SELECT 1 FROM runs_history WHERE run_id = OLD.run_id) THEN
+        -- the run is being archived by archive_runs(), so it still counts towards its runset.
+        RETURN NULL;
+    END IF;
+    IF (TG_OP = 'UPDATE' OR TG_OP = 'DELETE') AND OLD.runset IS NOT NULL THEN
+        INSERT INTO runset_stats_delta (runset, state, delta, cpu_seconds) VALUES (OLD.runset, OLD.state, -1,
+            -coalesce(date_part('epoch'::text, OLD.run_end_time - OLD.run_start_time), 0));
+    END IF;
+    IF (TG_OP = 'UPDATE' OR TG_OP = 'INSERT') AND NEW.runset IS NOT NULL THEN
+        INSERT INTO runset_stats_delta (runset, state, delta, submission_time, end_time, cpu_seconds)
+            VALUES (NEW.runset, NEW.state, 1, NEW.run_submission_time, NEW.run_end_time,
+            coalesce(date_part('epoch'::text, NEW.run_end_time - NEW.run_start_time), 0));
+    END IF;
+    RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+
+ALTER FUNCTION public.record_runset_stats_delta() OWNER TO tzar;
+
+--
+-- Name: fold_runset_stats; Type: FUNCTION; Schema: public; Owner: tzar
+--
+-- Applies the changes recorded in runset_stats_delta to runset_stats, with a single update per runset. Called
+-- at the end of each statement modifying the runs table by the runs_runset_stats trigger.
+--
+
+CREATE OR REPLACE FUNCTION fold_runset_stats() RETURNS void AS $$
+DECLARE
+    d record;
+BEGIN
+    -- runsets are updated in a consistent order to avoid deadlocks between concurrent transactions.
+    FOR d IN SELECT runset, sum(delta) AS num_runs,
+            sum(CASE WHEN state = 'scheduled' THEN delta ELSE 0 END) AS scheduled,
+            sum(CASE WHEN state = 'in_progress' THEN delta ELSE 0 END) AS in_progress,
+            sum(CASE WHEN state = 'completed' THEN delta ELSE 0 END) AS completed,
+            sum(CASE WHEN state = 'failed' THEN delta ELSE 0 END) AS failed,
+            sum(CASE WHEN state = 'copied' THEN delta ELSE 0 END) AS copied,
+            sum(CASE WHEN state = 'copy_failed' THEN delta ELSE 0 END) AS copy_failed,
+            sum(CASE WHEN state = 'held' THEN delta ELSE 0 END) AS held,
+            sum(CASE WHEN state = 'cancelled' THEN delta ELSE 0 END) AS cancelled,
+            min(submission_time) AS first_submission_time, max(end_time) AS last_end_time,
+            sum(cpu_seconds) AS cpu_seconds
+            FROM runset_stats_delta GROUP BY runset ORDER BY runset LOOP
+        LOOP
+            UPDATE runset_stats SET
+                num_runs = num_runs + d.num_runs,
+                scheduled = scheduled + d.scheduled,
+                in_progress = in_progress + d.in_progress,
+                completed = completed + d.completed,
+                failed = failed + d.failed,
+                copied = copied + d.copied,
+                copy_failed = copy_failed + d.copy_failed,
+                held = held + d.held,
+                cancelled = cancelled + d.cancelled,
+                first_submission_time = least(first_submission_time, d.first_submission_time),
+                last_end_time = greatest(last_end_time, d.last_end_time),
+                total_cpu_seconds = total_cpu_seconds + d.cpu_seconds
+            WHERE runset = d.runset;
+            EXIT WHEN FOUND;
+            BEGIN
+                INSERT INTO runset_stats (runset) VALUES (d.runset);
+            EXCEPTION WHEN unique_violation THEN
+                -- another transaction created the row concurrently. loop around and update it.
+            END;
+        END LOOP;
+    END LOOP;
+    -- rows written by other transactions are not visible until they commit, and those transactions fold their
+    -- own rows before committing, so this only removes the rows folded above.
+    DELETE FROM runset_stats_delta;
+END;
+$$ LANGUAGE plpgsql;
+
+
+ALTER FUNCTION public.fold_runset_stats() OWNER TO tzar;
+
+--
+-- Name: defer_runset_stats; Type: FUNCTION; Schema: public; Owner: tzar
+--
+-- Stops runset_stats being updated at the end of each statement for the remainder of the current transaction.
+-- Used when inserting many runs using separate statements (eg a JDBC batch), which would otherwise update the
+-- same runset_stats rows once per statement. fold_runset_stats() must be called before committing.
+--
+
+CREATE OR REPLACE FUNCTION defer_runset_stats() RETURNS void AS $$
+BEGIN
+    CREATE TEMPORARY TABLE IF NOT EXISTS runset_stats_deferred () ON COMMIT DROP;
+END;
+$$ LANGUAGE plpgsql;
+
+
+ALTER FUNCTION public.defer_runset_stats() OWNER TO tzar;
+
+--
+-- Name: fold_runset_stats_trigger; Type: FUNCTION; Schema: public; Owner: tzar
+--
+
+CREATE OR REPLACE FUNCTION fold_runset_stats_trigger() RETURNS trigger AS $$
+BEGIN
+    IF NOT EXISTS (SELECT 1 FROM pg_class WHERE relname = 'runset_stats_deferred'
+            AND relnamespace = pg_my_temp_schema()) THEN
+        PERFORM fold_runset_stats();
+    END IF;
+    RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+
+ALTER FUNCTION public.fold_runset_stats_trigger() OWNER TO tzar;
+
+--
+-- Name: archive_runs; Type: FUNCTION; Schema: public; Owner: tzar
+--
+-- Moves up to max_runs runs which finished more than older_than_days days ago, along with their parameters and
+-- library associations, into the history tables. Returns the number of runs archived.
+--
+
+CREATE OR REPLACE FUNCTION archive_runs(older_than_days integer, max_runs integer) RETURNS integer AS $$
+DECLARE
+    ids integer[];
+BEGIN
+    ids := ARRAY(SELECT run_id FROM runs
+        WHERE state IN ('completed', 'copied', 'failed', 'copy_failed', 'cancelled')
+        AND run_end_time < timezone('utc'::text, now()) - older_than_days * interval '1 day'
+        ORDER BY run_id LIMIT max_runs);
+    INSERT INTO run_params_history (run_param_id, run_id, param_name, param_value, param_type, data_type)
+        SELECT run_param_id, run_id, param_name, param_value, param_type, data_type FROM run_params
+        WHERE run_id = ANY(ids);
+    INSERT INTO run_libraries_history (id, run_id, library_id)
+        SELECT id, run_id, library_id FROM run_libraries WHERE run_id = ANY(ids);
+    INSERT INTO runs_history (run_id, project_name, scenario_name, state, seed, model_revision, hostname,
+            output_path, output_host, run_start_time, run_end_time, runset, cluster_name, runner_class,
+            run_submission_time, model_url, model_repo_type, runner_flags, host_ip)
+        SELECT run_id, project_name, scenario_name, state, seed, model_revision, hostname, output_path,
+            output_host, run_start_time, run_end_time, runset, cluster_name, runner_class, run_submission_time,
+            model_url, model_repo_type, runner_flags, host_ip FROM runs
+        WHERE run_id = ANY(ids);
+    DELETE FROM run_libraries WHERE run_id = ANY(ids);
+    -- run_params rows are removed by the cascading foreign key.
+    DELETE FROM runs WHERE run_id = ANY(ids);
+    RETURN coalesce(array_length(ids, 1), 0);
+END;
+$$ LANGUAGE plpgsql;
+
+
+ALTER FUNCTION public.archive_runs(integer, integer) OWNER TO tzar;
+
+--
+-- Name: runs_runset_stats_delta; Type: TRIGGER; Schema: public; Owner: tzar
+--
+
+CREATE TRIGGER runs_runset_stats_delta AFTER INSERT OR UPDATE OR DELETE ON runs
+    FOR EACH ROW EXECUTE PROCEDURE record_runset_stats_delta();
+
+--
+-- Name: runs_runset_stats; Type: TRIGGER; Schema: public; Owner: tzar
+--
+
+CREATE TRIGGER runs_runset_stats AFTER INSERT OR UPDATE OR DELETE ON runs
+    FOR EACH STATEMENT EXECUTE PROCEDURE fold_runset_stats_trigger();
+
+
 --
 -- Name: public; Type: ACL; Schema: -; Owner: tzar
 --
@@ -307,38 +772,20 @@ GRANT ALL ON SCHEMA public TO tzar;
 GRANT ALL ON SCHEMA public TO PUBLIC;
 
 
-insert into constants (db_version) values ('0.5.4');
+insert into constants (db_version) values ('0.5.11');
 
 -- View: lucy_runset_view
 
 -- DROP VIEW lucy_runset_view;
 
 CREATE OR REPLACE VIEW lucy_runset_view AS
- SELECT runs.runset, count(runs.run_id) AS num_runs,
-    min(runs.run_submission_time) AS submission_time,
-    max(runs.run_end_time) AS end_time,
-    floor(date_part('epoch'::text, max(runs.run_end_time) - min(runs.run_submission_time))) AS seconds_duration,
-    ( SELECT count(r.run_id) AS count
-           FROM runs r
-          WHERE runs.runset = r.runset AND r.state = 'failed'::text) AS failed,
-    ( SELECT count(r.run_id) AS count
-           FROM runs r
-          WHERE runs.runset = r.runset AND r.state = 'scheduled'::text) AS scheduled,
-    ( SELECT count(r.run_id) AS count
-           FROM runs r
-          WHERE runs.runset = r.runset AND r.state = 'in_progress'::text) AS in_progress,
-    ( SELECT count(r.run_id) AS count
-           FROM runs r
-          WHERE runs.runset = r.runset AND r.state = 'completed'::text) AS completed,
-    ( SELECT count(r.run_id) AS count
-           FROM runs r
-          WHERE runs.runset = r.runset AND r.state = 'copied'::text) AS copied,
-    ( SELECT count(r.run_id) AS count
-           FROM runs r
-          WHERE runs.runset = r.runset AND r.state = 'copy_failed'::text) AS copy_failed
-   FROM runs
-  GROUP BY runs.runset
-  ORDER BY min(runs.run_submission_time) DESC;
+ SELECT runset, num_runs,
+    first_submission_time AS submission_time,
+    last_end_time AS end_time,
+    floor(date_part('epoch'::text, last_end_time - first_submission_time)) AS seconds_duration,
+    failed, scheduled, in_progress, completed, copied, copy_failed
+   FROM runset_stats
+  ORDER BY first_submission_time DESC;
 
 ALTER TABLE lucy_runset_view
   OWNER TO tzar;
@@ -1,7 +1,7 @@
 CREATE OR REPLACE FUNCTION update_schema() returns void AS $$
 DECLARE
    current_db_version varchar;
-   latest_db_version varchar := '0.5.5a';
+   latest_db_version varchar := '0.5.11';
 BEGIN
 
 if not exists (SELECT * FROM pg_class where relname = 'constants' and relkind = 'r') then
@@ -164,6 +164,302 @@ BEGIN
 END;
 $$ LANGUAGE plpgsql;
 
+-- Row level trigger function recording changes to runset statistics in runset_stats_delta.
+CREATE OR REPLACE FUNCTION record_runset_stats_delta() RETURNS trigger AS $$
+BEGIN
+    IF TG_OP = 'UPDATE' AND OLD.runset IS NOT DISTINCT FROM NEW.runset AND OLD.state = NEW.state
+            AND OLD.run_start_time IS NOT DISTINCT FROM NEW.run_start_time
+            AND OLD.run_end_time IS NOT DISTINCT FROM NEW.run_end_time THEN
+        RETURN NULL;
+    END IF;
+    IF TG_OP = 'DELETE' AND EXISTS (SELECT 1 FROM runs_history WHERE run_id = OLD.run_id) THEN
+        -- the run is being archived by archive_runs(), so it still counts towards its runset.
+        RETURN NULL;
+    END IF;
+    IF (TG_OP = 'UPDATE' OR TG_OP = 'DELETE') AND OLD.runset IS NOT NULL THEN
+        INSERT INTO runset_stats_delta (runset, state, delta, cpu_seconds) VALUES (OLD.runset, OLD.state, -1,
+            -coalesce(date_part('epoch'::text, OLD.run_end_time - OLD.run_start_time), 0));
+    END IF;
+    IF (TG_OP = 'UPDATE' OR TG_OP = 'INSERT') AND NEW.runset IS NOT NULL THEN
+        INSERT INTO runset_stats_delta (runset, state, delta, submission_time, end_time, cpu_seconds)
+            VALUES (NEW.runset, NEW.state, 1, NEW.run_submission_time, NEW.run_end_time,
+            coalesce(date_part('epoch'::text, NEW.run_end_time - NEW.run_start_time), 0));
+    END IF;
+    RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+-- Applies the changes recorded in runset_stats_delta to runset_stats, with a single update per runset.
+CREATE OR REPLACE FUNCTION fold_runset_stats() RETURNS void AS $$
+DECLARE
+    d record;
+BEGIN
+    -- runsets are updated in a consistent order to avoid deadlocks between concurrent transactions.
+    FOR d IN SELECT runset, sum(delta) AS num_runs,
+            sum(CASE WHEN state = 'scheduled' THEN delta ELSE 0 END) AS scheduled,
+            sum(CASE WHEN state = 'in_progress' THEN delta ELSE 0 END) AS in_progress,
+            sum(CASE WHEN state = 'completed' THEN delta ELSE 0 END) AS completed,
+            sum(CASE WHEN state = 'failed' THEN delta ELSE 0 END) AS failed,
+            sum(CASE WHEN state = 'copied' THEN delta ELSE 0 END) AS copied,
+            sum(CASE WHEN state = 'copy_failed' THEN delta ELSE 0 END) AS copy_failed,
+            sum(CASE WHEN state = 'held' THEN delta ELSE 0 END) AS held,
+            sum(CASE WHEN state = 'cancelled' THEN delta ELSE 0 END) AS cancelled,
+            min(submission_time) AS first_submission_time, max(end_time) AS last_end_time,
+            sum(cpu_seconds) AS cpu_seconds
+            FROM runset_stats_delta GROUP BY runset ORDER BY runset LOOP
+        LOOP
+            UPDATE runset_stats SET
+                num_runs = num_runs + d.num_runs,
+                scheduled = scheduled + d.scheduled,
+                in_progress = in_progress + d.in_progress,
+                completed = completed + d.completed,
+                failed = failed + d.failed,
+                copied = copied + d.copied,
+                copy_failed = copy_failed + d.copy_failed,
+                held = held + d.held,
+                cancelled = cancelled + d.cancelled,
+                first_submission_time = least(first_submission_time, d.first_submission_time),
+                last_end_time = greatest(last_end_time, d.last_end_time),
+                total_cpu_seconds = total_cpu_seconds + d.cpu_seconds
+            WHERE runset = d.runset;
+            EXIT WHEN FOUND;
+            BEGIN
+                INSERT INTO runset_stats (runset) VALUES (d.runset);
+            EXCEPTION WHEN unique_violation THEN
+                -- another transaction created the row concurrently. loop around and update it.
+            END;
+        END LOOP;
+    END LOOP;
+    -- rows written by other transactions are not visible until they commit, and those transactions fold their
+    -- own rows before committing, so this only removes the rows folded above.
+    DELETE FROM runset_stats_delta;
+END;
+$$ LANGUAGE plpgsql;
+
+-- Stops runset_stats being updated at the end of each statement for the remainder of the current transaction.
+-- fold_runset_stats() must be called before committing.
+CREATE OR REPLACE FUNCTION defer_runset_stats() RETURNS void AS $$
+BEGIN
+    CREATE TEMPORARY TABLE IF NOT EXISTS runset_stats_deferred () ON COMMIT DROP;
+END;
+$$ LANGUAGE plpgsql;
+
+-- Statement level trigger function applying the changes in runset_stats_delta to runset_stats, unless
+-- defer_runset_stats() has been called in this transaction.
+CREATE OR REPLACE FUNCTION fold_runset_stats_trigger() RETURNS trigger AS $$
+BEGIN
+    IF NOT EXISTS (SELECT 1 FROM pg_class WHERE relname = 'runset_stats_deferred'
+            AND relnamespace = pg_my_temp_schema()) THEN
+        PERFORM fold_runset_stats();
+    END IF;
+    RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+-- Update from v0.5.5a to v0.5.6
+CREATE OR REPLACE FUNCTION update_schema_055a() returns varchar AS $$
+DECLARE
+    old_db_version varchar := '0.5.5a';
+    new_db_version varchar := '0.5.6';
+BEGIN
+  CREATE TABLE runset_stats (
+      runset text NOT NULL,
+      num_runs integer DEFAULT 0 NOT NULL,
+      scheduled integer DEFAULT 0 NOT NULL,
+      in_progress integer DEFAULT 0 NOT NULL,
+      completed integer DEFAULT 0 NOT NULL,
+      failed integer DEFAULT 0 NOT NULL,
+      copied integer DEFAULT 0 NOT NULL,
+      copy_failed integer DEFAULT 0 NOT NULL,
+      first_submission_time timestamp without time zone,
+      last_end_time timestamp without time zone,
+      total_cpu_seconds double precision DEFAULT 0 NOT NULL,
+      CONSTRAINT runset_stats_pkey PRIMARY KEY (runset)
+  );
+  CREATE TABLE runset_stats_delta (
+      runset text NOT NULL,
+      state text NOT NULL,
+      delta integer NOT NULL,
+      submission_time timestamp without time zone,
+      end_time timestamp without time zone,
+      cpu_seconds double precision NOT NULL
+  );
+
+  -- lock out writers while we backfill, so that no transitions are lost between the backfill and the trigger
+  -- being created.
+  LOCK TABLE runs IN SHARE ROW EXCLUSIVE MODE;
+
+  INSERT INTO runset_stats
+    SELECT runset, count(*),
+        count(CASE WHEN state = 'scheduled' THEN 1 END),
+        count(CASE WHEN state = 'in_progress' THEN 1 END),
+        count(CASE WHEN state = 'completed' THEN 1 END),
+        count(CASE WHEN state = 'failed' THEN 1 END),
+        count(CASE WHEN state = 'copied' THEN 1 END),
+        count(CASE WHEN state = 'copy_failed' THEN 1 END),
+        min(run_submission_time),
+        max(run_end_time),
+        coalesce(sum(date_part('epoch'::text, run_end_time - run_start_time)), 0)
+    FROM runs WHERE runset IS NOT NULL GROUP BY runset;
+
+  CREATE TRIGGER runs_runset_stats_delta AFTER INSERT OR UPDATE OR DELETE ON runs
+      FOR EACH ROW EXECUTE PROCEDURE record_runset_stats_delta();
+  CREATE TRIGGER runs_runset_stats AFTER INSERT OR UPDATE OR DELETE ON runs
+      FOR EACH STATEMENT EXECUTE PROCEDURE fold_runset_stats_trigger();
+
+  DROP VIEW IF EXISTS lucy_runset_view;
+  CREATE VIEW lucy_runset_view AS
+   SELECT runset, num_runs,
+      first_submission_time AS submission_time,
+      last_end_time AS end_time,
+      floor(date_part('epoch'::text, last_end_time - first_submission_time)) AS seconds_duration,
+      failed, scheduled, in_progress, completed, copied, copy_failed
+     FROM runset_stats
+    ORDER BY first_submission_time DESC;
+  return new_db_version;
+END;
+$$ LANGUAGE plpgsql;
+
+-- Moves up to max_runs runs which finished more than older_than_days days ago, along with their parameters and
+-- library associations, into the history tables. Returns the number of runs archived.
+CREATE OR REPLACE FUNCTION archive_runs(older_than_days integer, max_runs integer) RETURNS integer AS $$
+DECLARE
+    ids integer[];
+BEGIN
+    ids := ARRAY(SELECT run_id FROM runs
+        WHERE state IN ('completed', 'copied', 'failed', 'copy_failed', 'cancelled')
+        AND run_end_time < timezone('utc'::text, now()) - older_than_days * interval '1 day'
+        ORDER BY run_id LIMIT max_runs);
+    INSERT INTO run_params_history (run_param_id, run_id, param_name, param_value, param_type, data_type)
+        SELECT run_param_id, run_id, param_name, param_value, param_type, data_type FROM run_params
+        WHERE run_id = ANY(ids);
+    INSERT INTO run_libraries_history (id, run_id, library_id)
+        SELECT id, run_id, library_id FROM run_libraries WHERE run_id = ANY(ids);
+    INSERT INTO runs_history (run_id, project_name, scenario_name, state, seed, model_revision, hostname,
+            output_path, output_host, run_start_time, run_end_time, runset, cluster_name, runner_class,
+            run_submission_time, model_url, model_repo_type, runner_flags, host_ip)
+        SELECT run_id, project_name, scenario_name, state, seed, model_revision, hostname, output_path,
+            output_host, run_start_time, run_end_time, runset, cluster_name, runner_class, run_submission_time,
+            model_url, model_repo_type, runner_flags, host_ip FROM runs
+        WHERE run_id = ANY(ids);
+    DELETE FROM run_libraries WHERE run_id = ANY(ids);
+    -- run_params rows are removed by the cascading foreign key.
+    DELETE FROM runs WHERE run_id = ANY(ids);
+    RETURN coalesce(array_length(ids, 1), 0);
+END;
+$$ LANGUAGE plpgsql;
+
+-- Update from v0.5.6 to v0.5.7
+CREATE OR REPLACE FUNCTION update_schema_056() returns varchar AS $$
+DECLARE
+    old_db_version varchar := '0.5.6';
+    new_db_version varchar := '0.5.7';
+BEGIN
+  CREATE INDEX runs_scheduled_idx ON runs USING btree (cluster_name, runset, run_id) WHERE state = 'scheduled';
+  CREATE INDEX runs_scheduled_cluster_idx ON runs USING btree (cluster_name, run_id) WHERE state = 'scheduled';
+  CREATE INDEX run_libraries_run_id_idx ON run_libraries USING btree (run_id);
+
+  CREATE TABLE runs_history (LIKE runs);
+  ALTER TABLE runs_history ADD CONSTRAINT runs_history_pkey PRIMARY KEY (run_id);
+  CREATE TABLE run_params_history (LIKE run_params);
+  CREATE INDEX run_params_history_run_id_idx ON run_params_history USING btree (run_id);
+  CREATE TABLE run_libraries_history (LIKE run_libraries);
+  CREATE INDEX run_libraries_history_run_id_idx ON run_libraries_history USING btree (run_id);
+
+  CREATE VIEW all_runs AS
+      SELECT run_id, project_name, scenario_name, state, seed, model_revision, hostname, output_path, output_host,
+          run_start_time, run_end_time, runset, cluster_name, runner_class, run_submission_time, model_url,
+          model_repo_type, runner_flags, host_ip FROM runs
+      UNION ALL
+      SELECT run_id, project_name, scenario_name, state, seed, model_revision, hostname, output_path, output_host,
+          run_start_time, run_end_time, runset, cluster_name, runner_class, run_submission_time, model_url,
+          model_repo_type, runner_flags, host_ip FROM runs_history;
+  CREATE VIEW all_run_params AS
+      SELECT run_param_id, run_id, param_name, param_value, param_type, data_type FROM run_params
+      UNION ALL
+      SELECT run_param_id, run_id, param_name, param_value, param_type, data_type FROM run_params_history;
+  CREATE VIEW all_run_libraries AS
+      SELECT id, run_id, library_id FROM run_libraries
+      UNION ALL
+      SELECT id, run_id, library_id FROM run_libraries_history;
+  return new_db_version;
+END;
+$$ LANGUAGE plpgsql;
+
+-- Update from v0.5.7 to v0.5.8
+CREATE OR REPLACE FUNCTION update_schema_057() returns varchar AS $$
+DECLARE
+    old_db_version varchar := '0.5.7';
+    new_db_version varchar := '0.5.8';
+BEGIN
+  -- counts for the new 'held' and 'cancelled' run states. no existing runs are in these states.
+  ALTER TABLE runset_stats ADD COLUMN held integer DEFAULT 0 NOT NULL;
+  ALTER TABLE runset_stats ADD COLUMN cancelled integer DEFAULT 0 NOT NULL;
+
+  CREATE TABLE run_metrics (
+      run_id integer NOT NULL,
+      name text NOT NULL,
+      value double precision NOT NULL,
+      CONSTRAINT run_metrics_pkey PRIMARY KEY (run_id, name)
+  );
+  return new_db_version;
+END;
+$$ LANGUAGE plpgsql;
+
+-- Update from v0.5.8 to v0.5.9
+CREATE OR REPLACE FUNCTION update_schema_058() returns varchar AS $$
+DECLARE
+    old_db_version varchar := '0.5.8';
+    new_db_version varchar := '0.5.9';
+BEGIN
+  CREATE TABLE runset_metadata (
+      runset text NOT NULL,
+      name text NOT NULL,
+      value text NOT NULL,
+      CONSTRAINT runset_metadata_pkey PRIMARY KEY (runset, name)
+  );
+  return new_db_version;
+END;
+$$ LANGUAGE plpgsql;
+
+-- Update from v0.5.9 to v0.5.10
+CREATE OR REPLACE FUNCTION update_schema_059() returns varchar AS $$
+DECLARE
+    old_db_version varchar := '0.5.9';
+    new_db_version varchar := '0.5.10';
+BEGIN
+  CREATE TABLE content_peers (
+      location_id text NOT NULL,
+      hostname text NOT NULL,
+      cache_url text NOT NULL,
+      content_id text,
+      manifest_sha256 text,
+      etag text,
+      last_modified text,
+      advertised timestamp without time zone DEFAULT timezone('utc'::text, now()) NOT NULL,
+      CONSTRAINT content_peers_pkey PRIMARY KEY (location_id, hostname)
+  );
+  return new_db_version;
+END;
+$$ LANGUAGE plpgsql;
+
+-- Update from v0.5.10 to v0.5.11
+CREATE OR REPLACE FUNCTION update_schema_0510() returns varchar AS $$
+DECLARE
+    old_db_version varchar := '0.5.10';
+    new_db_version varchar := '0.5.11';
+BEGIN
+  ALTER TABLE runs ADD COLUMN passed_over_since timestamp without time zone;
+  CREATE TABLE node_caches (
+      hostname text NOT NULL,
+      cluster_name text NOT NULL,
+      code_keys text[] NOT NULL,
+      published timestamp without time zone DEFAULT timezone('utc'::text, now()) NOT NULL,
+      CONSTRAINT node_caches_pkey PRIMARY KEY (hostname)
+  );
+  return new_db_version;
+END;
+$$ LANGUAGE plpgsql;
 
 begin;
 select update_schema();
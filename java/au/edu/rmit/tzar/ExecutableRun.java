@@ -3,15 +3,24 @@ package au.edu.rmit.tzar;
 import au.com.bytecode.opencsv.CSVWriter;
 import au.edu.rmit.tzar.api.*;
 import au.edu.rmit.tzar.parser.YamlParser;
+import au.edu.rmit.tzar.repository.ContentCache;
+import au.edu.rmit.tzar.repository.ParallelRetriever;
+import au.edu.rmit.tzar.repository.PathLease;
 import au.edu.rmit.tzar.runners.RunnerFactory;
+import com.google.common.base.Optional;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 
 import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.text.DateFormat;
 import java.util.Date;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.FileHandler;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -31,6 +40,11 @@ public class ExecutableRun {
 
   public static final DateFormat DATE_FORMAT = DateFormat.getDateTimeInstance(DateFormat.MEDIUM, DateFormat.MEDIUM);
 
+  private static final Metrics.Timer LIBRARY_RETRIEVAL = Metrics.timer("library_retrieval");
+
+  // shared between runs, so that each parameter value is only parsed for wildcards once.
+  private static final WildcardReplacer WILDCARD_REPLACER = new WildcardReplacer();
+
   private static volatile int nextRunId = 1;
   // the output path, not including the status suffix (ie failed, inprogress etc).
   private final File runOutputPath;
@@ -38,6 +52,7 @@ public class ExecutableRun {
 
   // the output path. ie the relative path on the local machine where results will be written.
   private volatile File outputPath;
+  private volatile ImmutableMap<CodeSource, File> retrievedCode = ImmutableMap.of();
   private final Run run;
   private final RunnerFactory runnerFactory;
   private final YamlParser yamlParser = new YamlParser();
@@ -115,7 +130,10 @@ public class ExecutableRun {
     try {
       CodeSource codeSource = run.getCodeSource();
       File model = codeSource.getCode(baseModelPath, run.getProjectName());
+      // the model and libraries are leased until the run finishes, so that they aren't evicted from the cache.
+      List<PathLease> leases = Lists.newArrayList();
       try {
+        leaseCode(model, leases);
         if (outputPath.exists()) {
           LOG.warning("Local output path: " + outputPath + " already exists. Deleting.");
           deleteRecursively(outputPath);
@@ -136,9 +154,18 @@ public class ExecutableRun {
 
         // Load the libraries
         ImmutableMap<String, File> libraries = loadLibraries();
+        for (File library : libraries.values()) {
+          leaseCode(library, leases);
+        }
+        Map<CodeSource, File> code = Maps.newLinkedHashMap();
+        code.put(codeSource, model);
+        for (Map.Entry<String, ? extends CodeSource> library : run.getLibraries().entrySet()) {
+          code.put(library.getValue(), libraries.get(library.getKey()));
+        }
+        retrievedCode = ImmutableMap.copyOf(code);
         WildcardReplacer.Context context = new WildcardReplacer.Context(getRunId(), model, libraries, outputPath,
             metadataPath, getRun().getRunset());
-        Parameters parameters = new WildcardReplacer().replaceWildcards(run.getParameters(), context);
+        Parameters parameters = WILDCARD_REPLACER.replaceWildcards(run.getParameters(), context);
 
         FileHandler handler = setupLogFileHandler(metadataPath);
         RUNNER_LOGGER.addHandler(handler);
@@ -154,6 +181,10 @@ public class ExecutableRun {
         return runModel(stopRun, model, parameters, handler);
       } catch (IOException e) {
         throw new TzarException(e);
+      } finally {
+        for (PathLease lease : leases) {
+          lease.release();
+        }
       }
     } catch (TzarException e) {
       LOG.log(Level.SEVERE, "An exception occurred executing the run.", e);
@@ -185,6 +216,16 @@ public class ExecutableRun {
     return success;
   }
 
+  /**
+   * Leases model or library code, if it is in the content cache.
+   */
+  private void leaseCode(File code, List<PathLease> leases) throws TzarException {
+    Optional<PathLease> lease = ContentCache.inModelPath(baseModelPath).lease(code);
+    if (lease.isPresent()) {
+      leases.add(lease.get());
+    }
+  }
+
   /**
    * Writes information about the libraries used in this run into the output directory.
    * @param metadataPath file to the directory in which to write the metadata
@@ -219,12 +260,27 @@ public class ExecutableRun {
    * @throws TzarException
    */
   protected ImmutableMap<String, File> loadLibraries() throws TzarException {
-    ImmutableMap.Builder<String, File> builder = ImmutableMap.builder();
+    // the libraries are retrieved concurrently, as each may involve a download or checkout.
+    Map<String, Callable<File>> retrievals = Maps.newLinkedHashMap();
     for (Map.Entry<String, ? extends CodeSource> entry : run.getLibraries().entrySet()) {
-      String libraryName = entry.getKey();
-      builder.put(libraryName, entry.getValue().getCode(baseModelPath, libraryName));
+      final String libraryName = entry.getKey();
+      final CodeSource library = entry.getValue();
+      retrievals.put(libraryName, new Callable<File>() {
+        @Override
+        public File call() throws TzarException {
+          long start = LIBRARY_RETRIEVAL.start();
+          try {
+            File path = library.getCode(baseModelPath, libraryName);
+            LOG.log(Level.INFO, "Retrieved library: {0} in {1} ms.", new Object[]{libraryName,
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)});
+            return path;
+          } finally {
+            LIBRARY_RETRIEVAL.stop(start);
+          }
+        }
+      });
     }
-    return builder.build();
+    return ImmutableMap.copyOf(ParallelRetriever.retrieveAll(retrievals));
   }
 
   /**
@@ -281,6 +337,13 @@ public class ExecutableRun {
     return outputPath;
   }
 
+  /**
+   * Returns the local copy of the model and of each library used by the run, once they have been retrieved.
+   */
+  public ImmutableMap<CodeSource, File> getRetrievedCode() {
+    return retrievedCode;
+  }
+
   public Run getRun() {
     return run;
   }
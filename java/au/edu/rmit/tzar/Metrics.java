@@ -0,0 +1,122 @@
+package au.edu.rmit.tzar;
+
+import com.google.common.collect.Maps;
+
+import java.io.PrintWriter;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Process-wide registry of simple metrics (timers and gauges). The current values are served by the
+ * embedded web server at /metrics. Timers don't take any locks, so can be updated from any thread.
+ */
+public class Metrics {
+  private static final Logger LOG = Logger.getLogger(Metrics.class.getName());
+
+  private static final ConcurrentMap<String, Timer> TIMERS = new ConcurrentHashMap<String, Timer>();
+  private static final ConcurrentMap<String, Gauge> GAUGES = new ConcurrentHashMap<String, Gauge>();
+
+  private Metrics() {
+  }
+
+  /**
+   * Returns the timer with the given name, creating it if it doesn't already exist.
+   */
+  public static Timer timer(String name) {
+    Timer timer = TIMERS.get(name);
+    if (timer == null) {
+      TIMERS.putIfAbsent(name, new Timer());
+      timer = TIMERS.get(name);
+    }
+    return timer;
+  }
+
+  /**
+   * Registers a gauge, replacing any existing gauge with the same name.
+   */
+  public static void registerGauge(String name, Gauge gauge) {
+    GAUGES.put(name, gauge);
+  }
+
+  /**
+   * Writes the current value of each metric to the writer, one value per line, sorted by name. Each timer
+   * is written as: name_count, name_seconds_total and name_seconds_max.
+   */
+  public static void print(PrintWriter writer) {
+    SortedMap<String, String> values = Maps.newTreeMap();
+    for (Map.Entry<String, Timer> entry : TIMERS.entrySet()) {
+      Timer timer = entry.getValue();
+      values.put(entry.getKey() + "_count", Long.toString(timer.getCount()));
+      values.put(entry.getKey() + "_seconds_total", Double.toString(timer.getTotalNanos() / 1e9));
+      values.put(entry.getKey() + "_seconds_max", Double.toString(timer.getMaxNanos() / 1e9));
+    }
+    for (Map.Entry<String, Gauge> entry : GAUGES.entrySet()) {
+      try {
+        values.put(entry.getKey(), Long.toString(entry.getValue().getValue()));
+      } catch (RuntimeException e) {
+        LOG.log(Level.FINE, "Couldn't read gauge: " + entry.getKey(), e);
+      }
+    }
+    for (Map.Entry<String, String> entry : values.entrySet()) {
+      writer.println(entry.getKey() + " " + entry.getValue());
+    }
+  }
+
+  /**
+   * A metric whose value is read when the metrics are printed.
+   */
+  public interface Gauge {
+    long getValue();
+  }
+
+  /**
+   * Records the number and duration of events. Usage:
+   * <pre>
+   *   long start = timer.start();
+   *   try {
+   *     ...
+   *   } finally {
+   *     timer.stop(start);
+   *   }
+   * </pre>
+   */
+  public static class Timer {
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong totalNanos = new AtomicLong();
+    private final AtomicLong maxNanos = new AtomicLong();
+
+    public long start() {
+      return System.nanoTime();
+    }
+
+    public void stop(long startNanos) {
+      record(System.nanoTime() - startNanos);
+    }
+
+    public void record(long nanos) {
+      count.incrementAndGet();
+      totalNanos.addAndGet(nanos);
+      long max;
+      while (nanos > (max = maxNanos.get()) && !maxNanos.compareAndSet(max, nanos)) {
+        // another thread updated the max. try again.
+      }
+    }
+
+    public long getCount() {
+      return count.get();
+    }
+
+    public long getTotalNanos() {
+      return totalNanos.get();
+    }
+
+    public long getMaxNanos() {
+      return maxNanos.get();
+    }
+  }
+}
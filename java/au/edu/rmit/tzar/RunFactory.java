@@ -2,9 +2,14 @@ package au.edu.rmit.tzar;
 
 import au.edu.rmit.tzar.api.*;
 import au.edu.rmit.tzar.repository.CodeSourceImpl;
+import com.google.common.base.Function;
+import com.google.common.base.Optional;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
+import com.google.common.primitives.Ints;
 
+import java.util.Collections;
 import java.util.List;
 import java.util.logging.Logger;
 
@@ -28,7 +33,7 @@ public class RunFactory {
 
   /**
    * Creates a list of runs.
- *
+   *
    * @param numRuns number of copies of each unique run to generate. The total number of runs generated will
    *                be this number multiplied by the number of scenarios, multiplied by the number of
    *                repetitions
@@ -36,34 +41,113 @@ public class RunFactory {
    * @throws TzarException
    */
   public List<Run> createRuns(int numRuns) throws TzarException {
-    List<Run> runs = Lists.newArrayList();
-    for (int i = 0; i < numRuns; ++i) {
-      runs.addAll(createRuns());
-    }
+    List<Run> runs = Lists.newArrayList(generateRuns(numRuns));
     LOG.info("Created " + runs.size() + " runs.");
     return runs;
   }
 
   /**
-   * Create a List of Runs, one for each repetition in the Repetitions object, for each scenario in the projectSpec.
+   * Returns the same runs as {@link #createRuns}, in the same order, but each run is only created when the
+   * iterator reaches it. Use this instead of createRuns for large parameter sweeps, so that the runs don't
+   * all need to be held in memory at once.
+   *
+   * @param numRuns number of copies of each unique run to generate
+   * @return an Iterable over the runs
+   */
+  public Iterable<Run> generateRuns(int numRuns) {
+    return generateRuns(numRuns, Parameters.EMPTY_PARAMETERS);
+  }
+
+  /**
+   * Returns the runs generated by {@link #generateRuns(int)}, with the given parameters applied to each run,
+   * overriding the project, scenario and repetition parameters. Used for the parameter sets proposed by a
+   * {@link ParameterSearch}.
+   *
+   * @param numRuns number of copies of each unique run to generate
+   * @param overrides parameters to apply to every run
+   * @return an Iterable over the runs
+   */
+  public Iterable<Run> generateRuns(int numRuns, Parameters overrides) {
+    Iterable<Run> runs = generateRuns(projectSpec.getRepetitions().getParams(), mergeScenarios(), overrides);
+    return Iterables.concat(Collections.nCopies(numRuns, runs));
+  }
+
+  /**
+   * Returns the runs at positions from (inclusive) to to (exclusive) of {@link #generateRuns(int)}. The runs
+   * before the range are not created, so that the runs can be divided into ranges which are generated
+   * concurrently.
+   *
+   * @param numRuns number of copies of each unique run to generate
+   * @param from position of the first run to return
+   * @param to position after the last run to return. May be larger than the number of runs.
+   * @return an Iterable over the runs
+   */
+  public Iterable<Run> generateRuns(int numRuns, long from, long to) {
+    List<Scenario> scenarios = mergeScenarios();
+    long runsPerCopy = projectSpec.getRepetitions().getParamsCount() * scenarios.size();
+    if (runsPerCopy == 0) {
+      return ImmutableList.of();
+    }
+    // each copy is the same sequence of runs, so the range is divided into the part of it in each copy, which
+    // is then rounded out to whole repetitions.
+    List<Iterable<Run>> ranges = Lists.newArrayList();
+    to = Math.min(to, numRuns * runsPerCopy);
+    for (long copyStart = from - from % runsPerCopy; copyStart < to; copyStart += runsPerCopy) {
+      long start = Math.max(from, copyStart) - copyStart;
+      long end = Math.min(to, copyStart + runsPerCopy) - copyStart;
+      long firstRepetition = start / scenarios.size();
+      long endRepetition = (end + scenarios.size() - 1) / scenarios.size();
+      Iterable<Run> runs = generateRuns(projectSpec.getRepetitions().getParams(firstRepetition, endRepetition),
+          scenarios, Parameters.EMPTY_PARAMETERS);
+      ranges.add(Iterables.limit(Iterables.skip(runs, (int) (start - firstRepetition * scenarios.size())),
+          Ints.checkedCast(end - start)));
+    }
+    return Iterables.concat(ranges);
+  }
+
+  /**
+   * Returns the number of runs returned by {@link #generateRuns(int)}, without creating them.
+   *
+   * @param numRuns number of copies of each unique run to generate
+   */
+  public long countRuns(int numRuns) {
+    return numRuns * projectSpec.getRepetitions().getParamsCount() * mergeScenarios().size();
+  }
+
+  /**
+   * Returns the project's scenarios, with the base parameters merged into each one, so that they are merged
+   * once, rather than once for every repetition.
    */
-  private List<Run> createRuns() throws TzarException {
-    ImmutableList.Builder<Run> runs = ImmutableList.builder();
-
-    for (Parameters repetitionParams : projectSpec.getRepetitions().getParamsList()) {
-      List<Scenario> scenarios = projectSpec.getScenarios();
-      if (scenarios.isEmpty()) {
-        Parameters params = projectSpec.getBaseParams().mergeParameters(repetitionParams);
-        runs.add(createRun(params, Scenario.DEFAULT_NAME));
-      } else {
-        for (Scenario scenario : scenarios) {
-          Parameters params = projectSpec.getBaseParams().mergeParameters(scenario.getParameters());
-          params = params.mergeParameters(repetitionParams);
-          runs.add(createRun(params, scenario.getName()));
-        }
+  private List<Scenario> mergeScenarios() {
+    List<Scenario> scenarios = Lists.newArrayList();
+    Parameters baseParams = projectSpec.getBaseParams();
+    if (projectSpec.getScenarios().isEmpty()) {
+      scenarios.add(new Scenario(Scenario.DEFAULT_NAME, baseParams));
+    } else {
+      for (Scenario scenario : projectSpec.getScenarios()) {
+        scenarios.add(new Scenario(scenario.getName(), baseParams.mergeParameters(scenario.getParameters())));
       }
     }
-    return runs.build();
+    return scenarios;
+  }
+
+  /**
+   * Returns a run for each of the given repetitions, for each scenario.
+   */
+  private Iterable<Run> generateRuns(Iterable<Parameters> repetitions, final List<Scenario> scenarios,
+      final Parameters overrides) {
+    return Iterables.concat(Iterables.transform(repetitions, new Function<Parameters, Iterable<Run>>() {
+      @Override
+      public Iterable<Run> apply(Parameters repetitionParams) {
+        final Parameters runParams = repetitionParams.mergeParameters(overrides);
+        return Lists.transform(scenarios, new Function<Scenario, Run>() {
+          @Override
+          public Run apply(Scenario scenario) {
+            return createRun(scenario.getParameters().mergeParameters(runParams), scenario.getName());
+          }
+        });
+      }
+    }));
   }
 
   private Run createRun(Parameters runParams, String scenarioName) {
@@ -75,6 +159,20 @@ public class RunFactory {
         .setClusterName(clusterName);
   }
 
+  /**
+   * Returns the parameter search defined by the project's repetitions, if any.
+   */
+  public Optional<ParameterSearch> getSearch() {
+    return projectSpec.getRepetitions().getSearch();
+  }
+
+  /**
+   * Returns the file of repetitions used by the project, if any.
+   */
+  public Optional<RepetitionsFile> getRepetitionsFile() {
+    return projectSpec.getRepetitions().getRepetitionsFile();
+  }
+
   public String getProjectName() {
     return projectSpec.getProjectName();
   }
@@ -2,21 +2,30 @@ package au.edu.rmit.tzar;
 
 import au.edu.rmit.tzar.api.Parameters;
 import au.edu.rmit.tzar.api.TzarException;
-import com.beust.jcommander.internal.Lists;
 import com.google.common.base.Optional;
+import com.google.common.base.Throwables;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 
 import java.io.File;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutionException;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 /**
- * Class for replacing parameter wildcards with runtime values.
+ * Class for replacing parameter wildcards with runtime values. Parameter values are parsed into templates
+ * once, and the templates are cached, so instances should be shared between runs. This class is thread safe.
  */
 public class WildcardReplacer {
+  private static final int MAX_CACHED_TEMPLATES = 10000;
+
   private static WildcardFunction RUN_ID = new SimpleWildcardFunction() {
     public Object apply(Context context) {
       return context.runId;
@@ -90,6 +99,19 @@ public class WildcardReplacer {
    */
   private static final Pattern PATH_PATTERN = Pattern.compile("<<(.*)>>");
 
+  /**
+   * Compiled templates for string values which contain wildcards or paths, keyed by the string. Runs from the
+   * same project share most of their parameter values, so each distinct value is only parsed once.
+   */
+  private final LoadingCache<String, Template> templates = CacheBuilder.newBuilder()
+      .maximumSize(MAX_CACHED_TEMPLATES)
+      .build(new CacheLoader<String, Template>() {
+        @Override
+        public Template load(String value) throws WildcardParseException {
+          return compileString(value);
+        }
+      });
+
   /**
    * Creates a new Parameters object based on the provided Parameters, with all wildcards in parameter values
    * substituted. Wildcards are opened by $$ and closed by $$. Example wildcards are: $$run_id$$, or
@@ -106,106 +128,271 @@ public class WildcardReplacer {
    * @throws TzarException
    */
   public Parameters replaceWildcards(Parameters params, Context context) throws TzarException {
-    Map<String, Object> map = Maps.newHashMap();
+    return compile(params).apply(context);
+  }
 
+  /**
+   * Parses the wildcards in the given parameters, so that they can be substituted for many runs without
+   * being parsed again. Parameters whose values contain no wildcards are left as they are.
+   *
+   * @param params the parameters (potentially) containing wildcards
+   * @return the compiled parameters
+   * @throws TzarException if a wildcard is not recognised
+   */
+  public CompiledParameters compile(Parameters params) throws TzarException {
+    ImmutableMap.Builder<String, Template> builder = ImmutableMap.builder();
     for (Map.Entry<String, Object> entry : params.asMap().entrySet()) {
       String parameterName = entry.getKey();
       try {
-        Object replacement = getReplacement(entry.getValue(), context);
-        map.put(parameterName, replacement);
+        Template template = compileValue(entry.getValue());
+        if (template != LITERAL) {
+          builder.put(parameterName, template);
+        }
       } catch (WildcardParseException e) {
-        throw new TzarException(String.format("Couldn't parse wildcard in parameter: %s. Error was: %s", parameterName,
-            e.getMessage()), e);
+        throw parseException(parameterName, e);
       }
     }
-    return Parameters.createParameters(map);
+    return new CompiledParameters(params, builder.build());
   }
 
-  private static Object getReplacement(Object value, Context context) throws WildcardParseException {
+  private Template compileValue(Object value) throws WildcardParseException {
     if (value instanceof String) {
-      return replaceInString(context, value.toString());
+      String string = (String) value;
+      if (!string.contains("$$") && !string.contains("<<")) {
+        return LITERAL; // fast path for the common case.
+      }
+      try {
+        return templates.get(string);
+      } catch (ExecutionException e) {
+        Throwables.propagateIfInstanceOf(e.getCause(), WildcardParseException.class);
+        throw Throwables.propagate(e.getCause());
+      }
     } else if (value instanceof List) {
-      List<Object> finalList = Lists.newArrayList();
-      for (Object eachVal : (List)value) {
-        Object eachReplacement = getReplacement(eachVal, context);
-        finalList.add(eachReplacement);
+      List<?> list = (List<?>) value;
+      List<Template> elements = Lists.newArrayList();
+      boolean literal = true;
+      for (Object element : list) {
+        Template template = compileValue(element);
+        elements.add(template);
+        literal &= (template == LITERAL);
       }
-      return finalList;
+      return literal ? LITERAL : new ListTemplate(list, elements);
     } else {
-      return value; // Not a string or a list, so no replacement
+      return LITERAL; // Not a string or a list, so no replacement
     }
   }
 
   /**
-   * Given a string and execution context, replace any wild card values in the string with appropriate
-   * values, using the provided context if required.
-   *
-   * Also replaces sub-strings matching <<.*>> with their contents treated as a path.
-   * @param context values (such as the run_id) required by some of the wildcard functions
-   * @param value the string in which to replace wildcards
-   * @return
-   * @throws WildcardParseException
+   * Parses the wildcards in a string. Any sub-strings matching <<.*>> are treated as a path, after the
+   * wildcards have been substituted.
    */
-  private static Object replaceInString(Context context, String value) throws WildcardParseException {
-    Object ret = applyWildcardOrPathFunction(context, value, PATTERN.matcher(value), false);
-    if (ret instanceof String) {
-      value = (String)ret;
-      return applyWildcardOrPathFunction(context, value, PATH_PATTERN.matcher(value), true);
-    } else {
-      return ret;
-    }
-  }
-
-  private static Object applyWildcardOrPathFunction(Context context, String value, Matcher matcher,
-      boolean pathFunction) throws WildcardParseException {
+  private static Template compileString(String value) throws WildcardParseException {
+    Matcher matcher = PATTERN.matcher(value);
     if (matcher.matches()) { // Entire value matches. We handle this as a special case, so that we can avoid
       // converting numbers etc to Strings.
-      return applyWildcardOrPathFunction(context, matcher, pathFunction);
-    } else {
-      matcher.reset(); // need to reset the matcher, as we've already called matcher.matches().
-      StringBuilder sb = new StringBuilder();
-      int position = 0;
-
-      while (matcher.find()) {
-        Object replacement = applyWildcardOrPathFunction(context, matcher, pathFunction);
-
-        sb.append(value.substring(position, matcher.start()));
-        sb.append(replacement);
-        position = matcher.end();
-      }
-      sb.append(value.substring(position));
-      return sb.toString();
+      return new WholeValueTemplate(getWildcardFunction(matcher.group(1)),
+          Optional.fromNullable(matcher.group(2)));
+    }
+    matcher.reset(); // need to reset the matcher, as we've already called matcher.matches().
+    List<String> literals = Lists.newArrayList();
+    List<WildcardFunction> functions = Lists.newArrayList();
+    List<Optional<String>> wildcardValues = Lists.newArrayList();
+    int position = 0;
+    while (matcher.find()) {
+      literals.add(value.substring(position, matcher.start()));
+      functions.add(getWildcardFunction(matcher.group(1)));
+      wildcardValues.add(Optional.fromNullable(matcher.group(2)));
+      position = matcher.end();
+    }
+    literals.add(value.substring(position));
+    if (functions.isEmpty()) {
+      // no wildcards, so the result doesn't depend on the run.
+      String path = replacePaths(value);
+      return path.equals(value) ? LITERAL : new ConstantTemplate(path);
     }
+    return new InterpolatedTemplate(literals, functions, wildcardValues);
   }
 
-  private static Object applyWildcardOrPathFunction(Context context, Matcher matcher, boolean pathFunction)
-      throws WildcardParseException {
-    if (pathFunction) {
+  /**
+   * Replaces sub-strings matching <<.*>> with their contents treated as a path.
+   */
+  private static String replacePaths(String value) {
+    if (!value.contains("<<")) {
+      return value;
+    }
+    Matcher matcher = PATH_PATTERN.matcher(value);
+    if (matcher.matches()) {
       return new File(matcher.group(1)).getPath();
-    } else {
-      return applyWildcardFunction(matcher.group(1), matcher.group(2), context);
     }
+    matcher.reset(); // need to reset the matcher, as we've already called matcher.matches().
+    StringBuilder sb = new StringBuilder();
+    int position = 0;
+    while (matcher.find()) {
+      sb.append(value.substring(position, matcher.start()));
+      sb.append(new File(matcher.group(1)).getPath());
+      position = matcher.end();
+    }
+    sb.append(value.substring(position));
+    return sb.toString();
+  }
+
+  private static TzarException parseException(String parameterName, WildcardParseException e) {
+    return new TzarException(String.format("Couldn't parse wildcard in parameter: %s. Error was: %s", parameterName,
+        e.getMessage()), e);
   }
 
   /**
-   * Looks up the appropriate wildcard function for the given wildcard name, and applies the function
-   * to the wildcard value (which may be null, depending on the wildcard).
+   * Looks up the appropriate wildcard function for the given wildcard name.
    *
    * @param wildcardName the name of the wildcard
-   * @param wildcardValue the wildcard value
-   * @param context execution context
-   *
-   * @return the result of applying the wildcard function
-   * @throws WildcardParseException if the wildcard is not recognised, or is in the wrong form (eg has a parameter
-   * when it should not).
+   * @return the wildcard function
+   * @throws WildcardParseException if the wildcard is not recognised
    */
-  private static Object applyWildcardFunction(String wildcardName, String wildcardValue, Context context)
-      throws WildcardParseException {
+  private static WildcardFunction getWildcardFunction(String wildcardName) throws WildcardParseException {
     if (!WILDCARDS.containsKey(wildcardName)) {
       throw new WildcardParseException(String.format("Wildcard '%s' not recognised.", wildcardName));
     }
-    WildcardFunction wildcardFunction = WILDCARDS.get(wildcardName);
-    return wildcardFunction.apply(Optional.fromNullable(wildcardValue), context);
+    return WILDCARDS.get(wildcardName);
+  }
+
+  /**
+   * Parameters whose wildcards have been parsed, ready to be substituted for each run.
+   */
+  public static class CompiledParameters {
+    private final Parameters params;
+    // only the parameters which contain wildcards or paths.
+    private final ImmutableMap<String, Template> templates;
+
+    private CompiledParameters(Parameters params, ImmutableMap<String, Template> templates) {
+      this.params = params;
+      this.templates = templates;
+    }
+
+    /**
+     * Substitutes the wildcards using the given context. Parameters without wildcards are shared with
+     * the original parameters, rather than copied.
+     *
+     * @return a new Parameters object with the wildcards replaced
+     * @throws TzarException if a wildcard couldn't be applied
+     */
+    public Parameters apply(Context context) throws TzarException {
+      if (templates.isEmpty()) {
+        return params;
+      }
+      Map<String, Object> replacements = Maps.newHashMap();
+      for (Map.Entry<String, Template> entry : templates.entrySet()) {
+        try {
+          replacements.put(entry.getKey(), entry.getValue().apply(context));
+        } catch (WildcardParseException e) {
+          throw parseException(entry.getKey(), e);
+        }
+      }
+      return params.mergeParameters(Parameters.createParameters(replacements));
+    }
+  }
+
+  /**
+   * A parsed parameter value.
+   */
+  private interface Template {
+    Object apply(Context context) throws WildcardParseException;
+  }
+
+  /**
+   * Marker for values which don't contain any wildcards or paths.
+   */
+  private static final Template LITERAL = new Template() {
+    @Override
+    public Object apply(Context context) {
+      throw new UnsupportedOperationException("Literal values should not be applied.");
+    }
+  };
+
+  /**
+   * A string containing only paths, which are replaced when the template is compiled.
+   */
+  private static class ConstantTemplate implements Template {
+    private final String value;
+
+    ConstantTemplate(String value) {
+      this.value = value;
+    }
+
+    @Override
+    public Object apply(Context context) {
+      return value;
+    }
+  }
+
+  /**
+   * A value consisting of a single wildcard. The result is not converted to a string, so that eg
+   * $$run_id$$ remains a number.
+   */
+  private static class WholeValueTemplate implements Template {
+    private final WildcardFunction function;
+    private final Optional<String> wildcardValue;
+
+    WholeValueTemplate(WildcardFunction function, Optional<String> wildcardValue) {
+      this.function = function;
+      this.wildcardValue = wildcardValue;
+    }
+
+    @Override
+    public Object apply(Context context) throws WildcardParseException {
+      Object result = function.apply(wildcardValue, context);
+      return result instanceof String ? replacePaths((String) result) : result;
+    }
+  }
+
+  /**
+   * A string with one or more wildcards embedded in it. Literal parts are stored in between the wildcards,
+   * so there is always one more literal than there are wildcards.
+   */
+  private static class InterpolatedTemplate implements Template {
+    private final ImmutableList<String> literals;
+    private final ImmutableList<WildcardFunction> functions;
+    private final ImmutableList<Optional<String>> wildcardValues;
+
+    InterpolatedTemplate(List<String> literals, List<WildcardFunction> functions,
+        List<Optional<String>> wildcardValues) {
+      this.literals = ImmutableList.copyOf(literals);
+      this.functions = ImmutableList.copyOf(functions);
+      this.wildcardValues = ImmutableList.copyOf(wildcardValues);
+    }
+
+    @Override
+    public Object apply(Context context) throws WildcardParseException {
+      StringBuilder sb = new StringBuilder();
+      for (int i = 0; i < functions.size(); i++) {
+        sb.append(literals.get(i));
+        sb.append(functions.get(i).apply(wildcardValues.get(i), context));
+      }
+      sb.append(literals.get(functions.size()));
+      return replacePaths(sb.toString());
+    }
+  }
+
+  /**
+   * A list with wildcards in at least one of its elements.
+   */
+  private static class ListTemplate implements Template {
+    private final List<?> values;
+    private final List<Template> elements; // LITERAL for elements which are copied as they are.
+
+    ListTemplate(List<?> values, List<Template> elements) {
+      this.values = values;
+      this.elements = elements;
+    }
+
+    @Override
+    public Object apply(Context context) throws WildcardParseException {
+      List<Object> finalList = Lists.newArrayList();
+      for (int i = 0; i < elements.size(); i++) {
+        Template template = elements.get(i);
+        finalList.add(template == LITERAL ? values.get(i) : template.apply(context));
+      }
+      return finalList;
+    }
   }
 
   /**
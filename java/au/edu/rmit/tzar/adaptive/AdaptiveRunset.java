@@ -0,0 +1,30 @@
+package au.edu.rmit.tzar.adaptive;
+
+import au.edu.rmit.tzar.api.Run;
+import au.edu.rmit.tzar.api.TzarException;
+
+/**
+ * A runset whose runs are not all executed as soon as they are scheduled. Instead, the implementation decides
+ * which runs to execute, or to schedule, based on the metrics reported by the runs which have already finished.
+ * Used by {@link au.edu.rmit.tzar.commands.ScheduleRuns}, which calls prepareRun and then addRun for each
+ * run it inserts, and then calls run.
+ */
+public interface AdaptiveRunset {
+  /**
+   * Called for each run before it is inserted into the database. Implementations may modify the run, eg to
+   * change its state or parameters.
+   */
+  void prepareRun(Run run);
+
+  /**
+   * Called for each run after it has been inserted into the database, and so has a run id.
+   */
+  void addRun(Run run);
+
+  /**
+   * Called once all of the runs have been inserted. Returns once the runset is complete.
+   *
+   * @throws TzarException if the database can't be accessed, or the thread is interrupted
+   */
+  void run() throws TzarException;
+}
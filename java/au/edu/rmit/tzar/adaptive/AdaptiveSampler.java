@@ -0,0 +1,185 @@
+package au.edu.rmit.tzar.adaptive;
+
+import au.edu.rmit.tzar.api.Parameters;
+import au.edu.rmit.tzar.api.Run;
+import au.edu.rmit.tzar.api.TzarException;
+import au.edu.rmit.tzar.db.RunDao;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Executes the replicates of each scenario in waves, until an output of the runs converges. The runs of an
+ * adaptive runset are inserted into the database in the held state, and grouped by scenario and parameters.
+ * Runs in the same group are replicates of each other (eg the copies created with the --numruns flag, or runs
+ * which differ only in a random seed parameter). The sampler releases a wave of runs from each group, and once
+ * they have all finished, reads the value of the metric reported by each finished run. If the mean of the
+ * metric has converged, the group's remaining held runs are cancelled. Otherwise, the next wave is released.
+ *
+ * Groups are independent of each other, so a group's next wave is released as soon as its previous wave has
+ * finished, regardless of the progress of other groups.
+ */
+public class AdaptiveSampler implements AdaptiveRunset {
+  private static final Logger LOG = Logger.getLogger(AdaptiveSampler.class.getName());
+
+  private final RunDao runDao;
+  private final String metric;
+  private final ConvergenceCriterion criterion;
+  private final int waveSize;
+  private final RunPoller poller;
+  private final ImmutableSet<String> replicateKeys;
+
+  // groups in the order in which their first run was added.
+  private final Map<GroupKey, Group> groups = Maps.newLinkedHashMap();
+
+  /**
+   * Constructor.
+   *
+   * @param runDao for releasing and cancelling runs, and reading their metrics
+   * @param metric name of the metric reported by the runs which should converge
+   * @param criterion decides whether the metric has converged
+   * @param waveSize number of runs to release from each group at a time
+   * @param pollIntervalMs time to wait between checks of the progress of the released runs
+   * @param replicateKeys names of parameters whose values differ between replicates, and so are ignored when
+   *                      grouping runs
+   */
+  public AdaptiveSampler(RunDao runDao, String metric, ConvergenceCriterion criterion, int waveSize,
+      int pollIntervalMs, Collection<String> replicateKeys) {
+    this.runDao = runDao;
+    this.metric = metric;
+    this.criterion = criterion;
+    this.waveSize = waveSize;
+    this.poller = new RunPoller(runDao, pollIntervalMs);
+    this.replicateKeys = ImmutableSet.copyOf(replicateKeys);
+  }
+
+  /**
+   * Sets the run's state to held, so that it isn't executed until it is released.
+   */
+  @Override
+  public void prepareRun(Run run) {
+    run.setState(Run.State.HELD);
+  }
+
+  /**
+   * Adds a run, which must have been inserted into the database in the held state.
+   */
+  @Override
+  public void addRun(Run run) {
+    Map<String, Object> params = Maps.newHashMap(run.getParameters().asMap());
+    params.keySet().removeAll(replicateKeys);
+    GroupKey key = new GroupKey(run.getScenarioName(), Parameters.createParameters(params));
+    Group group = groups.get(key);
+    if (group == null) {
+      group = new Group(run.getScenarioName() + " #" + (groups.size() + 1));
+      groups.put(key, group);
+    }
+    group.held.add(run.getRunId());
+  }
+
+  /**
+   * Releases the runs in waves, until each group has either converged, or run all of its runs. This returns
+   * once all released runs have finished.
+   *
+   * @throws TzarException if the database can't be accessed, or the thread is interrupted
+   */
+  @Override
+  public void run() throws TzarException {
+    LOG.info("Releasing runs for " + groups.size() + " scenarios in waves of " + waveSize + ", until the " +
+        "metric '" + metric + "' converges (" + criterion + "). Held runs are only released while this " +
+        "command is running.");
+    List<Group> active = Lists.newArrayList(groups.values());
+    for (Group group : active) {
+      releaseNextWave(group);
+    }
+    int cancelled = 0;
+    while (!active.isEmpty()) {
+      Set<Integer> outstanding = Sets.newHashSet();
+      for (Group group : active) {
+        outstanding.addAll(group.outstanding);
+      }
+      Set<Integer> finished = poller.poll(outstanding);
+      for (Iterator<Group> iterator = active.iterator(); iterator.hasNext(); ) {
+        Group group = iterator.next();
+        for (Iterator<Integer> ids = group.outstanding.iterator(); ids.hasNext(); ) {
+          Integer runId = ids.next();
+          if (finished.contains(runId)) {
+            ids.remove();
+            group.finished.add(runId);
+          }
+        }
+        if (group.outstanding.isEmpty()) {
+          Collection<Double> values = runDao.getMetrics(group.finished, metric).values();
+          if (criterion.isConverged(values)) {
+            int count = runDao.cancelRuns(group.held);
+            cancelled += count;
+            LOG.info(String.format("%s converged after %d runs. Mean: %s, CI half-width: %s. Cancelled %d runs.",
+                group.name, values.size(), ConvergenceCriterion.mean(values),
+                ConvergenceCriterion.halfWidth(values), count));
+            iterator.remove();
+          } else if (group.held.isEmpty()) {
+            LOG.warning(group.name + " did not converge after running all " + group.finished.size() + " runs.");
+            iterator.remove();
+          } else {
+            releaseNextWave(group);
+          }
+        }
+      }
+    }
+    LOG.info("Adaptive runset complete. Cancelled " + cancelled + " runs which were not needed.");
+  }
+
+  private void releaseNextWave(Group group) throws TzarException {
+    List<Integer> wave = Lists.newArrayList();
+    while (wave.size() < waveSize && !group.held.isEmpty()) {
+      wave.add(group.held.removeFirst());
+    }
+    runDao.releaseRuns(wave);
+    group.outstanding.addAll(wave);
+    LOG.log(Level.FINE, "Released {0} runs for {1}.", new Object[]{wave.size(), group.name});
+  }
+
+  private static class Group {
+    private final String name;
+    private final LinkedList<Integer> held = Lists.newLinkedList();
+    private final Set<Integer> outstanding = Sets.newHashSet();
+    private final List<Integer> finished = Lists.newArrayList();
+
+    private Group(String name) {
+      this.name = name;
+    }
+  }
+
+  private static class GroupKey {
+    private final String scenarioName;
+    private final Parameters parameters;
+
+    private GroupKey(String scenarioName, Parameters parameters) {
+      this.scenarioName = scenarioName;
+      this.parameters = parameters;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) return true;
+      if (o == null || getClass() != o.getClass()) return false;
+      GroupKey that = (GroupKey) o;
+      return scenarioName.equals(that.scenarioName) && parameters.equals(that.parameters);
+    }
+
+    @Override
+    public int hashCode() {
+      return 31 * scenarioName.hashCode() + parameters.hashCode();
+    }
+  }
+}
@@ -0,0 +1,79 @@
+package au.edu.rmit.tzar.adaptive;
+
+import java.util.Collection;
+
+/**
+ * Decides whether the mean of a set of samples of a run output has converged, based on the half-width of its
+ * 95% confidence interval (using the Student t distribution).
+ */
+public class ConvergenceCriterion {
+  // 97.5th percentiles of the t distribution, for 1 to 30 degrees of freedom.
+  private static final double[] T_975 = {
+      12.706, 4.303, 3.182, 2.776, 2.571, 2.447, 2.365, 2.306, 2.262, 2.228,
+      2.201, 2.179, 2.160, 2.145, 2.131, 2.120, 2.110, 2.101, 2.093, 2.086,
+      2.080, 2.074, 2.069, 2.064, 2.060, 2.056, 2.052, 2.048, 2.045, 2.042
+  };
+  private static final double Z_975 = 1.959964;
+
+  private final double maxHalfWidth;
+  private final boolean relative;
+
+  /**
+   * Constructor.
+   *
+   * @param maxHalfWidth the samples have converged once the confidence interval half-width is no more than this
+   * @param relative if true, maxHalfWidth is relative to the absolute value of the mean (eg 0.05 for 5%),
+   *                 otherwise it is in the units of the samples
+   */
+  public ConvergenceCriterion(double maxHalfWidth, boolean relative) {
+    this.maxHalfWidth = maxHalfWidth;
+    this.relative = relative;
+  }
+
+  /**
+   * Returns true if the mean of the samples has converged. At least two samples are required.
+   */
+  public boolean isConverged(Collection<Double> samples) {
+    if (samples.size() < 2) {
+      return false;
+    }
+    double halfWidth = halfWidth(samples);
+    return halfWidth <= (relative ? maxHalfWidth * Math.abs(mean(samples)) : maxHalfWidth);
+  }
+
+  public static double mean(Collection<Double> samples) {
+    double sum = 0;
+    for (double sample : samples) {
+      sum += sample;
+    }
+    return sum / samples.size();
+  }
+
+  /**
+   * Returns the half-width of the 95% confidence interval for the mean of the samples.
+   */
+  public static double halfWidth(Collection<Double> samples) {
+    int n = samples.size();
+    double mean = mean(samples);
+    double sumOfSquares = 0;
+    for (double sample : samples) {
+      sumOfSquares += (sample - mean) * (sample - mean);
+    }
+    double stdDev = Math.sqrt(sumOfSquares / (n - 1));
+    return tQuantile(n - 1) * stdDev / Math.sqrt(n);
+  }
+
+  private static double tQuantile(int degreesOfFreedom) {
+    if (degreesOfFreedom <= T_975.length) {
+      return T_975[degreesOfFreedom - 1];
+    }
+    // Cornish-Fisher expansion, which is accurate to 3 decimal places for more than 30 degrees of freedom.
+    double z = Z_975;
+    return z + (z * z * z + z) / (4 * degreesOfFreedom);
+  }
+
+  @Override
+  public String toString() {
+    return "95% CI half-width <= " + (relative ? maxHalfWidth * 100 + "% of the mean" : maxHalfWidth);
+  }
+}
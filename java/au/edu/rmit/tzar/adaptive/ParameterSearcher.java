@@ -0,0 +1,147 @@
+package au.edu.rmit.tzar.adaptive;
+
+import au.edu.rmit.tzar.RunFactory;
+import au.edu.rmit.tzar.api.ParameterSearch;
+import au.edu.rmit.tzar.api.Parameters;
+import au.edu.rmit.tzar.api.Run;
+import au.edu.rmit.tzar.api.TzarException;
+import au.edu.rmit.tzar.db.RunDao;
+import au.edu.rmit.tzar.parser.SplitMix64;
+import com.google.common.base.Optional;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.logging.Logger;
+
+/**
+ * Runs a {@link ParameterSearch}. Keeps up to batch size parameter sets scheduled at a time, and each time the
+ * runs for a parameter set have all finished, reads the objective reported by those runs, and schedules the
+ * next parameter set proposed by a {@link TreeParzenEstimator}. The objective for a parameter set is the mean
+ * over all of its runs (ie over each scenario, repetition and copy of the run).
+ */
+public class ParameterSearcher {
+  private static final Logger LOG = Logger.getLogger(ParameterSearcher.class.getName());
+
+  private final RunDao runDao;
+  private final RunFactory runFactory;
+  private final int numRuns;
+  private final ParameterSearch search;
+  private final RunPoller poller;
+
+  /**
+   * Constructor.
+   *
+   * @param runDao for inserting runs, and reading their states and metrics
+   * @param runFactory to create the runs for each parameter set
+   * @param numRuns number of copies of each run to create for each parameter set
+   * @param search the search to run
+   * @param pollIntervalMs time to wait between checks of the progress of the scheduled runs
+   */
+  public ParameterSearcher(RunDao runDao, RunFactory runFactory, int numRuns, ParameterSearch search,
+      int pollIntervalMs) {
+    this.runDao = runDao;
+    this.runFactory = runFactory;
+    this.numRuns = numRuns;
+    this.search = search;
+    this.poller = new RunPoller(runDao, pollIntervalMs);
+  }
+
+  /**
+   * Runs the search until the maximum number of parameter sets have been evaluated.
+   *
+   * @return the parameter set with the best objective, or absent if none of the runs reported the objective
+   * @throws TzarException if the database can't be accessed, or the thread is interrupted
+   */
+  public Optional<Parameters> run() throws TzarException {
+    LOG.info("Searching for the parameters which " + search.getGoal().toString().toLowerCase() + " '" +
+        search.getObjective() + "', evaluating " + search.getMaxEvaluations() + " parameter sets, " +
+        search.getBatchSize() + " at a time. Runs are only scheduled while this command is running.");
+    TreeParzenEstimator estimator = new TreeParzenEstimator(new SplitMix64(search.getSeed()));
+    int dimensions = search.getDimensions().size();
+    List<TreeParzenEstimator.Observation> observations = Lists.newArrayList();
+    List<Candidate> outstanding = Lists.newArrayList();
+    int proposed = 0;
+    Candidate best = null;
+
+    while (true) {
+      while (outstanding.size() < search.getBatchSize() && proposed < search.getMaxEvaluations()) {
+        List<double[]> pending = Lists.newArrayList();
+        for (Candidate candidate : outstanding) {
+          pending.add(candidate.point);
+        }
+        double[] point = estimator.propose(observations, pending, dimensions);
+        outstanding.add(schedule(point));
+        proposed++;
+      }
+      if (outstanding.isEmpty()) {
+        break;
+      }
+      Set<Integer> runIds = Sets.newHashSet();
+      for (Candidate candidate : outstanding) {
+        runIds.addAll(candidate.runIds);
+      }
+      Set<Integer> finished = poller.poll(runIds);
+      for (Iterator<Candidate> iterator = outstanding.iterator(); iterator.hasNext(); ) {
+        Candidate candidate = iterator.next();
+        if (!finished.containsAll(candidate.runIds)) {
+          continue;
+        }
+        iterator.remove();
+        Collection<Double> values = runDao.getMetrics(candidate.runIds, search.getObjective()).values();
+        if (values.isEmpty()) {
+          LOG.warning("None of the runs for " + candidate.parameters + " reported '" + search.getObjective() +
+              "'. Ignoring these parameters.");
+          continue;
+        }
+        candidate.objective = ConvergenceCriterion.mean(values);
+        observations.add(new TreeParzenEstimator.Observation(candidate.point,
+            search.getGoal() == ParameterSearch.Goal.MINIMISE ? candidate.objective : -candidate.objective));
+        if (best == null || isBetter(candidate.objective, best.objective)) {
+          best = candidate;
+        }
+        LOG.info(String.format("Evaluated %d of %d parameter sets. %s: %s for %s. Best so far: %s for %s",
+            observations.size(), search.getMaxEvaluations(), search.getObjective(), candidate.objective,
+            candidate.parameters, best.objective, best.parameters));
+      }
+    }
+    if (best == null) {
+      LOG.warning("Search complete, but no runs reported '" + search.getObjective() + "'.");
+      return Optional.absent();
+    }
+    LOG.info("Search complete. Best " + search.getObjective() + ": " + best.objective + " for " + best.parameters);
+    return Optional.of(best.parameters);
+  }
+
+  private Candidate schedule(double[] point) throws TzarException {
+    Parameters parameters = search.createParameters(point);
+    List<Run> runs = Lists.newArrayList(runFactory.generateRuns(numRuns, parameters));
+    runDao.insertRuns(runs);
+    List<Integer> runIds = Lists.newArrayList();
+    for (Run run : runs) {
+      runIds.add(run.getRunId());
+    }
+    LOG.fine("Scheduled " + runs.size() + " runs for " + parameters);
+    return new Candidate(point, parameters, runIds);
+  }
+
+  private boolean isBetter(double objective, double than) {
+    return search.getGoal() == ParameterSearch.Goal.MINIMISE ? objective < than : objective > than;
+  }
+
+  private static class Candidate {
+    private final double[] point;
+    private final Parameters parameters;
+    private final List<Integer> runIds;
+    private double objective;
+
+    private Candidate(double[] point, Parameters parameters, List<Integer> runIds) {
+      this.point = point;
+      this.parameters = parameters;
+      this.runIds = runIds;
+    }
+  }
+}
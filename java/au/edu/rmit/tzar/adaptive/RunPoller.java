@@ -0,0 +1,65 @@
+package au.edu.rmit.tzar.adaptive;
+
+import au.edu.rmit.tzar.api.Run;
+import au.edu.rmit.tzar.api.TzarException;
+import au.edu.rmit.tzar.db.RunDao;
+import com.google.common.collect.Sets;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Waits for scheduled runs to finish, by polling their states in the database.
+ */
+class RunPoller {
+  private final RunDao runDao;
+  private final int pollIntervalMs;
+
+  RunPoller(RunDao runDao, int pollIntervalMs) {
+    this.runDao = runDao;
+    this.pollIntervalMs = pollIntervalMs;
+  }
+
+  /**
+   * Waits for the poll interval, and then returns the runs which have finished.
+   *
+   * @param runIds the runs to check
+   * @return the subset of runIds which have finished
+   * @throws TzarException if the database can't be accessed, or the thread is interrupted
+   */
+  Set<Integer> poll(Collection<Integer> runIds) throws TzarException {
+    try {
+      Thread.sleep(pollIntervalMs);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new TzarException("Interrupted while waiting for runs to complete.", e);
+    }
+    Map<Integer, Run.State> states = runDao.getRunStates(runIds);
+    Set<Integer> finished = Sets.newHashSet();
+    for (Integer runId : runIds) {
+      if (isFinished(states.get(runId))) {
+        finished.add(runId);
+      }
+    }
+    return finished;
+  }
+
+  /**
+   * Returns once all of the given runs have finished.
+   *
+   * @throws TzarException if the database can't be accessed, or the thread is interrupted
+   */
+  void awaitAll(Collection<Integer> runIds) throws TzarException {
+    Set<Integer> outstanding = Sets.newHashSet(runIds);
+    while (!outstanding.isEmpty()) {
+      outstanding.removeAll(poll(outstanding));
+    }
+  }
+
+  private static boolean isFinished(Run.State state) {
+    // runs which no longer exist are treated as finished, so that we don't wait for them forever.
+    return state == null || (state != Run.State.HELD && state != Run.State.SCHEDULED &&
+        state != Run.State.IN_PROGRESS);
+  }
+}
@@ -0,0 +1,147 @@
+package au.edu.rmit.tzar.adaptive;
+
+import au.edu.rmit.tzar.api.ParameterSearch;
+import au.edu.rmit.tzar.api.Parameters;
+import au.edu.rmit.tzar.api.Run;
+import au.edu.rmit.tzar.api.TzarException;
+import au.edu.rmit.tzar.db.RunDao;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Logger;
+
+/**
+ * Tunes a set of candidate runs by successive halving (Jamieson and Talwalkar, 2016, as used in each bracket of
+ * Hyperband). Every candidate is first run at a low fidelity, ie with a parameter such as the number of
+ * timesteps set to a small value. Once all of a round's runs have finished, only the best 1 / reduction factor
+ * of them (by a metric reported by the runs) are scheduled again, with the fidelity multiplied by the reduction
+ * factor. This repeats until the survivors have been run at the maximum fidelity, so most of the CPU time is
+ * spent on the most promising candidates.
+ *
+ * Each round's runs are new runs in the same runset, so the progress of each round can be seen in the runs table.
+ */
+public class SuccessiveHalving implements AdaptiveRunset {
+  private static final Logger LOG = Logger.getLogger(SuccessiveHalving.class.getName());
+
+  private final RunDao runDao;
+  private final String metric;
+  private final ParameterSearch.Goal goal;
+  private final String fidelityKey;
+  private final int minFidelity;
+  private final int maxFidelity;
+  private final int reductionFactor;
+  private final RunPoller poller;
+
+  // the runs in the first round.
+  private final List<Run> candidates = Lists.newArrayList();
+
+  /**
+   * Constructor.
+   *
+   * @param runDao for inserting runs, and reading their states and metrics
+   * @param metric name of the metric reported by the runs, by which they are ranked
+   * @param goal whether lower or higher values of the metric are better
+   * @param fidelityKey name of the parameter which controls the fidelity (eg the number of timesteps) of a run
+   * @param minFidelity value of the fidelity parameter for the first round
+   * @param maxFidelity value of the fidelity parameter for the last round
+   * @param reductionFactor the fraction of runs kept after each round is 1 / reductionFactor, and the fidelity
+   *                        is multiplied by reductionFactor each round
+   * @param pollIntervalMs time to wait between checks of the progress of the scheduled runs
+   */
+  public SuccessiveHalving(RunDao runDao, String metric, ParameterSearch.Goal goal, String fidelityKey,
+      int minFidelity, int maxFidelity, int reductionFactor, int pollIntervalMs) {
+    this.runDao = runDao;
+    this.metric = metric;
+    this.goal = goal;
+    this.fidelityKey = fidelityKey;
+    this.minFidelity = minFidelity;
+    this.maxFidelity = maxFidelity;
+    this.reductionFactor = reductionFactor;
+    this.poller = new RunPoller(runDao, pollIntervalMs);
+  }
+
+  /**
+   * Sets the run's fidelity parameter to the minimum fidelity.
+   */
+  @Override
+  public void prepareRun(Run run) {
+    run.setParameters(withFidelity(run.getParameters(), minFidelity));
+  }
+
+  @Override
+  public void addRun(Run run) {
+    candidates.add(run);
+  }
+
+  /**
+   * Runs the rounds, until the survivors have been run at the maximum fidelity. Returns once the runs in the
+   * last round have finished.
+   *
+   * @throws TzarException if the database can't be accessed, or the thread is interrupted
+   */
+  @Override
+  public void run() throws TzarException {
+    LOG.info(String.format("Running successive halving over %d candidates, from %s = %d to %d, keeping 1 in %d " +
+        "each round. Later rounds are only scheduled while this command is running.", candidates.size(),
+        fidelityKey, minFidelity, maxFidelity, reductionFactor));
+    List<Run> round = candidates;
+    int fidelity = minFidelity;
+    int totalRuns = 0;
+    for (int roundNumber = 1; ; roundNumber++) {
+      totalRuns += round.size();
+      final Map<Integer, Double> metrics = awaitMetrics(round);
+      List<Run> ranked = Lists.newArrayList();
+      for (Run run : round) {
+        if (metrics.containsKey(run.getRunId())) {
+          ranked.add(run);
+        }
+      }
+      Collections.sort(ranked, new Comparator<Run>() {
+        @Override
+        public int compare(Run o1, Run o2) {
+          int comparison = Double.compare(metrics.get(o1.getRunId()), metrics.get(o2.getRunId()));
+          return goal == ParameterSearch.Goal.MINIMISE ? comparison : -comparison;
+        }
+      });
+      LOG.info(String.format("Round %d (%s = %d) complete. %d of %d runs reported '%s'.", roundNumber,
+          fidelityKey, fidelity, ranked.size(), round.size(), metric));
+      if (ranked.isEmpty()) {
+        LOG.warning("No runs in round " + roundNumber + " reported '" + metric + "'. Stopping.");
+        return;
+      }
+      if (fidelity >= maxFidelity) {
+        Run best = ranked.get(0);
+        LOG.info(String.format("Successive halving complete after %d runs. Best %s: %s for run %d, with " +
+            "parameters %s", totalRuns, metric, metrics.get(best.getRunId()), best.getRunId(),
+            best.getParameters()));
+        return;
+      }
+
+      fidelity = (int) Math.min(maxFidelity, (long) fidelity * reductionFactor);
+      int survivors = Math.max(1, ranked.size() / reductionFactor);
+      round = Lists.newArrayList();
+      for (Run run : ranked.subList(0, survivors)) {
+        round.add(run.copyWithParameters(withFidelity(run.getParameters(), fidelity)));
+      }
+      runDao.insertRuns(round);
+      LOG.info(String.format("Scheduled the best %d runs with %s = %d.", survivors, fidelityKey, fidelity));
+    }
+  }
+
+  private Map<Integer, Double> awaitMetrics(List<Run> runs) throws TzarException {
+    List<Integer> runIds = Lists.newArrayList();
+    for (Run run : runs) {
+      runIds.add(run.getRunId());
+    }
+    poller.awaitAll(runIds);
+    return runDao.getMetrics(runIds, metric);
+  }
+
+  private Parameters withFidelity(Parameters parameters, int fidelity) {
+    return parameters.mergeParameters(Parameters.createParameters(ImmutableMap.of(fidelityKey, fidelity)));
+  }
+}
@@ -0,0 +1,166 @@
+package au.edu.rmit.tzar.adaptive;
+
+import com.google.common.collect.Lists;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Proposes points to evaluate next in a minimisation problem over the unit hypercube, using a Tree-structured
+ * Parzen Estimator (Bergstra et al, "Algorithms for Hyper-Parameter Optimization", 2011). The observations are
+ * split into the best fraction ("good") and the rest ("bad"), and a kernel density estimate is fitted to the
+ * points in each, independently for each dimension. Candidates are sampled from the good density, and the
+ * candidate with the highest ratio of good to bad density is proposed.
+ *
+ * Points which have been proposed but not yet evaluated are counted as bad, so that a batch of proposals
+ * doesn't all land in the same place.
+ */
+class TreeParzenEstimator {
+  // fraction of the observations which are considered good.
+  private static final double GAMMA = 0.25;
+  // number of candidates sampled from the good density for each proposal.
+  private static final int CANDIDATES = 24;
+  // number of observations before which points are chosen at random, so that the densities have something
+  // to work with.
+  private static final int STARTUP_OBSERVATIONS = 10;
+
+  private final Random random;
+
+  TreeParzenEstimator(Random random) {
+    this.random = random;
+  }
+
+  /**
+   * Proposes the next point to evaluate. Until there are enough observations to fit the densities, the point is
+   * chosen uniformly at random.
+   *
+   * @param observations the points evaluated so far, and their values
+   * @param pending points which have been proposed but not yet evaluated
+   * @param dimensions number of dimensions of the search space
+   * @return a point in [0, 1)^dimensions
+   */
+  double[] propose(List<Observation> observations, List<double[]> pending, int dimensions) {
+    if (observations.size() < STARTUP_OBSERVATIONS) {
+      double[] point = new double[dimensions];
+      for (int d = 0; d < dimensions; d++) {
+        point[d] = random.nextDouble();
+      }
+      return point;
+    }
+    List<Observation> sorted = Lists.newArrayList(observations);
+    Collections.sort(sorted, new Comparator<Observation>() {
+      @Override
+      public int compare(Observation o1, Observation o2) {
+        return Double.compare(o1.value, o2.value);
+      }
+    });
+    int numGood = Math.max(1, (int) Math.ceil(GAMMA * sorted.size()));
+    List<double[]> good = Lists.newArrayList();
+    List<double[]> bad = Lists.newArrayList(pending);
+    for (int i = 0; i < sorted.size(); i++) {
+      (i < numGood ? good : bad).add(sorted.get(i).point);
+    }
+
+    Parzen[] goodDensities = new Parzen[dimensions];
+    Parzen[] badDensities = new Parzen[dimensions];
+    for (int d = 0; d < dimensions; d++) {
+      goodDensities[d] = new Parzen(good, d);
+      badDensities[d] = new Parzen(bad, d);
+    }
+    double[] best = null;
+    double bestScore = Double.NEGATIVE_INFINITY;
+    for (int i = 0; i < CANDIDATES; i++) {
+      double[] candidate = new double[dimensions];
+      double score = 0;
+      for (int d = 0; d < dimensions; d++) {
+        candidate[d] = goodDensities[d].sample();
+        score += Math.log(goodDensities[d].density(candidate[d])) -
+            Math.log(badDensities[d].density(candidate[d]));
+      }
+      if (score > bestScore) {
+        bestScore = score;
+        best = candidate;
+      }
+    }
+    return best;
+  }
+
+  /**
+   * An evaluated point, and its value.
+   */
+  static class Observation {
+    private final double[] point;
+    private final double value;
+
+    Observation(double[] point, double value) {
+      this.point = point;
+      this.value = value;
+    }
+  }
+
+  /**
+   * A one dimensional kernel density estimate on [0, 1], made up of a gaussian kernel truncated to [0, 1] at
+   * each point, and a uniform prior with the same weight as one kernel. As in the original TPE, the bandwidth
+   * of each kernel is the larger of the distances to its neighbours, with a lower bound which shrinks as the
+   * number of points grows, so that the density doesn't collapse onto the first few good points.
+   */
+  private class Parzen {
+    private final double[] means;
+    private final double[] bandwidths;
+    private final double[] masses;
+
+    private Parzen(List<double[]> points, int dimension) {
+      means = new double[points.size()];
+      for (int i = 0; i < means.length; i++) {
+        means[i] = points.get(i)[dimension];
+      }
+      Arrays.sort(means);
+      bandwidths = new double[means.length];
+      masses = new double[means.length];
+      double minBandwidth = 1.0 / Math.min(100, means.length + 1);
+      for (int i = 0; i < means.length; i++) {
+        double below = means[i] - (i == 0 ? 0 : means[i - 1]);
+        double above = (i == means.length - 1 ? 1 : means[i + 1]) - means[i];
+        bandwidths[i] = Math.min(1, Math.max(minBandwidth, Math.max(below, above)));
+        // the fraction of the kernel which lies inside [0, 1].
+        masses[i] = normalCdf((1 - means[i]) / bandwidths[i]) - normalCdf(-means[i] / bandwidths[i]);
+      }
+    }
+
+    double density(double x) {
+      double total = 1.0; // the uniform prior
+      for (int i = 0; i < means.length; i++) {
+        double z = (x - means[i]) / bandwidths[i];
+        total += Math.exp(-0.5 * z * z) / (bandwidths[i] * Math.sqrt(2 * Math.PI) * masses[i]);
+      }
+      return total / (means.length + 1);
+    }
+
+    double sample() {
+      int component = random.nextInt(means.length + 1);
+      if (component == means.length) {
+        return random.nextDouble();
+      }
+      for (int attempt = 0; attempt < 100; attempt++) {
+        double x = means[component] + bandwidths[component] * random.nextGaussian();
+        if (x >= 0 && x < 1) {
+          return x;
+        }
+      }
+      return means[component];
+    }
+  }
+
+  /**
+   * Standard normal cumulative distribution function (Abramowitz and Stegun 7.1.26, error < 1.5e-7).
+   */
+  static double normalCdf(double x) {
+    double t = 1 / (1 + 0.3275911 * Math.abs(x) / Math.sqrt(2));
+    double erf = 1 - t * (0.254829592 + t * (-0.284496736 + t * (1.421413741 + t * (-1.453152027 +
+        t * 1.061405429)))) * Math.exp(-x * x / 2);
+    return x >= 0 ? (1 + erf) / 2 : (1 - erf) / 2;
+  }
+}
@@ -1,5 +1,7 @@
 package au.edu.rmit.tzar.api;
 
+import com.google.common.base.Optional;
+
 import java.io.File;
 
 /**
@@ -19,6 +21,19 @@ public interface CodeRepository {
    */
   File retrieveModel(String revision, String name, File modelPath) throws TzarException;
 
+  /**
+   * Retrieves the model code ahead of time, so that a later call to {@link #retrieveModel} with the same
+   * arguments is fast. Unlike retrieveModel, this must not change any local copy of the code which a running
+   * model may be using.
+   *
+   * @param revision the version of the model / framework to load
+   * @param name a user-meaningful name for this library
+   * @param modelPath base path at which to store the download model
+   * @return the path to the cached model / framework code, or absent if it can't be retrieved ahead of time
+   * @throws TzarException if an error occurs contacting the repository
+   */
+  Optional<File> prefetchModel(String revision, String name, File modelPath) throws TzarException;
+
   /**
    * Checks out the project params file from the repository at the given revision.
    * @param projectParamFilename filename of the project params
@@ -2,6 +2,8 @@ package au.edu.rmit.tzar.api;
 
 import au.edu.rmit.tzar.parser.beans.DownloadMode;
 import au.edu.rmit.tzar.repository.CodeSourceFactory;
+import au.edu.rmit.tzar.repository.ContentPeers;
+import com.google.common.base.Optional;
 import org.apache.http.impl.client.CloseableHttpClient;
 
 import java.io.File;
@@ -22,6 +24,16 @@ public interface CodeSource {
    */
   File getCode(File baseModelPath, String name) throws TzarException;
 
+  /**
+   * Retrieves the project's model code ahead of time, so that a later call to #getCode is fast.
+   *
+   * @param baseModelPath the local file path at which to write the downloaded data
+   * @param name a name for this code source that has some meaning for the user
+   * @return the path to the downloaded code, or absent if it can't be retrieved ahead of time
+   * @throws TzarException
+   */
+  Optional<File> prefetchCode(File baseModelPath, String name) throws TzarException;
+
   /**
    * Retrieves the project's specification from the repository and writes it to baseModelPath.
    * @param baseModelPath the local file path at which to write the downloaded data
@@ -59,7 +71,8 @@ public interface CodeSource {
   DownloadMode getDownloadMode();
 
   public interface RepositoryType {
-    CodeRepository createRepository(CloseableHttpClient httpClient, URI sourceUri, boolean downloadOnce);
+    CodeRepository createRepository(CloseableHttpClient httpClient, URI sourceUri, DownloadMode downloadMode,
+        Optional<ContentPeers> contentPeers);
     boolean isValidRevision(String revision);
   }
 }
@@ -34,21 +34,74 @@ public class Constants {
   public static final String DRY_RUN_SUFFIX = ".dryrun";
 
   // we back off the polling interval exponentially up to this value
-  public static final int MAX_POLL_INTERVAL_MS = 300000; // 5 minutes
+  public static final int MAX_POLL_INTERVAL_MS = 60000; // 1 minute
+
+  // interval at which an adaptive runset checks whether its released runs have finished.
+  public static final int ADAPTIVE_POLL_INTERVAL_MS = 30000;
+
+  // number of threads used by the scheduleruns command to insert runs into the database concurrently.
+  public static final int DEFAULT_INSERT_THREADS = 4;
 
   // rotate pollandrun spinner on stdout every 1 sec.
   public static final int SPINNER_ROTATION_INTERVAL_MS = 1000;
   public static final String STOP_FILE_NAME = "stop.now";
 
+  // default size of the database connection pool, and number of prepared statements cached per connection.
+  public static final int DEFAULT_DB_POOL_SIZE = 10;
+  public static final int DEFAULT_DB_STATEMENT_CACHE_SIZE = 20;
+
+  // run updates which aren't time critical (eg completed -> copied) are batched and written at this interval.
+  public static final int RUN_UPDATE_FLUSH_INTERVAL_MS = 2000;
+  // name of the file in the tzar base directory in which run updates are saved while the database is unavailable.
+  public static final String RUN_JOURNAL_FILE_NAME = "run_journal";
+
   // default name of the project yaml file, which contains a projects configuration
   // and parameters
   public static final String PROJECT_YAML = "project.yaml";
 
   public static final String HEAD_REVISION = "head";
   public static final String METADATA_DIRECTORY_NAME = "metadata";
+  // file in a run's output directory in which the model can report scalar outputs (name: value), which are
+  // saved in the database for use by adaptive runsets.
+  public static final String METRICS_FILE_NAME = "metrics.yaml";
   public static final String VERSION_PROPERTIES = "/version.properties";
 
   // maximum size of library files downloaded from http to be cached
   public static final int MAX_CACHE_OBJECT_SIZE_BYTES = 10000000;
   public static final String HTTP_CACHE_DIR = "http_cache";
+
+  // directory, within the base model path, of the cache of downloaded models and libraries shared by all of
+  // the runners on a node.
+  public static final String CONTENT_CACHE_DIR = "cache";
+  public static final long DEFAULT_CONTENT_CACHE_QUOTA_BYTES = 10L * 1024 * 1024 * 1024;
+  // objects in the content cache used more recently than this are never evicted, even if no run has leased them
+  // (eg because a run has retrieved them, but not yet leased them).
+  public static final long CONTENT_CACHE_MIN_AGE_MS = 24 * 60 * 60 * 1000L;
+
+  // how long a node waits for another node which has claimed the download of a model or library, before
+  // downloading it from the origin itself. also the age after which an unfinished claim is ignored.
+  public static final long PEER_CLAIM_TIMEOUT_MS = 30 * 60 * 1000L;
+  public static final long PEER_POLL_INTERVAL_MS = 5000;
+  // age after which a node's advertisement of a model or library is ignored, unless the node has used the content
+  // again since. content isn't evicted until it is this old, so only peers which may no longer have it are ignored.
+  public static final long PEER_ADVERTISEMENT_MAX_AGE_MS = CONTENT_CACHE_MIN_AGE_MS;
+
+  // number of scheduled runs whose models and libraries are prefetched, and how often pollandrun checks them.
+  public static final int DEFAULT_PREFETCH_MAX_RUNS = 1000;
+  public static final int DEFAULT_PREFETCH_THREADS = 2;
+  public static final long PREFETCH_INTERVAL_MS = 60 * 1000;
+
+  // when scheduling for locality, a node prefers runs whose code it has among this many of the next scheduled runs,
+  // but a run which has been passed over for longer than the delay is claimed first, so that no run starves.
+  public static final int LOCALITY_WINDOW_RUNS = 100;
+  public static final int LOCALITY_MAX_DELAY_SECONDS = 10 * 60;
+  // maximum number of models and libraries in the cache manifest which each node publishes.
+  public static final int CODE_MANIFEST_MAX_ENTRIES = 200;
+
+  // maximum number of models, libraries and head revisions retrieved at once by the process.
+  public static final int RETRIEVAL_THREADS = 4;
+
+  // directory, within the tzar base directory, of the runtime environments built for R and Python models.
+  public static final String ENVIRONMENTS_DIR = "environments";
+  public static final String DEFAULT_R_REPOSITORY = "http://cran.r-project.org";
 }
@@ -0,0 +1,173 @@
+package au.edu.rmit.tzar.api;
+
+import com.google.common.base.Objects;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+import java.math.BigDecimal;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Base class for design generators, which generate a set of joint samples over a group of keys. Unlike
+ * {@link RepetitionGenerator}s, whose values are combined by cartesian product, each sample generated by a
+ * design assigns a value to every key in the group, so a design over any number of keys produces exactly
+ * <code>count</code> repetitions. Samples are generated in the unit hypercube, and then scaled to the bounds
+ * of each dimension.
+ */
+public abstract class DesignGenerator {
+  private final ImmutableList<Dimension> dimensions;
+  private final int count;
+
+  /**
+   * Constructor.
+   *
+   * @param dimensions the keys to assign values to, and the range of values for each
+   * @param count the number of samples to generate
+   */
+  protected DesignGenerator(List<Dimension> dimensions, int count) {
+    this.dimensions = ImmutableList.copyOf(dimensions);
+    this.count = count;
+  }
+
+  /**
+   * Generates the samples for this design.
+   *
+   * @return a list of samples, each of which is a map from each key in the design to its value
+   */
+  public List<Map<String, Object>> generate() {
+    double[][] points = generatePoints(count, dimensions.size());
+    List<Map<String, Object>> samples = Lists.newArrayListWithCapacity(count);
+    for (double[] point : points) {
+      Map<String, Object> sample = Maps.newLinkedHashMap();
+      for (int i = 0; i < dimensions.size(); i++) {
+        Dimension dimension = dimensions.get(i);
+        sample.put(dimension.key, dimension.scale(point[i]));
+      }
+      samples.add(sample);
+    }
+    return samples;
+  }
+
+  /**
+   * Generates points in the unit hypercube [0, 1)^dimensions.
+   *
+   * @param count the number of points to generate
+   * @param dimensions the number of dimensions
+   * @return an array of <code>count</code> points, each of which has <code>dimensions</code> coordinates
+   */
+  protected abstract double[][] generatePoints(int count, int dimensions);
+
+  public List<Dimension> getDimensions() {
+    return dimensions;
+  }
+
+  public int getCount() {
+    return count;
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) return true;
+    if (o == null || getClass() != o.getClass()) return false;
+
+    DesignGenerator that = (DesignGenerator) o;
+    return count == that.count && dimensions.equals(that.dimensions);
+  }
+
+  @Override
+  public int hashCode() {
+    return Objects.hashCode(getClass(), dimensions, count);
+  }
+
+  @Override
+  public String toString() {
+    return Objects.toStringHelper(this)
+        .add("dimensions", dimensions)
+        .add("count", count)
+        .toString();
+  }
+
+  /**
+   * A key to be assigned values by a design, and the range of values to assign.
+   */
+  public static class Dimension {
+    private final String key;
+    private final BigDecimal lowerBound;
+    private final BigDecimal upperBound;
+
+    /**
+     * @param key the key to which the generated values will be assigned
+     * @param lowerBound the lower bound for the range (inclusive)
+     * @param upperBound the upper bound for the range (exclusive)
+     */
+    public Dimension(String key, BigDecimal lowerBound, BigDecimal upperBound) {
+      this.key = key;
+      this.lowerBound = lowerBound;
+      this.upperBound = upperBound;
+    }
+
+    public String getKey() {
+      return key;
+    }
+
+    public BigDecimal getLowerBound() {
+      return lowerBound;
+    }
+
+    public BigDecimal getUpperBound() {
+      return upperBound;
+    }
+
+    BigDecimal scale(double value) {
+      return new BigDecimal(value).multiply(upperBound.subtract(lowerBound)).add(lowerBound);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) return true;
+      if (o == null || getClass() != o.getClass()) return false;
+
+      Dimension that = (Dimension) o;
+      return key.equals(that.key) && lowerBound.equals(that.lowerBound) && upperBound.equals(that.upperBound);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hashCode(key, lowerBound, upperBound);
+    }
+
+    @Override
+    public String toString() {
+      return key + ": [" + lowerBound + ", " + upperBound + ")";
+    }
+  }
+
+  /**
+   * Types of Designs. New implementations of this class should be added to this list so
+   * that they can be correctly deserialised. The value of the "name" field is the name that will
+   * be deserialised from the project.yaml file.
+   */
+  public enum DesignType {
+    LATIN_HYPERCUBE("latin_hypercube"),
+    SOBOL("sobol"),
+    HALTON("halton");
+
+    public static final Map<String, DesignType> TYPES = new HashMap<String, DesignType>();
+
+    static {
+      for (DesignType type : DesignType.values()) {
+        TYPES.put(type.name, type);
+      }
+    }
+
+    /** The name of the design as used in project.yaml */
+    private final String name;
+
+    DesignType(String name) {
+      this.name = name;
+    }
+  }
+}
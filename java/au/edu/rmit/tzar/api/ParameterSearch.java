@@ -0,0 +1,113 @@
+package au.edu.rmit.tzar.api;
+
+import com.google.common.base.Objects;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Maps;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Definition of an iterative search for the parameter values which give the best value of an objective, eg for
+ * calibrating a model. Rather than running every combination of values, the search proposes a few parameter
+ * sets at a time, based on the objective values reported by the runs which have already completed. Each
+ * proposed parameter set is combined with each of the scenarios and repetitions of the project.
+ */
+public class ParameterSearch {
+  private final String objective;
+  private final Goal goal;
+  private final ImmutableList<DesignGenerator.Dimension> dimensions;
+  private final int batchSize;
+  private final int maxEvaluations;
+  private final long seed;
+
+  /**
+   * Constructor.
+   *
+   * @param objective name of the metric reported by the runs (see {@link Constants#METRICS_FILE_NAME})
+   * @param goal whether the objective should be minimised or maximised
+   * @param dimensions the keys to search over, and the range of values for each
+   * @param batchSize number of parameter sets to have scheduled or running at any time
+   * @param maxEvaluations total number of parameter sets to try
+   * @param seed seed for the random choices made by the search
+   */
+  public ParameterSearch(String objective, Goal goal, List<DesignGenerator.Dimension> dimensions, int batchSize,
+      int maxEvaluations, long seed) {
+    this.objective = objective;
+    this.goal = goal;
+    this.dimensions = ImmutableList.copyOf(dimensions);
+    this.batchSize = batchSize;
+    this.maxEvaluations = maxEvaluations;
+    this.seed = seed;
+  }
+
+  /**
+   * Creates the parameters for a point in the search space.
+   *
+   * @param point a point in the unit hypercube, with one coordinate for each dimension
+   * @return the parameters, scaled to the bounds of each dimension
+   */
+  public Parameters createParameters(double[] point) {
+    Map<String, Object> values = Maps.newLinkedHashMap();
+    for (int i = 0; i < dimensions.size(); i++) {
+      DesignGenerator.Dimension dimension = dimensions.get(i);
+      values.put(dimension.getKey(), dimension.scale(point[i]));
+    }
+    return Parameters.createParameters(values);
+  }
+
+  public String getObjective() {
+    return objective;
+  }
+
+  public Goal getGoal() {
+    return goal;
+  }
+
+  public List<DesignGenerator.Dimension> getDimensions() {
+    return dimensions;
+  }
+
+  public int getBatchSize() {
+    return batchSize;
+  }
+
+  public int getMaxEvaluations() {
+    return maxEvaluations;
+  }
+
+  public long getSeed() {
+    return seed;
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) return true;
+    if (o == null || getClass() != o.getClass()) return false;
+
+    ParameterSearch that = (ParameterSearch) o;
+    return objective.equals(that.objective) && goal == that.goal && dimensions.equals(that.dimensions) &&
+        batchSize == that.batchSize && maxEvaluations == that.maxEvaluations && seed == that.seed;
+  }
+
+  @Override
+  public int hashCode() {
+    return Objects.hashCode(objective, goal, dimensions, batchSize, maxEvaluations, seed);
+  }
+
+  @Override
+  public String toString() {
+    return Objects.toStringHelper(this)
+        .add("objective", objective)
+        .add("goal", goal)
+        .add("dimensions", dimensions)
+        .add("batchSize", batchSize)
+        .add("maxEvaluations", maxEvaluations)
+        .add("seed", seed)
+        .toString();
+  }
+
+  public enum Goal {
+    MINIMISE, MAXIMISE
+  }
+}
@@ -1,38 +1,79 @@
 package au.edu.rmit.tzar.api;
 
+import com.google.common.collect.AbstractIterator;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
 import com.google.common.collect.Maps;
 
 import java.io.File;
-import java.util.HashMap;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
 import java.util.Map;
+import java.util.Set;
 import java.util.logging.Logger;
 
 /**
  * Represents a set of parameters for a run.
+ *
+ * Parameters objects are immutable, and are stored as a stack of layers, where each layer overrides
+ * the layers below it. Merging parameters adds a new layer on top of the base parameters rather than
+ * copying them, so the many runs generated from a single project share one copy of the base and
+ * scenario parameters. Keys and simple values are interned, so that equal values parsed or loaded
+ * separately are also only stored once. To keep lookups fast, a Parameters object with more than
+ * {@link #MAX_DEPTH} layers is flattened into a single layer.
  */
 public class Parameters {
   private static final Logger LOG = Logger.getLogger(Parameters.class.getName());
-  public static final Parameters EMPTY_PARAMETERS = new Parameters(ImmutableMap.<String, Object>of());
+  private static final Interner<Object> INTERNER = Interners.newWeakInterner();
+  private static final int MAX_DEPTH = 4;
 
-  private final ImmutableMap<String, Object> parameters;
+  public static final Parameters EMPTY_PARAMETERS = new Parameters(ImmutableMap.<String, Object>of(), null);
+
+  // the parameters in this layer, which override those in the parent layers.
+  private final ImmutableMap<String, Object> layer;
+  // the layers below this one, or null if this is the bottom layer.
+  private final Parameters parent;
+  private final int depth;
+  // total number of distinct keys across all layers.
+  private final int size;
+  // created on first use. a data race here is harmless, as the views are interchangeable.
+  private Map<String, Object> mapView;
+  // cached, as it's relatively expensive to compute. 0 if not yet computed.
+  private int hashCode;
 
   /**
-   * Factory method to create a new Parameters object. Verifies that there are no duplicate keys.
+   * Factory method to create a new Parameters object.
    *
    * @param parameters
    * @return a new Parameters object
-   * @throws TzarException if there are duplicate keys
    */
   public static Parameters createParameters(Map<String, ?> parameters) {
-    return new Parameters(ImmutableMap.copyOf(parameters));
+    return new Parameters(intern(parameters), null);
   }
 
   /**
-   * Private constructor. Key names across the maps must be unique.
+   * Private constructor.
+   * @param layer the parameters in the top layer
+   * @param parent the layers below, or null
    */
-  private Parameters(ImmutableMap<String, Object> parameters) {
-    this.parameters = parameters;
+  private Parameters(ImmutableMap<String, Object> layer, Parameters parent) {
+    this.layer = layer;
+    this.parent = parent;
+    if (parent == null) {
+      depth = 1;
+      size = layer.size();
+    } else {
+      depth = parent.depth + 1;
+      int newKeys = 0;
+      for (String key : layer.keySet()) {
+        if (!parent.containsKey(key)) {
+          newKeys++;
+        }
+      }
+      size = parent.size + newKeys;
+    }
   }
 
   /**
@@ -49,14 +90,19 @@ public class Parameters {
    */
   @Deprecated
   public Map<String, Object> getQualifiedParams(File baseInputPath, File baseOutputPath) {
-    return parameters;
+    return asMap();
   }
 
   /**
-   * Map of keys to values of type String, Integer, Boolean or BigDecimal.
+   * Map of keys to values of type String, Integer, Boolean or BigDecimal. The returned map is an
+   * unmodifiable view, which looks keys up in each layer in turn.
    */
   public Map<String, Object> asMap() {
-    return parameters;
+    Map<String, Object> view = mapView;
+    if (view == null) {
+      view = mapView = new LayeredMap();
+    }
+    return view;
   }
 
   /**
@@ -65,7 +111,7 @@ public class Parameters {
    * @return total number of parameters
    */
   public int getSize() {
-    return parameters.size();
+    return size;
   }
 
   /**
@@ -81,20 +127,54 @@ public class Parameters {
    * @return a new Parameters object containing a merged version of the two provided Parameters
    *         objects
    */
-  public Parameters mergeParameters(Parameters overrideParameters) throws TzarException {
-    Map<String, Object> parameters = mergeParameterMaps(asMap(), overrideParameters.asMap());
-    return createParameters(parameters);
+  public Parameters mergeParameters(Parameters overrideParameters) {
+    if (overrideParameters.size == 0) {
+      return this;
+    }
+    if (size == 0) {
+      return overrideParameters;
+    }
+    ImmutableMap<String, Object> overrides = overrideParameters.flatten();
+    if (depth >= MAX_DEPTH) {
+      Map<String, Object> merged = Maps.newLinkedHashMap(asMap());
+      merged.putAll(overrides);
+      return new Parameters(ImmutableMap.copyOf(merged), null);
+    }
+    return new Parameters(overrides, this);
+  }
+
+  private Object get(Object key) {
+    for (Parameters parameters = this; parameters != null; parameters = parameters.parent) {
+      Object value = parameters.layer.get(key);
+      if (value != null) {
+        return value;
+      }
+    }
+    return null;
   }
 
-  @SuppressWarnings("unchecked")
-  private static <T> T castAndPut(Map<String, T> map, String key, String value) {
-    return map.put(key, (T) value);
+  private boolean containsKey(Object key) {
+    return get(key) != null; // values are never null
   }
 
-  private static <T> Map<String, T> mergeParameterMaps(Map<String, T> baseParameters, Map<String, T> overrideParameters) {
-    HashMap<String, T> map = Maps.newHashMap(baseParameters);
-    map.putAll(overrideParameters);
-    return map;
+  /**
+   * Returns all parameters as a single layer.
+   */
+  private ImmutableMap<String, Object> flatten() {
+    return parent == null ? layer : ImmutableMap.copyOf(asMap());
+  }
+
+  private static ImmutableMap<String, Object> intern(Map<String, ?> parameters) {
+    ImmutableMap.Builder<String, Object> builder = ImmutableMap.builder();
+    for (Map.Entry<String, ?> entry : parameters.entrySet()) {
+      Object value = entry.getValue();
+      if (value instanceof String || value instanceof Number || value instanceof Boolean) {
+        value = INTERNER.intern(value);
+      }
+      // a null key or value will cause an exception here, as for ImmutableMap.copyOf.
+      builder.put((String) INTERNER.intern(entry.getKey()), value);
+    }
+    return builder.build();
   }
 
   @Override
@@ -104,20 +184,90 @@ public class Parameters {
 
     Parameters that = (Parameters) o;
 
-    if (!parameters.equals(that.parameters)) return false;
+    if (size != that.size) return false;
+    if (hashCode() != that.hashCode()) return false;
 
-    return true;
+    return asMap().equals(that.asMap());
   }
 
   @Override
   public int hashCode() {
-    return parameters.hashCode();
+    if (hashCode == 0) {
+      hashCode = asMap().hashCode();
+    }
+    return hashCode;
   }
 
   @Override
   public String toString() {
     return "Parameters{" +
-        "parameters=" + parameters +
+        "parameters=" + asMap() +
         '}';
   }
+
+  /**
+   * Read-only Map view of the layers. Iterates over the top layer first, followed by the keys in each lower
+   * layer which haven't been overridden.
+   */
+  private class LayeredMap extends AbstractMap<String, Object> {
+    @Override
+    public Set<Entry<String, Object>> entrySet() {
+      return new AbstractSet<Entry<String, Object>>() {
+        @Override
+        public Iterator<Entry<String, Object>> iterator() {
+          return new AbstractIterator<Entry<String, Object>>() {
+            private Parameters current = Parameters.this;
+            private Iterator<Entry<String, Object>> entries = current.layer.entrySet().iterator();
+
+            @Override
+            protected Entry<String, Object> computeNext() {
+              while (true) {
+                while (entries.hasNext()) {
+                  Entry<String, Object> entry = entries.next();
+                  if (!isOverridden(entry.getKey())) {
+                    return entry;
+                  }
+                }
+                current = current.parent;
+                if (current == null) {
+                  return endOfData();
+                }
+                entries = current.layer.entrySet().iterator();
+              }
+            }
+
+            // true if the key is in a layer above the current one.
+            private boolean isOverridden(String key) {
+              for (Parameters parameters = Parameters.this; parameters != current; parameters = parameters.parent) {
+                if (parameters.layer.containsKey(key)) {
+                  return true;
+                }
+              }
+              return false;
+            }
+          };
+        }
+
+        @Override
+        public int size() {
+          return size;
+        }
+      };
+    }
+
+    @Override
+    public Object get(Object key) {
+      return Parameters.this.get(key);
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+      return Parameters.this.containsKey(key);
+    }
+
+    @Override
+    public int size() {
+      return size;
+    }
+  }
 }
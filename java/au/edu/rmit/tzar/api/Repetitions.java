@@ -2,9 +2,15 @@ package au.edu.rmit.tzar.api;
 
 import com.google.common.base.Function;
 import com.google.common.base.Objects;
+import com.google.common.base.Optional;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.AbstractIterator;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Iterators;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
-import com.google.common.collect.Sets;
+import com.google.common.math.LongMath;
 
 import java.util.*;
 
@@ -18,94 +24,256 @@ public class Repetitions {
 
   private final List<RepetitionGenerator<?>> generators;
 
+  private final List<DesignGenerator> designs;
+
+  private final Optional<ParameterSearch> search;
+
+  private final Optional<RepetitionsFile> repetitionsFile;
+
   public static final Repetitions EMPTY_REPETITIONS = new Repetitions(Lists.newArrayList(Parameters.EMPTY_PARAMETERS),
       new ArrayList<RepetitionGenerator<?>>());
 
   public Repetitions(List<Parameters> staticRepetitions, List<RepetitionGenerator<?>> generators) {
+    this(staticRepetitions, generators, new ArrayList<DesignGenerator>());
+  }
+
+  public Repetitions(List<Parameters> staticRepetitions, List<RepetitionGenerator<?>> generators,
+      List<DesignGenerator> designs) {
+    this(staticRepetitions, generators, designs, Optional.<ParameterSearch>absent());
+  }
+
+  public Repetitions(List<Parameters> staticRepetitions, List<RepetitionGenerator<?>> generators,
+      List<DesignGenerator> designs, Optional<ParameterSearch> search) {
+    this(staticRepetitions, generators, designs, search, Optional.<RepetitionsFile>absent());
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param search if present, the runs for these repetitions are created by an iterative search, which combines
+   *               each repetition with the parameter sets it proposes. See {@link ParameterSearch}.
+   * @param repetitionsFile if present, each row of the file is a repetition, in addition to the static
+   *                        repetitions
+   */
+  public Repetitions(List<Parameters> staticRepetitions, List<RepetitionGenerator<?>> generators,
+      List<DesignGenerator> designs, Optional<ParameterSearch> search, Optional<RepetitionsFile> repetitionsFile) {
     this.staticRepetitions = staticRepetitions;
     this.generators = generators;
+    this.designs = designs;
+    this.search = search;
+    this.repetitionsFile = repetitionsFile;
   }
 
   /**
    * Gets the list of Parameters (where each parameters object itself represents a list of parameters)
    * for the repetitions defined by this object. The list of Parameters is generated by computing the
-   * cartesian product of: the set of "static" repetitions held by this object and the set of
-   * all repetitions generated by all of the generators held by this object.
+   * cartesian product of: the set of "static" repetitions held by this object, the set of
+   * all repetitions generated by all of the generators held by this object, and the samples generated by each
+   * of the designs held by this object. The rows of the repetitions file, if any, are treated as further static
+   * repetitions. Each design contributes a single factor to the product, so a design
+   * over many keys multiplies the number of repetitions by its count, rather than by count ^ (number of keys).
+   *
+   * This holds every repetition in memory at once. For large parameter sweeps, use {@link #getParams}.
    *
    * @return a list of Parameters objects
    */
   public List<Parameters> getParamsList() throws TzarException {
-    // Convert the list of key-value pairs generated by each generator into a List of Sets of KeyValuePairs for
-    // consumption by the Guava cartesianProduct function.
-    List<Set<KeyValuePair>> keyValuePairsList = Lists.transform(getGenerators(), new Function<RepetitionGenerator<?>,
-        Set<KeyValuePair>>() {
+    return Lists.newArrayList(getParams());
+  }
+
+  /**
+   * Gets the same Parameters as {@link #getParamsList}, in the same order, but each Parameters object is
+   * only created when the iterator reaches it, so memory use doesn't depend on the number of repetitions.
+   * The generators are executed each time a new iterator is created. Generators which produce random values
+   * are seeded (using a SplitMix64 generator) from the repetitions' seed, so they produce the same values for
+   * each iteration, and the same values each time the project is scheduled with the same seed.
+   *
+   * @return an Iterable over the Parameters objects
+   */
+  public Iterable<Parameters> getParams() {
+    return getParams(0, Long.MAX_VALUE);
+  }
+
+  /**
+   * Gets the Parameters at positions from (inclusive) to to (exclusive) of {@link #getParams}. The generated
+   * Parameters before the range are not created, so that the repetitions can be divided into ranges which are
+   * created concurrently. The rows of the repetitions file before the range, if any, are still read.
+   *
+   * @param from position of the first Parameters to return
+   * @param to position after the last Parameters to return. May be larger than the number of repetitions.
+   * @return an Iterable over the Parameters objects
+   */
+  public Iterable<Parameters> getParams(final long from, final long to) {
+    Preconditions.checkArgument(0 <= from && from <= to, "Invalid range of repetitions: [%s, %s)", from, to);
+    return new Iterable<Parameters>() {
       @Override
-      public Set<KeyValuePair> apply(final RepetitionGenerator<?> generator) {
-        return new LinkedHashSet<KeyValuePair>(generateKeyValuePairs(generator));
+      public Iterator<Parameters> iterator() {
+        return createParamsIterator(from, to);
       }
-    });
+    };
+  }
+
+  /**
+   * Returns the number of Parameters returned by {@link #getParams}, without creating them. If there is a
+   * repetitions file, it is read to count its rows.
+   */
+  public long getParamsCount() {
+    long count = 0;
+    for (Parameters ignored : getStaticParams()) {
+      count++;
+    }
+    for (List<Assignment> assignments : generateAssignments()) {
+      count = LongMath.checkedMultiply(count, assignments.size());
+    }
+    return count;
+  }
+
+  private Iterator<Parameters> createParamsIterator(final long from, final long to) {
+    // The values generated by each generator and design form one axis of a cartesian product. Each axis is
+    // small (ie the number of values for one generator or design), and the Parameters at each position in the
+    // product are created from the value at the corresponding position on each axis, as they are needed.
+    final List<List<Assignment>> assignmentsList = generateAssignments();
+    long generatedCount = 1;
+    for (List<Assignment> assignments : assignmentsList) {
+      generatedCount = LongMath.checkedMultiply(generatedCount, assignments.size());
+    }
+    if (generatedCount == 0) {
+      return Iterators.emptyIterator();
+    }
+
+    // each static repetition is merged with each generated repetition in turn.
+    final boolean mergeStatic = repetitionsFile.isPresent() || !getStaticRepetitions().isEmpty();
+    final Iterator<Parameters> staticParams = getStaticParams().iterator();
+    for (long i = from / generatedCount; i > 0 && staticParams.hasNext(); i--) {
+      staticParams.next();
+    }
+    final long count = generatedCount;
+    return new AbstractIterator<Parameters>() {
+      private long position = from;
+      private Parameters currentStatic = null;
 
-    Set<List<KeyValuePair>> cartesianProduct = Sets.cartesianProduct(keyValuePairsList);
-    List<Parameters> generatedParamsList = cartesianProductToParametersList(cartesianProduct);
-
-    List<Parameters> mergedParameters = Lists.newArrayList();
-    List<Parameters> staticRepetitions = getStaticRepetitions();
-    if (staticRepetitions.isEmpty()) {
-      return generatedParamsList;
-    } else {
-      for (Parameters staticParams : staticRepetitions) {
-        for (Parameters generatedParams : generatedParamsList) {
-          mergedParameters.add(staticParams.mergeParameters(generatedParams));
+      @Override
+      protected Parameters computeNext() {
+        long generatedPosition = position % count;
+        if (position >= to || ((currentStatic == null || generatedPosition == 0) && !staticParams.hasNext())) {
+          return endOfData();
+        }
+        if (currentStatic == null || generatedPosition == 0) {
+          currentStatic = staticParams.next();
         }
+        position++;
+        Parameters generated = Parameters.createParameters(assignmentsToMap(
+            assignmentsAt(assignmentsList, generatedPosition)));
+        return mergeStatic ? currentStatic.mergeParameters(generated) : generated;
       }
-      return mergedParameters;
+    };
+  }
+
+  /**
+   * Returns the static repetitions, followed by the rows of the repetitions file. If there are neither, the
+   * generated repetitions are used on their own, so a single empty repetition is returned.
+   */
+  private Iterable<Parameters> getStaticParams() {
+    if (repetitionsFile.isPresent()) {
+      return Iterables.concat(getStaticRepetitions(), repetitionsFile.get());
+    } else if (getStaticRepetitions().isEmpty()) {
+      return ImmutableList.of(Parameters.EMPTY_PARAMETERS);
+    }
+    return getStaticRepetitions();
+  }
+
+  /**
+   * Executes each generator and design, and returns their values, one list for each.
+   */
+  private List<List<Assignment>> generateAssignments() {
+    List<List<Assignment>> assignmentsList = Lists.newArrayList();
+    for (RepetitionGenerator<?> generator : getGenerators()) {
+      assignmentsList.add(Lists.newArrayList(generateKeyValuePairs(generator)));
+    }
+    for (DesignGenerator design : getDesigns()) {
+      assignmentsList.add(Lists.newArrayList(generateSamples(design)));
+    }
+    return assignmentsList;
+  }
+
+  /**
+   * Returns the element at the given position of the cartesian product of the lists, in the same order as
+   * Guava's cartesianProduct, ie with the values in the last list changing fastest.
+   */
+  private static List<Assignment> assignmentsAt(List<List<Assignment>> assignmentsList, long position) {
+    Assignment[] assignments = new Assignment[assignmentsList.size()];
+    for (int i = assignments.length - 1; i >= 0; i--) {
+      List<Assignment> axis = assignmentsList.get(i);
+      assignments[i] = axis.get((int) (position % axis.size()));
+      position /= axis.size();
     }
+    return Arrays.asList(assignments);
   }
 
   public List<RepetitionGenerator<?>> getGenerators() {
     return generators;
   }
 
+  public List<DesignGenerator> getDesigns() {
+    return designs;
+  }
+
   public List<Parameters> getStaticRepetitions() {
     return staticRepetitions;
   }
 
   /**
-   * Executes the provided generator and puts the output into a List of KeyValuePairs.
+   * Returns the parameter search for these repetitions, if any. The parameters proposed by the search are not
+   * included in {@link #getParams}.
+   */
+  public Optional<ParameterSearch> getSearch() {
+    return search;
+  }
+
+  /**
+   * Returns the file of repetitions, if any. Its rows are included in {@link #getParams}.
+   */
+  public Optional<RepetitionsFile> getRepetitionsFile() {
+    return repetitionsFile;
+  }
+
+  /**
+   * Executes the provided generator and puts the output into a List of single key Assignments.
    *
    * @param generator generator to generate the values
    * @return List of key value pairs from the generator
    */
-  private static List<KeyValuePair> generateKeyValuePairs(final RepetitionGenerator<?> generator) {
-    return Lists.transform(generator.generate(), new Function<Object, KeyValuePair>() {
+  private static List<Assignment> generateKeyValuePairs(final RepetitionGenerator<?> generator) {
+    return Lists.transform(generator.generate(), new Function<Object, Assignment>() {
       @Override
-      public Repetitions.KeyValuePair apply(Object value) {
-        return new Repetitions.KeyValuePair(generator.getKey(), value);
+      public Repetitions.Assignment apply(Object value) {
+        return new Repetitions.Assignment(Collections.singletonMap(generator.getKey(), value));
       }
     });
   }
 
   /**
-   * Convenience function to convert a Set of Lists of KeyValuePairs (which is the output from
-   * the Guava Maps.cartesianProductFunction -- hence the function name) into a List of Parameters
-   * objects.
+   * Executes the provided design and puts each sample into an Assignment.
+   *
+   * @param design design to generate the samples
+   * @return List of samples from the design
    */
-  private static List<Parameters> cartesianProductToParametersList(Set<List<KeyValuePair>> cartesianProduct)
-      throws TzarException {
-    List<Parameters> parametersList = Lists.newArrayList();
-    for (List<KeyValuePair> keyValuePairs : cartesianProduct) {
-      parametersList.add(Parameters.createParameters(keyValuePairsToMap(keyValuePairs)));
-    }
-    return parametersList;
+  private static List<Assignment> generateSamples(DesignGenerator design) {
+    return Lists.transform(design.generate(), new Function<Map<String, Object>, Assignment>() {
+      @Override
+      public Repetitions.Assignment apply(Map<String, Object> sample) {
+        return new Repetitions.Assignment(sample);
+      }
+    });
   }
 
   /**
-   * Converts a List of KeyValuePairs into a map.
+   * Converts a List of Assignments into a map.
    */
-  private static Map<String, Object> keyValuePairsToMap(List<KeyValuePair> keyValuePairs) {
+  private static Map<String, Object> assignmentsToMap(List<Assignment> assignments) {
     Map<String, Object> map = Maps.newHashMap();
-    for (KeyValuePair pair : keyValuePairs) {
-      map.put(pair.key, pair.value);
+    for (Assignment assignment : assignments) {
+      map.putAll(assignment.values);
     }
     return map;
   }
@@ -118,12 +286,15 @@ public class Repetitions {
     Repetitions that = (Repetitions) o;
 
     return Objects.equal(this.generators, that.generators)
+        && Objects.equal(this.designs, that.designs)
+        && Objects.equal(this.search, that.search)
+        && Objects.equal(this.repetitionsFile, that.repetitionsFile)
         && Objects.equal(this.staticRepetitions, that.staticRepetitions);
   }
 
   @Override
   public int hashCode() {
-    return Objects.hashCode(staticRepetitions, generators);
+    return Objects.hashCode(staticRepetitions, generators, designs, search, repetitionsFile);
   }
 
   @Override
@@ -131,16 +302,20 @@ public class Repetitions {
     return Objects.toStringHelper(this)
         .add("staticRepetitions", staticRepetitions)
         .add("generators", generators)
+        .add("designs", designs)
+        .add("search", search)
+        .add("repetitionsFile", repetitionsFile)
         .toString();
   }
 
-  private static final class KeyValuePair {
-    private final String key;
-    private final Object value;
+  /**
+   * Values for one or more keys, from a single generated value or design sample.
+   */
+  private static final class Assignment {
+    private final Map<String, Object> values;
 
-    private KeyValuePair(String key, Object value) {
-      this.key = key;
-      this.value = value;
+    private Assignment(Map<String, Object> values) {
+      this.values = values;
     }
   }
 }
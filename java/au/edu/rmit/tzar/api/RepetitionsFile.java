@@ -0,0 +1,18 @@
+package au.edu.rmit.tzar.api;
+
+/**
+ * An external file of repetitions, eg an experimental design written out by an R or Python script. Each row of
+ * the file is one repetition. The rows are read from the file each time the file is iterated over, rather than
+ * being held in memory, so files with millions of rows can be used.
+ */
+public interface RepetitionsFile extends Iterable<Parameters> {
+  /**
+   * The path of the file, as given in the project spec.
+   */
+  String getPath();
+
+  /**
+   * A hash of the contents of the file, so that the design used for a runset can be identified later.
+   */
+  String getContentHash();
+}
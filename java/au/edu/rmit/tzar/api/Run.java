@@ -179,6 +179,17 @@ public class Run {
     return this;
   }
 
+  /**
+   * Creates a new scheduled run of the same project and scenario as this run, in the same runset and cluster,
+   * but with the given parameters. The new run has no run id until it is inserted into the database.
+   */
+  public Run copyWithParameters(Parameters parameters) {
+    return new Run(projectInfo, scenarioName)
+        .setParameters(parameters)
+        .setRunset(runset)
+        .setClusterName(clusterName);
+  }
+
   @Override
   public String toString() {
     return Objects.toStringHelper(this)
@@ -231,6 +242,10 @@ public class Run {
     COPY_FAILED,
     IN_PROGRESS,
     SCHEDULED,
+    // inserted but not yet released for execution, eg by an adaptive runset.
+    HELD,
+    // held runs which were never executed, because an adaptive runset decided they weren't needed.
+    CANCELLED,
   }
 
   public static class ProjectInfo {
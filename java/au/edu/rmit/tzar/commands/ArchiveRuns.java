@@ -0,0 +1,35 @@
+package au.edu.rmit.tzar.commands;
+
+import au.edu.rmit.tzar.api.TzarException;
+import au.edu.rmit.tzar.db.RunDao;
+
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import static au.edu.rmit.tzar.commands.SharedFlags.DB_FLAGS;
+
+/**
+ * Moves finished runs out of the runs table and into the history tables, so that the table polled by
+ * the nodes doesn't grow with the number of runs ever executed.
+ */
+class ArchiveRuns implements Command {
+  private static final Logger LOG = Logger.getLogger(ArchiveRuns.class.getName());
+  public static final Object[] FLAGS = new Object[]{CommandFlags.ARCHIVE_RUNS_FLAGS, DB_FLAGS};
+
+  private final RunDao runDao;
+  private final int olderThanDays;
+  private final int batchSize;
+
+  public ArchiveRuns(RunDao runDao, int olderThanDays, int batchSize) {
+    this.runDao = runDao;
+    this.olderThanDays = olderThanDays;
+    this.batchSize = batchSize;
+  }
+
+  @Override
+  public boolean execute() throws InterruptedException, TzarException {
+    int archived = runDao.archiveRuns(olderThanDays, batchSize);
+    LOG.log(Level.INFO, "Archived {0} runs.", archived);
+    return true;
+  }
+}
@@ -0,0 +1,117 @@
+package au.edu.rmit.tzar.commands;
+
+import au.edu.rmit.tzar.api.CodeSource;
+import au.edu.rmit.tzar.api.TzarException;
+import au.edu.rmit.tzar.db.NodeCacheDao;
+import com.google.common.collect.ImmutableList;
+
+import java.io.File;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The models and libraries which this node has retrieved, which it publishes to the database so that it can
+ * prefer to claim runs which use them. Only the most recently retrieved revision of each model or library is
+ * kept, and only the most recently used models and libraries, so that the manifest stays small. Models and
+ * libraries whose local copies have since been deleted (eg evicted from the content cache) are removed before
+ * the manifest is published.
+ * This class is thread safe.
+ */
+class CodeManifest {
+  private final NodeCacheDao nodeCacheDao;
+  // the local copy of each model or library, by code key.
+  private final Map<String, CodeEntry> entries;
+  private boolean changed = true;
+
+  /**
+   * Constructor.
+   *
+   * @param nodeCacheDao to publish the manifest
+   * @param maxEntries maximum number of models and libraries in the manifest
+   */
+  CodeManifest(NodeCacheDao nodeCacheDao, final int maxEntries) {
+    this.nodeCacheDao = nodeCacheDao;
+    // in access order, so that the least recently used are removed first.
+    this.entries = new LinkedHashMap<String, CodeEntry>(16, 0.75f, true) {
+      private static final long serialVersionUID = 1L;
+
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<String, CodeEntry> eldest) {
+        return size() > maxEntries;
+      }
+    };
+  }
+
+  /**
+   * Records that a model or library has been retrieved, replacing any other revision of it.
+   *
+   * @param codeSource the model or library
+   * @param path the local copy of the model or library
+   */
+  synchronized void add(CodeSource codeSource, File path) {
+    String source = codeSource.getRepositoryType() + " " + codeSource.getSourceUri();
+    String key = NodeCacheDao.codeKey(codeSource);
+    for (Iterator<Map.Entry<String, CodeEntry>> it = entries.entrySet().iterator(); it.hasNext(); ) {
+      Map.Entry<String, CodeEntry> entry = it.next();
+      if (entry.getValue().source.equals(source) && !entry.getKey().equals(key)) {
+        it.remove();
+        changed = true;
+      }
+    }
+    changed |= entries.put(key, new CodeEntry(source, path)) == null;
+  }
+
+  /**
+   * Records that the models and libraries of a run have been retrieved.
+   *
+   * @param code the local copy of each model and library used by the run
+   */
+  void addRun(Map<CodeSource, File> code) {
+    for (Map.Entry<CodeSource, File> entry : code.entrySet()) {
+      add(entry.getKey(), entry.getValue());
+    }
+  }
+
+  /**
+   * Publishes the manifest, if it has changed since it was last published.
+   *
+   * @throws TzarException if the manifest can't be written
+   */
+  void publish() throws TzarException {
+    List<String> keys;
+    synchronized (this) {
+      for (Iterator<CodeEntry> it = entries.values().iterator(); it.hasNext(); ) {
+        if (!it.next().path.exists()) {
+          it.remove();
+          changed = true;
+        }
+      }
+      if (!changed) {
+        return;
+      }
+      keys = ImmutableList.copyOf(entries.keySet());
+      changed = false;
+    }
+    try {
+      nodeCacheDao.publish(keys);
+    } catch (TzarException e) {
+      synchronized (this) {
+        changed = true;
+      }
+      throw e;
+    }
+  }
+
+  private static class CodeEntry {
+    // the repository type and uri of the model or library, which is the same for all of its revisions.
+    private final String source;
+    private final File path;
+
+    private CodeEntry(String source, File path) {
+      this.source = source;
+      this.path = path;
+    }
+  }
+}
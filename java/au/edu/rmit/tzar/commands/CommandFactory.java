@@ -1,15 +1,23 @@
 package au.edu.rmit.tzar.commands;
 
 import au.edu.rmit.tzar.RunFactory;
+import au.edu.rmit.tzar.Utils;
+import au.edu.rmit.tzar.adaptive.AdaptiveRunset;
+import au.edu.rmit.tzar.adaptive.AdaptiveSampler;
+import au.edu.rmit.tzar.adaptive.ConvergenceCriterion;
+import au.edu.rmit.tzar.adaptive.SuccessiveHalving;
 import au.edu.rmit.tzar.api.Constants;
+import au.edu.rmit.tzar.api.ParameterSearch;
 import au.edu.rmit.tzar.api.ProjectSpec;
 import au.edu.rmit.tzar.api.StopRun;
 import au.edu.rmit.tzar.api.TzarException;
+import au.edu.rmit.tzar.db.ContentPeerDao;
 import au.edu.rmit.tzar.db.DaoFactory;
 import au.edu.rmit.tzar.db.RunDao;
 import au.edu.rmit.tzar.parser.beans.DownloadMode;
 import au.edu.rmit.tzar.repository.CodeSourceFactory;
 import au.edu.rmit.tzar.repository.CodeSourceImpl;
+import au.edu.rmit.tzar.repository.ContentCache;
 import au.edu.rmit.tzar.resultscopier.*;
 import au.edu.rmit.tzar.runners.RunnerFactory;
 import au.edu.rmit.tzar.server.WebServer;
@@ -43,10 +51,26 @@ class CommandFactory {
   }
 
   public Command newAggregateResults() throws ParseException, TzarException, IOException {
-    DaoFactory daoFactory = new DaoFactory(getDbUrl(), codeSourceFactory);
+    DaoFactory daoFactory = createDaoFactory();
     return new AggregateResults(LOAD_RUNS_FLAGS.getRunIds(), LOAD_RUNS_FLAGS.getStates(),
         LOAD_RUNS_FLAGS.getHostName(), LOAD_RUNS_FLAGS.getRunset(),
-        daoFactory.createRunDao(), au.edu.rmit.tzar.Utils.getHostname(), AGGREGATE_RESULTS_FLAGS);
+        daoFactory.createRunDao(), Utils.getHostname(), AGGREGATE_RESULTS_FLAGS);
+  }
+
+  public Command newArchiveRuns() throws TzarException, ParseException {
+    DaoFactory daoFactory = createDaoFactory();
+    return new ArchiveRuns(daoFactory.createRunDao(), ARCHIVE_RUNS_FLAGS.getOlderThanDays(),
+        ARCHIVE_RUNS_FLAGS.getBatchSize());
+  }
+
+  public Command newCache() throws ParseException {
+    if (CACHE_FLAGS.getMaxSizeMb() < 0 || CACHE_FLAGS.getMinAgeHours() < 0) {
+      throw new ParseException("--maxsizemb and --minagehours must not be negative.");
+    }
+    File cacheDir = new File(RUNNER_FLAGS.getBaseModelPath(), Constants.CONTENT_CACHE_DIR);
+    long maxBytes = CACHE_FLAGS.getMaxSizeMb() * 1024 * 1024;
+    ContentCache cache = new ContentCache(cacheDir, maxBytes, CACHE_FLAGS.getMinAgeHours() * 60 * 60 * 1000L);
+    return new ManageCache(cache, CACHE_FLAGS.isPrune(), maxBytes);
   }
 
   public Command newExecLocalRuns() throws IOException, TzarException, ParseException {
@@ -74,7 +98,7 @@ class CommandFactory {
     Optional<au.edu.rmit.tzar.api.MapReduce> mapReduce = Optional.fromNullable(projectSpec.getMapReduce());
 
     return new ExecLocalRuns(CREATE_RUNS_FLAGS.getNumRuns(), runFactory, tzarOutputPath, baseModelPath,
-        new RunnerFactory(), mapReduce, new StopRun(), CREATE_RUNS_FLAGS.isDryRun());
+        newRunnerFactory(), mapReduce, new StopRun(), CREATE_RUNS_FLAGS.isDryRun());
   }
 
   public Command newHelp() {
@@ -82,7 +106,7 @@ class CommandFactory {
   }
 
   public Command newPrintRuns() throws TzarException, ParseException {
-    DaoFactory daoFactory = new DaoFactory(getDbUrl(), codeSourceFactory);
+    DaoFactory daoFactory = createDaoFactory();
     return new PrintRuns(daoFactory.createRunDao(), LOAD_RUNS_FLAGS.getStates(),
         LOAD_RUNS_FLAGS.getHostName(), LOAD_RUNS_FLAGS.getRunset(), LOAD_RUNS_FLAGS.getRunIds(),
         PRINT_TABLE_FLAGS.isTruncateOutput(), PRINT_TABLE_FLAGS.getOutputType());
@@ -95,7 +119,16 @@ class CommandFactory {
 
     Optional<ScpDestination> scpDestination = POLL_AND_RUN_FLAGS.getScpDestination();
     Optional<File> finalOutputPath = POLL_AND_RUN_FLAGS.getFinalOutputPath();
-    RunDao runDao = new DaoFactory(getDbUrl(), codeSourceFactory).createRunDao();
+    DaoFactory daoFactory = createDaoFactory();
+    if (POLL_AND_RUN_FLAGS.isPeerDistribution()) {
+      String hostname = Utils.getHostname();
+      ContentPeerDao contentPeerDao = daoFactory.createContentPeerDao(hostname,
+          getContentCacheUrl(hostname, tzarBaseDirectory, RUNNER_FLAGS.getBaseModelPath()));
+      daoFactory = daoFactory.withCodeSourceFactory(codeSourceFactory.withContentPeers(contentPeerDao));
+      // stop advertising content once it has been evicted from this node's cache.
+      ContentCache.addEvictionListener(contentPeerDao);
+    }
+    RunDao runDao = daoFactory.createRunDao(new File(tzarBaseDirectory, Constants.RUN_JOURNAL_FILE_NAME));
 
     ResultsCopier resultsCopier;
     if (!finalOutputPath.isPresent()) { // no path specified. don't copy output
@@ -113,18 +146,72 @@ class CommandFactory {
     }
 
     File baseLocalOutputPath = new File(tzarBaseDirectory, Constants.POLL_AND_RUN_OUTPUT_DIR);
+    Optional<CodeManifest> codeManifest = Optional.absent();
+    if (POLL_AND_RUN_FLAGS.isLocalityScheduling()) {
+      codeManifest = Optional.of(new CodeManifest(daoFactory.createNodeCacheDao(
+          Utils.getHostname(), POLL_AND_RUN_FLAGS.getClusterName()),
+          Constants.CODE_MANIFEST_MAX_ENTRIES));
+    }
+    Optional<Prefetcher> prefetcher = Optional.absent();
+    if (POLL_AND_RUN_FLAGS.isPrefetch()) {
+      if (POLL_AND_RUN_FLAGS.getPrefetchThreads() < 1) {
+        throw new ParseException("--prefetchthreads must be at least 1.");
+      }
+      prefetcher = Optional.of(new Prefetcher(runDao, RUNNER_FLAGS.getBaseModelPath(),
+          Constants.DEFAULT_PREFETCH_MAX_RUNS, POLL_AND_RUN_FLAGS.getPrefetchThreads(), codeManifest));
+    }
     return new PollAndRun(runDao, resultsCopier, baseLocalOutputPath, RUNNER_FLAGS.getBaseModelPath(),
-        new RunnerFactory());
+        newRunnerFactory(), prefetcher, codeManifest);
+  }
+
+  /**
+   * Creates a runner factory whose runners build the runtime environments declared by projects within the tzar
+   * base directory.
+   */
+  private static RunnerFactory newRunnerFactory() {
+    return new RunnerFactory(new File(RUNNER_FLAGS.getTzarBaseDirectory(), Constants.ENVIRONMENTS_DIR));
+  }
+
+  /**
+   * Returns the url at which this node's web server serves its content cache, which must be within the tzar
+   * base directory.
+   */
+  private static String getContentCacheUrl(String hostname, File tzarBaseDirectory, File baseModelPath)
+      throws IOException {
+    String basePath = tzarBaseDirectory.getCanonicalPath() + File.separator;
+    String cachePath = new File(baseModelPath, Constants.CONTENT_CACHE_DIR).getCanonicalPath();
+    if (!cachePath.startsWith(basePath)) {
+      throw new ParseException("--peerdistribution requires the base model path to be within the tzar base " +
+          "directory.");
+    }
+    return String.format("http://%s:%d/%s", hostname, Constants.WEBSERVER_PORT,
+        cachePath.substring(basePath.length()).replace(File.separatorChar, '/'));
+  }
+
+  public Command newPrefetch() throws TzarException, ParseException {
+    if (PREFETCH_FLAGS.getMaxRuns() < 1 || PREFETCH_FLAGS.getThreads() < 1) {
+      throw new ParseException("--maxruns and --threads must be at least 1.");
+    }
+    RunDao runDao = createDaoFactory().createRunDao();
+    Prefetcher prefetcher = new Prefetcher(runDao, RUNNER_FLAGS.getBaseModelPath(), PREFETCH_FLAGS.getMaxRuns(),
+        PREFETCH_FLAGS.getThreads(), Optional.<CodeManifest>absent());
+    return new Prefetch(prefetcher, PREFETCH_FLAGS.getRunset(), PREFETCH_FLAGS.getClusterName());
   }
 
   public Command newPrintRun() throws TzarException, ParseException {
-    DaoFactory daoFactory = new DaoFactory(getDbUrl(), codeSourceFactory);
+    DaoFactory daoFactory = createDaoFactory();
     return new PrintRun(daoFactory.createParametersDao(), PRINT_RUN_FLAGS.getRunId(),
         PRINT_TABLE_FLAGS.isTruncateOutput(), PRINT_TABLE_FLAGS.getOutputType());
   }
 
+  public Command newPrintRunsets() throws TzarException, ParseException {
+    DaoFactory daoFactory = createDaoFactory();
+    return new PrintRunsets(daoFactory.createRunDao(), PRINT_RUNSETS_FLAGS.getRunset(),
+        PRINT_TABLE_FLAGS.isTruncateOutput(), PRINT_TABLE_FLAGS.getOutputType());
+  }
+
   public Command newScheduleRuns() throws IOException, TzarException, ParseException {
-    DaoFactory daoFactory = new DaoFactory(getDbUrl(), codeSourceFactory);
+    DaoFactory daoFactory = createDaoFactory();
 
     CodeSourceImpl.RepositoryTypeImpl repositoryType = CREATE_RUNS_FLAGS.getRepositoryType();
 
@@ -142,8 +229,51 @@ class CommandFactory {
         CREATE_RUNS_FLAGS.getRunset(),
         SCHEDULE_RUNS_FLAGS.getClusterName(),
         projectSpec);
-    return new ScheduleRuns(daoFactory.createRunDao(), CREATE_RUNS_FLAGS.getNumRuns(), runFactory,
-            CREATE_RUNS_FLAGS.isDryRun());
+    RunDao runDao = daoFactory.createRunDao();
+    Optional<AdaptiveRunset> adaptiveRunset = Optional.absent();
+    if (SCHEDULE_RUNS_FLAGS.getAdaptiveMetric().isPresent() && SCHEDULE_RUNS_FLAGS.getHalvingMetric().isPresent()) {
+      throw new ParseException("--adaptivemetric and --halvingmetric can't both be set.");
+    }
+    if (SCHEDULE_RUNS_FLAGS.getAdaptiveMetric().isPresent()) {
+      if (SCHEDULE_RUNS_FLAGS.getCiHalfWidth() == null) {
+        throw new ParseException("--cihalfwidth must be set if --adaptivemetric is set.");
+      }
+      if (SCHEDULE_RUNS_FLAGS.getWaveSize() < 2) {
+        throw new ParseException("--wavesize must be at least 2.");
+      }
+      adaptiveRunset = Optional.<AdaptiveRunset>of(new AdaptiveSampler(runDao,
+          SCHEDULE_RUNS_FLAGS.getAdaptiveMetric().get(),
+          new ConvergenceCriterion(SCHEDULE_RUNS_FLAGS.getCiHalfWidth(), SCHEDULE_RUNS_FLAGS.isCiRelative()),
+          SCHEDULE_RUNS_FLAGS.getWaveSize(), Constants.ADAPTIVE_POLL_INTERVAL_MS,
+          SCHEDULE_RUNS_FLAGS.getReplicateKeys()));
+    }
+    if (SCHEDULE_RUNS_FLAGS.getHalvingMetric().isPresent()) {
+      if (SCHEDULE_RUNS_FLAGS.getFidelityKey() == null) {
+        throw new ParseException("--fidelitykey must be set if --halvingmetric is set.");
+      }
+      if (SCHEDULE_RUNS_FLAGS.getMinFidelity() < 1 ||
+          SCHEDULE_RUNS_FLAGS.getMaxFidelity() < SCHEDULE_RUNS_FLAGS.getMinFidelity()) {
+        throw new ParseException("--maxfidelity must be set, and 1 <= --minfidelity <= --maxfidelity.");
+      }
+      if (SCHEDULE_RUNS_FLAGS.getReductionFactor() < 2) {
+        throw new ParseException("--reductionfactor must be at least 2.");
+      }
+      adaptiveRunset = Optional.<AdaptiveRunset>of(new SuccessiveHalving(runDao,
+          SCHEDULE_RUNS_FLAGS.getHalvingMetric().get(),
+          SCHEDULE_RUNS_FLAGS.isMaximise() ? ParameterSearch.Goal.MAXIMISE : ParameterSearch.Goal.MINIMISE,
+          SCHEDULE_RUNS_FLAGS.getFidelityKey(), SCHEDULE_RUNS_FLAGS.getMinFidelity(),
+          SCHEDULE_RUNS_FLAGS.getMaxFidelity(), SCHEDULE_RUNS_FLAGS.getReductionFactor(),
+          Constants.ADAPTIVE_POLL_INTERVAL_MS));
+    }
+    if (SCHEDULE_RUNS_FLAGS.getInsertThreads() < 1) {
+      throw new ParseException("--insertthreads must be at least 1.");
+    }
+    return new ScheduleRuns(runDao, CREATE_RUNS_FLAGS.getNumRuns(), runFactory, CREATE_RUNS_FLAGS.isDryRun(),
+        adaptiveRunset, SCHEDULE_RUNS_FLAGS.getInsertThreads());
+  }
+
+  private DaoFactory createDaoFactory() throws ParseException, TzarException {
+    return new DaoFactory(getDbUrl(), DB_FLAGS.getPoolSize(), DB_FLAGS.getStatementCacheSize(), codeSourceFactory);
   }
 
   private String getDbUrl() throws ParseException {
@@ -165,6 +295,18 @@ class CommandFactory {
         return factory.newAggregateResults();
       }
     },
+    ARCHIVE_RUNS("archiveruns", ArchiveRuns.FLAGS) {
+      @Override
+      Command instantiate(CommandFactory factory) throws IOException, TzarException, ParseException {
+        return factory.newArchiveRuns();
+      }
+    },
+    CACHE("cache", ManageCache.FLAGS) {
+      @Override
+      Command instantiate(CommandFactory factory) throws IOException, TzarException, ParseException {
+        return factory.newCache();
+      }
+    },
     EXEC_LOCAL_RUNS("execlocalruns", ExecLocalRuns.FLAGS) {
       @Override
       Command instantiate(CommandFactory factory) throws IOException, TzarException, ParseException {
@@ -183,6 +325,12 @@ class CommandFactory {
         return factory.newPollAndRun();
       }
     },
+    PREFETCH("prefetch", Prefetch.FLAGS) {
+      @Override
+      Command instantiate(CommandFactory factory) throws IOException, TzarException, ParseException {
+        return factory.newPrefetch();
+      }
+    },
     PRINT_RUNS("printruns", PrintRuns.FLAGS) {
       @Override
       Command instantiate(CommandFactory factory) throws IOException, TzarException, ParseException {
@@ -195,6 +343,12 @@ class CommandFactory {
         return factory.newPrintRun();
       }
     },
+    PRINT_RUNSETS("printrunsets", PrintRunsets.FLAGS) {
+      @Override
+      Command instantiate(CommandFactory factory) throws IOException, TzarException, ParseException {
+        return factory.newPrintRunsets();
+      }
+    },
     SCHEDULE_RUNS("scheduleruns", ScheduleRuns.FLAGS) {
       @Override
       Command instantiate(CommandFactory factory) throws IOException, TzarException, ParseException {
@@ -18,12 +18,16 @@ import java.util.List;
  */
 public class CommandFlags {
   public static final AggregateResultsFlags AGGREGATE_RESULTS_FLAGS = new AggregateResultsFlags();
+  public static final ArchiveRunsFlags ARCHIVE_RUNS_FLAGS = new ArchiveRunsFlags();
+  public static final CacheFlags CACHE_FLAGS = new CacheFlags();
   public static final ExecLocalRunsFlags EXEC_LOCAL_RUNS_FLAGS = new ExecLocalRunsFlags();
   public static final HelpFlags HELP_FLAGS = new HelpFlags();
   public static final PollAndRunFlags POLL_AND_RUN_FLAGS = new PollAndRunFlags();
+  public static final PrefetchFlags PREFETCH_FLAGS = new PrefetchFlags();
   public static final ScheduleRunsFlags SCHEDULE_RUNS_FLAGS = new ScheduleRunsFlags();
   public static final PrintRunsFlags PRINT_RUNS_FLAGS = new PrintRunsFlags();
   public static final PrintRunFlags PRINT_RUN_FLAGS = new PrintRunFlags();
+  public static final PrintRunsetsFlags PRINT_RUNSETS_FLAGS = new PrintRunsetsFlags();
 
   /**
    * Command line commandFlags for PollAndRun.
@@ -50,7 +54,8 @@ public class CommandFlags {
         "server. Defaults to $HOME/.ssh/id_rsa", converter = FileConverter.class)
     private File pemFile = new File(System.getProperty("user.home"), ".ssh/id_rsa");
 
-    @Parameter(names = "--runset", description = "Name of runset to poll for. If omitted, will poll for any runs.",
+    @Parameter(names = "--runset", description = "Name of runset to poll for. May include SQL wildcards (eg '%'), " +
+        "though runsets are found fastest by their exact name. If omitted, will poll for any runs.",
         converter=Converters.OptionalString.class)
     private Optional<String> runset = Optional.absent();
 
@@ -74,10 +79,45 @@ public class CommandFlags {
     @Parameter(names = "--clustername", description = "Name of the cluster on which this node is running.")
     private String clusterName = Constants.DEFAULT_CLUSTER_NAME;
 
+    @Parameter(names = "--peerdistribution", description = "Copy models and libraries downloaded over http from " +
+        "other nodes which have already downloaded them, rather than downloading them from the origin server, " +
+        "and serve downloaded models and libraries to other nodes. Requires the base model path to be within the " +
+        "tzar base directory, which is served by each node's web server.")
+    private boolean peerDistribution = false;
+
+    @Parameter(names = "--prefetch", description = "Retrieve the models and libraries used by the next scheduled " +
+        "runs in the background, before the runs start.")
+    private boolean prefetch = false;
+
+    @Parameter(names = "--prefetchthreads", description = "Maximum number of models and libraries to prefetch at " +
+        "once.")
+    private int prefetchThreads = Constants.DEFAULT_PREFETCH_THREADS;
+
+    @Parameter(names = "--localityscheduling", description = "Prefer to claim runs whose model and libraries this " +
+        "node has already retrieved, and publish the models and libraries it has retrieved to the database. A run " +
+        "is never passed over for more than " + Constants.LOCALITY_MAX_DELAY_SECONDS + " seconds.")
+    private boolean localityScheduling = false;
+
     public String getClusterName() {
       return clusterName;
     }
 
+    public boolean isPeerDistribution() {
+      return peerDistribution;
+    }
+
+    public boolean isPrefetch() {
+      return prefetch;
+    }
+
+    public int getPrefetchThreads() {
+      return prefetchThreads;
+    }
+
+    public boolean isLocalityScheduling() {
+      return localityScheduling;
+    }
+
     public int getConcurrentTaskCount() {
       return concurrentTaskCount;
     }
@@ -136,9 +176,114 @@ public class CommandFlags {
     @Parameter(names = "--clustername", description = "Name of cluster to run on.")
     private String clusterName = Constants.DEFAULT_CLUSTER_NAME;
 
+    @Parameter(names = "--adaptivemetric", description = "Name of a metric reported by the runs (in the " +
+        Constants.METRICS_FILE_NAME + " file in their output directory). If set, the runs are scheduled in " +
+        "waves, and the remaining repetitions of each scenario are cancelled once the confidence interval of the " +
+        "mean of this metric is narrower than --cihalfwidth. This command keeps running until all waves are done.",
+        converter = Converters.OptionalString.class)
+    private Optional<String> adaptiveMetric = Optional.absent();
+
+    @Parameter(names = "--cihalfwidth", description = "Half-width of the 95% confidence interval at which the " +
+        "adaptive metric is considered to have converged. Required if --adaptivemetric is set.")
+    private Double ciHalfWidth;
+
+    @Parameter(names = "--cirelative", description = "If set, --cihalfwidth is a fraction of the mean of the " +
+        "adaptive metric, rather than an absolute value.")
+    private boolean ciRelative = false;
+
+    @Parameter(names = "--wavesize", description = "Number of repetitions of each scenario to release at a time " +
+        "when --adaptivemetric is set.")
+    private int waveSize = 10;
+
+    @Parameter(names = "--replicatekeys", description = "Comma separated list of parameters whose values differ " +
+        "between repetitions of the same scenario (eg a random seed). Runs which differ only in these parameters " +
+        "are treated as repetitions when --adaptivemetric is set.")
+    private List<String> replicateKeys = new ArrayList<String>();
+
+    @Parameter(names = "--halvingmetric", description = "Name of a metric reported by the runs (in the " +
+        Constants.METRICS_FILE_NAME + " file in their output directory). If set, each run is first scheduled with " +
+        "the --fidelitykey parameter set to --minfidelity. Once they have finished, only the best runs by this " +
+        "metric are scheduled again at a higher fidelity, until --maxfidelity is reached (successive halving). " +
+        "This command keeps running until the last round is done.",
+        converter = Converters.OptionalString.class)
+    private Optional<String> halvingMetric = Optional.absent();
+
+    @Parameter(names = "--maximise", description = "If set, higher values of --halvingmetric are better. " +
+        "Otherwise, lower values are better.")
+    private boolean maximise = false;
+
+    @Parameter(names = "--fidelitykey", description = "Name of the parameter which controls the fidelity of a " +
+        "run, eg the number of timesteps. Required if --halvingmetric is set.")
+    private String fidelityKey;
+
+    @Parameter(names = "--minfidelity", description = "Value of --fidelitykey for the first round of successive " +
+        "halving.")
+    private int minFidelity = 1;
+
+    @Parameter(names = "--maxfidelity", description = "Value of --fidelitykey for the last round of successive " +
+        "halving. Required if --halvingmetric is set.")
+    private int maxFidelity;
+
+    @Parameter(names = "--reductionfactor", description = "Only the best 1 in this many runs are kept after each " +
+        "round of successive halving, and the fidelity is multiplied by this factor.")
+    private int reductionFactor = 3;
+
+    @Parameter(names = "--insertthreads", description = "Number of chunks of runs to insert into the database " +
+        "concurrently, each over its own connection. Runs are generated while earlier chunks are being inserted. " +
+        "Should be no greater than --dbpoolsize.")
+    private int insertThreads = Constants.DEFAULT_INSERT_THREADS;
+
     public String getClusterName() {
       return clusterName;
     }
+
+    public Optional<String> getAdaptiveMetric() {
+      return adaptiveMetric;
+    }
+
+    public Double getCiHalfWidth() {
+      return ciHalfWidth;
+    }
+
+    public boolean isCiRelative() {
+      return ciRelative;
+    }
+
+    public int getWaveSize() {
+      return waveSize;
+    }
+
+    public List<String> getReplicateKeys() {
+      return replicateKeys;
+    }
+
+    public Optional<String> getHalvingMetric() {
+      return halvingMetric;
+    }
+
+    public boolean isMaximise() {
+      return maximise;
+    }
+
+    public String getFidelityKey() {
+      return fidelityKey;
+    }
+
+    public int getMinFidelity() {
+      return minFidelity;
+    }
+
+    public int getMaxFidelity() {
+      return maxFidelity;
+    }
+
+    public int getReductionFactor() {
+      return reductionFactor;
+    }
+
+    public int getInsertThreads() {
+      return insertThreads;
+    }
   }
 
   @Parameters(commandDescription = "Display help information about the specified command. " +
@@ -174,6 +319,108 @@ public class CommandFlags {
     }
   }
 
+  @Parameters(commandDescription = "Move finished runs into the history tables. Archived runs can still be " +
+      "printed and aggregated, but no longer slow down scheduling.", separators = "= ")
+  public static class ArchiveRunsFlags {
+    private ArchiveRunsFlags() {
+    }
+
+    @Parameter(names = "--olderthandays", description = "Only archive runs which finished at least this many days " +
+        "ago.")
+    private int olderThanDays = 7;
+
+    @Parameter(names = "--batchsize", description = "Number of runs to archive in each transaction.")
+    private int batchSize = 10000;
+
+    public int getOlderThanDays() {
+      return olderThanDays;
+    }
+
+    public int getBatchSize() {
+      return batchSize;
+    }
+  }
+
+  @Parameters(commandDescription = "Lists the models and libraries in this node's download cache, or prunes " +
+      "the cache down to a maximum size.", separators = "= ")
+  public static class CacheFlags {
+    private CacheFlags() {
+    }
+
+    @Parameter(names = "--prune", description = "Evict the least recently used objects until the cache is no " +
+        "larger than --maxsizemb.")
+    private boolean prune = false;
+
+    @Parameter(names = "--maxsizemb", description = "Size to prune the cache to, in megabytes.")
+    private long maxSizeMb = Constants.DEFAULT_CONTENT_CACHE_QUOTA_BYTES / (1024 * 1024);
+
+    @Parameter(names = "--minagehours", description = "Objects used within this many hours are never evicted, " +
+        "even if no run is using them.")
+    private int minAgeHours = (int) (Constants.CONTENT_CACHE_MIN_AGE_MS / (60 * 60 * 1000));
+
+    public boolean isPrune() {
+      return prune;
+    }
+
+    public long getMaxSizeMb() {
+      return maxSizeMb;
+    }
+
+    public int getMinAgeHours() {
+      return minAgeHours;
+    }
+  }
+
+  @Parameters(commandDescription = "Retrieves the models and libraries used by the next runs scheduled on a " +
+      "cluster into this node's local caches, before the runs start.", separators = "= ")
+  public static class PrefetchFlags {
+    private PrefetchFlags() {
+    }
+
+    @Parameter(names = "--clustername", description = "Name of the cluster on which this node is running.")
+    private String clusterName = Constants.DEFAULT_CLUSTER_NAME;
+
+    @Parameter(names = "--runset", description = "Name of runset to prefetch for. May include SQL wildcards " +
+        "(eg '%'). If omitted, will prefetch for any runset.", converter = Converters.OptionalString.class)
+    private Optional<String> runset = Optional.absent();
+
+    @Parameter(names = "--maxruns", description = "Maximum number of scheduled runs to look at.")
+    private int maxRuns = Constants.DEFAULT_PREFETCH_MAX_RUNS;
+
+    @Parameter(names = "--threads", description = "Maximum number of models and libraries to retrieve at once.")
+    private int threads = Constants.DEFAULT_PREFETCH_THREADS;
+
+    public String getClusterName() {
+      return clusterName;
+    }
+
+    public Optional<String> getRunset() {
+      return runset;
+    }
+
+    public int getMaxRuns() {
+      return maxRuns;
+    }
+
+    public int getThreads() {
+      return threads;
+    }
+  }
+
+  @Parameters(commandDescription = "Prints summary statistics for each runset.", separators = "= ")
+  public static class PrintRunsetsFlags {
+    private PrintRunsetsFlags() {
+    }
+
+    @Parameter(names = "--runset", description = "Runset name to filter by. May include SQL wildcards (eg '%').",
+        converter=Converters.OptionalString.class)
+    private Optional<String> runset = Optional.absent();
+
+    public Optional<String> getRunset() {
+      return runset;
+    }
+  }
+
   /**
    * Command line commandFlags for Consolidate Data command.
    */
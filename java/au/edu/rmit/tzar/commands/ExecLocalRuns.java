@@ -53,7 +53,8 @@ public class ExecLocalRuns implements Command {
 
   @Override
   public boolean execute() throws InterruptedException, TzarException {
-    List<Run> runs = runFactory.createRuns(numRuns);
+    // runs are generated as they are executed. we only keep them if they're needed for the map-reduce.
+    List<Run> executedRuns = Lists.newArrayList();
     List<Integer> failedIds = Lists.newArrayList();
 
     // if another thread stops the run (by calling stopRun.stop(), finish after the current
@@ -66,8 +67,13 @@ public class ExecLocalRuns implements Command {
       }
     });
 
+    if (runFactory.getSearch().isPresent()) {
+      LOG.warning("The project defines a parameter search, which requires a database. Use scheduleruns to run " +
+          "the search. Executing the project's other repetitions only.");
+    }
+
     int completeCount = 0;
-    for (Run run : runs) {
+    for (Run run : runFactory.generateRuns(numRuns)) {
       if (stopped.get()) {
         break;
       }
@@ -76,6 +82,9 @@ public class ExecLocalRuns implements Command {
       if (!executableRun.execute(stopRun)) {
         failedIds.add(run.getRunId());
       }
+      if (mapReduce.isPresent()) {
+        executedRuns.add(run);
+      }
       completeCount++;
     }
 
@@ -86,7 +95,7 @@ public class ExecLocalRuns implements Command {
       if (dryRun) {
         LOG.info("Would have executed Map-reduce here were this not a dry run.");
       } else if (failedIds.isEmpty()) {
-        mapReduce.get().execute(runs, runsetOutputPath);
+        mapReduce.get().execute(executedRuns, runsetOutputPath);
       } else {
         LOG.warning("Did not execute map-reduce as one or more of the runs failed.");
       }
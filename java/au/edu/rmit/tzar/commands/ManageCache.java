@@ -0,0 +1,63 @@
+package au.edu.rmit.tzar.commands;
+
+import au.edu.rmit.tzar.api.TzarException;
+import au.edu.rmit.tzar.db.TablePrinter;
+import au.edu.rmit.tzar.repository.ContentCache;
+import com.google.common.base.Joiner;
+import com.google.common.collect.ImmutableList;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import static au.edu.rmit.tzar.commands.SharedFlags.RUNNER_FLAGS;
+
+/**
+ * Lists the contents of the node's cache of downloaded models and libraries, or evicts the least recently
+ * used objects from it.
+ */
+class ManageCache implements Command {
+  private static final Logger LOG = Logger.getLogger(ManageCache.class.getName());
+  public static final Object[] FLAGS = new Object[]{CommandFlags.CACHE_FLAGS, RUNNER_FLAGS};
+
+  private final ContentCache cache;
+  private final boolean prune;
+  private final long maxBytes;
+
+  /**
+   * Constructor.
+   *
+   * @param cache the cache to list or prune
+   * @param prune whether to prune the cache, rather than list it
+   * @param maxBytes size to prune the cache to
+   */
+  public ManageCache(ContentCache cache, boolean prune, long maxBytes) {
+    this.cache = cache;
+    this.prune = prune;
+    this.maxBytes = maxBytes;
+  }
+
+  @Override
+  public boolean execute() throws InterruptedException, TzarException {
+    if (prune) {
+      long evicted = cache.evict(maxBytes);
+      LOG.log(Level.INFO, "Evicted {0} bytes from the cache.", evicted);
+      return true;
+    }
+    List<ContentCache.Entry> entries = cache.list();
+    TablePrinter printer = new TablePrinter(ImmutableList.of("object", "size_bytes", "last_used", "locations"),
+        false, System.out);
+    SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+    long total = 0;
+    for (ContentCache.Entry entry : entries) {
+      printer.addRow(entry.getObject().getName(), Long.toString(entry.getSizeBytes()),
+          dateFormat.format(new Date(entry.getLastUsed())), Joiner.on(", ").join(entry.getLocations()));
+      total += entry.getSizeBytes();
+    }
+    printer.print();
+    LOG.log(Level.INFO, "{0} objects, {1} bytes in total.", new Object[]{entries.size(), total});
+    return true;
+  }
+}
@@ -6,11 +6,13 @@ import au.edu.rmit.tzar.api.Constants;
 import au.edu.rmit.tzar.api.Run;
 import au.edu.rmit.tzar.api.TzarException;
 import au.edu.rmit.tzar.db.RunDao;
+import au.edu.rmit.tzar.parser.YamlParser;
 import au.edu.rmit.tzar.resultscopier.ResultsCopier;
 import au.edu.rmit.tzar.runners.RunnerFactory;
 import com.google.common.base.Optional;
 
 import java.io.File;
+import java.io.IOException;
 import java.util.Date;
 import java.util.List;
 import java.util.Timer;
@@ -42,6 +44,8 @@ class PollAndRun implements Command {
   private final File baseModelPath;
   private final RunnerFactory runnerFactory;
   private final List<String> repositoryUriPrefixes;
+  private final Optional<Prefetcher> prefetcher;
+  private final Optional<CodeManifest> codeManifest;
 
   /**
    * Constructor.
@@ -66,6 +70,8 @@ class PollAndRun implements Command {
     this.clusterName = clusterName;
     this.resultsCopier = resultsCopier;
     this.repositoryUriPrefixes = repositoryUriPrefixes;
+    this.prefetcher = Optional.absent();
+    this.codeManifest = Optional.absent();
   }
 
   /**
@@ -77,9 +83,14 @@ class PollAndRun implements Command {
    * @param tzarOutputPath base local path for output of the runs
    * @param baseModelPath base local path for the model code
    * @param runnerFactory to create runners
+   * @param prefetcher to retrieve the models and libraries of upcoming runs in the background, or absent to
+   *                   retrieve them only when each run starts
+   * @param codeManifest to publish the models and libraries this node has retrieved, and prefer runs which use
+   *                     them, or absent to claim runs in order
    */
-  public PollAndRun(RunDao runDao, ResultsCopier resultsCopier,
-      File tzarOutputPath, File baseModelPath, RunnerFactory runnerFactory) throws TzarException {
+  public PollAndRun(RunDao runDao, ResultsCopier resultsCopier, File tzarOutputPath, File baseModelPath,
+      RunnerFactory runnerFactory, Optional<Prefetcher> prefetcher, Optional<CodeManifest> codeManifest)
+      throws TzarException {
     this.tzarOutputPath = tzarOutputPath;
     this.runnerFactory = runnerFactory;
     this.runDao = runDao;
@@ -89,6 +100,8 @@ class PollAndRun implements Command {
     this.clusterName = POLL_AND_RUN_FLAGS.getClusterName();
     this.resultsCopier = resultsCopier;
     repositoryUriPrefixes = POLL_AND_RUN_FLAGS.getRepositoryUriPrefixes();
+    this.prefetcher = prefetcher;
+    this.codeManifest = codeManifest;
   }
 
   /**
@@ -104,8 +117,23 @@ class PollAndRun implements Command {
     final Timer timer = new Timer();
     final TimerTask task = new PollTask(stop, spinner, timer);
     timer.schedule(task, 0 /* start polling straightaway */);
+    // prefetching has its own timer, so that it never delays polling.
+    Optional<Timer> prefetchTimer = Optional.absent();
+    if (prefetcher.isPresent()) {
+      prefetchTimer = Optional.of(new Timer(true));
+      prefetchTimer.get().schedule(new PrefetchTask(), 0, Constants.PREFETCH_INTERVAL_MS);
+    }
 
     stop.await(); // wait until the poll task signals that it's done
+    if (prefetchTimer.isPresent()) {
+      prefetchTimer.get().cancel();
+      prefetcher.get().shutdown();
+    }
+    try {
+      runDao.flushDeferredUpdates();
+    } catch (TzarException e) {
+      LOG.log(Level.SEVERE, "Error writing run status changes to the database. Run statuses may be invalid.", e);
+    }
     return true;
   }
 
@@ -122,7 +150,12 @@ class PollAndRun implements Command {
       return;
     }
 
-    new DbExecutableRun(executableRun, resultsCopier, runDao, repositoryUriPrefixes).run();
+    DbExecutableRun dbExecutableRun = new DbExecutableRun(executableRun, resultsCopier, runDao,
+        repositoryUriPrefixes);
+    dbExecutableRun.run();
+    if (codeManifest.isPresent() && dbExecutableRun.isSuccess()) {
+      codeManifest.get().addRun(executableRun.getRetrievedCode());
+    }
   }
 
   /**
@@ -133,7 +166,13 @@ class PollAndRun implements Command {
   private void pollUntilDone() throws TzarException, InterruptedException {
     while (true) {
       LOG.finer("Polling for next run.");
-      Optional<Run> run = runDao.getNextRun(runset, clusterName);
+      Optional<Run> run;
+      if (codeManifest.isPresent()) {
+        codeManifest.get().publish();
+        run = runDao.getNextRun(runset, clusterName, Utils.getHostname());
+      } else {
+        run = runDao.getNextRun(runset, clusterName);
+      }
       if (!run.isPresent()) {
         return;
       }
@@ -153,6 +192,7 @@ class PollAndRun implements Command {
     private final Run run;
     private final RunDao runDao;
     private final List<String> repositoryUriPrefixes;
+    private boolean success = false;
 
     public DbExecutableRun(ExecutableRun executableRun, ResultsCopier resultsCopier, RunDao runDao,
         List<String> repositoryUriPrefixes) {
@@ -165,7 +205,6 @@ class PollAndRun implements Command {
 
     @Override
     public void run() {
-      boolean success = false;
       try {
         success = checkUriPrefixes(run) && executableRun.execute();
       } catch (RuntimeException e) { // note: we eat these exceptions because we don't want to kill the thread.
@@ -173,24 +212,15 @@ class PollAndRun implements Command {
       } finally {
         run.setEndTime(new Date());
         if (success) {
+          saveMetrics();
           run.setState(Run.State.COMPLETED);
         } else {
           run.setState(Run.State.FAILED);
         }
 
-        try {
-          Utils.Retryable.retryWithBackoff(5/* retry attempts */ ,
-              5000/* initial backoff */,
-              new Utils.Retryable() {
-            public void exec() throws TzarException {
-              runDao.persistRun(run);
-            }
-          });
-        } catch (TzarException e) {
-          LOG.log(Level.SEVERE, "Error occurred persisting run status change for Run:" + run.getRunId() +
-              " to database. Run status will be invalid.", e);
-          System.out.println("\n");
-        }
+        // the final state is written in a batch with other queued updates. if the results copier also
+        // updates the run before the batch is written, only the latest state is written.
+        runDao.persistRunDeferred(run);
       }
 
       try {
@@ -200,6 +230,31 @@ class PollAndRun implements Command {
       }
     }
 
+    /**
+     * Returns true if the run executed successfully.
+     */
+    public boolean isSuccess() {
+      return success;
+    }
+
+    /**
+     * Saves the metrics reported by the run (if any) to the database. This is done before the run is marked
+     * as completed, so that anything waiting for the run to complete (eg an adaptive runset) sees its metrics.
+     */
+    private void saveMetrics() {
+      File metricsFile = new File(executableRun.getOutputPath(), Constants.METRICS_FILE_NAME);
+      if (!metricsFile.exists()) {
+        return;
+      }
+      try {
+        runDao.insertMetrics(run.getRunId(), new YamlParser().metricsFromYaml(metricsFile));
+      } catch (IOException e) {
+        LOG.log(Level.WARNING, "Couldn't read the metrics for run: " + run.getRunId(), e);
+      } catch (TzarException e) {
+        LOG.log(Level.WARNING, "Couldn't save the metrics for run: " + run.getRunId(), e);
+      }
+    }
+
     /**
      * Make sure that the run source URL begins with one of the allowed prefixes. Otherwise, fail the run.
      * @param run the run to check.
@@ -246,6 +301,8 @@ class PollAndRun implements Command {
       // keep polling until there are no more runs
       int nextPollInterval;
       try {
+        // write any run updates that were saved while the database was unavailable.
+        runDao.flushDeferredUpdates();
         pollUntilDone();
         nextPollInterval = pollRateMs; // success! reset poll interval to standard
       } catch (Exception e) {
@@ -275,6 +332,22 @@ class PollAndRun implements Command {
     }
   }
 
+  /**
+   * Queues the retrieval of the models and libraries used by the next scheduled runs.
+   */
+  private class PrefetchTask extends TimerTask {
+    @Override
+    public void run() {
+      try {
+        prefetcher.get().prefetch(runset, clusterName);
+      } catch (TzarException e) {
+        LOG.log(Level.WARNING, "Couldn't look up the scheduled runs to prefetch.", e);
+      } catch (RuntimeException e) { // don't let an exception cancel the timer.
+        LOG.log(Level.WARNING, "Error occurred prefetching models and libraries.", e);
+      }
+    }
+  }
+
   private static class Spinner extends TimerTask {
     private static final String BACKSPACE = "\b";
     private static final char[] SYMBOL = new char[]{'-', '\\', '|', '/'};
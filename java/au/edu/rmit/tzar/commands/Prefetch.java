@@ -0,0 +1,64 @@
+package au.edu.rmit.tzar.commands;
+
+import au.edu.rmit.tzar.api.TzarException;
+import com.google.common.base.Optional;
+
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import static au.edu.rmit.tzar.commands.SharedFlags.DB_FLAGS;
+import static au.edu.rmit.tzar.commands.SharedFlags.RUNNER_FLAGS;
+
+/**
+ * Retrieves the models and libraries used by the next runs scheduled on a cluster into this node's local
+ * caches, so that nodes can be warmed up before a runset starts.
+ */
+class Prefetch implements Command {
+  private static final Logger LOG = Logger.getLogger(Prefetch.class.getName());
+  public static final Object[] FLAGS = new Object[]{CommandFlags.PREFETCH_FLAGS, DB_FLAGS, RUNNER_FLAGS};
+
+  private final Prefetcher prefetcher;
+  private final Optional<String> runset;
+  private final String clusterName;
+
+  /**
+   * Constructor.
+   *
+   * @param prefetcher to retrieve the models and libraries
+   * @param runset runset to look at, or absent for any runset
+   * @param clusterName name of the cluster whose scheduled runs to look at
+   */
+  public Prefetch(Prefetcher prefetcher, Optional<String> runset, String clusterName) {
+    this.prefetcher = prefetcher;
+    this.runset = runset;
+    this.clusterName = clusterName;
+  }
+
+  @Override
+  public boolean execute() throws InterruptedException, TzarException {
+    try {
+      List<Future<Boolean>> futures = prefetcher.prefetch(runset, clusterName);
+      int succeeded = 0;
+      for (int i = 0; i < futures.size(); i++) {
+        try {
+          if (futures.get(i).get()) {
+            succeeded++;
+          }
+        } catch (ExecutionException e) {
+          throw new TzarException(e.getCause());
+        }
+        LOG.log(Level.INFO, "Prefetched {0} of {1} models and libraries.", new Object[]{i + 1, futures.size()});
+      }
+      if (succeeded < futures.size()) {
+        LOG.log(Level.WARNING, "Couldn't prefetch {0} models and libraries.", futures.size() - succeeded);
+        return false;
+      }
+      return true;
+    } finally {
+      prefetcher.shutdown();
+    }
+  }
+}
@@ -0,0 +1,157 @@
+package au.edu.rmit.tzar.commands;
+
+import au.edu.rmit.tzar.Metrics;
+import au.edu.rmit.tzar.api.CodeSource;
+import au.edu.rmit.tzar.api.TzarException;
+import au.edu.rmit.tzar.db.RunDao;
+import au.edu.rmit.tzar.parser.beans.DownloadMode;
+import com.google.common.base.Optional;
+import com.google.common.collect.Lists;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Retrieves the models and libraries used by the next runs scheduled on the cluster, before the runs start, so
+ * that the first run on each node doesn't have to wait for them, and the downloads are spread out rather than
+ * all happening at once when a runset starts.
+ *
+ * Progress is published as gauges at /metrics: prefetch_pending, prefetch_completed, prefetch_skipped and
+ * prefetch_failed, and the time taken by each retrieval by the prefetch timer.
+ */
+class Prefetcher {
+  private static final Logger LOG = Logger.getLogger(Prefetcher.class.getName());
+  private static final Metrics.Timer PREFETCH = Metrics.timer("prefetch");
+  // the maximum number of models and libraries remembered as queued.
+  private static final int MAX_QUEUED = 1000;
+
+  private final RunDao runDao;
+  private final File baseModelPath;
+  private final int maxRuns;
+  private final ExecutorService executor;
+  private final Optional<CodeManifest> codeManifest;
+  // models and libraries which have been queued by this process, and which haven't failed. each is only retrieved
+  // once, unless it is forgotten to make room for others.
+  private final Set<CodeSource> queued = Collections.synchronizedSet(Collections.newSetFromMap(
+      new LinkedHashMap<CodeSource, Boolean>() {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<CodeSource, Boolean> eldest) {
+          return size() > MAX_QUEUED;
+        }
+      }));
+  private final AtomicLong pending = new AtomicLong();
+  private final AtomicLong completed = new AtomicLong();
+  private final AtomicLong skipped = new AtomicLong();
+  private final AtomicLong failed = new AtomicLong();
+
+  /**
+   * Constructor.
+   *
+   * @param runDao for finding the scheduled runs
+   * @param baseModelPath base local path for the model code
+   * @param maxRuns maximum number of scheduled runs to look at
+   * @param threads maximum number of models and libraries to retrieve at once
+   * @param codeManifest to record the models and libraries which are retrieved, or absent
+   */
+  Prefetcher(RunDao runDao, File baseModelPath, int maxRuns, int threads, Optional<CodeManifest> codeManifest) {
+    this.runDao = runDao;
+    this.codeManifest = codeManifest;
+    this.baseModelPath = baseModelPath;
+    this.maxRuns = maxRuns;
+    this.executor = Executors.newFixedThreadPool(threads);
+    registerGauge("prefetch_pending", pending);
+    registerGauge("prefetch_completed", completed);
+    registerGauge("prefetch_skipped", skipped);
+    registerGauge("prefetch_failed", failed);
+  }
+
+  /**
+   * Queues the retrieval of the models and libraries used by the next scheduled runs, other than those which
+   * have already been queued. Those which couldn't be retrieved are queued again the next time this is called.
+   * Returns without waiting for them to be retrieved.
+   *
+   * @param runset runset to look at, or absent for any runset
+   * @param clusterName name of the cluster on which this node is running
+   * @return the queued retrievals, each of which returns true if it succeeded
+   * @throws TzarException if the scheduled runs can't be loaded
+   */
+  List<Future<Boolean>> prefetch(Optional<String> runset, String clusterName) throws TzarException {
+    List<Future<Boolean>> futures = Lists.newArrayList();
+    for (Map.Entry<CodeSource, String> entry : runDao.getUpcomingCode(runset, clusterName, maxRuns).entrySet()) {
+      final CodeSource codeSource = entry.getKey();
+      final String name = entry.getValue();
+      // code which is downloaded again for every run gains nothing from being retrieved in advance.
+      if (codeSource.getDownloadMode() == DownloadMode.FORCE || !queued.add(codeSource)) {
+        continue;
+      }
+      pending.incrementAndGet();
+      futures.add(executor.submit(new Callable<Boolean>() {
+        @Override
+        public Boolean call() {
+          long start = PREFETCH.start();
+          try {
+            Optional<File> path = codeSource.prefetchCode(baseModelPath, name);
+            if (path.isPresent()) {
+              LOG.info(String.format("Prefetched %s from %s", name, codeSource.getSourceUri()));
+              completed.incrementAndGet();
+              if (codeManifest.isPresent()) {
+                codeManifest.get().add(codeSource, path.get());
+              }
+            } else {
+              skipped.incrementAndGet();
+            }
+            return true;
+          } catch (TzarException e) {
+            LOG.log(Level.WARNING, String.format("Couldn't prefetch %s from %s", name, codeSource.getSourceUri()),
+                e);
+            failed.incrementAndGet();
+            queued.remove(codeSource);
+            return false;
+          } catch (RuntimeException e) {
+            LOG.log(Level.WARNING, String.format("Couldn't prefetch %s from %s", name, codeSource.getSourceUri()),
+                e);
+            failed.incrementAndGet();
+            queued.remove(codeSource);
+            return false;
+          } finally {
+            pending.decrementAndGet();
+            PREFETCH.stop(start);
+          }
+        }
+      }));
+    }
+    if (!futures.isEmpty()) {
+      LOG.info(String.format("Prefetching %d models and libraries used by scheduled runs.", futures.size()));
+    }
+    return futures;
+  }
+
+  /**
+   * Stops retrieving models and libraries. Retrievals in progress are interrupted.
+   */
+  void shutdown() {
+    executor.shutdownNow();
+  }
+
+  private static void registerGauge(String name, final AtomicLong value) {
+    Metrics.registerGauge(name, new Metrics.Gauge() {
+      @Override
+      public long getValue() {
+        return value.get();
+      }
+    });
+  }
+}
@@ -27,9 +27,7 @@ class PrintRun implements Command {
 
   @Override
   public boolean execute() throws InterruptedException, TzarException {
-    synchronized (parametersDao) {
-      parametersDao.printParameters(runId, truncateOutput, outputType);
-    }
+    parametersDao.printParameters(runId, truncateOutput, outputType);
     return true;
   }
 }
@@ -0,0 +1,35 @@
+package au.edu.rmit.tzar.commands;
+
+import au.edu.rmit.tzar.api.TzarException;
+import au.edu.rmit.tzar.db.RunDao;
+import au.edu.rmit.tzar.db.Utils;
+import com.google.common.base.Optional;
+
+import static au.edu.rmit.tzar.commands.SharedFlags.DB_FLAGS;
+import static au.edu.rmit.tzar.commands.SharedFlags.PRINT_TABLE_FLAGS;
+
+/**
+ * Prints per-runset summary statistics (run counts by state, submission and end times, and total
+ * execution time) from the database to stdout.
+ */
+class PrintRunsets implements Command {
+  public static final Object[] FLAGS = new Object[]{CommandFlags.PRINT_RUNSETS_FLAGS, PRINT_TABLE_FLAGS, DB_FLAGS};
+
+  private final RunDao runDao;
+  private final Optional<String> runset;
+  private final boolean truncateOutput;
+  private final Utils.OutputType outputType;
+
+  public PrintRunsets(RunDao runDao, Optional<String> runset, boolean truncateOutput, Utils.OutputType outputType) {
+    this.runDao = runDao;
+    this.runset = runset;
+    this.truncateOutput = truncateOutput;
+    this.outputType = outputType;
+  }
+
+  @Override
+  public boolean execute() throws InterruptedException, TzarException {
+    runDao.printRunsets(runset, truncateOutput, outputType);
+    return true;
+  }
+}
@@ -1,11 +1,27 @@
 package au.edu.rmit.tzar.commands;
 
 import au.edu.rmit.tzar.RunFactory;
+import au.edu.rmit.tzar.adaptive.AdaptiveRunset;
+import au.edu.rmit.tzar.adaptive.ParameterSearcher;
+import au.edu.rmit.tzar.api.Constants;
+import au.edu.rmit.tzar.api.ParameterSearch;
+import au.edu.rmit.tzar.api.RepetitionsFile;
 import au.edu.rmit.tzar.api.Run;
 import au.edu.rmit.tzar.api.TzarException;
 import au.edu.rmit.tzar.db.RunDao;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
 
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -15,26 +31,57 @@ import static au.edu.rmit.tzar.commands.SharedFlags.DB_FLAGS;
 
 /**
  * Command to create scheduled runs in the database. Reads a project specification
- * from a local json file, and schedules a run for each scenario in the spec.
+ * from a local json file, and schedules a run for each scenario in the spec. The runs are divided into ranges,
+ * which are generated and inserted in chunks by a pool of threads, so that large sweeps aren't limited by the
+ * speed of a single core.
  */
 public class ScheduleRuns implements Command {
   private static final Logger LOG = Logger.getLogger((ScheduleRuns.class.getName()));
   public static final Object[] FLAGS = new Object[]{SCHEDULE_RUNS_FLAGS, CREATE_RUNS_FLAGS, DB_FLAGS};
 
+  // maximum number of runs to insert into the database in a single transaction.
+  @VisibleForTesting
+  static final int INSERT_CHUNK_SIZE = 10000;
+
+  // names of the runset metadata which record the repetitions file used to generate the runs.
+  private static final String REPETITIONS_FILE_METADATA = "repetitions_file";
+  private static final String REPETITIONS_FILE_HASH_METADATA = "repetitions_file_sha256";
+
   private final RunDao runDao;
   private final int numRuns;
   private final RunFactory runFactory;
   private final boolean dryRun;
+  private final Optional<AdaptiveRunset> adaptiveRunset;
+  private final int insertThreads;
 
   public ScheduleRuns(RunDao runDao, int numRuns, RunFactory runFactory, boolean dryRun) {
+    this(runDao, numRuns, runFactory, dryRun, Optional.<AdaptiveRunset>absent());
+  }
+
+  public ScheduleRuns(RunDao runDao, int numRuns, RunFactory runFactory, boolean dryRun,
+      Optional<AdaptiveRunset> adaptiveRunset) {
+    this(runDao, numRuns, runFactory, dryRun, adaptiveRunset, Constants.DEFAULT_INSERT_THREADS);
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param adaptiveRunset if present, each run is passed to the adaptive runset before and after it is
+   *                       inserted, and the adaptive runset is run once all runs have been inserted
+   * @param insertThreads number of chunks of runs to insert concurrently
+   */
+  public ScheduleRuns(RunDao runDao, int numRuns, RunFactory runFactory, boolean dryRun,
+      Optional<AdaptiveRunset> adaptiveRunset, int insertThreads) {
     this.runDao = runDao;
     this.numRuns = numRuns;
     this.runFactory = runFactory;
     this.dryRun = dryRun;
+    this.adaptiveRunset = adaptiveRunset;
+    this.insertThreads = insertThreads;
   }
 
   @Override
-  public boolean execute() throws TzarException {
+  public boolean execute() throws InterruptedException, TzarException {
     String runset = CREATE_RUNS_FLAGS.getRunset();
     if (System.console() != null) {
       if (runDao.runsetExists(runset)) {
@@ -45,16 +92,141 @@ public class ScheduleRuns implements Command {
         }
       }
     }
-    List<Run> runs = runFactory.createRuns(numRuns);
     if (!dryRun) {
-      runDao.insertRuns(runs);
-      for (Run run : runs) {
-        LOG.log(Level.FINE, "Scheduled run:{0} ", run);
+      recordRepetitionsFile(runset);
+    }
+    if (runFactory.getSearch().isPresent()) {
+      return executeSearch(runFactory.getSearch().get());
+    }
+    long count = runFactory.countRuns(numRuns);
+    if (dryRun) {
+      LOG.log(Level.INFO, "{0} runs not inserted into database as dry run was requested.", count);
+      return true;
+    }
+    insertRuns(count);
+    LOG.log(Level.INFO, "Inserted {0} runs.", count);
+    if (adaptiveRunset.isPresent()) {
+      adaptiveRunset.get().run();
+    }
+    return true;
+  }
+
+  /**
+   * Records the hash of the project's repetitions file (if any) in the runset's metadata, so that the design
+   * used to generate the runset can be identified later.
+   */
+  private void recordRepetitionsFile(String runset) throws TzarException {
+    Optional<RepetitionsFile> file = runFactory.getRepetitionsFile();
+    if (!file.isPresent()) {
+      return;
+    }
+    String previousHash = runDao.getRunsetMetadata(runset).get(REPETITIONS_FILE_HASH_METADATA);
+    if (previousHash != null && !previousHash.equals(file.get().getContentHash())) {
+      LOG.warning(String.format("Runset %s already contains runs generated from a repetitions file with hash %s. " +
+          "Its metadata will be updated to the hash of %s: %s.", runset, previousHash, file.get().getPath(),
+          file.get().getContentHash()));
+    }
+    runDao.setRunsetMetadata(runset, ImmutableMap.of(REPETITIONS_FILE_METADATA, file.get().getPath(),
+        REPETITIONS_FILE_HASH_METADATA, file.get().getContentHash()));
+  }
+
+  /**
+   * Generates and inserts the runs. The runs after the first chunk are divided into a contiguous range for each
+   * thread in the pool, which generates the runs in its range and inserts them a chunk at a time, in its own
+   * transaction for each chunk. Only the chunk being inserted by each thread is held in memory, so large
+   * parameter sweeps don't need to fit in memory.
+   *
+   * @param count the number of runs to insert
+   */
+  private void insertRuns(long count) throws InterruptedException, TzarException {
+    if (count == 0) {
+      return;
+    }
+    // the first chunk is inserted on its own, so that the runset's row in the runset_stats table exists
+    // before concurrent transactions start updating it.
+    long firstChunkEnd = Math.min(count, INSERT_CHUNK_SIZE);
+    insertChunk(Lists.newArrayList(runFactory.generateRuns(numRuns, 0, firstChunkEnd)));
+    ExecutorService executor = Executors.newFixedThreadPool(insertThreads);
+    CompletionService<Integer> completionService = new ExecutorCompletionService<Integer>(executor);
+    long rangeSize = (count - firstChunkEnd + insertThreads - 1) / insertThreads;
+    int ranges = 0;
+    try {
+      for (long start = firstChunkEnd; start < count; start += rangeSize) {
+        final long from = start;
+        final long to = Math.min(count, start + rangeSize);
+        completionService.submit(new Callable<Integer>() {
+          @Override
+          public Integer call() throws TzarException {
+            return insertRange(from, to);
+          }
+        });
+        ranges++;
+      }
+      for (; ranges > 0; ranges--) {
+        awaitRange(completionService);
       }
-      LOG.log(Level.INFO, "Inserted {0} runs.", runs.size());
-    } else {
-      LOG.log(Level.INFO, "{0} runs not inserted into database as dry run was requested.", runs.size());
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  /**
+   * Generates the runs at positions from (inclusive) to to (exclusive), and inserts them a chunk at a time.
+   *
+   * @return the number of chunks inserted
+   */
+  private int insertRange(long from, long to) throws TzarException {
+    int chunks = 0;
+    for (List<Run> chunk : Iterables.partition(runFactory.generateRuns(numRuns, from, to), INSERT_CHUNK_SIZE)) {
+      insertChunk(chunk);
+      chunks++;
+    }
+    return chunks;
+  }
+
+  private void insertChunk(List<Run> chunk) throws TzarException {
+    if (adaptiveRunset.isPresent()) {
+      for (Run run : chunk) {
+        adaptiveRunset.get().prepareRun(run);
+      }
+    }
+    runDao.insertRuns(chunk);
+    for (Run run : chunk) {
+      LOG.log(Level.FINE, "Scheduled run:{0} ", run);
+    }
+    if (adaptiveRunset.isPresent()) {
+      synchronized (adaptiveRunset) {
+        for (Run run : chunk) {
+          adaptiveRunset.get().addRun(run);
+        }
+      }
+    }
+  }
+
+  private void awaitRange(CompletionService<Integer> completionService) throws InterruptedException,
+      TzarException {
+    try {
+      int chunks = completionService.take().get();
+      LOG.log(Level.FINE, "Inserted a range of {0} chunks.", chunks);
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof TzarException) {
+        throw (TzarException) e.getCause();
+      }
+      throw new TzarException(e.getCause());
+    }
+  }
+
+  private boolean executeSearch(ParameterSearch search) throws TzarException {
+    if (adaptiveRunset.isPresent()) {
+      throw new TzarException("Adaptive runsets can't be used with a parameter search.");
+    }
+    if (dryRun) {
+      int count = Iterables.size(runFactory.generateRuns(numRuns));
+      LOG.log(Level.INFO, "Parameter search not started as dry run was requested. The search would schedule " +
+          "{0} runs for each of {1} parameter sets.", new Object[]{count, search.getMaxEvaluations()});
+      return true;
     }
+    new ParameterSearcher(runDao, runFactory, numRuns, search, Constants.ADAPTIVE_POLL_INTERVAL_MS).run();
     return true;
   }
 }
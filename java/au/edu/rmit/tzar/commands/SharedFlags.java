@@ -54,9 +54,24 @@ class SharedFlags {
     @com.beust.jcommander.Parameter(names = "--dburl", description = "The jdbc access URL for the database.")
     private String dbUrl = System.getenv(Constants.DB_ENVIRONMENT_VARIABLE_NAME);
 
+    @Parameter(names = "--dbpoolsize", description = "Maximum number of database connections to open.")
+    private int poolSize = Constants.DEFAULT_DB_POOL_SIZE;
+
+    @Parameter(names = "--dbstatementcache", description = "Number of prepared statements to cache for each " +
+        "database connection.")
+    private int statementCacheSize = Constants.DEFAULT_DB_STATEMENT_CACHE_SIZE;
+
     public String getDbUrl() {
       return dbUrl;
     }
+
+    public int getPoolSize() {
+      return poolSize;
+    }
+
+    public int getStatementCacheSize() {
+      return statementCacheSize;
+    }
   }
 
   @Parameters(separators = "= ")
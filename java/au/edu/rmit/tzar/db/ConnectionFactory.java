@@ -1,5 +1,6 @@
 package au.edu.rmit.tzar.db;
 
+import au.edu.rmit.tzar.Metrics;
 import au.edu.rmit.tzar.api.TzarException;
 import com.jolbox.bonecp.BoneCP;
 import com.jolbox.bonecp.BoneCPConfig;
@@ -9,13 +10,23 @@ import java.sql.SQLException;
 import java.util.logging.Logger;
 
 /**
- * Factory to create database connections. Uses a connection pool for the connections.
+ * Factory to create database connections. Uses a connection pool for the connections. The time spent
+ * waiting for a connection from the pool is recorded in the db_pool_wait metric.
  */
 class ConnectionFactory {
   private static final Logger LOG = Logger.getLogger(ConnectionFactory.class.getName());
+  private static final Metrics.Timer POOL_WAIT = Metrics.timer("db_pool_wait");
+
   private final BoneCP connectionPool;
 
-  public ConnectionFactory(String dbString) throws TzarException {
+  /**
+   * Constructor.
+   * @param dbString jdbc url for the database
+   * @param poolSize maximum number of connections in the pool
+   * @param statementCacheSize number of prepared statements to cache for each connection
+   * @throws TzarException if the connection pool couldn't be created
+   */
+  public ConnectionFactory(String dbString, final int poolSize, int statementCacheSize) throws TzarException {
     // we write out the DB string to the log, but blank out the db password for security reasons.
     LOG.info("Creating connection to DB: " + dbString.replaceAll("password=.*?(&|$)", "password=xxxxxx"));
     try {
@@ -26,8 +37,8 @@ class ConnectionFactory {
     BoneCPConfig config = new BoneCPConfig();
     config.setJdbcUrl(dbString);
     config.setDefaultAutoCommit(false);
-    config.setMaxConnectionsPerPartition(10);
-    config.setStatementsCacheSize(20);
+    config.setMaxConnectionsPerPartition(poolSize);
+    config.setStatementsCacheSize(statementCacheSize);
     config.setExternalAuth(true);
 
     try {
@@ -40,6 +51,19 @@ class ConnectionFactory {
         throw new TzarException(e);
       }
     }
+
+    Metrics.registerGauge("db_pool_size", new Metrics.Gauge() {
+      @Override
+      public long getValue() {
+        return poolSize;
+      }
+    });
+    Metrics.registerGauge("db_pool_leased", new Metrics.Gauge() {
+      @Override
+      public long getValue() {
+        return connectionPool.getTotalLeased();
+      }
+    });
   }
 
   /**
@@ -53,10 +77,13 @@ class ConnectionFactory {
    * @throws TzarException if the connection couldn't be obtained
    */
   public Connection createConnection() throws TzarException {
+    long start = POOL_WAIT.start();
     try {
       return connectionPool.getConnection();
     } catch (SQLException e) {
       throw new TzarException(e);
+    } finally {
+      POOL_WAIT.stop(start);
     }
   }
 }
@@ -0,0 +1,237 @@
+package au.edu.rmit.tzar.db;
+
+import au.edu.rmit.tzar.api.Constants;
+import au.edu.rmit.tzar.api.TzarException;
+import au.edu.rmit.tzar.repository.ContentCache;
+import au.edu.rmit.tzar.repository.ContentPeers;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import org.apache.http.HttpHeaders;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.logging.Logger;
+
+/**
+ * Data access object for the content_peers table, in which nodes advertise the models and libraries in their
+ * content caches, and claim the download of those which no node has yet.
+ *
+ * Advertisements are withdrawn when the content is evicted from this node's cache (see {@link #evicted}), and
+ * expire if they haven't been renewed for longer than the minimum age of evicted content, so that nodes don't
+ * keep trying to copy content from peers which no longer have it (eg because it was evicted by another process).
+ * This class is thread safe. Each method uses its own connection from the connection pool.
+ */
+public class ContentPeerDao implements ContentPeers, ContentCache.EvictionListener {
+  private static final Logger LOG = Logger.getLogger(ContentPeerDao.class.getName());
+
+  // held (until the end of the transaction) while the peers for a location are looked up, so that only one node
+  // claims the download. the first key is arbitrary, the second is the location.
+  @VisibleForTesting
+  static final String LOCK_LOCATION_SQL = "SELECT pg_advisory_xact_lock(7564354, hashtext(?))";
+  @VisibleForTesting
+  static final String SELECT_PEERS_SQL = "SELECT hostname, cache_url, content_id, manifest_sha256, etag, " +
+      "last_modified FROM content_peers WHERE location_id = ? AND hostname <> ? ORDER BY advertised DESC";
+  // advertisements which have expired, and claims which have been abandoned.
+  @VisibleForTesting
+  static final String DELETE_EXPIRED_PEERS_SQL = "DELETE FROM content_peers WHERE location_id = ? AND " +
+      "extract(epoch from timezone('utc'::text, now()) - advertised) > CASE WHEN content_id IS NULL THEN ? " +
+      "ELSE ? END";
+  @VisibleForTesting
+  static final String DELETE_CONTENT_SQL = "DELETE FROM content_peers WHERE location_id = ? AND hostname = ? " +
+      "AND content_id = ?";
+  @VisibleForTesting
+  static final String DELETE_PEER_SQL = "DELETE FROM content_peers WHERE location_id = ? AND hostname = ?";
+  @VisibleForTesting
+  static final String INSERT_PEER_SQL = "INSERT INTO content_peers (location_id, hostname, cache_url, content_id, " +
+      "manifest_sha256, etag, last_modified) VALUES (?, ?, ?, ?, ?, ?, ?)";
+
+  private final ConnectionFactory connectionFactory;
+  private final String hostname;
+  private final String cacheUrl;
+  private final long claimTimeoutMs;
+  private final long maxAgeMs;
+  private final long pollIntervalMs;
+
+  /**
+   * Constructor.
+   *
+   * @param connectionFactory for connecting to the database
+   * @param hostname name of this node
+   * @param cacheUrl url at which this node serves its content cache
+   */
+  public ContentPeerDao(ConnectionFactory connectionFactory, String hostname, String cacheUrl) {
+    this(connectionFactory, hostname, cacheUrl, Constants.PEER_CLAIM_TIMEOUT_MS,
+        Constants.PEER_ADVERTISEMENT_MAX_AGE_MS, Constants.PEER_POLL_INTERVAL_MS);
+  }
+
+  @VisibleForTesting
+  ContentPeerDao(ConnectionFactory connectionFactory, String hostname, String cacheUrl, long claimTimeoutMs,
+      long maxAgeMs, long pollIntervalMs) {
+    this.connectionFactory = connectionFactory;
+    this.hostname = hostname;
+    this.cacheUrl = cacheUrl;
+    this.claimTimeoutMs = claimTimeoutMs;
+    this.maxAgeMs = maxAgeMs;
+    this.pollIntervalMs = pollIntervalMs;
+  }
+
+  @Override
+  public List<Peer> findPeers(final ContentCache.Location location) throws TzarException {
+    long deadline = System.currentTimeMillis() + claimTimeoutMs;
+    while (true) {
+      final Connection connection = connectionFactory.createConnection();
+      // absent if another node is downloading the content.
+      Optional<List<Peer>> peers = Utils.executeInTransaction(new Callable<Optional<List<Peer>>>() {
+        @Override
+        public Optional<List<Peer>> call() throws Exception {
+          PreparedStatement lock = connection.prepareStatement(LOCK_LOCATION_SQL);
+          lock.setString(1, location.getId());
+          lock.execute();
+
+          PreparedStatement expire = connection.prepareStatement(DELETE_EXPIRED_PEERS_SQL);
+          expire.setString(1, location.getId());
+          expire.setDouble(2, claimTimeoutMs / 1000.0);
+          expire.setDouble(3, maxAgeMs / 1000.0);
+          expire.executeUpdate();
+
+          PreparedStatement select = connection.prepareStatement(SELECT_PEERS_SQL);
+          select.setString(1, location.getId());
+          select.setString(2, hostname);
+          ResultSet resultSet = select.executeQuery();
+          List<Peer> peers = Lists.newArrayList();
+          boolean claimed = false;
+          while (resultSet.next()) {
+            String contentId = resultSet.getString(3);
+            if (contentId == null) {
+              // abandoned claims have already been deleted.
+              claimed = true;
+              continue;
+            }
+            // only the most recently advertised content is used, in case the content at the location changed.
+            if (peers.isEmpty() || peers.get(0).getContentId().equals(contentId)) {
+              Map<String, String> validators = Maps.newHashMap();
+              putIfNotNull(validators, HttpHeaders.ETAG, resultSet.getString(5));
+              putIfNotNull(validators, HttpHeaders.LAST_MODIFIED, resultSet.getString(6));
+              peers.add(new Peer(resultSet.getString(1), resultSet.getString(2), contentId, resultSet.getString(4),
+                  validators));
+            }
+          }
+          if (!peers.isEmpty()) {
+            // spread the load of fetching the content over all of the peers which have it.
+            Collections.shuffle(peers);
+            return Optional.of(peers);
+          }
+          if (claimed) {
+            return Optional.absent();
+          }
+          upsert(connection, location, null, null, ImmutableMap.<String, String>of());
+          return Optional.of((List<Peer>) ImmutableList.<Peer>of());
+        }
+      }, connection);
+
+      if (peers.isPresent()) {
+        return peers.get();
+      }
+      if (System.currentTimeMillis() > deadline) {
+        LOG.warning(String.format("Timed out waiting for another node to download %s.", location));
+        return ImmutableList.of();
+      }
+      LOG.fine(String.format("Waiting for another node to download %s.", location));
+      try {
+        Thread.sleep(pollIntervalMs);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new TzarException(e);
+      }
+    }
+  }
+
+  @Override
+  public void advertise(final ContentCache.Location location, final String contentId, final String manifestHash,
+      final Map<String, String> validators) throws TzarException {
+    final Connection connection = connectionFactory.createConnection();
+    Utils.executeInTransaction(new Callable<Void>() {
+      @Override
+      public Void call() throws Exception {
+        upsert(connection, location, contentId, manifestHash, validators);
+        return null;
+      }
+    }, connection);
+  }
+
+  @Override
+  public void withdraw(final ContentCache.Location location) throws TzarException {
+    final Connection connection = connectionFactory.createConnection();
+    Utils.executeInTransaction(new Callable<Void>() {
+      @Override
+      public Void call() throws Exception {
+        PreparedStatement delete = connection.prepareStatement(DELETE_PEER_SQL);
+        delete.setString(1, location.getId());
+        delete.setString(2, hostname);
+        delete.executeUpdate();
+        return null;
+      }
+    }, connection);
+  }
+
+  /**
+   * Withdraws this node's advertisements of an object which has been evicted from its cache, unless the
+   * locations have since been advertised with other content.
+   */
+  @Override
+  public void evicted(final String contentId, final List<ContentCache.Location> locations) throws TzarException {
+    final Connection connection = connectionFactory.createConnection();
+    Utils.executeInTransaction(new Callable<Void>() {
+      @Override
+      public Void call() throws Exception {
+        PreparedStatement delete = connection.prepareStatement(DELETE_CONTENT_SQL);
+        for (ContentCache.Location location : locations) {
+          delete.setString(1, location.getId());
+          delete.setString(2, hostname);
+          delete.setString(3, contentId);
+          delete.addBatch();
+        }
+        delete.executeBatch();
+        return null;
+      }
+    }, connection);
+  }
+
+  /**
+   * Replaces this node's row for a location.
+   *
+   * @param contentId the content id, or null to claim the download
+   */
+  private void upsert(Connection connection, ContentCache.Location location, String contentId,
+      String manifestHash, Map<String, String> validators) throws SQLException {
+    PreparedStatement delete = connection.prepareStatement(DELETE_PEER_SQL);
+    delete.setString(1, location.getId());
+    delete.setString(2, hostname);
+    delete.executeUpdate();
+    PreparedStatement insert = connection.prepareStatement(INSERT_PEER_SQL);
+    insert.setString(1, location.getId());
+    insert.setString(2, hostname);
+    insert.setString(3, cacheUrl);
+    insert.setString(4, contentId);
+    insert.setString(5, manifestHash);
+    insert.setString(6, validators.get(HttpHeaders.ETAG));
+    insert.setString(7, validators.get(HttpHeaders.LAST_MODIFIED));
+    insert.executeUpdate();
+  }
+
+  private static void putIfNotNull(Map<String, String> map, String key, String value) {
+    if (value != null) {
+      map.put(key, value);
+    }
+  }
+}
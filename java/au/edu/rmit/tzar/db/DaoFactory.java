@@ -1,8 +1,11 @@
 package au.edu.rmit.tzar.db;
 
+import au.edu.rmit.tzar.api.Constants;
 import au.edu.rmit.tzar.api.TzarException;
 import au.edu.rmit.tzar.repository.CodeSourceFactory;
+import com.google.common.base.Optional;
 
+import java.io.File;
 import java.sql.SQLException;
 
 /**
@@ -13,8 +16,34 @@ public class DaoFactory {
   private final CodeSourceFactory codeSourceFactory;
 
   public DaoFactory(String dbUrl, CodeSourceFactory codeSourceFactory) throws TzarException {
+    this(dbUrl, Constants.DEFAULT_DB_POOL_SIZE, Constants.DEFAULT_DB_STATEMENT_CACHE_SIZE, codeSourceFactory);
+  }
+
+  /**
+   * Constructor.
+   * @param dbUrl jdbc url for the database
+   * @param poolSize maximum number of database connections
+   * @param statementCacheSize number of prepared statements to cache for each connection
+   * @param codeSourceFactory for creating the code sources of runs loaded from the database
+   * @throws TzarException if the connection pool couldn't be created
+   */
+  public DaoFactory(String dbUrl, int poolSize, int statementCacheSize, CodeSourceFactory codeSourceFactory)
+      throws TzarException {
+    this.codeSourceFactory = codeSourceFactory;
+    this.connectionFactory = new ConnectionFactory(dbUrl, poolSize, statementCacheSize);
+  }
+
+  private DaoFactory(ConnectionFactory connectionFactory, CodeSourceFactory codeSourceFactory) {
+    this.connectionFactory = connectionFactory;
     this.codeSourceFactory = codeSourceFactory;
-    this.connectionFactory = new ConnectionFactory(dbUrl);
+  }
+
+  /**
+   * Returns a factory which shares this factory's connection pool, but creates code sources with the given
+   * code source factory.
+   */
+  public DaoFactory withCodeSourceFactory(CodeSourceFactory codeSourceFactory) {
+    return new DaoFactory(connectionFactory, codeSourceFactory);
   }
 
   public RunDao createRunDao() throws TzarException {
@@ -26,6 +55,39 @@ public class DaoFactory {
     }
   }
 
+  /**
+   * Creates a RunDao which saves run updates to the given local journal file if they can't be written
+   * to the database.
+   */
+  public RunDao createRunDao(File journalFile) throws TzarException {
+    try {
+      return new RunDao(connectionFactory, new ParametersDao(connectionFactory),
+          new LibraryDao(codeSourceFactory), codeSourceFactory, Optional.of(journalFile));
+    } catch (SQLException e) {
+      throw new TzarException(e);
+    }
+  }
+
+  /**
+   * Creates a ContentPeerDao, through which this node advertises its content cache to other nodes.
+   *
+   * @param hostname name of this node
+   * @param cacheUrl url at which this node serves its content cache
+   */
+  public ContentPeerDao createContentPeerDao(String hostname, String cacheUrl) {
+    return new ContentPeerDao(connectionFactory, hostname, cacheUrl);
+  }
+
+  /**
+   * Creates a NodeCacheDao, through which this node publishes the models and libraries it has retrieved.
+   *
+   * @param hostname name of this node
+   * @param clusterName name of the cluster on which this node is running
+   */
+  public NodeCacheDao createNodeCacheDao(String hostname, String clusterName) {
+    return new NodeCacheDao(connectionFactory, hostname, clusterName);
+  }
+
   public ParametersDao createParametersDao() throws TzarException {
     try {
       return new ParametersDao(connectionFactory);
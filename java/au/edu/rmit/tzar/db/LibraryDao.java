@@ -7,10 +7,14 @@ import au.edu.rmit.tzar.repository.CodeSourceFactory;
 import au.edu.rmit.tzar.repository.CodeSourceImpl;
 import com.google.common.base.Optional;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Maps;
 
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.sql.*;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
 import java.util.Map;
 
 /**
@@ -25,35 +29,13 @@ public class LibraryDao {
   }
 
   /**
-   * Associate the given libraries with the run specified by runId. If the libraries do not exist,
-   * they will be created.
-   * @param libraries libraries to associate
-   * @param runId run to associate with
-   * @param connection to connect to the db
+   * Factory method for BatchAssociator. Facilitates associating libraries with runs in batches.
+   * @param connection db connection
+   * @return a new BatchAssociator
    * @throws SQLException
-   * @throws TzarException
    */
-  void associateLibraries(Map<String, ? extends CodeSource> libraries, int runId, Connection connection)
-      throws SQLException, TzarException {
-    for (Map.Entry<String, ? extends CodeSource> entry : libraries.entrySet()) {
-      String name = entry.getKey();
-      CodeSource codeSource = entry.getValue();
-      Optional<Library> library = findLibrary(connection, codeSource.getRepositoryType(), codeSource.getSourceUri(),
-          name, codeSource.getRevision(), codeSource.getDownloadMode());
-
-      final int libraryId;
-      if (!library.isPresent()) {
-        libraryId = insertLibrary(name, codeSource.getRepositoryType(), codeSource.getSourceUri(),
-            codeSource.getRevision(), codeSource.getDownloadMode(), connection);
-      } else {
-        libraryId = library.get().id;
-      }
-      PreparedStatement statement = connection.prepareStatement("INSERT INTO run_libraries (run_id, " +
-          "library_id) VALUES (?, ?)");
-      statement.setInt(1, runId);
-      statement.setInt(2, libraryId);
-      statement.executeUpdate();
-    }
+  BatchAssociator createBatchAssociator(Connection connection) throws SQLException {
+    return new BatchAssociator(connection);
   }
 
   /**
@@ -127,7 +109,7 @@ public class LibraryDao {
    */
   ImmutableMap<String, CodeSource> getLibraries(int runId, Connection connection) throws TzarException, SQLException {
     PreparedStatement statement = connection.prepareStatement("SELECT l.library_id, repo_type, uri, name, " +
-        "revision, download_mode FROM libraries l INNER JOIN run_libraries rl ON l.library_id = rl.library_id " +
+        "revision, download_mode FROM libraries l INNER JOIN all_run_libraries rl ON l.library_id = rl.library_id " +
         "WHERE run_id = ?");
 
     statement.setInt(1, runId);
@@ -136,10 +118,7 @@ public class LibraryDao {
     while (resultSet.next()) {
       try {
         Library library = libraryFromResultSet(resultSet);
-        CodeSource libCodeSource = codeSourceFactory.createCodeSource(library.revision,
-            CodeSourceImpl.RepositoryTypeImpl.valueOf(library.repoType.toUpperCase()), new URI(library.uri),
-            library.downloadMode);
-        builder.put(library.name, libCodeSource);
+        builder.put(library.name, codeSourceFromLibrary(library));
       } catch (URISyntaxException e) {
         throw new TzarException(String.format("Invalid URI in database record. Run Id: %s", runId), e);
       }
@@ -147,6 +126,101 @@ public class LibraryDao {
     return builder.build();
   }
 
+  /**
+   * Retrieve the distinct libraries used by any of the given runs.
+   * @param runIds ids of the runs to lookup
+   * @param connection database connection
+   * @return map from each library to its name
+   * @throws TzarException
+   * @throws SQLException
+   */
+  Map<CodeSource, String> getLibraries(Collection<Integer> runIds, Connection connection) throws TzarException,
+      SQLException {
+    Map<CodeSource, String> libraries = Maps.newLinkedHashMap();
+    if (runIds.isEmpty()) {
+      return libraries;
+    }
+    PreparedStatement statement = connection.prepareStatement("SELECT DISTINCT l.library_id, repo_type, uri, " +
+        "name, revision, download_mode FROM libraries l INNER JOIN run_libraries rl ON l.library_id = " +
+        "rl.library_id WHERE run_id = ANY(?) ORDER BY l.library_id");
+    statement.setArray(1, connection.createArrayOf("int", runIds.toArray()));
+    ResultSet resultSet = statement.executeQuery();
+    while (resultSet.next()) {
+      Library library = libraryFromResultSet(resultSet);
+      try {
+        libraries.put(codeSourceFromLibrary(library), library.name);
+      } catch (URISyntaxException e) {
+        throw new TzarException(String.format("Invalid URI in database record. Library Id: %s", library.id), e);
+      }
+    }
+    return libraries;
+  }
+
+  private CodeSource codeSourceFromLibrary(Library library) throws TzarException, URISyntaxException {
+    return codeSourceFactory.createCodeSource(library.revision,
+        CodeSourceImpl.RepositoryTypeImpl.valueOf(library.repoType.toUpperCase()), new URI(library.uri),
+        library.downloadMode);
+  }
+
+  /**
+   * Associates libraries with runs in batches. The ids of the libraries are looked up (or the libraries are
+   * created) once per batch, rather than once per run, since the runs in a batch typically share the same
+   * libraries.
+   *
+   * {@link #associateLibraries} may be called multiple times, but the run_libraries table won't be updated
+   * until {@link #executeBatch} is called.
+   */
+  class BatchAssociator {
+    private final Connection connection;
+    private final PreparedStatement insertRunLibrary;
+    private final Map<List<Object>, Integer> libraryIds = Maps.newHashMap();
+
+    private BatchAssociator(Connection connection) throws SQLException {
+      this.connection = connection;
+      this.insertRunLibrary = connection.prepareStatement("INSERT INTO run_libraries (run_id, library_id) " +
+          "VALUES (?, ?)");
+    }
+
+    /**
+     * Associate the given libraries with the run specified by runId. If the libraries do not exist,
+     * they will be created.
+     * @param libraries libraries to associate
+     * @param runId run to associate with
+     * @throws SQLException
+     * @throws TzarException
+     */
+    public void associateLibraries(Map<String, ? extends CodeSource> libraries, int runId)
+        throws SQLException, TzarException {
+      for (Map.Entry<String, ? extends CodeSource> entry : libraries.entrySet()) {
+        insertRunLibrary.setInt(1, runId);
+        insertRunLibrary.setInt(2, getLibraryId(entry.getKey(), entry.getValue()));
+        insertRunLibrary.addBatch();
+      }
+    }
+
+    public void executeBatch() throws SQLException {
+      insertRunLibrary.executeBatch();
+    }
+
+    private int getLibraryId(String name, CodeSource codeSource) throws SQLException, TzarException {
+      List<Object> key = Arrays.<Object>asList(name, codeSource.getRepositoryType(), codeSource.getSourceUri(),
+          codeSource.getRevision(), codeSource.getDownloadMode());
+      Integer libraryId = libraryIds.get(key);
+      if (libraryId == null) {
+        Optional<Library> library = findLibrary(connection, codeSource.getRepositoryType(),
+            codeSource.getSourceUri(), name, codeSource.getRevision(), codeSource.getDownloadMode());
+        if (library.isPresent()) {
+          libraryId = library.get().id;
+        } else {
+          libraryId = insertLibrary(name, codeSource.getRepositoryType(), codeSource.getSourceUri(),
+              codeSource.getRevision(), codeSource.getDownloadMode(), connection);
+        }
+        libraryIds.put(key, libraryId);
+      }
+      return libraryId;
+    }
+  }
+
   private Library libraryFromResultSet(ResultSet rs) throws SQLException {
     return new Library(rs.getInt(1), rs.getString(2), rs.getString(3), rs.getString(4), rs.getString(5),
         DownloadMode.valueOf(rs.getString(6)));
@@ -0,0 +1,73 @@
+package au.edu.rmit.tzar.db;
+
+import au.edu.rmit.tzar.api.CodeSource;
+import au.edu.rmit.tzar.api.TzarException;
+import com.google.common.annotations.VisibleForTesting;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.util.Collection;
+import java.util.concurrent.Callable;
+
+/**
+ * Data access object for the node_caches table, in which each node publishes the models and libraries it has
+ * retrieved, so that it can prefer to claim runs which use them.
+ * This class is thread safe. Each method uses its own connection from the connection pool.
+ */
+public class NodeCacheDao {
+  @VisibleForTesting
+  static final String DELETE_NODE_CACHE_SQL = "DELETE FROM node_caches WHERE hostname = ?";
+  @VisibleForTesting
+  static final String INSERT_NODE_CACHE_SQL = "INSERT INTO node_caches (hostname, cluster_name, code_keys) " +
+      "VALUES (?, ?, ?)";
+
+  private final ConnectionFactory connectionFactory;
+  private final String hostname;
+  private final String clusterName;
+
+  /**
+   * Constructor.
+   *
+   * @param connectionFactory for connecting to the database
+   * @param hostname name of this node
+   * @param clusterName name of the cluster on which this node is running
+   */
+  public NodeCacheDao(ConnectionFactory connectionFactory, String hostname, String clusterName) {
+    this.connectionFactory = connectionFactory;
+    this.hostname = hostname;
+    this.clusterName = clusterName;
+  }
+
+  /**
+   * Replaces this node's cache manifest.
+   *
+   * @param codeKeys keys (from {@link #codeKey}) of the models and libraries which this node has retrieved
+   * @throws TzarException if the manifest can't be written
+   */
+  public void publish(final Collection<String> codeKeys) throws TzarException {
+    final Connection connection = connectionFactory.createConnection();
+    Utils.executeInTransaction(new Callable<Void>() {
+      @Override
+      public Void call() throws Exception {
+        PreparedStatement delete = connection.prepareStatement(DELETE_NODE_CACHE_SQL);
+        delete.setString(1, hostname);
+        delete.executeUpdate();
+        PreparedStatement insert = connection.prepareStatement(INSERT_NODE_CACHE_SQL);
+        insert.setString(1, hostname);
+        insert.setString(2, clusterName);
+        insert.setArray(3, connection.createArrayOf("text", codeKeys.toArray()));
+        insert.executeUpdate();
+        return null;
+      }
+    }, connection);
+  }
+
+  /**
+   * Returns the key by which a model or library is identified in the cache manifest. This must match the keys
+   * computed from the runs and libraries tables in RunDao's next local run queries.
+   */
+  public static String codeKey(CodeSource codeSource) {
+    return codeSource.getRepositoryType().toString().toLowerCase() + " " + codeSource.getRevision() + " " +
+        codeSource.getSourceUri();
+  }
+}
@@ -31,8 +31,8 @@ public class ParametersDao {
   private static final Logger LOG = Logger.getLogger(ParametersDao.class.getName());
 
   @VisibleForTesting
-  static final String LOAD_PARAMS_SQL = "SELECT p.param_name, p.param_value, p.param_type, p.data_type " +
-      "FROM runs as r INNER JOIN run_params as p ON r.run_id = p.run_id WHERE r.run_id = ?";
+  static final String LOAD_PARAMS_SQL = "SELECT param_name, param_value, param_type, data_type " +
+      "FROM all_run_params WHERE run_id = ?";
 
   @VisibleForTesting
   static final String INSERT_PARAM_SQL = "INSERT INTO run_params (run_id, param_name, param_value, param_type, " +
@@ -1,6 +1,7 @@
 package au.edu.rmit.tzar.db;
 
 import au.edu.rmit.tzar.api.CodeSource;
+import au.edu.rmit.tzar.api.Constants;
 import au.edu.rmit.tzar.api.Parameters;
 import au.edu.rmit.tzar.api.Run;
 import au.edu.rmit.tzar.api.TzarException;
@@ -11,34 +12,93 @@ import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Optional;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
 
 import java.io.File;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.sql.*;
+import java.util.Arrays;
 import java.util.Calendar;
-import java.util.Date;
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.TimeZone;
 import java.util.concurrent.Callable;
 import java.util.logging.Logger;
 
 /**
  * Class to handle Run management, including loading and persisting to the database.
+ * This class is thread safe. Each method uses its own connection from the connection pool.
  */
 public class RunDao {
   private static final Logger LOG = Logger.getLogger(RunDao.class.getName());
 
-  public static final Calendar UTC = Calendar.getInstance(TimeZone.getTimeZone("UTC"));
+  private static final TimeZone UTC = TimeZone.getTimeZone("UTC");
 
   @VisibleForTesting
   static final String INSERT_RUN_SQL = "INSERT INTO runs (run_id, state, model_url, model_repo_type, model_revision, " +
       "project_name, scenario_name, runner_flags, runset, cluster_name, runner_class) " +
       "VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+  // held (until the end of the transaction) while a block of run ids is reserved. the key is arbitrary.
+  @VisibleForTesting
+  static final String LOCK_RUN_IDS_SQL = "SELECT pg_advisory_xact_lock(7564353)";
+  // The next run queries are answered by the partial indexes on scheduled runs (runs_scheduled_cluster_idx and
+  // runs_scheduled_idx), so their cost doesn't depend on the number of finished runs in the table.
   @VisibleForTesting
   static final String NEXT_RUN_SQL = "SELECT run_id, state, model_url, model_repo_type, model_revision, " +
       "project_name, scenario_name, runner_flags, runset, cluster_name, output_path, output_host, runner_class " +
-      "FROM runs WHERE state='scheduled' AND runset LIKE ? AND cluster_name = ? ORDER BY run_id ASC LIMIT 1";
+      "FROM runs WHERE state='scheduled' AND cluster_name = ? ORDER BY run_id ASC LIMIT 1";
+  // a runset name containing SQL wildcards (see isRunsetPattern) is matched with LIKE, and any other with =, which
+  // can use the indexes.
+  private static final String NEXT_RUN_FOR_RUNSET_SQL_FORMAT = "SELECT run_id, state, model_url, " +
+      "model_repo_type, model_revision, project_name, scenario_name, runner_flags, runset, cluster_name, " +
+      "output_path, output_host, runner_class FROM runs WHERE state='scheduled' AND cluster_name = ? AND runset %s ? " +
+      "ORDER BY run_id ASC LIMIT 1";
+  @VisibleForTesting
+  static final String NEXT_RUN_FOR_RUNSET_SQL = String.format(NEXT_RUN_FOR_RUNSET_SQL_FORMAT, "=");
+  @VisibleForTesting
+  static final String NEXT_RUN_FOR_RUNSET_PATTERN_SQL = String.format(NEXT_RUN_FOR_RUNSET_SQL_FORMAT, "LIKE");
+  // Prefers, among the next scheduled runs, those whose model and libraries are all in the node's published cache
+  // manifest (see NodeCacheDao). Runs which have been passed over for longer than the maximum delay come first.
+  // The keys are computed as in NodeCacheDao.codeKey.
+  private static final String NEXT_LOCAL_RUN_SQL_FORMAT = "SELECT run_id, state, model_url, model_repo_type, " +
+      "model_revision, project_name, scenario_name, runner_flags, runset, cluster_name, output_path, output_host, " +
+      "runner_class, CASE WHEN passed_over_since < timezone('utc'::text, now()) - ? * interval '1 second' THEN 0 " +
+      "WHEN (lower(model_repo_type) || ' ' || model_revision || ' ' || model_url) = ANY(code_keys) AND NOT EXISTS (" +
+      "SELECT 1 FROM run_libraries rl INNER JOIN libraries l ON rl.library_id = l.library_id " +
+      "WHERE rl.run_id = r.run_id AND NOT (lower(l.repo_type) || ' ' || l.revision || ' ' || l.uri) = ANY(code_keys)" +
+      ") THEN 1 ELSE 2 END AS priority, " +
+      "array_agg(run_id) OVER (ORDER BY run_id ROWS BETWEEN UNBOUNDED PRECEDING AND 1 PRECEDING) AS passed_over " +
+      "FROM (SELECT * FROM runs WHERE state='scheduled' AND cluster_name = ? %s ORDER BY run_id ASC LIMIT ?) r, " +
+      "(SELECT coalesce((SELECT code_keys FROM node_caches WHERE hostname = ?), '{}') AS code_keys) n " +
+      "ORDER BY priority, run_id LIMIT 1";
+  @VisibleForTesting
+  static final String NEXT_LOCAL_RUN_SQL = String.format(NEXT_LOCAL_RUN_SQL_FORMAT, "");
+  @VisibleForTesting
+  static final String NEXT_LOCAL_RUN_FOR_RUNSET_SQL = String.format(NEXT_LOCAL_RUN_SQL_FORMAT, "AND runset = ?");
+  @VisibleForTesting
+  static final String NEXT_LOCAL_RUN_FOR_RUNSET_PATTERN_SQL = String.format(NEXT_LOCAL_RUN_SQL_FORMAT,
+      "AND runset LIKE ?");
+  // the priority of a run which was claimed because the node has its code, rather than because it was next.
+  private static final int LOCAL_RUN_PRIORITY = 1;
+  // records that the runs in the window before the claimed run have been passed over, if they haven't been already.
+  @VisibleForTesting
+  static final String MARK_PASSED_OVER_SQL = "UPDATE runs SET passed_over_since = timezone('utc'::text, now()) " +
+      "WHERE run_id = ANY(?) AND state='scheduled' AND passed_over_since IS NULL";
+  @VisibleForTesting
+  static final String UPCOMING_RUNS_SQL = "SELECT run_id, model_url, model_repo_type, model_revision, project_name " +
+      "FROM runs WHERE state='scheduled' AND cluster_name = ? ORDER BY run_id ASC LIMIT ?";
+  private static final String UPCOMING_RUNS_FOR_RUNSET_SQL_FORMAT = "SELECT run_id, model_url, model_repo_type, " +
+      "model_revision, project_name FROM runs WHERE state='scheduled' AND cluster_name = ? AND runset %s ? " +
+      "ORDER BY run_id ASC LIMIT ?";
+  @VisibleForTesting
+  static final String UPCOMING_RUNS_FOR_RUNSET_SQL = String.format(UPCOMING_RUNS_FOR_RUNSET_SQL_FORMAT, "=");
+  @VisibleForTesting
+  static final String UPCOMING_RUNS_FOR_RUNSET_PATTERN_SQL = String.format(UPCOMING_RUNS_FOR_RUNSET_SQL_FORMAT,
+      "LIKE");
   @VisibleForTesting
   static final String UPDATE_RUN_SQL = "UPDATE runs SET run_start_time = ?, run_end_time = ?, state = ?, " +
       "hostname = ?, host_ip = ?, output_path = ?, output_host = ? where run_id = ?";
@@ -47,19 +107,65 @@ public class RunDao {
   @VisibleForTesting
   static final String SELECT_RUN_SQL = "SELECT state FROM runs where run_id = ? FOR UPDATE";
 
-  static final String RUNSET_EXISTS = "SELECT count(*) from runs where runset = ?";
+  static final String RUNSET_EXISTS = "SELECT num_runs from runset_stats where runset = ?";
+
+  @VisibleForTesting
+  static final String ARCHIVE_RUNS_SQL = "SELECT archive_runs(?, ?)";
+
+  @VisibleForTesting
+  static final String RUNSET_STATS_SQL = "SELECT runset, num_runs, scheduled, in_progress, completed, failed, " +
+      "copied, copy_failed, held, cancelled, first_submission_time, last_end_time, total_cpu_seconds " +
+      "FROM runset_stats";
+
+  @VisibleForTesting
+  static final String RELEASE_RUNS_SQL = "UPDATE runs SET state = 'scheduled' WHERE state = 'held' AND " +
+      "run_id = ANY(?)";
+  @VisibleForTesting
+  static final String CANCEL_RUNS_SQL = "UPDATE runs SET state = 'cancelled', " +
+      "run_end_time = timezone('utc'::text, now()) WHERE state = 'held' AND run_id = ANY(?)";
+  static final String RUN_STATES_SQL = "SELECT run_id, state FROM all_runs WHERE run_id = ANY(?)";
+
+  @VisibleForTesting
+  static final String DELETE_METRICS_SQL = "DELETE FROM run_metrics WHERE run_id = ?";
+  @VisibleForTesting
+  static final String INSERT_METRIC_SQL = "INSERT INTO run_metrics (run_id, name, value) VALUES (?, ?, ?)";
+  static final String SELECT_METRIC_SQL = "SELECT run_id, value FROM run_metrics WHERE name = ? AND " +
+      "run_id = ANY(?)";
+
+  static final String SELECT_RUNSET_METADATA_SQL = "SELECT name, value FROM runset_metadata WHERE runset = ?";
+  @VisibleForTesting
+  static final String DELETE_RUNSET_METADATA_SQL = "DELETE FROM runset_metadata WHERE runset = ? AND name = ?";
+  @VisibleForTesting
+  static final String INSERT_RUNSET_METADATA_SQL = "INSERT INTO runset_metadata (runset, name, value) " +
+      "VALUES (?, ?, ?)";
 
   private final ParametersDao parametersDao;
   private final LibraryDao libraryDao;
   private final ConnectionFactory connectionFactory;
   private final CodeSourceFactory codeSourceFactory;
+  private final RunUpdateQueue updateQueue;
 
   public RunDao(ConnectionFactory connectionFactory, ParametersDao parametersDao, LibraryDao libraryDao,
       CodeSourceFactory codeSourceFactory) throws TzarException {
+    this(connectionFactory, parametersDao, libraryDao, codeSourceFactory, Optional.<File>absent());
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param journalFile local file in which to save run updates which can't be written to the database
+   *                    (eg during a database outage), to be written once the database is available again.
+   *                    If absent, such updates are only kept in memory.
+   */
+  public RunDao(ConnectionFactory connectionFactory, ParametersDao parametersDao, LibraryDao libraryDao,
+      CodeSourceFactory codeSourceFactory, Optional<File> journalFile) throws TzarException {
     this.connectionFactory = connectionFactory;
     this.parametersDao = parametersDao;
     this.libraryDao = libraryDao;
     this.codeSourceFactory = codeSourceFactory;
+    Optional<RunJournal> journal = journalFile.isPresent() ? Optional.of(new RunJournal(journalFile.get())) :
+        Optional.<RunJournal>absent();
+    this.updateQueue = new RunUpdateQueue(connectionFactory, Constants.RUN_UPDATE_FLUSH_INTERVAL_MS, journal);
   }
 
   /**
@@ -67,20 +173,23 @@ public class RunDao {
    * 'in_progress' and persisted to the database. This is done in a single transaction, to avoid two nodes
    * from executing the same run.
    *
-   * @param runset      runset to filter by or null to poll for any runset
+   * @param runset      runset to filter by (may include SQL wildcards), or absent to poll for any runset
    * @param clusterName we only poll for runs scheduled for the current cluster. Not null, but may be empty.
    * @return true if a run was found, false otherwise
    * @throws TzarException if something goes wrong executing the run
    */
-  public synchronized Optional<Run> getNextRun(final Optional<String> runset, final String clusterName)
+  public Optional<Run> getNextRun(final Optional<String> runset, final String clusterName)
       throws TzarException {
     final Connection connection = connectionFactory.createConnection();
     return Utils.executeInTransaction(new Callable<Optional<Run>>() {
       @Override
       public Optional<Run> call() throws Exception {
-        PreparedStatement selectNextRun = connection.prepareStatement(NEXT_RUN_SQL);
-        selectNextRun.setString(1, runset.or("%"));
-        selectNextRun.setString(2, clusterName);
+        PreparedStatement selectNextRun = connection.prepareStatement(!runset.isPresent() ? NEXT_RUN_SQL :
+            isRunsetPattern(runset.get()) ? NEXT_RUN_FOR_RUNSET_PATTERN_SQL : NEXT_RUN_FOR_RUNSET_SQL);
+        selectNextRun.setString(1, clusterName);
+        if (runset.isPresent()) {
+          selectNextRun.setString(2, runset.get());
+        }
         ResultSet resultSet = selectNextRun.executeQuery();
 
         if (resultSet.next()) {
@@ -92,6 +201,106 @@ public class RunDao {
     }, connection);
   }
 
+  /**
+   * Polls the database for the next scheduled run, preferring runs whose model and libraries the node has
+   * published in its cache manifest, so that it doesn't have to retrieve them. Only the next
+   * Constants.LOCALITY_WINDOW_RUNS scheduled runs are considered, and a run which has been passed over for longer
+   * than Constants.LOCALITY_MAX_DELAY_SECONDS is claimed before any other, so that no run waits indefinitely.
+   *
+   * @param runset      runset to filter by (may include SQL wildcards), or absent to poll for any runset
+   * @param clusterName we only poll for runs scheduled for the current cluster. Not null, but may be empty.
+   * @param hostname    name of this node, whose cache manifest is used
+   * @return the run, or absent if there are no scheduled runs
+   * @throws TzarException if the run can't be loaded
+   */
+  public Optional<Run> getNextRun(final Optional<String> runset, final String clusterName, final String hostname)
+      throws TzarException {
+    final Connection connection = connectionFactory.createConnection();
+    return Utils.executeInTransaction(new Callable<Optional<Run>>() {
+      @Override
+      public Optional<Run> call() throws Exception {
+        PreparedStatement selectNextRun = connection.prepareStatement(!runset.isPresent() ? NEXT_LOCAL_RUN_SQL :
+            isRunsetPattern(runset.get()) ? NEXT_LOCAL_RUN_FOR_RUNSET_PATTERN_SQL : NEXT_LOCAL_RUN_FOR_RUNSET_SQL);
+        int i = 1;
+        selectNextRun.setInt(i++, Constants.LOCALITY_MAX_DELAY_SECONDS);
+        selectNextRun.setString(i++, clusterName);
+        if (runset.isPresent()) {
+          selectNextRun.setString(i++, runset.get());
+        }
+        selectNextRun.setInt(i++, Constants.LOCALITY_WINDOW_RUNS);
+        selectNextRun.setString(i, hostname);
+        ResultSet resultSet = selectNextRun.executeQuery();
+        if (!resultSet.next()) {
+          return Optional.absent();
+        }
+        boolean passedOthers = resultSet.getInt("priority") == LOCAL_RUN_PRIORITY;
+        Array passedOver = resultSet.getArray("passed_over");
+        Run run = runFromResultSet(resultSet, true, connection);
+        if (passedOthers && passedOver != null) {
+          // start the clock on the runs in the window which this node has passed over.
+          PreparedStatement markPassedOver = connection.prepareStatement(MARK_PASSED_OVER_SQL);
+          markPassedOver.setArray(1, passedOver);
+          markPassedOver.executeUpdate();
+        }
+        return Optional.of(run);
+      }
+    }, connection);
+  }
+
+  /**
+   * Finds the distinct models and libraries used by the next runs scheduled on a cluster, so that they can be
+   * retrieved before the runs start.
+   *
+   * @param runset      runset to filter by (may include SQL wildcards), or absent for any runset
+   * @param clusterName name of the cluster
+   * @param maxRuns     maximum number of scheduled runs to look at
+   * @return map from each model or library to the name it is retrieved under, in the order of the first run
+   *         that uses it
+   * @throws TzarException if the runs cannot be loaded
+   */
+  public Map<CodeSource, String> getUpcomingCode(final Optional<String> runset, final String clusterName,
+      final int maxRuns) throws TzarException {
+    final Connection connection = connectionFactory.createConnection();
+    return Utils.executeSqlStatement(new Callable<Map<CodeSource, String>>() {
+      @Override
+      public Map<CodeSource, String> call() throws Exception {
+        PreparedStatement statement = connection.prepareStatement(!runset.isPresent() ? UPCOMING_RUNS_SQL :
+            isRunsetPattern(runset.get()) ? UPCOMING_RUNS_FOR_RUNSET_PATTERN_SQL : UPCOMING_RUNS_FOR_RUNSET_SQL);
+        int i = 1;
+        statement.setString(i++, clusterName);
+        if (runset.isPresent()) {
+          statement.setString(i++, runset.get());
+        }
+        statement.setInt(i, maxRuns);
+        ResultSet resultSet = statement.executeQuery();
+        List<Integer> runIds = Lists.newArrayList();
+        Map<CodeSource, String> code = Maps.newLinkedHashMap();
+        Set<List<String>> models = Sets.newHashSet();
+        while (resultSet.next()) {
+          runIds.add(resultSet.getInt(1));
+          List<String> model = Arrays.asList(resultSet.getString(2), resultSet.getString(3), resultSet.getString(4));
+          if (!models.add(model)) {
+            continue;
+          }
+          try {
+            code.put(codeSourceFactory.createCodeSource(model.get(2),
+                CodeSourceImpl.RepositoryTypeImpl.valueOf(model.get(1).toUpperCase()), new URI(model.get(0)),
+                DownloadMode.CACHE), resultSet.getString(5));
+          } catch (URISyntaxException e) {
+            LOG.warning("model_url in database for run: " + runIds.get(runIds.size() - 1) + " was not a valid " +
+                "URI. Value was: " + model.get(0));
+          }
+        }
+        for (Map.Entry<CodeSource, String> library : libraryDao.getLibraries(runIds, connection).entrySet()) {
+          if (!code.containsKey(library.getKey())) {
+            code.put(library.getKey(), library.getValue());
+          }
+        }
+        return code;
+      }
+    }, connection);
+  }
+
   public boolean markRunInProgress(final Run run) throws TzarException {
     final Connection connection = connectionFactory.createConnection();
     return Utils.executeInTransaction(new Callable<Boolean>() {
@@ -115,7 +324,19 @@ public class RunDao {
     }, connection);
   }
 
-  public synchronized void persistRun(final Run run) throws TzarException {
+  /**
+   * Writes the run's current state to the database. If there are journalled updates which haven't yet
+   * been written (because the database was unavailable), the update is queued behind them instead.
+   *
+   * @param run the run to persist
+   * @throws TzarException if the run can't be written to the database
+   */
+  public void persistRun(final Run run) throws TzarException {
+    if (updateQueue.hasJournalledUpdates()) {
+      persistRunDeferred(run);
+      return;
+    }
+    updateQueue.discard(run.getRunId());
     final Connection connection = connectionFactory.createConnection();
     Utils.executeInTransaction(new Callable<Void>() {
       @Override
@@ -126,49 +347,58 @@ public class RunDao {
     }, connection);
   }
 
+  /**
+   * Queues an update of the run's current state, to be written to the database along with other queued
+   * updates within the next {@link Constants#RUN_UPDATE_FLUSH_INTERVAL_MS} milliseconds. Intended for
+   * transitions which other nodes don't depend on (eg recording a run as completed or copied). Updates
+   * for the same run are coalesced, so only the latest state is written. Must not be used to claim runs.
+   *
+   * @param run the run to persist
+   */
+  public void persistRunDeferred(Run run) {
+    updateQueue.add(run);
+  }
+
+  /**
+   * Writes any queued or journalled run updates to the database.
+   *
+   * @throws TzarException if the updates cannot be written. They remain queued (or journalled) in this case.
+   */
+  public void flushDeferredUpdates() throws TzarException {
+    updateQueue.flush();
+  }
+
   private void persistRun(Run run, Connection connection) throws SQLException {
     PreparedStatement updateRun = connection.prepareStatement(UPDATE_RUN_SQL);
-
-    updateRun.setTimestamp(1, getTimestamp(run.getStartTime()), UTC);
-    updateRun.setTimestamp(2, getTimestamp(run.getEndTime()), UTC);
-    updateRun.setString(3, run.getState().name().toLowerCase());
-    updateRun.setString(4, run.getHostname());
-    updateRun.setString(5, run.getHostIp());
-    File outputPath = run.getRemoteOutputPath();
-    updateRun.setString(6, outputPath == null ? null : outputPath.getAbsolutePath());
-    updateRun.setString(7, run.getOutputHost());
-    updateRun.setInt(8, run.getRunId()); // this is for the where clause, we don't update this field.
+    RunUpdateQueue.RunUpdate.of(run).bind(updateRun);
     updateRun.executeUpdate();
   }
 
   /**
    * Inserts the provided runs into the database, including their parameters.
-   * Runs will be marked as 'scheduled'.
+   * Runs will be marked as 'scheduled'. This may be called concurrently from multiple threads (or processes),
+   * as each call reserves its own block of run ids.
    *
    * @param runs runs to insert into the db
    * @throws TzarException if an error occurs inserting the runs
    */
-  public synchronized void insertRuns(final List<? extends Run> runs) throws TzarException {
-    LOG.info("Saving new runs to database.");
+  public void insertRuns(final List<? extends Run> runs) throws TzarException {
+    LOG.fine("Saving " + runs.size() + " new runs to database.");
     final Connection connection = connectionFactory.createConnection();
 
     Utils.executeInTransaction(new Callable<Void>() {
       @Override
       public Void call() throws Exception {
-        ResultSet rs = connection.prepareStatement("select nextval('runs_run_id_seq')").executeQuery();
-        rs.next();
-        int nextRunId = rs.getInt(1);
-        connection.prepareStatement("select setval('runs_run_id_seq', " + (nextRunId + runs.size()) +
-            ", false)").execute();
-        // false here indicates that the next sequence number returned by 'select nextval' will be
-        // nextRunId + runs.size(), as opposed to nextRunId + runs.size() + 1
-
+        int nextRunId = reserveRunIds(runs.size(), connection);
         PreparedStatement insertRun = connection.prepareStatement(INSERT_RUN_SQL);
 
         // defer constraint checking because the run won't exist when we add the library. this is safe
         // because it's in a transaction. the constraint will be checked once the transaction is committed.
         connection.prepareStatement("SET CONSTRAINTS run_libraries_run_id_fkey DEFERRED").execute();
+        // the runset_stats table is updated once at the end of the transaction, rather than once per inserted run.
+        connection.prepareStatement("SELECT defer_runset_stats()").execute();
         ParametersDao.BatchInserter batchInserter = parametersDao.createBatchInserter(connection);
+        LibraryDao.BatchAssociator batchAssociator = libraryDao.createBatchAssociator(connection);
         for (Run run : runs) {
           CodeSource codeSource = run.getCodeSource();
           run.setRunId(nextRunId);
@@ -185,12 +415,215 @@ public class RunDao {
           insertRun.setString(11, run.getRunnerClass());
           insertRun.addBatch();
           batchInserter.insertParams(run.getRunId(), run.getParameters());
-          libraryDao.associateLibraries(run.getLibraries(), nextRunId, connection);
+          batchAssociator.associateLibraries(run.getLibraries(), nextRunId);
           nextRunId++;
         }
 
         insertRun.executeBatch();
         batchInserter.executeBatch();
+        batchAssociator.executeBatch();
+        connection.prepareStatement("SELECT fold_runset_stats()").execute();
+        return null;
+      }
+    }, connection);
+  }
+
+  /**
+   * Reserves a contiguous block of run ids, and commits, so that the lock which stops concurrent callers from
+   * reserving overlapping blocks is only held briefly. This is done on the same connection as the insert,
+   * because the seed column of the runs table defaults to the current value of the sequence in the session.
+   *
+   * @param count number of ids to reserve
+   * @param connection the connection which will be used to insert the runs
+   * @return the first id in the block
+   * @throws SQLException if the ids cannot be reserved
+   */
+  private int reserveRunIds(int count, Connection connection) throws SQLException {
+    connection.prepareStatement(LOCK_RUN_IDS_SQL).execute();
+    ResultSet rs = connection.prepareStatement("select nextval('runs_run_id_seq')").executeQuery();
+    rs.next();
+    int nextRunId = rs.getInt(1);
+    connection.prepareStatement("select setval('runs_run_id_seq', " + (nextRunId + count) + ", false)").execute();
+    // false here indicates that the next sequence number returned by 'select nextval' will be
+    // nextRunId + count, as opposed to nextRunId + count + 1
+    connection.commit();
+    return nextRunId;
+  }
+
+  /**
+   * Changes the state of the given runs from held to scheduled, so that they can be picked up by nodes.
+   * Runs which are not held are not modified.
+   *
+   * @param runIds ids of the runs to release
+   * @return the number of runs released
+   * @throws TzarException if the runs cannot be updated
+   */
+  public int releaseRuns(Collection<Integer> runIds) throws TzarException {
+    return updateHeldRuns(RELEASE_RUNS_SQL, runIds);
+  }
+
+  /**
+   * Changes the state of the given runs from held to cancelled, so that they will never be executed.
+   * Runs which are not held (eg because they have already been released) are not modified.
+   *
+   * @param runIds ids of the runs to cancel
+   * @return the number of runs cancelled
+   * @throws TzarException if the runs cannot be updated
+   */
+  public int cancelRuns(Collection<Integer> runIds) throws TzarException {
+    return updateHeldRuns(CANCEL_RUNS_SQL, runIds);
+  }
+
+  private int updateHeldRuns(final String sql, final Collection<Integer> runIds) throws TzarException {
+    if (runIds.isEmpty()) {
+      return 0;
+    }
+    final Connection connection = connectionFactory.createConnection();
+    return Utils.executeInTransaction(new Callable<Integer>() {
+      @Override
+      public Integer call() throws Exception {
+        PreparedStatement statement = connection.prepareStatement(sql);
+        statement.setArray(1, connection.createArrayOf("int", runIds.toArray()));
+        return statement.executeUpdate();
+      }
+    }, connection);
+  }
+
+  /**
+   * Loads the current states of the given runs.
+   *
+   * @param runIds ids of the runs
+   * @return map of run id to state. Runs which don't exist are not included.
+   * @throws TzarException if the states cannot be loaded
+   */
+  public Map<Integer, Run.State> getRunStates(final Collection<Integer> runIds) throws TzarException {
+    if (runIds.isEmpty()) {
+      return ImmutableMap.of();
+    }
+    final Connection connection = connectionFactory.createConnection();
+    return Utils.executeSqlStatement(new Callable<Map<Integer, Run.State>>() {
+      @Override
+      public Map<Integer, Run.State> call() throws Exception {
+        PreparedStatement statement = connection.prepareStatement(RUN_STATES_SQL);
+        statement.setArray(1, connection.createArrayOf("int", runIds.toArray()));
+        ResultSet resultSet = statement.executeQuery();
+        Map<Integer, Run.State> states = Maps.newHashMap();
+        while (resultSet.next()) {
+          states.put(resultSet.getInt(1), Run.State.valueOf(resultSet.getString(2).toUpperCase()));
+        }
+        return states;
+      }
+    }, connection);
+  }
+
+  /**
+   * Saves the metrics reported by a run, replacing any metrics previously saved for the run.
+   *
+   * @param runId   id of the run
+   * @param metrics map of metric names to values
+   * @throws TzarException if the metrics cannot be saved
+   */
+  public void insertMetrics(final int runId, final Map<String, Double> metrics) throws TzarException {
+    final Connection connection = connectionFactory.createConnection();
+    Utils.executeInTransaction(new Callable<Void>() {
+      @Override
+      public Void call() throws Exception {
+        PreparedStatement delete = connection.prepareStatement(DELETE_METRICS_SQL);
+        delete.setInt(1, runId);
+        delete.executeUpdate();
+        PreparedStatement insert = connection.prepareStatement(INSERT_METRIC_SQL);
+        for (Map.Entry<String, Double> entry : metrics.entrySet()) {
+          insert.setInt(1, runId);
+          insert.setString(2, entry.getKey());
+          insert.setDouble(3, entry.getValue());
+          insert.addBatch();
+        }
+        insert.executeBatch();
+        return null;
+      }
+    }, connection);
+  }
+
+  /**
+   * Loads the value of a metric for each of the given runs.
+   *
+   * @param runIds ids of the runs
+   * @param name   name of the metric
+   * @return map of run id to metric value. Runs which didn't report the metric are not included.
+   * @throws TzarException if the metrics cannot be loaded
+   */
+  public Map<Integer, Double> getMetrics(final Collection<Integer> runIds, final String name)
+      throws TzarException {
+    if (runIds.isEmpty()) {
+      return ImmutableMap.of();
+    }
+    final Connection connection = connectionFactory.createConnection();
+    return Utils.executeSqlStatement(new Callable<Map<Integer, Double>>() {
+      @Override
+      public Map<Integer, Double> call() throws Exception {
+        PreparedStatement statement = connection.prepareStatement(SELECT_METRIC_SQL);
+        statement.setString(1, name);
+        statement.setArray(2, connection.createArrayOf("int", runIds.toArray()));
+        ResultSet resultSet = statement.executeQuery();
+        Map<Integer, Double> values = Maps.newHashMap();
+        while (resultSet.next()) {
+          values.put(resultSet.getInt(1), resultSet.getDouble(2));
+        }
+        return values;
+      }
+    }, connection);
+  }
+
+  /**
+   * Loads the metadata recorded for a runset, eg the hash of the repetitions file its runs were generated from.
+   *
+   * @param runset name of the runset
+   * @return map of metadata names to values. Empty if no metadata has been recorded for the runset.
+   * @throws TzarException if the metadata cannot be loaded
+   */
+  public Map<String, String> getRunsetMetadata(final String runset) throws TzarException {
+    final Connection connection = connectionFactory.createConnection();
+    return Utils.executeSqlStatement(new Callable<Map<String, String>>() {
+      @Override
+      public Map<String, String> call() throws Exception {
+        PreparedStatement statement = connection.prepareStatement(SELECT_RUNSET_METADATA_SQL);
+        statement.setString(1, runset);
+        ResultSet resultSet = statement.executeQuery();
+        Map<String, String> metadata = Maps.newLinkedHashMap();
+        while (resultSet.next()) {
+          metadata.put(resultSet.getString(1), resultSet.getString(2));
+        }
+        return metadata;
+      }
+    }, connection);
+  }
+
+  /**
+   * Records metadata for a runset. Values already recorded under the given names are replaced, and other
+   * values are left unchanged.
+   *
+   * @param runset name of the runset
+   * @param metadata map of metadata names to values
+   * @throws TzarException if the metadata cannot be written
+   */
+  public void setRunsetMetadata(final String runset, final Map<String, String> metadata) throws TzarException {
+    final Connection connection = connectionFactory.createConnection();
+    Utils.executeInTransaction(new Callable<Void>() {
+      @Override
+      public Void call() throws Exception {
+        PreparedStatement delete = connection.prepareStatement(DELETE_RUNSET_METADATA_SQL);
+        PreparedStatement insert = connection.prepareStatement(INSERT_RUNSET_METADATA_SQL);
+        for (Map.Entry<String, String> entry : metadata.entrySet()) {
+          delete.setString(1, runset);
+          delete.setString(2, entry.getKey());
+          delete.addBatch();
+          insert.setString(1, runset);
+          insert.setString(2, entry.getKey());
+          insert.setString(3, entry.getValue());
+          insert.addBatch();
+        }
+        delete.executeBatch();
+        insert.executeBatch();
         return null;
       }
     }, connection);
@@ -207,7 +640,7 @@ public class RunDao {
    * @param outputType     output format
    * @throws TzarException if the runs cannot be loaded
    */
-  public synchronized void printRuns(final List<String> states, final Optional<String> hostname,
+  public void printRuns(final List<String> states, final Optional<String> hostname,
       final Optional<String> runset, final List<Integer> runIds, final boolean truncateOutput,
       final Utils.OutputType outputType) throws TzarException {
     final Connection connection = connectionFactory.createConnection();
@@ -221,7 +654,7 @@ public class RunDao {
     }, connection);
   }
 
-  public synchronized List<Run> getRuns(final List<String> states, final Optional<String> hostname,
+  public List<Run> getRuns(final List<String> states, final Optional<String> hostname,
       final Optional<String> runset, final List<Integer> runIds) throws TzarException {
     final Connection connection = connectionFactory.createConnection();
     return Utils.executeInTransaction(new Callable<List<Run>>() {
@@ -237,13 +670,115 @@ public class RunDao {
     }, connection);
   }
 
-  private static Timestamp getTimestamp(Date time) {
-    return time == null ? null : new Timestamp(time.getTime());
+  /**
+   * Moves runs which finished more than the given number of days ago out of the runs table and into the
+   * runs_history table (along with their parameters and libraries). Archived runs are still returned by
+   * {@link #getRuns} and {@link #printRuns}, but no longer slow down polling for scheduled runs.
+   * Runs are archived in batches, each in its own transaction.
+   *
+   * @param olderThanDays only archive runs which finished at least this many days ago
+   * @param batchSize     maximum number of runs to archive in each transaction
+   * @return the number of runs archived
+   * @throws TzarException if the runs cannot be archived
+   */
+  public int archiveRuns(final int olderThanDays, final int batchSize) throws TzarException {
+    int total = 0;
+    int archived;
+    do {
+      final Connection connection = connectionFactory.createConnection();
+      archived = Utils.executeInTransaction(new Callable<Integer>() {
+        @Override
+        public Integer call() throws Exception {
+          PreparedStatement statement = connection.prepareStatement(ARCHIVE_RUNS_SQL);
+          statement.setInt(1, olderThanDays);
+          statement.setInt(2, batchSize);
+          ResultSet resultSet = statement.executeQuery();
+          resultSet.next();
+          return resultSet.getInt(1);
+        }
+      }, connection);
+      total += archived;
+      LOG.fine("Archived " + total + " runs.");
+    } while (archived == batchSize);
+    return total;
+  }
+
+  /**
+   * Prints summary statistics for the matching runsets to stdout. The statistics are read from the
+   * runset_stats table, which is maintained by a trigger on the runs table, so this does not need
+   * to scan the runs.
+   *
+   * @param runset         runset name to match (may include SQL wildcards), or absent to print all runsets
+   * @param truncateOutput if the output should be truncated
+   * @param outputType     output format
+   * @throws TzarException if the statistics cannot be loaded
+   */
+  public void printRunsets(final Optional<String> runset, final boolean truncateOutput,
+      final Utils.OutputType outputType) throws TzarException {
+    final Connection connection = connectionFactory.createConnection();
+    Utils.executeSqlStatement(new Callable<Void>() {
+      @Override
+      public Void call() throws Exception {
+        PreparedStatement statement = connection.prepareStatement(RUNSET_STATS_SQL +
+            (runset.isPresent() ? " WHERE runset LIKE ?" : "") + " ORDER BY first_submission_time DESC");
+        if (runset.isPresent()) {
+          statement.setString(1, runset.get());
+        }
+        Utils.printResultSet(statement.executeQuery(), truncateOutput, outputType);
+        return null;
+      }
+    }, connection);
+  }
+
+  /**
+   * Loads the summary statistics for a single runset.
+   *
+   * @param runset the name of the runset
+   * @return the statistics for the runset, or absent if no runs have been scheduled in the runset
+   * @throws TzarException if the statistics cannot be loaded
+   */
+  public Optional<RunsetStats> getRunsetStats(final String runset) throws TzarException {
+    final Connection connection = connectionFactory.createConnection();
+    return Utils.executeSqlStatement(new Callable<Optional<RunsetStats>>() {
+      @Override
+      public Optional<RunsetStats> call() throws Exception {
+        PreparedStatement statement = connection.prepareStatement(RUNSET_STATS_SQL + " WHERE runset = ?");
+        statement.setString(1, runset);
+        ResultSet resultSet = statement.executeQuery();
+        if (!resultSet.next()) {
+          return Optional.absent();
+        }
+        ImmutableMap.Builder<Run.State, Integer> stateCounts = ImmutableMap.builder();
+        for (Run.State state : Run.State.values()) {
+          stateCounts.put(state, resultSet.getInt(state.name().toLowerCase()));
+        }
+        return Optional.of(new RunsetStats(resultSet.getString("runset"), resultSet.getInt("num_runs"),
+            stateCounts.build(), resultSet.getTimestamp("first_submission_time", utcCalendar()),
+            resultSet.getTimestamp("last_end_time", utcCalendar()), resultSet.getDouble("total_cpu_seconds")));
+      }
+    }, connection);
+  }
+
+  /**
+   * Returns true if a runset name to poll for contains SQL wildcards ('%' or '_'), and so must be matched with
+   * LIKE rather than =.
+   */
+  @VisibleForTesting
+  static boolean isRunsetPattern(String runset) {
+    return runset.contains("%") || runset.contains("_");
+  }
+
+  /**
+   * Returns a new calendar for reading and writing timestamps in UTC. Calendars are not thread safe,
+   * so we don't share them between calls.
+   */
+  static Calendar utcCalendar() {
+    return Calendar.getInstance(UTC);
   }
 
   private ResultSet findRuns(List<String> states, Optional<String> hostname, Optional<String> runset,
       List<Integer> runIds, Connection connection) throws SQLException {
-    StringBuilder sql = new StringBuilder("SELECT * FROM runs WHERE 1=1 ");
+    StringBuilder sql = new StringBuilder("SELECT * FROM all_runs WHERE 1=1 ");
     if (!states.isEmpty()) {
       sql.append("AND state = ANY(?) ");
     }
@@ -339,8 +874,7 @@ public class RunDao {
         statement.setString(1, runset);
         statement.execute();
         ResultSet resultSet = statement.getResultSet();
-        resultSet.next();
-        return resultSet.getInt(1) > 0;
+        return resultSet.next() && resultSet.getInt(1) > 0;
       }
     }, connection);
   }
@@ -0,0 +1,157 @@
+package au.edu.rmit.tzar.db;
+
+import au.edu.rmit.tzar.api.TzarException;
+import au.edu.rmit.tzar.repository.PathLock;
+import com.google.common.base.Charsets;
+import com.google.common.collect.Maps;
+import com.google.common.io.Files;
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.util.Collection;
+import java.util.SortedMap;
+import java.util.logging.Logger;
+
+/**
+ * Append-only, node-local file of run updates which couldn't be written to the database. Each line is
+ * a JSON encoded {@link RunUpdateQueue.RunUpdate}. Appended lines are synced to disk before
+ * {@link #append} returns, so that the updates survive the node being restarted while the database
+ * is unavailable.
+ *
+ * The journal is shared by all of the tzar processes using the same base directory. Appends, and the replay
+ * of the journal (reading it, writing the updates to the database and clearing it), are done while holding
+ * the journal's lock (see {@link #lock}), so that each update is replayed by only one process, and updates
+ * appended by one process while another is replaying the journal aren't lost when it is cleared.
+ */
+class RunJournal {
+  private static final Logger LOG = Logger.getLogger(RunJournal.class.getName());
+
+  private final File file;
+  private final Gson gson = new Gson();
+
+  RunJournal(File file) {
+    this.file = file;
+  }
+
+  boolean isEmpty() {
+    return file.length() == 0; // length is 0 if the file doesn't exist
+  }
+
+  /**
+   * Locks the journal, waiting for any other thread or process which holds the lock. The caller must release
+   * the lock in a finally block, and must not call {@link #append} while holding it.
+   *
+   * @throws TzarException if the lock file can't be created
+   */
+  PathLock lock() throws TzarException {
+    return PathLock.acquire(file);
+  }
+
+  /**
+   * Appends the updates to the journal, and syncs the journal to disk. Locks the journal while doing so.
+   *
+   * @throws TzarException if the updates couldn't be written
+   */
+  void append(Collection<RunUpdateQueue.RunUpdate> updates) throws TzarException {
+    PathLock lock = lock();
+    try {
+      doAppend(updates);
+    } finally {
+      lock.release();
+    }
+  }
+
+  private void doAppend(Collection<RunUpdateQueue.RunUpdate> updates) throws TzarException {
+    try {
+      boolean needsNewline = endsWithPartialLine();
+      FileOutputStream out = new FileOutputStream(file, true /* append */);
+      try {
+        Writer writer = new OutputStreamWriter(out, Charsets.UTF_8);
+        if (needsNewline) {
+          // the last append was interrupted (eg by a crash). don't add to the end of the broken line.
+          writer.write('\n');
+        }
+        for (RunUpdateQueue.RunUpdate update : updates) {
+          writer.write(gson.toJson(update));
+          writer.write('\n');
+        }
+        writer.flush();
+        out.getFD().sync();
+      } finally {
+        out.close();
+      }
+    } catch (IOException e) {
+      throw new TzarException("Couldn't write run updates to journal: " + file, e);
+    }
+  }
+
+  /**
+   * Reads the updates in the journal. If there is more than one update for a run, the latest one is returned.
+   * The caller should hold the journal's lock, if the journal is going to be cleared once they are replayed.
+   * Lines which can't be parsed (eg because the node crashed while writing them) are skipped.
+   *
+   * @return the updates, keyed by run id
+   * @throws TzarException if the journal couldn't be read
+   */
+  SortedMap<Integer, RunUpdateQueue.RunUpdate> read() throws TzarException {
+    SortedMap<Integer, RunUpdateQueue.RunUpdate> updates = Maps.newTreeMap();
+    if (!file.exists()) {
+      return updates;
+    }
+    try {
+      for (String line : Files.readLines(file, Charsets.UTF_8)) {
+        if (line.trim().isEmpty()) {
+          continue;
+        }
+        try {
+          RunUpdateQueue.RunUpdate update = gson.fromJson(line, RunUpdateQueue.RunUpdate.class);
+          if (update != null) {
+            updates.put(update.getRunId(), update);
+          }
+        } catch (JsonParseException e) {
+          LOG.warning("Skipping unreadable line in run journal " + file + ": " + line);
+        }
+      }
+    } catch (IOException e) {
+      throw new TzarException("Couldn't read run journal: " + file, e);
+    }
+    return updates;
+  }
+
+  /**
+   * Removes all updates from the journal. Called once they have been written to the database, by the holder
+   * of the journal's lock.
+   *
+   * @throws TzarException if the journal couldn't be deleted
+   */
+  void clear() throws TzarException {
+    if (file.exists() && !file.delete()) {
+      throw new TzarException("Couldn't delete run journal: " + file + ". The updates in it will be written to " +
+          "the database again.");
+    }
+  }
+
+  @Override
+  public String toString() {
+    return file.getPath();
+  }
+
+  private boolean endsWithPartialLine() throws IOException {
+    if (isEmpty()) {
+      return false;
+    }
+    RandomAccessFile raf = new RandomAccessFile(file, "r");
+    try {
+      raf.seek(raf.length() - 1);
+      return raf.read() != '\n';
+    } finally {
+      raf.close();
+    }
+  }
+}
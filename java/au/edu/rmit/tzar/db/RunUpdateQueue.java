@@ -0,0 +1,284 @@
+package au.edu.rmit.tzar.db;
+
+import au.edu.rmit.tzar.api.Run;
+import au.edu.rmit.tzar.api.TzarException;
+import au.edu.rmit.tzar.repository.PathLock;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Optional;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+import java.io.File;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+import java.util.SortedMap;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.Callable;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Write-behind queue for run updates which don't need to reach the database immediately, such as
+ * a finished run's end time and state, or the output location and 'copied' state set once its results
+ * have been copied. Updates are coalesced by run id, so that only the latest state of each run is written,
+ * and a background thread periodically writes all pending updates as a single batch in one transaction.
+ *
+ * If a journal is provided, updates which can't be written (eg because the database is down) are moved
+ * to the journal, so that they survive a restart of the node. Each flush replays the journal along with
+ * the queued updates, and clears it once they have all been written. The journal may be shared with other
+ * processes, so it is locked while it is replayed.
+ *
+ * Claims (ie marking a scheduled run as in progress) must not go through this queue, because they rely
+ * on the row lock taken by {@link RunDao#markRunInProgress}.
+ */
+class RunUpdateQueue {
+  private static final Logger LOG = Logger.getLogger(RunUpdateQueue.class.getName());
+
+  private final ConnectionFactory connectionFactory;
+  private final int flushIntervalMs;
+  private final Optional<RunJournal> journal;
+
+  // pending updates, keyed (and sorted) by run id, so that concurrent flushes from different nodes
+  // lock rows in the same order. guarded by 'this'.
+  private final SortedMap<Integer, RunUpdate> pending = Maps.newTreeMap();
+  // held while updates are being written, so that a synchronous write can't be overwritten by an
+  // older update from a flush which is already in progress.
+  private final Object flushLock = new Object();
+  // started when the first update is queued. guarded by 'this'.
+  private Timer timer;
+
+  RunUpdateQueue(ConnectionFactory connectionFactory, int flushIntervalMs, Optional<RunJournal> journal) {
+    this.connectionFactory = connectionFactory;
+    this.flushIntervalMs = flushIntervalMs;
+    this.journal = journal;
+  }
+
+  /**
+   * Queues an update of the run's current state. Replaces any update for the same run that is still pending.
+   */
+  synchronized void add(Run run) {
+    pending.put(run.getRunId(), RunUpdate.of(run));
+    if (timer == null) {
+      start();
+    }
+  }
+
+  /**
+   * Discards any pending update for the given run. Must be called before writing the run synchronously,
+   * so that the synchronous write is not later overwritten by an older queued update.
+   */
+  void discard(int runId) {
+    synchronized (flushLock) {
+      synchronized (this) {
+        pending.remove(runId);
+      }
+    }
+  }
+
+  /**
+   * Returns true if there are updates in the journal which haven't yet been written to the database.
+   * Updates to runs should not be written directly to the database while this is the case, because they
+   * would be overwritten when the journal is replayed.
+   */
+  boolean hasJournalledUpdates() {
+    return journal.isPresent() && !journal.get().isEmpty();
+  }
+
+  /**
+   * Writes all pending updates, and any updates in the journal, to the database. If the write fails,
+   * the pending updates are appended to the journal, or if there is no journal (or it can't be written to),
+   * they are put back on the queue (unless they have been superseded in the meantime), to be retried
+   * on the next flush.
+   *
+   * @return the number of runs updated
+   * @throws TzarException if the updates could not be written
+   */
+  int flush() throws TzarException {
+    synchronized (flushLock) {
+      final List<RunUpdate> queued;
+      synchronized (this) {
+        queued = Lists.newArrayList(pending.values());
+        pending.clear();
+      }
+      // the journal is locked while it is replayed, as it is shared with other processes.
+      Optional<PathLock> journalLock = hasJournalledUpdates() ? Optional.of(journal.get().lock()) :
+          Optional.<PathLock>absent();
+      SortedMap<Integer, RunUpdate> updates;
+      TzarException failure = null;
+      try {
+        updates = journalLock.isPresent() ? journal.get().read() : Maps.<Integer, RunUpdate>newTreeMap();
+        for (RunUpdate update : queued) {
+          updates.put(update.runId, update); // queued updates are newer than the journalled ones.
+        }
+        if (updates.isEmpty()) {
+          return 0;
+        }
+        try {
+          write(updates.values());
+        } catch (TzarException e) {
+          failure = e;
+        }
+        if (failure == null && journalLock.isPresent()) {
+          journal.get().clear();
+        }
+      } finally {
+        if (journalLock.isPresent()) {
+          journalLock.get().release();
+        }
+      }
+      if (failure != null) {
+        saveForRetry(queued);
+        throw failure;
+      }
+      LOG.fine("Wrote " + updates.size() + " queued run updates.");
+      return updates.size();
+    }
+  }
+
+  @VisibleForTesting
+  synchronized int size() {
+    return pending.size();
+  }
+
+  private void write(final Collection<RunUpdate> updates) throws TzarException {
+    final Connection connection = connectionFactory.createConnection();
+    Utils.executeInTransaction(new Callable<Void>() {
+      @Override
+      public Void call() throws Exception {
+        PreparedStatement updateRun = connection.prepareStatement(RunDao.UPDATE_RUN_SQL);
+        for (RunUpdate update : updates) {
+          update.bind(updateRun);
+          updateRun.addBatch();
+        }
+        updateRun.executeBatch();
+        return null;
+      }
+    }, connection);
+  }
+
+  private void saveForRetry(List<RunUpdate> updates) {
+    if (updates.isEmpty()) {
+      return;
+    }
+    if (journal.isPresent()) {
+      try {
+        journal.get().append(updates);
+        LOG.info("Couldn't write " + updates.size() + " run updates to the database. Saved them to " +
+            journal.get() + " to retry later.");
+        return;
+      } catch (TzarException e) {
+        LOG.log(Level.SEVERE, "Couldn't save run updates to the journal. Keeping them in memory.", e);
+      }
+    }
+    requeue(updates);
+  }
+
+  private synchronized void requeue(List<RunUpdate> updates) {
+    for (RunUpdate update : updates) {
+      // anything queued since the flush began is newer, and takes precedence.
+      if (!pending.containsKey(update.runId)) {
+        pending.put(update.runId, update);
+      }
+    }
+  }
+
+  private void start() {
+    timer = new Timer("run-update-queue", true /* daemon */);
+    timer.schedule(new TimerTask() {
+      @Override
+      public void run() {
+        try {
+          flush();
+        } catch (TzarException e) {
+          LOG.warning("Failed to write queued run updates. Will retry in " + flushIntervalMs + "ms. Error was: " +
+              e.getMessage());
+        }
+      }
+    }, flushIntervalMs, flushIntervalMs);
+    // make a last attempt to write anything still queued when the JVM exits.
+    Runtime.getRuntime().addShutdownHook(new Thread() {
+      @Override
+      public void run() {
+        try {
+          flush();
+        } catch (TzarException e) {
+          if (size() > 0) {
+            LOG.log(Level.SEVERE, "Failed to write queued run updates on exit. Status of runs: " +
+                pendingRunIds() + " will be invalid.", e);
+          }
+        }
+      }
+    });
+  }
+
+  private synchronized List<Integer> pendingRunIds() {
+    return Lists.newArrayList(pending.keySet());
+  }
+
+  /**
+   * Snapshot of the fields of a run which are written by {@link RunDao#UPDATE_RUN_SQL}. Runs are mutable,
+   * so we copy the fields at the time the update is queued.
+   */
+  static class RunUpdate {
+    private final int runId;
+    // times are stored as milliseconds since the epoch, so that they are serialised exactly in the journal.
+    private final Long startTime;
+    private final Long endTime;
+    private final Run.State state;
+    private final String hostname;
+    private final String hostIp;
+    private final String outputPath;
+    private final String outputHost;
+
+    private RunUpdate(int runId, Long startTime, Long endTime, Run.State state, String hostname, String hostIp,
+        String outputPath, String outputHost) {
+      this.runId = runId;
+      this.startTime = startTime;
+      this.endTime = endTime;
+      this.state = state;
+      this.hostname = hostname;
+      this.hostIp = hostIp;
+      this.outputPath = outputPath;
+      this.outputHost = outputHost;
+    }
+
+    static RunUpdate of(Run run) {
+      File outputPath = run.getRemoteOutputPath();
+      return new RunUpdate(run.getRunId(), millis(run.getStartTime()), millis(run.getEndTime()), run.getState(),
+          run.getHostname(), run.getHostIp(), outputPath == null ? null : outputPath.getAbsolutePath(),
+          run.getOutputHost());
+    }
+
+    /**
+     * Sets the parameters of an {@link RunDao#UPDATE_RUN_SQL} statement to the values in this update.
+     */
+    void bind(PreparedStatement updateRun) throws SQLException {
+      updateRun.setTimestamp(1, getTimestamp(startTime), RunDao.utcCalendar());
+      updateRun.setTimestamp(2, getTimestamp(endTime), RunDao.utcCalendar());
+      updateRun.setString(3, state.name().toLowerCase());
+      updateRun.setString(4, hostname);
+      updateRun.setString(5, hostIp);
+      updateRun.setString(6, outputPath);
+      updateRun.setString(7, outputHost);
+      updateRun.setInt(8, runId); // this is for the where clause, we don't update this field.
+    }
+
+    int getRunId() {
+      return runId;
+    }
+
+    private static Long millis(Date date) {
+      return date == null ? null : date.getTime();
+    }
+
+    private static Timestamp getTimestamp(Long millis) {
+      return millis == null ? null : new Timestamp(millis);
+    }
+  }
+}
@@ -0,0 +1,78 @@
+package au.edu.rmit.tzar.db;
+
+import au.edu.rmit.tzar.api.Run;
+import com.google.common.base.Objects;
+import com.google.common.collect.ImmutableMap;
+
+import java.util.Date;
+
+/**
+ * Summary of the runs in a runset, as maintained in the runset_stats table.
+ */
+public class RunsetStats {
+  private final String runset;
+  private final int numRuns;
+  private final ImmutableMap<Run.State, Integer> stateCounts;
+  private final Date firstSubmissionTime;
+  private final Date lastEndTime;
+  private final double totalCpuSeconds;
+
+  public RunsetStats(String runset, int numRuns, ImmutableMap<Run.State, Integer> stateCounts,
+      Date firstSubmissionTime, Date lastEndTime, double totalCpuSeconds) {
+    this.runset = runset;
+    this.numRuns = numRuns;
+    this.stateCounts = stateCounts;
+    this.firstSubmissionTime = firstSubmissionTime;
+    this.lastEndTime = lastEndTime;
+    this.totalCpuSeconds = totalCpuSeconds;
+  }
+
+  public String getRunset() {
+    return runset;
+  }
+
+  public int getNumRuns() {
+    return numRuns;
+  }
+
+  /**
+   * Returns the number of runs in this runset which are currently in the given state.
+   */
+  public int getCount(Run.State state) {
+    Integer count = stateCounts.get(state);
+    return count == null ? 0 : count;
+  }
+
+  /**
+   * Time the first run in the runset was scheduled, or null if unknown.
+   */
+  public Date getFirstSubmissionTime() {
+    return firstSubmissionTime;
+  }
+
+  /**
+   * Time the most recently finished run in the runset finished, or null if no runs have finished.
+   */
+  public Date getLastEndTime() {
+    return lastEndTime;
+  }
+
+  /**
+   * Sum of the execution times of the runs in this runset, in seconds.
+   */
+  public double getTotalCpuSeconds() {
+    return totalCpuSeconds;
+  }
+
+  @Override
+  public String toString() {
+    return Objects.toStringHelper(this)
+        .add("runset", runset)
+        .add("numRuns", numRuns)
+        .add("stateCounts", stateCounts)
+        .add("firstSubmissionTime", firstSubmissionTime)
+        .add("lastEndTime", lastEndTime)
+        .add("totalCpuSeconds", totalCpuSeconds)
+        .toString();
+  }
+}
@@ -1,6 +1,7 @@
 package au.edu.rmit.tzar.db;
 
 import au.com.bytecode.opencsv.CSVWriter;
+import au.edu.rmit.tzar.Metrics;
 import au.edu.rmit.tzar.api.TzarException;
 import com.google.common.collect.Lists;
 
@@ -20,6 +21,7 @@ import java.util.logging.Logger;
  */
 public class Utils {
   private static final Logger LOG = Logger.getLogger(Utils.class.getName());
+  private static final Metrics.Timer QUERY_LATENCY = Metrics.timer("db_query");
 
   public static void close(Connection connection, boolean exceptionOccurred) throws TzarException {
     try {
@@ -125,6 +127,7 @@ public class Utils {
   /**
    * Execute a method that might throw a SQLException. For some reason, these exceptions are weird
    * in that the actual cause of the exception has to be explicitly unpacked. This method does that for callers.
+   * The time taken is recorded in the db_query metric.
    * @param callable the actual function to execute
    * @param connection the database connection
    * @param <V> the return type
@@ -134,6 +137,7 @@ public class Utils {
   public static <V> V executeSqlStatement(Callable<V> callable, Connection connection) throws TzarException {
     boolean exceptionOccurred = true;
     V retVal;
+    long start = QUERY_LATENCY.start();
     try {
       retVal = callable.call();
       exceptionOccurred = false;
@@ -145,6 +149,7 @@ public class Utils {
       rollback(connection);
       throw new TzarException(e);
     } finally {
+      QUERY_LATENCY.stop(start);
       close(connection, exceptionOccurred);
     }
     return retVal;
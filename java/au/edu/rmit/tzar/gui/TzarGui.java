@@ -349,7 +349,7 @@ public class TzarGui {
   private void scheduleRuns() {
     new SwingWorker<Void, Void>() {
       @Override
-      protected Void doInBackground() throws TzarException {
+      protected Void doInBackground() throws InterruptedException, TzarException {
         String projectPath = scheduleRunsPathToProject.getText();
         CodeSourceImpl.RepositoryTypeImpl repositoryType = CodeSourceImpl.RepositoryTypeImpl.valueOf(
             scheduleRunsRepoType.getSelectedItem().toString());
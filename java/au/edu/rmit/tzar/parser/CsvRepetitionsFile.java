@@ -0,0 +1,319 @@
+package au.edu.rmit.tzar.parser;
+
+import au.com.bytecode.opencsv.CSVParser;
+import au.edu.rmit.tzar.api.Parameters;
+import au.edu.rmit.tzar.api.RepetitionsFile;
+import au.edu.rmit.tzar.api.TzarException;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Charsets;
+import com.google.common.base.Objects;
+import com.google.common.collect.AbstractIterator;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.ObjectArrays;
+import com.google.common.hash.Hashing;
+import com.google.common.io.Files;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigDecimal;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.logging.Logger;
+
+/**
+ * A file of repetitions in CSV format. The first row is a header, giving the name of the parameter in each
+ * column. The type of a column can be given by appending one of ":int", ":float", ":bool" or ":str" to its
+ * name (eg "alpha:float"). Otherwise, the type of each value is inferred, as for values in the yaml files.
+ * Empty cells are skipped, so that the parameter keeps the value it would have had without the repetition.
+ */
+public class CsvRepetitionsFile implements RepetitionsFile {
+  private static final Logger LOG = Logger.getLogger(CsvRepetitionsFile.class.getName());
+
+  // the number of rows read each time the file is opened. the file is closed between batches, so that an
+  // iterator which isn't read to the end doesn't leave it open.
+  @VisibleForTesting
+  static final int BATCH_ROWS = 10000;
+
+  private final String path;
+  private final File file;
+  private final String contentHash;
+  private final long length;
+  private final long lastModified;
+
+  /**
+   * Constructor. Reads the file once, to compute its hash.
+   *
+   * @param path the path of the file, as given in the project spec
+   * @param file the local copy of the file
+   * @throws TzarException if the file can't be read
+   */
+  public CsvRepetitionsFile(String path, File file) throws TzarException {
+    this.path = path;
+    this.file = file;
+    this.length = file.length();
+    this.lastModified = file.lastModified();
+    try {
+      contentHash = Files.hash(file, Hashing.sha256()).toString();
+    } catch (IOException e) {
+      throw new TzarException("Couldn't read repetitions file: " + file, e);
+    }
+  }
+
+  @Override
+  public String getPath() {
+    return path;
+  }
+
+  @Override
+  public String getContentHash() {
+    return contentHash;
+  }
+
+  /**
+   * Returns an iterator over the rows of the file. The rows are read in batches, and the file is only open while
+   * a batch is being read.
+   *
+   * @throws IllegalStateException if the file can't be read, or has been modified since it was hashed (as shown
+   *                               by its size or modification time)
+   * @throws IllegalArgumentException if a value can't be converted to the type of its column
+   */
+  @Override
+  public Iterator<Parameters> iterator() {
+    if (file.length() != length || file.lastModified() != lastModified) {
+      throw new IllegalStateException("Repetitions file: " + file + " has been modified since it was loaded.");
+    }
+
+    return new AbstractIterator<Parameters>() {
+      private final Queue<Parameters> batch = Lists.newLinkedList();
+      private Column[] columns; // null until the header has been read
+      private long offset = 0; // of the next row in the file, in bytes
+      private boolean endOfFile = false;
+      private int line = 0;
+
+      @Override
+      protected Parameters computeNext() {
+        if (batch.isEmpty() && !endOfFile) {
+          readBatch();
+        }
+        return batch.isEmpty() ? endOfData() : batch.remove();
+      }
+
+      private void readBatch() {
+        List<String[]> rows = Lists.newArrayList();
+        try {
+          FileInputStream in = new FileInputStream(file);
+          try {
+            in.getChannel().position(offset);
+            RowReader reader = new RowReader(new BufferedInputStream(in));
+            while (rows.size() < BATCH_ROWS) {
+              String[] row = reader.readRow();
+              if (row == null) {
+                endOfFile = true;
+                break;
+              }
+              rows.add(row);
+            }
+            offset += reader.bytesRead;
+          } finally {
+            in.close();
+          }
+        } catch (IOException e) {
+          throw new IllegalStateException("Couldn't read repetitions file: " + file, e);
+        }
+        for (String[] row : rows) {
+          line++;
+          if (columns == null) {
+            columns = new Column[row.length];
+            for (int i = 0; i < row.length; i++) {
+              columns[i] = Column.parse(row[i].trim());
+            }
+          } else {
+            batch.add(parseRow(row));
+          }
+        }
+        if (columns == null) {
+          throw new IllegalArgumentException("Repetitions file: " + file + " is empty. It must have a header row.");
+        }
+      }
+
+      private Parameters parseRow(String[] row) {
+        if (row.length != columns.length) {
+          throw new IllegalArgumentException(String.format("Row %d of repetitions file: %s has %d values, but " +
+              "the header has %d columns.", line, file, row.length, columns.length));
+        }
+        Map<String, Object> values = Maps.newLinkedHashMap();
+        for (int i = 0; i < row.length; i++) {
+          if (row[i].isEmpty()) {
+            continue;
+          }
+          try {
+            values.put(columns[i].name, columns[i].type.parse(row[i]));
+          } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(String.format("Row %d of repetitions file: %s has value '%s' " +
+                "for column %s, which is not a valid %s.", line, file, row[i], columns[i].name,
+                columns[i].type.toString().toLowerCase()), e);
+          }
+        }
+        return Parameters.createParameters(values);
+      }
+    };
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) return true;
+    if (o == null || getClass() != o.getClass()) return false;
+    CsvRepetitionsFile that = (CsvRepetitionsFile) o;
+    return path.equals(that.path) && contentHash.equals(that.contentHash);
+  }
+
+  @Override
+  public int hashCode() {
+    return Objects.hashCode(path, contentHash);
+  }
+
+  @Override
+  public String toString() {
+    return Objects.toStringHelper(this)
+        .add("path", path)
+        .add("contentHash", contentHash)
+        .toString();
+  }
+
+  /**
+   * Reads rows from a CSV file, counting the bytes read, so that the next batch of rows can be read from the
+   * same point after the file has been closed. A row may span several lines, if it has quoted values which
+   * contain line breaks.
+   */
+  private static class RowReader {
+    private final InputStream in;
+    private final CSVParser parser = new CSVParser();
+    private long bytesRead = 0;
+
+    RowReader(InputStream in) {
+      this.in = in;
+    }
+
+    /**
+     * Returns the next row, or null at the end of the file.
+     */
+    String[] readRow() throws IOException {
+      String[] row = null;
+      do {
+        String line = readLine();
+        if (line == null) {
+          return row;
+        }
+        String[] values = parser.parseLineMulti(line);
+        row = row == null ? values : ObjectArrays.concat(row, values, String.class);
+      } while (parser.isPending());
+      return row;
+    }
+
+    /**
+     * Returns the next line, without the line terminator, or null at the end of the file.
+     */
+    private String readLine() throws IOException {
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      int b;
+      while ((b = in.read()) != -1) {
+        bytesRead++;
+        if (b == '\n') {
+          break;
+        }
+        bytes.write(b);
+      }
+      if (b == -1 && bytes.size() == 0) {
+        return null;
+      }
+      String line = new String(bytes.toByteArray(), Charsets.UTF_8);
+      return line.endsWith("\r") ? line.substring(0, line.length() - 1) : line;
+    }
+  }
+
+  private static class Column {
+    private final String name;
+    private final Type type;
+
+    private Column(String name, Type type) {
+      this.name = name;
+      this.type = type;
+    }
+
+    static Column parse(String header) {
+      int colon = header.lastIndexOf(':');
+      if (colon == -1) {
+        return new Column(header, Type.INFERRED);
+      }
+      String typeName = header.substring(colon + 1);
+      for (Type type : Type.values()) {
+        if (type.name != null && type.name.equals(typeName)) {
+          return new Column(header.substring(0, colon), type);
+        }
+      }
+      LOG.warning("Unknown type: " + typeName + " for column: " + header + ". Treating the type as part of the " +
+          "column name.");
+      return new Column(header, Type.INFERRED);
+    }
+  }
+
+  private enum Type {
+    INT("int") {
+      @Override
+      Object parse(String value) {
+        return Integer.valueOf(value.trim());
+      }
+    },
+    FLOAT("float") {
+      @Override
+      Object parse(String value) {
+        return new BigDecimal(value.trim());
+      }
+    },
+    BOOL("bool") {
+      @Override
+      Object parse(String value) {
+        String trimmed = value.trim();
+        if ("true".equalsIgnoreCase(trimmed) || "false".equalsIgnoreCase(trimmed)) {
+          return Boolean.valueOf(trimmed);
+        }
+        throw new NumberFormatException(value);
+      }
+    },
+    STR("str") {
+      @Override
+      Object parse(String value) {
+        return value;
+      }
+    },
+    // the type of each value is inferred from its contents, in the order int, float, bool, str.
+    INFERRED(null) {
+      @Override
+      Object parse(String value) {
+        for (Type type : new Type[]{INT, FLOAT, BOOL}) {
+          try {
+            return type.parse(value);
+          } catch (NumberFormatException e) {
+            // try the next type
+          }
+        }
+        return value;
+      }
+    };
+
+    private final String name;
+
+    Type(String name) {
+      this.name = name;
+    }
+
+    abstract Object parse(String value);
+  }
+}
@@ -0,0 +1,61 @@
+package au.edu.rmit.tzar.parser;
+
+import au.edu.rmit.tzar.api.DesignGenerator;
+
+import java.util.List;
+
+/**
+ * Generates points from the Halton low discrepancy sequence. Dimension i of point n is the radical inverse
+ * of n in the ith prime base. The sequence is deterministic, and starts at the origin. Halton sequences
+ * work best for a small number of dimensions (up to about 10), as the higher dimensions are correlated
+ * for small sample counts.
+ */
+public class HaltonDesign extends DesignGenerator {
+  public HaltonDesign(List<Dimension> dimensions, int count) {
+    super(dimensions, count);
+  }
+
+  @Override
+  protected double[][] generatePoints(int count, int dimensions) {
+    int[] bases = primes(dimensions);
+    double[][] points = new double[count][dimensions];
+    for (int i = 0; i < count; i++) {
+      for (int d = 0; d < dimensions; d++) {
+        points[i][d] = radicalInverse(i, bases[d]);
+      }
+    }
+    return points;
+  }
+
+  /**
+   * Reflects the digits of index (in the given base) about the decimal point.
+   */
+  private static double radicalInverse(int index, int base) {
+    double result = 0;
+    double scale = 1.0 / base;
+    while (index > 0) {
+      result += (index % base) * scale;
+      index /= base;
+      scale /= base;
+    }
+    return result;
+  }
+
+  private static int[] primes(int n) {
+    int[] primes = new int[n];
+    int found = 0;
+    for (int candidate = 2; found < n; candidate++) {
+      boolean prime = true;
+      for (int i = 0; i < found && primes[i] * primes[i] <= candidate; i++) {
+        if (candidate % primes[i] == 0) {
+          prime = false;
+          break;
+        }
+      }
+      if (prime) {
+        primes[found++] = candidate;
+      }
+    }
+    return primes;
+  }
+}
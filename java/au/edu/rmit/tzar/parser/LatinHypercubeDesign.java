@@ -0,0 +1,62 @@
+package au.edu.rmit.tzar.parser;
+
+import au.edu.rmit.tzar.api.DesignGenerator;
+
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Generates a random Latin hypercube sample. The range of each dimension is divided into <code>count</code>
+ * equal strata, and each stratum of each dimension contains exactly one sample, at a random position within
+ * the stratum. The strata are paired up randomly between dimensions. The random numbers come from a
+ * {@link SplitMix64} generator, so the sample is determined by the seed.
+ */
+public class LatinHypercubeDesign extends DesignGenerator {
+  private final long seed;
+
+  public LatinHypercubeDesign(List<Dimension> dimensions, int count) {
+    this(dimensions, count, SplitMix64.newSeed());
+  }
+
+  public LatinHypercubeDesign(List<Dimension> dimensions, int count, long seed) {
+    super(dimensions, count);
+    this.seed = seed;
+  }
+
+  public long getSeed() {
+    return seed;
+  }
+
+  @Override
+  protected double[][] generatePoints(int count, int dimensions) {
+    double[][] points = new double[count][dimensions];
+    int[] strata = new int[count];
+    Random random = new SplitMix64(seed);
+    for (int d = 0; d < dimensions; d++) {
+      for (int i = 0; i < count; i++) {
+        strata[i] = i;
+      }
+      // Fisher-Yates shuffle
+      for (int i = count - 1; i > 0; i--) {
+        int j = random.nextInt(i + 1);
+        int tmp = strata[i];
+        strata[i] = strata[j];
+        strata[j] = tmp;
+      }
+      for (int i = 0; i < count; i++) {
+        points[i][d] = (strata[i] + random.nextDouble()) / count;
+      }
+    }
+    return points;
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    return super.equals(o) && seed == ((LatinHypercubeDesign) o).seed;
+  }
+
+  @Override
+  public int hashCode() {
+    return 31 * super.hashCode() + (int) (seed ^ (seed >>> 32));
+  }
+}
@@ -4,33 +4,39 @@ import au.edu.rmit.tzar.api.RepetitionGenerator;
 import com.google.common.base.Objects;
 
 import java.math.BigDecimal;
-import java.security.SecureRandom;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Random;
 
 /**
  * Generates a sequence of values selected from a normal distribution with the provided mean
- * and standard deviation.
+ * and standard deviation. The values are determined by the seed, so each call to {@link #generate} returns
+ * the same values.
  */
 public class NormalDistributionGenerator extends RepetitionGenerator<BigDecimal> {
   private final BigDecimal mean;
   private final int count;
   private final BigDecimal stdDev;
-  private final SecureRandom secureRandom;
+  private final long seed;
 
   public NormalDistributionGenerator(String key, BigDecimal mean, int count, BigDecimal stdDev) {
+    this(key, mean, count, stdDev, SplitMix64.newSeed());
+  }
+
+  public NormalDistributionGenerator(String key, BigDecimal mean, int count, BigDecimal stdDev, long seed) {
     super(key);
     this.mean = mean;
     this.count = count;
     this.stdDev = stdDev;
-    secureRandom = new SecureRandom();
+    this.seed = seed;
   }
 
   @Override
   public List<BigDecimal> generate() {
     List<BigDecimal> list = new ArrayList<BigDecimal>();
+    Random random = new SplitMix64(seed);
     for (int i = 0; i < count; ++i) {
-      list.add(new BigDecimal(secureRandom.nextGaussian()).multiply(stdDev).add(mean));
+      list.add(new BigDecimal(random.nextGaussian()).multiply(stdDev).add(mean));
     }
     return list;
   }
@@ -47,9 +53,13 @@ public class NormalDistributionGenerator extends RepetitionGenerator<BigDecimal>
     return stdDev;
   }
 
+  public long getSeed() {
+    return seed;
+  }
+
   @Override
   public int hashCode() {
-    return Objects.hashCode(mean, count, stdDev);
+    return Objects.hashCode(mean, count, stdDev, seed);
   }
 
   @Override
@@ -61,6 +71,7 @@ public class NormalDistributionGenerator extends RepetitionGenerator<BigDecimal>
       return false;
     }
     final NormalDistributionGenerator other = (NormalDistributionGenerator) obj;
-    return Objects.equal(this.mean, other.mean) && Objects.equal(this.count, other.count) && Objects.equal(this.stdDev, other.stdDev);
+    return Objects.equal(this.mean, other.mean) && Objects.equal(this.count, other.count) && Objects.equal(this.stdDev, other.stdDev)
+        && this.seed == other.seed;
   }
 }
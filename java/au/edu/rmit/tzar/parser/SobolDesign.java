@@ -0,0 +1,97 @@
+package au.edu.rmit.tzar.parser;
+
+import au.edu.rmit.tzar.api.DesignGenerator;
+
+import java.util.List;
+
+/**
+ * Generates points from the Sobol low discrepancy sequence, using the direction numbers of Joe and Kuo
+ * (http://web.maths.unsw.edu.au/~fkuo/sobol/). The sequence is deterministic, and starts at the origin.
+ * Each dimension is best balanced when the number of points is a power of 2.
+ */
+public class SobolDesign extends DesignGenerator {
+  private static final int BITS = 32;
+
+  /**
+   * Direction numbers for dimensions 2 and above. Each row is: the degree s of the primitive polynomial,
+   * the coefficients a of the polynomial, and the initial direction numbers m_1 ... m_s. The first dimension
+   * is the van der Corput sequence, which doesn't need a row.
+   */
+  private static final int[][] DIRECTION_NUMBERS = {
+      {1, 0, 1},
+      {2, 1, 1, 3},
+      {3, 1, 1, 3, 1},
+      {3, 2, 1, 1, 1},
+      {4, 1, 1, 1, 3, 3},
+      {4, 4, 1, 3, 5, 13},
+      {5, 2, 1, 1, 5, 5, 17},
+      {5, 4, 1, 1, 5, 5, 5},
+      {5, 7, 1, 1, 7, 11, 19},
+      {5, 11, 1, 1, 5, 1, 1},
+      {5, 13, 1, 1, 1, 3, 11},
+      {5, 14, 1, 3, 5, 5, 31},
+      {6, 1, 1, 3, 3, 9, 7, 49},
+      {6, 13, 1, 1, 1, 15, 21, 21},
+      {6, 16, 1, 3, 1, 13, 27, 49},
+  };
+
+  /** The maximum number of dimensions supported by this design. */
+  public static final int MAX_DIMENSIONS = DIRECTION_NUMBERS.length + 1;
+
+  public SobolDesign(List<Dimension> dimensions, int count) {
+    super(dimensions, count);
+    if (dimensions.size() > MAX_DIMENSIONS) {
+      throw new IllegalArgumentException("Sobol designs support at most " + MAX_DIMENSIONS + " dimensions, but " +
+          dimensions.size() + " were given. Use a latin_hypercube or halton design instead.");
+    }
+  }
+
+  @Override
+  protected double[][] generatePoints(int count, int dimensions) {
+    long[][] directions = new long[dimensions][];
+    for (int d = 0; d < dimensions; d++) {
+      directions[d] = directionNumbers(d);
+    }
+    double[][] points = new double[count][dimensions];
+    long[] x = new long[dimensions]; // the first point is the origin.
+    for (int i = 1; i < count; i++) {
+      // gray code construction: each point differs from the previous in a single direction number, selected
+      // by the position of the lowest zero bit of i - 1.
+      int c = Long.numberOfTrailingZeros(~(long) (i - 1));
+      for (int d = 0; d < dimensions; d++) {
+        x[d] ^= directions[d][c];
+        points[i][d] = x[d] / (double) (1L << BITS);
+      }
+    }
+    return points;
+  }
+
+  /**
+   * Returns the direction numbers v_1 ... v_32 for the given (zero based) dimension, scaled by 2^32.
+   */
+  private static long[] directionNumbers(int dimension) {
+    long[] v = new long[BITS];
+    if (dimension == 0) {
+      for (int k = 0; k < BITS; k++) {
+        v[k] = 1L << (BITS - 1 - k);
+      }
+      return v;
+    }
+    int[] row = DIRECTION_NUMBERS[dimension - 1];
+    int s = row[0];
+    int a = row[1];
+    for (int k = 0; k < BITS; k++) {
+      if (k < s) {
+        v[k] = ((long) row[2 + k]) << (BITS - 1 - k);
+      } else {
+        v[k] = v[k - s] ^ (v[k - s] >> s);
+        for (int j = 1; j < s; j++) {
+          if (((a >> (s - 1 - j)) & 1) == 1) {
+            v[k] ^= v[k - j];
+          }
+        }
+      }
+    }
+    return v;
+  }
+}
@@ -0,0 +1,78 @@
+package au.edu.rmit.tzar.parser;
+
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Fast, seedable pseudo random number generator, using the SplitMix64 algorithm (Steele, Lea and Flood,
+ * "Fast Splittable Pseudorandom Number Generators", 2014). The same seed always produces the same sequence
+ * of values, so generators which use it produce the same repetitions each time they are run.
+ *
+ * Independent streams, eg one for each generator key, should be created using {@link #deriveSeed}, rather than
+ * by sharing one instance. Unlike java.util.Random, instances of this class are not thread safe.
+ */
+public class SplitMix64 extends Random {
+  private static final long serialVersionUID = 1L;
+
+  private static final long GOLDEN_GAMMA = 0x9e3779b97f4a7c15L;
+  private static final double DOUBLE_UNIT = 0x1.0p-53;
+  private static final AtomicLong SEED_UNIQUIFIER = new AtomicLong(System.nanoTime());
+
+  private long state;
+
+  public SplitMix64(long seed) {
+    super(seed);
+    state = seed;
+  }
+
+  /**
+   * Returns a new seed, which will be different for each call.
+   */
+  public static long newSeed() {
+    return mix64(SEED_UNIQUIFIER.addAndGet(GOLDEN_GAMMA) ^ System.currentTimeMillis());
+  }
+
+  /**
+   * Derives a seed for an independent stream of values from a parent seed and a name. The derived seed
+   * only depends on the parent seed and the name, so streams can be generated in any order, or in parallel.
+   *
+   * @param seed the parent seed
+   * @param name name of the stream, eg the key of a repetition generator
+   * @return the derived seed
+   */
+  public static long deriveSeed(long seed, String name) {
+    long hash = mix64(seed);
+    for (int i = 0; i < name.length(); i++) {
+      hash = mix64(hash + GOLDEN_GAMMA + name.charAt(i));
+    }
+    return hash;
+  }
+
+  @Override
+  public synchronized void setSeed(long seed) {
+    super.setSeed(seed); // resets the cached gaussian value
+    state = seed;
+  }
+
+  @Override
+  public long nextLong() {
+    state += GOLDEN_GAMMA;
+    return mix64(state);
+  }
+
+  @Override
+  public double nextDouble() {
+    return (nextLong() >>> 11) * DOUBLE_UNIT;
+  }
+
+  @Override
+  protected int next(int bits) {
+    return (int) (nextLong() >>> (64 - bits));
+  }
+
+  private static long mix64(long z) {
+    z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+    z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+    return z ^ (z >>> 31);
+  }
+}
@@ -3,18 +3,19 @@ package au.edu.rmit.tzar.parser;
 import au.edu.rmit.tzar.api.RepetitionGenerator;
 
 import java.math.BigDecimal;
-import java.security.SecureRandom;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Random;
 
 /**
- * Generates a uniformly distributed random sample of values.
+ * Generates a uniformly distributed random sample of values. The values are determined by the seed, so
+ * each call to {@link #generate} returns the same values.
  */
 public class UniformDistributionGenerator extends RepetitionGenerator<BigDecimal> {
   private final BigDecimal lowerBound;
   private final BigDecimal upperBound;
   private final int count;
-  private final SecureRandom secureRandom;
+  private final long seed;
 
   /**
    * Constructor.
@@ -25,19 +26,34 @@ public class UniformDistributionGenerator extends RepetitionGenerator<BigDecimal
    * @param count the number of values to generate
    */
   public UniformDistributionGenerator(String key, BigDecimal lowerBound, BigDecimal upperBound, int count) {
+    this(key, lowerBound, upperBound, count, SplitMix64.newSeed());
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param key the key to which the generated values will be assigned
+   * @param lowerBound the lower bound for the range (inclusive)
+   * @param upperBound the upper bound for the range (exclusive)
+   * @param count the number of values to generate
+   * @param seed seed for the random number generator
+   */
+  public UniformDistributionGenerator(String key, BigDecimal lowerBound, BigDecimal upperBound, int count,
+      long seed) {
     super(key);
     this.lowerBound = lowerBound;
     this.count = count;
     this.upperBound = upperBound;
-    secureRandom = new SecureRandom();
+    this.seed = seed;
   }
 
   @Override
   public List<BigDecimal> generate() {
     List<BigDecimal> list = new ArrayList<BigDecimal>();
     BigDecimal range = upperBound.subtract(lowerBound);
+    Random random = new SplitMix64(seed);
     for (int i = 0; i < count; ++i) {
-      list.add(new BigDecimal(secureRandom.nextDouble()).multiply(range).add(lowerBound));
+      list.add(new BigDecimal(random.nextDouble()).multiply(range).add(lowerBound));
     }
     return list;
   }
@@ -54,6 +70,10 @@ public class UniformDistributionGenerator extends RepetitionGenerator<BigDecimal
     return upperBound;
   }
 
+  public long getSeed() {
+    return seed;
+  }
+
   @Override
   public boolean equals(Object o) {
     if (this == o) return true;
@@ -62,6 +82,7 @@ public class UniformDistributionGenerator extends RepetitionGenerator<BigDecimal
     UniformDistributionGenerator that = (UniformDistributionGenerator) o;
 
     if (count != that.count) return false;
+    if (seed != that.seed) return false;
     if (!lowerBound.equals(that.lowerBound)) return false;
     if (!upperBound.equals(that.upperBound)) return false;
 
@@ -73,6 +94,7 @@ public class UniformDistributionGenerator extends RepetitionGenerator<BigDecimal
     int result = lowerBound.hashCode();
     result = 31 * result + upperBound.hashCode();
     result = 31 * result + count;
+    result = 31 * result + (int) (seed ^ (seed >>> 32));
     return result;
   }
 }
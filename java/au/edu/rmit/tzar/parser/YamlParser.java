@@ -18,12 +18,17 @@ import org.yaml.snakeyaml.nodes.Tag;
 
 import java.io.*;
 import java.math.BigDecimal;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.logging.Logger;
 
 /**
  * Yaml parser / writer. Handles loading project specifications from yaml files, and writing yaml files
  * from ProjectSpec objects.
  */
 public class YamlParser {
+  private static final Logger LOG = Logger.getLogger(YamlParser.class.getName());
+
   private final DumperOptions options;
 
   public YamlParser() {
@@ -45,8 +50,23 @@ public class YamlParser {
    * @throws TzarException          if the file cannot be parsed
    */
   public ProjectSpec projectSpecFromYaml(File file, CodeSourceFactory codeSourceFactory) throws FileNotFoundException, TzarException {
+    return projectSpecFromYaml(file, codeSourceFactory, relativeTo(file.getAbsoluteFile().getParentFile()));
+  }
+
+  /**
+   * Loads a project specification from a YAML file containing a project spec.
+   *
+   * @param file the yaml file
+   * @param codeSourceFactory
+   * @param fileResolver finds the files referred to by the project spec, eg the repetitions file
+   * @return a newly constructed and populated ProjectSpec object
+   * @throws java.io.FileNotFoundException if the file does not exist
+   * @throws TzarException          if the file cannot be parsed
+   */
+  public ProjectSpec projectSpecFromYaml(File file, CodeSourceFactory codeSourceFactory, FileResolver fileResolver)
+      throws FileNotFoundException, TzarException {
     Yaml yaml = new Yaml(new ProjectSpecConstructor());
-    return objectFromYaml(file, ProjectSpecBean.class, yaml).toProjectSpec(codeSourceFactory);
+    return objectFromYaml(file, ProjectSpecBean.class, yaml).toProjectSpec(codeSourceFactory, fileResolver);
   }
 
   /**
@@ -63,12 +83,69 @@ public class YamlParser {
   public Repetitions repetitionsFromYaml(File repetitionsFile) throws TzarException, FileNotFoundException {
     Preconditions.checkNotNull(repetitionsFile);
     Yaml yaml = new Yaml(new Constructor(RepetitionsBean.class));
-    return objectFromYaml(repetitionsFile, RepetitionsBean.class, yaml).toRepetitions();
+    return objectFromYaml(repetitionsFile, RepetitionsBean.class, yaml).toRepetitions(
+        relativeTo(repetitionsFile.getAbsoluteFile().getParentFile()));
   }
 
+  /**
+   * Loads repetitions from a yaml string. A repetitions file referred to by the yaml is resolved relative to the
+   * current directory.
+   */
   public Repetitions repetitionsFromYaml(String repetitionsYaml) throws TzarException {
     Yaml yaml = new Yaml(new Constructor(RepetitionsBean.class));
-    return objectFromYaml(repetitionsYaml, RepetitionsBean.class, yaml).toRepetitions();
+    return objectFromYaml(repetitionsYaml, RepetitionsBean.class, yaml).toRepetitions(relativeTo(new File(".")));
+  }
+
+  /**
+   * Returns a resolver which finds files relative to the given directory. Absolute paths are used as is.
+   */
+  public static FileResolver relativeTo(final File directory) {
+    return new FileResolver() {
+      @Override
+      public File resolve(String path) {
+        File file = new File(path);
+        return file.isAbsolute() ? file : new File(directory, path);
+      }
+    };
+  }
+
+  /**
+   * Loads the metrics reported by a run from a yaml (or json) file containing a map of metric names to
+   * numbers. Entries whose values aren't numbers are skipped.
+   *
+   * @param file the metrics file
+   * @return map of metric names to values
+   * @throws TzarException if the file cannot be parsed
+   */
+  public Map<String, Double> metricsFromYaml(File file) throws FileNotFoundException, TzarException {
+    Object obj;
+    FileReader reader = new FileReader(file);
+    try {
+      obj = new Yaml().load(reader);
+    } catch (RuntimeException e) {
+      throw new TzarException("Couldn't parse metrics file: " + file, e);
+    } finally {
+      try {
+        reader.close();
+      } catch (IOException e) {
+        LOG.warning("Couldn't close metrics file: " + file);
+      }
+    }
+    Map<String, Double> metrics = new LinkedHashMap<String, Double>();
+    if (obj == null) {
+      return metrics;
+    }
+    if (!(obj instanceof Map)) {
+      throw new TzarException("Metrics file: " + file + " should contain a map of metric names to values.");
+    }
+    for (Map.Entry<?, ?> entry : ((Map<?, ?>) obj).entrySet()) {
+      if (entry.getValue() instanceof Number) {
+        metrics.put(String.valueOf(entry.getKey()), ((Number) entry.getValue()).doubleValue());
+      } else {
+        LOG.warning("Ignoring non-numeric metric: " + entry.getKey() + " in " + file);
+      }
+    }
+    return metrics;
   }
 
   private void objectToYaml(Object obj, File file) throws IOException {
@@ -90,6 +167,18 @@ public class YamlParser {
     return yaml.loadAs(new FileReader(file), aClass);
   }
 
+  /**
+   * Finds the local copy of a file referred to by a yaml file, eg the repetitions file.
+   */
+  public interface FileResolver {
+    /**
+     * @param path the path of the file, as given in the yaml
+     * @return the local copy of the file
+     * @throws TzarException if the file can't be retrieved
+     */
+    File resolve(String path) throws TzarException;
+  }
+
   /**
    * Special Constructor for deserialising parameters. It's required because SnakeYAML doesn't know
    * how to construct BigDecimals.
@@ -0,0 +1,111 @@
+package au.edu.rmit.tzar.parser.beans;
+
+import au.edu.rmit.tzar.api.DesignGenerator;
+import au.edu.rmit.tzar.parser.HaltonDesign;
+import au.edu.rmit.tzar.parser.LatinHypercubeDesign;
+import au.edu.rmit.tzar.parser.SobolDesign;
+import au.edu.rmit.tzar.parser.SplitMix64;
+import org.yaml.snakeyaml.error.YAMLException;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Bean to represent a design (ie a group of keys sampled jointly) in the project config.
+ */
+public class DesignBean {
+  private String design_type;
+
+  // number of samples to generate
+  private int count;
+
+  private List<VariableBean> variables;
+
+  // seed for random designs. optional, see below.
+  private Long seed;
+
+  /**
+   * Creates the design. If this bean doesn't specify a seed, random designs are seeded from the repetitions
+   * seed and the design's keys.
+   *
+   * @param repetitionsSeed the seed for the repetitions this design belongs to
+   */
+  public DesignGenerator toDesign(long repetitionsSeed) {
+    DesignGenerator.DesignType type = DesignGenerator.DesignType.TYPES.get(design_type);
+    if (type == null) {
+      throw new YAMLException("Design type: " + design_type + " not recognised.");
+    }
+    if (variables == null || variables.isEmpty()) {
+      throw new YAMLException("Design: " + design_type + " must have at least one variable.");
+    }
+    List<DesignGenerator.Dimension> dimensions = new ArrayList<DesignGenerator.Dimension>();
+    StringBuilder keys = new StringBuilder();
+    for (VariableBean variable : variables) {
+      dimensions.add(variable.toDimension());
+      keys.append(variable.key).append(',');
+    }
+    long designSeed = seed == null ? SplitMix64.deriveSeed(repetitionsSeed, keys.toString()) : seed;
+    switch (type) {
+      case LATIN_HYPERCUBE:
+        return new LatinHypercubeDesign(dimensions, count, designSeed);
+      case SOBOL:
+        try {
+          return new SobolDesign(dimensions, count);
+        } catch (IllegalArgumentException e) {
+          throw new YAMLException(e.getMessage());
+        }
+      case HALTON:
+        return new HaltonDesign(dimensions, count);
+      default:
+        throw new YAMLException("Design type: " + design_type + " not recognised.");
+    }
+  }
+
+  public static DesignBean fromDesign(DesignGenerator design) {
+    Class<? extends DesignGenerator> designClass = design.getClass();
+    final DesignGenerator.DesignType type;
+    DesignBean bean = new DesignBean();
+    if (designClass == LatinHypercubeDesign.class) {
+      type = DesignGenerator.DesignType.LATIN_HYPERCUBE;
+      bean.seed = ((LatinHypercubeDesign) design).getSeed();
+    } else if (designClass == SobolDesign.class) {
+      type = DesignGenerator.DesignType.SOBOL;
+    } else if (designClass == HaltonDesign.class) {
+      type = DesignGenerator.DesignType.HALTON;
+    } else {
+      throw new YAMLException("Design type: " + designClass + " not recognised.");
+    }
+    bean.design_type = type.toString().toLowerCase();
+    bean.count = design.getCount();
+    bean.variables = new ArrayList<VariableBean>();
+    for (DesignGenerator.Dimension dimension : design.getDimensions()) {
+      bean.variables.add(VariableBean.fromDimension(dimension));
+    }
+    return bean;
+  }
+
+  /**
+   * A key sampled by the design (or searched by a {@link SearchBean}), and the range of values it takes.
+   */
+  public static class VariableBean {
+    private String key;
+    private BigDecimal lower_bound;
+    private BigDecimal upper_bound;
+
+    DesignGenerator.Dimension toDimension() {
+      if (key == null || lower_bound == null || upper_bound == null) {
+        throw new YAMLException("Variables must have a key, lower_bound and upper_bound.");
+      }
+      return new DesignGenerator.Dimension(key, lower_bound, upper_bound);
+    }
+
+    static VariableBean fromDimension(DesignGenerator.Dimension dimension) {
+      VariableBean variable = new VariableBean();
+      variable.key = dimension.getKey();
+      variable.lower_bound = dimension.getLowerBound();
+      variable.upper_bound = dimension.getUpperBound();
+      return variable;
+    }
+  }
+}
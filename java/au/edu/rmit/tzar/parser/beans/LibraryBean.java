@@ -4,12 +4,14 @@ import au.edu.rmit.tzar.Utils;
 import au.edu.rmit.tzar.api.TzarException;
 import au.edu.rmit.tzar.repository.CodeSourceFactory;
 import au.edu.rmit.tzar.repository.CodeSourceImpl;
+import au.edu.rmit.tzar.repository.ParallelRetriever;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 
 import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
 
 /**
  * Bean to represent the library configuration in the project config.
@@ -40,11 +42,19 @@ public class LibraryBean {
   }
 
   public static Map<String, CodeSourceImpl> toLibraries(List<LibraryBean> libraryBeans,
-      CodeSourceFactory codeSourceFactory) throws TzarException {
-    Map<String, CodeSourceImpl> libraries = Maps.newHashMap();
-    for (LibraryBean bean : libraryBeans) {
-      libraries.put(bean.name, bean.toCodeSource(codeSourceFactory));
+      final CodeSourceFactory codeSourceFactory) throws TzarException {
+    // the code sources are created concurrently, as creating each may involve looking up its head revision.
+    Map<String, Callable<CodeSourceImpl>> codeSources = Maps.newLinkedHashMap();
+    for (final LibraryBean bean : libraryBeans) {
+      codeSources.put(bean.name, new Callable<CodeSourceImpl>() {
+        @Override
+        public CodeSourceImpl call() throws TzarException {
+          return bean.toCodeSource(codeSourceFactory);
+        }
+      });
     }
+    Map<String, CodeSourceImpl> libraries = Maps.newHashMap();
+    libraries.putAll(ParallelRetriever.retrieveAll(codeSources));
     return libraries;
   }
 
@@ -3,6 +3,7 @@ package au.edu.rmit.tzar.parser.beans;
 import au.edu.rmit.tzar.api.RepetitionGenerator;
 import au.edu.rmit.tzar.parser.LinearStepGenerator;
 import au.edu.rmit.tzar.parser.NormalDistributionGenerator;
+import au.edu.rmit.tzar.parser.SplitMix64;
 import au.edu.rmit.tzar.parser.UniformDistributionGenerator;
 import org.yaml.snakeyaml.error.YAMLException;
 
@@ -30,14 +31,25 @@ public class RepetitionGeneratorBean {
   private BigDecimal lower_bound;
   private BigDecimal upper_bound;
 
-  public RepetitionGenerator<?> toGenerator() {
+  // seed for random generators. optional, see below.
+  private Long seed;
+
+  /**
+   * Creates the generator. If this bean doesn't specify a seed, random generators are seeded from the
+   * repetitions seed and the generator's key, so that each key gets a different, but reproducible,
+   * sequence of values.
+   *
+   * @param repetitionsSeed the seed for the repetitions this generator belongs to
+   */
+  public RepetitionGenerator<?> toGenerator(long repetitionsSeed) {
+    long generatorSeed = seed == null ? SplitMix64.deriveSeed(repetitionsSeed, key) : seed;
     switch (RepetitionGenerator.GeneratorType.TYPES.get(generator_type)) {
       case LINEAR_STEP:
         return new LinearStepGenerator(key, start, count, step_size);
       case NORMAL_DISTRIBUTION:
-        return new NormalDistributionGenerator(key, mean, count, std_dev);
+        return new NormalDistributionGenerator(key, mean, count, std_dev, generatorSeed);
       case UNIFORM_DISTRUBUTION:
-        return new UniformDistributionGenerator(key, lower_bound, upper_bound, count);
+        return new UniformDistributionGenerator(key, lower_bound, upper_bound, count, generatorSeed);
       default:
         throw new YAMLException("Generator type: " + generator_type + " not recognised.");
     }
@@ -59,12 +71,14 @@ public class RepetitionGeneratorBean {
       bean.count = normalDistributionGenerator.getCount();
       bean.mean = normalDistributionGenerator.getMean();
       bean.std_dev = normalDistributionGenerator.getStdDev();
+      bean.seed = normalDistributionGenerator.getSeed();
     } else if (generatorClass == UniformDistributionGenerator.class) {
       type = RepetitionGenerator.GeneratorType.UNIFORM_DISTRUBUTION;
       UniformDistributionGenerator uniformDistributionGenerator = (UniformDistributionGenerator) generator;
       bean.count = uniformDistributionGenerator.getCount();
       bean.lower_bound = uniformDistributionGenerator.getLowerBound();
       bean.upper_bound = uniformDistributionGenerator.getUpperBound();
+      bean.seed = uniformDistributionGenerator.getSeed();
     } else {
       throw new YAMLException("Generator type: " + generatorClass + " not recognised.");
     }
@@ -1,22 +1,52 @@
 package au.edu.rmit.tzar.parser.beans;
 
+import au.edu.rmit.tzar.api.DesignGenerator;
+import au.edu.rmit.tzar.api.ParameterSearch;
 import au.edu.rmit.tzar.api.Parameters;
 import au.edu.rmit.tzar.api.RepetitionGenerator;
 import au.edu.rmit.tzar.api.Repetitions;
+import au.edu.rmit.tzar.api.RepetitionsFile;
+import au.edu.rmit.tzar.api.TzarException;
+import au.edu.rmit.tzar.parser.CsvRepetitionsFile;
+import au.edu.rmit.tzar.parser.SplitMix64;
+import au.edu.rmit.tzar.parser.YamlParser;
+import com.google.common.base.Optional;
 import com.google.common.collect.ImmutableList;
 
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.logging.Logger;
 
 /**
  * Bean to represent the repetitions configuration in the project config.
  */
 public class RepetitionsBean {
+  private static final Logger LOG = Logger.getLogger(RepetitionsBean.class.getName());
+
   private List<Map<String, Object>> static_repetitions;
   private List<RepetitionGeneratorBean> generators;
+  private List<DesignBean> designs;
+  private SearchBean search;
+
+  // path of a csv file of repetitions, relative to the project spec. each row is treated as a static repetition.
+  private String repetitions_file;
+
+  // seed from which the seeds for each random generator and design are derived. optional.
+  private Long seed;
+
+  public Repetitions toRepetitions(YamlParser.FileResolver fileResolver) throws TzarException {
+    long repetitionsSeed;
+    if (seed != null) {
+      repetitionsSeed = seed;
+    } else {
+      repetitionsSeed = SplitMix64.newSeed();
+      if (generators != null || designs != null || search != null) {
+        LOG.info(String.format("No seed specified for repetitions. Using seed: %d. To generate the same " +
+            "repetitions again, add 'seed: %d' to the repetitions.", repetitionsSeed, repetitionsSeed));
+      }
+    }
 
-  public Repetitions toRepetitions() {
     List<Parameters> parametersList;
     if (static_repetitions == null) {
       parametersList = ImmutableList.of();
@@ -34,11 +64,31 @@ public class RepetitionsBean {
     } else {
       ImmutableList.Builder<RepetitionGenerator<?>> builder = ImmutableList.builder();
       for (RepetitionGeneratorBean bean : generators) {
-        builder.add(bean.toGenerator());
+        builder.add(bean.toGenerator(repetitionsSeed));
       }
       repetitionGenerators = builder.build();
     }
-    return new Repetitions(parametersList, repetitionGenerators);
+
+    List<DesignGenerator> designGenerators;
+    if (designs == null) {
+      designGenerators = ImmutableList.of();
+    } else {
+      ImmutableList.Builder<DesignGenerator> builder = ImmutableList.builder();
+      for (DesignBean bean : designs) {
+        builder.add(bean.toDesign(repetitionsSeed));
+      }
+      designGenerators = builder.build();
+    }
+    Optional<ParameterSearch> parameterSearch = search == null ? Optional.<ParameterSearch>absent() :
+        Optional.of(search.toSearch(repetitionsSeed));
+    Optional<RepetitionsFile> file = Optional.absent();
+    if (repetitions_file != null) {
+      file = Optional.<RepetitionsFile>of(new CsvRepetitionsFile(repetitions_file,
+          fileResolver.resolve(repetitions_file)));
+      LOG.info("Loaded repetitions file: " + repetitions_file + " with SHA-256 hash: " +
+          file.get().getContentHash());
+    }
+    return new Repetitions(parametersList, repetitionGenerators, designGenerators, parameterSearch, file);
   }
 
   public static RepetitionsBean fromRepetitions(Repetitions repetitions) {
@@ -52,6 +102,16 @@ public class RepetitionsBean {
     for (RepetitionGenerator<?> generator : repetitions.getGenerators()) {
       bean.generators.add(RepetitionGeneratorBean.fromGenerators(generator));
     }
+    bean.designs = new ArrayList<DesignBean>();
+    for (DesignGenerator design : repetitions.getDesigns()) {
+      bean.designs.add(DesignBean.fromDesign(design));
+    }
+    if (repetitions.getSearch().isPresent()) {
+      bean.search = SearchBean.fromSearch(repetitions.getSearch().get());
+    }
+    if (repetitions.getRepetitionsFile().isPresent()) {
+      bean.repetitions_file = repetitions.getRepetitionsFile().get().getPath();
+    }
     return bean;
   }
 }
@@ -0,0 +1,71 @@
+package au.edu.rmit.tzar.parser.beans;
+
+import au.edu.rmit.tzar.api.DesignGenerator;
+import au.edu.rmit.tzar.api.ParameterSearch;
+import au.edu.rmit.tzar.parser.SplitMix64;
+import org.yaml.snakeyaml.error.YAMLException;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Bean to represent a parameter search in the repetitions configuration in the project config.
+ */
+public class SearchBean {
+  // name of the metric to optimise
+  private String objective;
+
+  // "minimise" (the default) or "maximise"
+  private String goal;
+
+  // number of parameter sets to run at a time
+  private int batch_size = 10;
+
+  // total number of parameter sets to try
+  private int max_evaluations;
+
+  private List<DesignBean.VariableBean> variables;
+
+  // seed for the search. optional, defaults to a seed derived from the repetitions seed.
+  private Long seed;
+
+  public ParameterSearch toSearch(long repetitionsSeed) {
+    if (objective == null) {
+      throw new YAMLException("Search must have an objective.");
+    }
+    ParameterSearch.Goal searchGoal;
+    if (goal == null || goal.equals("minimise")) {
+      searchGoal = ParameterSearch.Goal.MINIMISE;
+    } else if (goal.equals("maximise")) {
+      searchGoal = ParameterSearch.Goal.MAXIMISE;
+    } else {
+      throw new YAMLException("Search goal: " + goal + " not recognised. Must be 'minimise' or 'maximise'.");
+    }
+    if (variables == null || variables.isEmpty()) {
+      throw new YAMLException("Search must have at least one variable.");
+    }
+    if (batch_size < 1 || max_evaluations < 1) {
+      throw new YAMLException("Search batch_size and max_evaluations must be positive.");
+    }
+    List<DesignGenerator.Dimension> dimensions = new ArrayList<DesignGenerator.Dimension>();
+    for (DesignBean.VariableBean variable : variables) {
+      dimensions.add(variable.toDimension());
+    }
+    long searchSeed = seed == null ? SplitMix64.deriveSeed(repetitionsSeed, objective) : seed;
+    return new ParameterSearch(objective, searchGoal, dimensions, batch_size, max_evaluations, searchSeed);
+  }
+
+  public static SearchBean fromSearch(ParameterSearch search) {
+    SearchBean bean = new SearchBean();
+    bean.objective = search.getObjective();
+    bean.goal = search.getGoal().toString().toLowerCase();
+    bean.batch_size = search.getBatchSize();
+    bean.max_evaluations = search.getMaxEvaluations();
+    bean.variables = new ArrayList<DesignBean.VariableBean>();
+    for (DesignGenerator.Dimension dimension : search.getDimensions()) {
+      bean.variables.add(DesignBean.VariableBean.fromDimension(dimension));
+    }
+    bean.seed = search.getSeed();
+    return bean;
+  }
+}
@@ -3,9 +3,12 @@ package au.edu.rmit.tzar.repository;
 import au.edu.rmit.tzar.api.Constants;
 import au.edu.rmit.tzar.api.TzarException;
 import au.edu.rmit.tzar.parser.beans.DownloadMode;
+import com.google.common.base.Optional;
 import org.apache.http.impl.client.CloseableHttpClient;
 
 import java.net.URI;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
 
 /**
  * Factory methods for creating CodeSource implementations.
@@ -13,17 +16,39 @@ import java.net.URI;
 public class CodeSourceFactory {
   private final CloseableHttpClient cachingHttpClient;
   private final CloseableHttpClient nonCachingHttpClient;
+  private final Optional<ContentPeers> contentPeers;
 
   public CodeSourceFactory(CloseableHttpClient cachingHttpClient, CloseableHttpClient nonCachingHttpClient) {
+    this(cachingHttpClient, nonCachingHttpClient, Optional.<ContentPeers>absent());
+  }
+
+  private CodeSourceFactory(CloseableHttpClient cachingHttpClient, CloseableHttpClient nonCachingHttpClient,
+      Optional<ContentPeers> contentPeers) {
     this.cachingHttpClient = cachingHttpClient;
     this.nonCachingHttpClient = nonCachingHttpClient;
+    this.contentPeers = contentPeers;
+  }
+
+  /**
+   * Returns a factory whose code sources copy downloaded models and libraries from other nodes where they can,
+   * rather than downloading them from the origin server.
+   */
+  public CodeSourceFactory withContentPeers(ContentPeers contentPeers) {
+    return new CodeSourceFactory(cachingHttpClient, nonCachingHttpClient, Optional.of(contentPeers));
   }
 
-  public CodeSourceImpl createCodeSource(String revision, CodeSourceImpl.RepositoryTypeImpl repositoryType,
-      URI sourceUri, DownloadMode downloadMode) throws TzarException {
+  public CodeSourceImpl createCodeSource(String revision, final CodeSourceImpl.RepositoryTypeImpl repositoryType,
+      final URI sourceUri, final DownloadMode downloadMode) throws TzarException {
     if (revision.equals(Constants.HEAD_REVISION)) {
-      boolean downloadOnce = downloadMode == DownloadMode.ONCE;
-      revision = repositoryType.createRepository(cachingHttpClient, sourceUri, downloadOnce).getHeadRevision();
+      // concurrent lookups of the same head revision (eg for libraries shared by several projects) are shared.
+      revision = ParallelRetriever.retrieveOnce(Arrays.<Object>asList(Constants.HEAD_REVISION, repositoryType,
+          sourceUri), new Callable<String>() {
+        @Override
+        public String call() throws TzarException {
+          return repositoryType.createRepository(cachingHttpClient, sourceUri, downloadMode, contentPeers)
+              .getHeadRevision();
+        }
+      });
     } else {
       if (!repositoryType.isValidRevision(revision)) {
         throw new CodeSourceImpl.InvalidRevisionException(revision, repositoryType);
@@ -36,6 +61,6 @@ public class CodeSourceFactory {
     } else {
       httpClient = nonCachingHttpClient;
     }
-    return new CodeSourceImpl(httpClient, sourceUri, repositoryType, revision, downloadMode);
+    return new CodeSourceImpl(httpClient, sourceUri, repositoryType, revision, downloadMode, contentPeers);
   }
 }
@@ -4,11 +4,14 @@ import au.edu.rmit.tzar.api.*;
 import au.edu.rmit.tzar.parser.YamlParser;
 import au.edu.rmit.tzar.parser.beans.DownloadMode;
 import com.google.common.base.Objects;
+import com.google.common.base.Optional;
 import org.apache.http.impl.client.CloseableHttpClient;
 
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.net.URI;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
 
 /**
  * Represents a location in a source repository at a given revision number.
@@ -19,6 +22,7 @@ public class CodeSourceImpl implements CodeSource {
   private final RepositoryTypeImpl repositoryType;
   private final DownloadMode downloadMode;
   private final CloseableHttpClient httpClient;
+  private final Optional<ContentPeers> contentPeers;
 
   /**
    * Constructor.
@@ -29,6 +33,17 @@ public class CodeSourceImpl implements CodeSource {
    */
   public CodeSourceImpl(CloseableHttpClient httpClient, URI sourceUri, RepositoryTypeImpl repositoryType,
       String revision, DownloadMode downloadMode) {
+    this(httpClient, sourceUri, repositoryType, revision, downloadMode, Optional.<ContentPeers>absent());
+  }
+
+  /**
+   * Constructor.
+   * @param contentPeers other nodes from which downloaded code / libraries can be copied, or absent to always
+   *                     download them from the repository
+   */
+  public CodeSourceImpl(CloseableHttpClient httpClient, URI sourceUri, RepositoryTypeImpl repositoryType,
+      String revision, DownloadMode downloadMode, Optional<ContentPeers> contentPeers) {
+    this.contentPeers = contentPeers;
     this.sourceUri = sourceUri;
     this.repositoryType = repositoryType;
     this.revision = revision;
@@ -37,24 +52,51 @@ public class CodeSourceImpl implements CodeSource {
   }
 
   @Override
-  public File getCode(File baseModelPath, String name) throws TzarException {
-    return getRepository().retrieveModel(revision, name, baseModelPath);
+  public File getCode(final File baseModelPath, final String name) throws TzarException {
+    // runs (and the prefetcher) which need the same code at the same time share a single retrieval.
+    return ParallelRetriever.retrieveOnce(Arrays.asList(this, name, baseModelPath), new Callable<File>() {
+      @Override
+      public File call() throws TzarException {
+        return getRepository().retrieveModel(revision, name, baseModelPath);
+      }
+    });
   }
 
   @Override
-  public ProjectSpec getProjectSpec(File baseModelPath, CodeSourceFactory codeSourceFactory, String projectFileName)
-      throws TzarException, FileNotFoundException {
+  public Optional<File> prefetchCode(File baseModelPath, String name) throws TzarException {
+    return getRepository().prefetchModel(revision, name, baseModelPath);
+  }
+
+  @Override
+  public ProjectSpec getProjectSpec(final File baseModelPath, CodeSourceFactory codeSourceFactory,
+      String projectFileName) throws TzarException, FileNotFoundException {
     if (projectFileName == null || projectFileName.length() == 0) {
       projectFileName = Constants.PROJECT_YAML;
     }
     YamlParser parser = new YamlParser();
-    File file = getRepository().retrieveProjectParams(projectFileName, revision, baseModelPath);
-    return parser.projectSpecFromYaml(file, codeSourceFactory);
+    final CodeRepository repository = getRepository();
+    File file = repository.retrieveProjectParams(projectFileName, revision, baseModelPath);
+    // files referred to by the project spec (eg the repetitions file) are retrieved from the same repository, at
+    // the same revision.
+    return parser.projectSpecFromYaml(file, codeSourceFactory, new YamlParser.FileResolver() {
+      @Override
+      public File resolve(String path) throws TzarException {
+        if (new File(path).isAbsolute()) {
+          return new File(path);
+        }
+        // http repositories hold a single file (or zip file), which is the project spec itself.
+        if (repositoryType == RepositoryTypeImpl.HTTP_FILE || repositoryType == RepositoryTypeImpl.HTTP_ZIP) {
+          throw new TzarException(String.format("Can't retrieve: %s from the %s repository at: %s, as it only " +
+              "contains the project spec. Use an absolute path to a local file instead.", path,
+              repositoryType.toString().toLowerCase(), sourceUri));
+        }
+        return repository.retrieveProjectParams(path, revision, baseModelPath);
+      }
+    });
   }
 
   private CodeRepository getRepository() {
-    boolean downloadOnce = (downloadMode == DownloadMode.ONCE);
-    return repositoryType.createRepository(httpClient, sourceUri, downloadOnce);
+    return repositoryType.createRepository(httpClient, sourceUri, downloadMode, contentPeers);
   }
 
   @Override
@@ -117,7 +159,8 @@ public class CodeSourceImpl implements CodeSource {
   public enum RepositoryTypeImpl implements CodeSource.RepositoryType {
     LOCAL_FILE {
       @Override
-      public CodeRepository createRepository(CloseableHttpClient httpClient, URI sourceUri, boolean downloadOnce) {
+      public CodeRepository createRepository(CloseableHttpClient httpClient, URI sourceUri,
+          DownloadMode downloadMode, Optional<ContentPeers> contentPeers) {
         return new LocalFileRepository(sourceUri);
       }
 
@@ -128,7 +171,8 @@ public class CodeSourceImpl implements CodeSource {
     },
     SVN {
       @Override
-      public CodeRepository createRepository(CloseableHttpClient httpClient, URI sourceUri, boolean downloadOnce) {
+      public CodeRepository createRepository(CloseableHttpClient httpClient, URI sourceUri,
+          DownloadMode downloadMode, Optional<ContentPeers> contentPeers) {
         return new SvnRepository(sourceUri);
       }
 
@@ -144,8 +188,9 @@ public class CodeSourceImpl implements CodeSource {
     },
     GIT {
       @Override
-      public CodeRepository createRepository(CloseableHttpClient httpClient, URI sourceUri, boolean downloadOnce) {
-        throw new UnsupportedOperationException("Sorry, Git repository support is not yet implemented.");
+      public CodeRepository createRepository(CloseableHttpClient httpClient, URI sourceUri,
+          DownloadMode downloadMode, Optional<ContentPeers> contentPeers) {
+        return new GitRepository(sourceUri);
       }
 
       @Override
@@ -155,8 +200,9 @@ public class CodeSourceImpl implements CodeSource {
     },
     HTTP_FILE {
       @Override
-      public CodeRepository createRepository(CloseableHttpClient httpClient, URI sourceUri, boolean downloadOnce) {
-        return new HttpRepository(httpClient, sourceUri, downloadOnce);
+      public CodeRepository createRepository(CloseableHttpClient httpClient, URI sourceUri,
+          DownloadMode downloadMode, Optional<ContentPeers> contentPeers) {
+        return new HttpRepository(httpClient, sourceUri, downloadMode, contentPeers);
       }
 
       @Override
@@ -166,8 +212,9 @@ public class CodeSourceImpl implements CodeSource {
     },
     HTTP_ZIP {
       @Override
-      public CodeRepository createRepository(CloseableHttpClient httpClient, URI sourceUri, boolean downloadOnce) {
-        return new HttpZipRepository(httpClient, sourceUri, downloadOnce);
+      public CodeRepository createRepository(CloseableHttpClient httpClient, URI sourceUri,
+          DownloadMode downloadMode, Optional<ContentPeers> contentPeers) {
+        return new HttpZipRepository(httpClient, sourceUri, downloadMode, contentPeers);
       }
 
       @Override
@@ -177,7 +224,7 @@ public class CodeSourceImpl implements CodeSource {
     };
 
     public abstract CodeRepository createRepository(CloseableHttpClient httpClient, URI sourceUri,
-        boolean downloadOnce);
+        DownloadMode downloadMode, Optional<ContentPeers> contentPeers);
     public abstract boolean isValidRevision(String revision);
   }
 
@@ -0,0 +1,561 @@
+package au.edu.rmit.tzar.repository;
+
+import au.edu.rmit.tzar.Utils;
+import au.edu.rmit.tzar.api.Constants;
+import au.edu.rmit.tzar.api.TzarException;
+import com.google.common.base.Charsets;
+import com.google.common.base.Objects;
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.hash.Hashing;
+import com.google.common.io.Files;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URI;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A cache of downloaded model code and libraries, shared by all of the tzar processes on a node. Each object
+ * in the cache is stored once, under an id derived from the hash of its content, however many repository
+ * locations (repository type, uri and revision) refer to it.
+ *
+ * Objects are written into a staging directory, and then published by renaming them into place. Renames are
+ * atomic, so concurrent processes never see a partly written object, and if two processes download the same
+ * content at the same time, one copy is simply discarded.
+ *
+ * The cache is kept below a size quota by evicting the least recently used objects. Runs lease the objects
+ * they use (see {@link #lease}), and leased objects are never evicted. Objects which have been used recently
+ * aren't evicted either, so that an object isn't evicted between being retrieved and being leased. Listeners
+ * registered with {@link #addEvictionListener} are told about the objects this process evicts (eg so that it
+ * can stop advertising them to other nodes).
+ */
+public class ContentCache {
+  private static final Logger LOG = Logger.getLogger(ContentCache.class.getName());
+
+  private static final String CONTENT_ID = "content_id";
+  private static final String REPOSITORY_TYPE = "repository_type";
+  private static final String URI_KEY = "uri";
+  private static final String REVISION = "revision";
+  // the size of the object, recorded when it is published, so that the cache's size can be found without reading
+  // the whole cache.
+  private static final String SIZE_BYTES = "size_bytes";
+  private static final String ATTRIBUTE_PREFIX = "attribute.";
+
+  private static final List<EvictionListener> EVICTION_LISTENERS = new CopyOnWriteArrayList<EvictionListener>();
+
+  private final File objectsDir;
+  private final File locationsDir;
+  private final File stagingDir;
+  private final File manifestsDir;
+  private final File leasesDir;
+  private final long quotaBytes;
+  private final long minAgeMs;
+
+  /**
+   * Constructor.
+   *
+   * @param root directory in which to store the cache
+   * @param quotaBytes the least recently used objects are evicted when the cache grows beyond this size
+   * @param minAgeMs objects used more recently than this are never evicted
+   */
+  public ContentCache(File root, long quotaBytes, long minAgeMs) {
+    this.objectsDir = new File(root, "objects");
+    this.locationsDir = new File(root, "locations");
+    this.stagingDir = new File(root, "staging");
+    this.manifestsDir = new File(root, "manifests");
+    this.leasesDir = new File(root, "leases");
+    this.quotaBytes = quotaBytes;
+    this.minAgeMs = minAgeMs;
+  }
+
+  /**
+   * Returns the cache for the given base model path, with the default quota.
+   */
+  public static ContentCache inModelPath(File baseModelPath) {
+    return new ContentCache(new File(baseModelPath, Constants.CONTENT_CACHE_DIR),
+        Constants.DEFAULT_CONTENT_CACHE_QUOTA_BYTES, Constants.CONTENT_CACHE_MIN_AGE_MS);
+  }
+
+  /**
+   * Registers a listener to be told about objects evicted by this process, from any cache.
+   */
+  public static void addEvictionListener(EvictionListener listener) {
+    EVICTION_LISTENERS.add(listener);
+  }
+
+  /**
+   * Unregisters a listener registered with {@link #addEvictionListener}.
+   */
+  public static void removeEvictionListener(EvictionListener listener) {
+    EVICTION_LISTENERS.remove(listener);
+  }
+
+  /**
+   * Looks up the object most recently published for a location, and marks it as used.
+   *
+   * @return the object, or absent if the location isn't in the cache
+   */
+  public Optional<File> get(Location location) {
+    Optional<Properties> properties = readProperties(new File(locationsDir, location.getId()));
+    if (!properties.isPresent()) {
+      return Optional.absent();
+    }
+    return getObject(properties.get().getProperty(CONTENT_ID));
+  }
+
+  /**
+   * Returns the attributes recorded when the object for a location was last published (eg http validators), or
+   * an empty map if the location isn't in the cache.
+   */
+  public Map<String, String> getAttributes(Location location) {
+    Optional<Properties> properties = readProperties(new File(locationsDir, location.getId()));
+    Map<String, String> attributes = Maps.newHashMap();
+    if (properties.isPresent()) {
+      for (String key : properties.get().stringPropertyNames()) {
+        if (key.startsWith(ATTRIBUTE_PREFIX)) {
+          attributes.put(key.substring(ATTRIBUTE_PREFIX.length()), properties.get().getProperty(key));
+        }
+      }
+    }
+    return attributes;
+  }
+
+  /**
+   * Looks up an object by its content id, and marks it as used.
+   *
+   * @return the object, or absent if it isn't in the cache
+   */
+  public Optional<File> getObject(String contentId) {
+    File object = new File(objectsDir, contentId);
+    if (!object.exists()) {
+      return Optional.absent();
+    }
+    object.setLastModified(System.currentTimeMillis());
+    return Optional.of(object);
+  }
+
+  /**
+   * Leases an object in the cache, so that it isn't evicted until the lease is released.
+   *
+   * @param object the object, as returned by {@link #get}, {@link #getObject} or {@link #publish}
+   * @return the lease, which the caller must release, or absent if the file isn't an object in this cache
+   * @throws TzarException if the lease can't be acquired
+   */
+  public Optional<PathLease> lease(File object) throws TzarException {
+    if (!objectsDir.getAbsoluteFile().equals(object.getAbsoluteFile().getParentFile())) {
+      return Optional.absent();
+    }
+    return Optional.of(PathLease.acquire(new File(leasesDir, object.getName())));
+  }
+
+  /**
+   * Returns the SHA-256 hash of the manifest of an object (see {@link ContentManifest}), creating the manifest if
+   * it doesn't already exist. Other nodes fetch the manifest to copy the object, and check it against the hash.
+   *
+   * @throws TzarException if the object isn't in the cache, or the manifest can't be written
+   */
+  public String getManifestHash(String contentId) throws TzarException {
+    File manifest = new File(manifestsDir, contentId);
+    try {
+      if (!manifest.exists()) {
+        Optional<File> object = getObject(contentId);
+        if (!object.isPresent()) {
+          throw new TzarException("Object " + contentId + " is not in the cache.");
+        }
+        File staged = newStagingFile();
+        Files.write(ContentManifest.of(object.get()).toBytes(), staged);
+        manifestsDir.mkdirs();
+        if (!staged.renameTo(manifest) && !manifest.exists()) {
+          throw new TzarException("Couldn't publish manifest for " + contentId + " to: " + manifest);
+        }
+        staged.delete();
+      }
+      return Files.hash(manifest, Hashing.sha256()).toString();
+    } catch (IOException e) {
+      throw new TzarException("Couldn't create manifest for " + contentId, e);
+    }
+  }
+
+  /**
+   * Returns a new, unique path in the staging directory, on the same file system as the cache, into which a
+   * file or directory can be written before it is published. Nothing is created at the path.
+   */
+  public File newStagingFile() throws TzarException {
+    if (!stagingDir.isDirectory() && !stagingDir.mkdirs()) {
+      throw new TzarException("Couldn't create cache staging directory: " + stagingDir);
+    }
+    return new File(stagingDir, UUID.randomUUID().toString());
+  }
+
+  /**
+   * Publishes an object, and records that it is the content of the given location. If an object with the same
+   * content id has already been published, the staged copy is deleted, and the existing object is used.
+   *
+   * @param location the repository location the object was retrieved from
+   * @param contentId id of the object, derived from the hash of its content
+   * @param staged the object, which must have been written to a path returned by {@link #newStagingFile}, or
+   *               null if the object is already in the cache
+   * @return the published object
+   * @throws TzarException if the object can't be published
+   */
+  public File publish(Location location, String contentId, File staged) throws TzarException {
+    return publish(location, contentId, staged, ImmutableMap.<String, String>of());
+  }
+
+  /**
+   * Publishes an object, as for {@link #publish(Location, String, File)}, and records attributes of the location
+   * (eg http validators), which can be read with {@link #getAttributes}.
+   */
+  public File publish(Location location, String contentId, File staged, Map<String, String> attributes)
+      throws TzarException {
+    File object = new File(objectsDir, contentId);
+    objectsDir.mkdirs();
+    locationsDir.mkdirs();
+    if (staged != null && !staged.renameTo(object)) {
+      if (!object.exists()) {
+        throw new TzarException("Couldn't publish " + staged + " to the cache at: " + object);
+      }
+      // another process published the same content first.
+      delete(staged);
+    }
+    if (!object.exists()) {
+      throw new TzarException("Object " + contentId + " is not in the cache.");
+    }
+    object.setLastModified(System.currentTimeMillis());
+    File locationFile = new File(locationsDir, location.getId());
+    long sizeBytes = staged == null ? recordedSize(locationFile, contentId) : -1;
+    if (sizeBytes < 0) {
+      sizeBytes = sizeOf(object);
+    }
+
+    Properties properties = new Properties();
+    properties.setProperty(REPOSITORY_TYPE, location.repositoryType);
+    properties.setProperty(URI_KEY, location.uri.toString());
+    properties.setProperty(REVISION, location.revision);
+    properties.setProperty(CONTENT_ID, contentId);
+    properties.setProperty(SIZE_BYTES, Long.toString(sizeBytes));
+    for (Map.Entry<String, String> attribute : attributes.entrySet()) {
+      properties.setProperty(ATTRIBUTE_PREFIX + attribute.getKey(), attribute.getValue());
+    }
+    File stagedLocation = newStagingFile();
+    writeProperties(properties, stagedLocation);
+    if (!stagedLocation.renameTo(locationFile)) {
+      // renaming over an existing file fails on some platforms.
+      locationFile.delete();
+      Utils.fileRename(stagedLocation, locationFile);
+    }
+    LOG.fine(String.format("Published %s to the cache as %s.", location, contentId));
+
+    if (quotaBytes > 0) {
+      evict(quotaBytes);
+    }
+    return object;
+  }
+
+  /**
+   * Lists the objects in the cache, most recently used first. The size of each object is the size recorded
+   * when it was published, so the objects themselves aren't read.
+   */
+  public List<Entry> list() {
+    Map<String, List<Location>> locations = Maps.newHashMap();
+    Map<String, Long> sizes = Maps.newHashMap();
+    for (File locationFile : listFiles(locationsDir)) {
+      Optional<Properties> read = readProperties(locationFile);
+      if (!read.isPresent()) {
+        continue; // evicted by another process
+      }
+      Properties properties = read.get();
+      String contentId = properties.getProperty(CONTENT_ID);
+      if (!locations.containsKey(contentId)) {
+        locations.put(contentId, Lists.<Location>newArrayList());
+      }
+      locations.get(contentId).add(new Location(properties.getProperty(REPOSITORY_TYPE),
+          URI.create(properties.getProperty(URI_KEY)), properties.getProperty(REVISION)));
+      long sizeBytes = parseSize(properties);
+      if (sizeBytes >= 0) {
+        sizes.put(contentId, sizeBytes);
+      }
+    }
+    List<Entry> entries = Lists.newArrayList();
+    for (File object : listFiles(objectsDir)) {
+      List<Location> objectLocations = locations.get(object.getName());
+      Long sizeBytes = sizes.get(object.getName());
+      // objects published before sizes were recorded are measured instead.
+      entries.add(new Entry(object, sizeBytes == null ? sizeOf(object) : sizeBytes, object.lastModified(),
+          objectLocations == null ? ImmutableList.<Location>of() : objectLocations));
+    }
+    Collections.sort(entries, new Comparator<Entry>() {
+      @Override
+      public int compare(Entry o1, Entry o2) {
+        return Long.valueOf(o2.lastUsed).compareTo(o1.lastUsed);
+      }
+    });
+    return entries;
+  }
+
+  /**
+   * Evicts the least recently used objects until the cache is no larger than maxBytes, or until all remaining
+   * objects have been used more recently than the minimum age. Leased objects are skipped.
+   *
+   * @param maxBytes size to reduce the cache to
+   * @return the number of bytes evicted
+   * @throws TzarException if the cache can't be read
+   */
+  public long evict(long maxBytes) throws TzarException {
+    long minLastUsed = System.currentTimeMillis() - minAgeMs;
+    // staged files left behind by processes which were killed part way through a download.
+    for (File staged : listFiles(stagingDir)) {
+      if (staged.lastModified() < minLastUsed) {
+        delete(staged);
+      }
+    }
+    List<Entry> entries = list();
+    long total = 0;
+    for (Entry entry : entries) {
+      total += entry.sizeBytes;
+    }
+    long evicted = 0;
+    for (Entry entry : Lists.reverse(entries)) {
+      if (total - evicted <= maxBytes) {
+        break;
+      }
+      if (entry.lastUsed > minLastUsed) {
+        LOG.warning(String.format("Cache at %s is larger than %d bytes, but all of its remaining objects have " +
+            "been used recently.", objectsDir.getParentFile(), maxBytes));
+        break;
+      }
+      File leaseFile = new File(leasesDir, entry.object.getName());
+      Optional<PathLease> lease = PathLease.tryAcquireExclusive(leaseFile);
+      if (!lease.isPresent()) {
+        LOG.fine(String.format("Not evicting %s, as it is in use.", entry.object.getName()));
+        continue;
+      }
+      File doomed;
+      try {
+        // move the object out of the way first, so that no other process finds it half deleted.
+        doomed = newStagingFile();
+        if (!entry.object.renameTo(doomed)) {
+          continue;
+        }
+        leaseFile.delete();
+      } finally {
+        lease.get().release();
+      }
+      for (File locationFile : listFiles(locationsDir)) {
+        Optional<Properties> properties = readProperties(locationFile);
+        if (properties.isPresent() && entry.object.getName().equals(properties.get().getProperty(CONTENT_ID))) {
+          locationFile.delete();
+        }
+      }
+      new File(manifestsDir, entry.object.getName()).delete();
+      delete(doomed);
+      evicted += entry.sizeBytes;
+      LOG.info(String.format("Evicted %s (%d bytes) from the cache.", entry.object.getName(), entry.sizeBytes));
+      for (EvictionListener listener : EVICTION_LISTENERS) {
+        try {
+          listener.evicted(entry.object.getName(), entry.locations);
+        } catch (TzarException e) {
+          LOG.log(Level.WARNING, "Couldn't notify listener of the eviction of " + entry.object.getName(), e);
+        }
+      }
+    }
+    return evicted;
+  }
+
+  /**
+   * Returns an id for an object, derived from the SHA-256 hash of a downloaded file.
+   *
+   * @param file the downloaded file
+   * @param suffix appended to the hash, to distinguish different objects created from the same file (eg a zip
+   *               file, and its extracted contents). may be empty.
+   */
+  public static String contentId(File file, String suffix) throws TzarException {
+    try {
+      return Files.hash(file, Hashing.sha256()).toString() + suffix;
+    } catch (IOException e) {
+      throw new TzarException("Couldn't read file: " + file, e);
+    }
+  }
+
+  /**
+   * Returns the size recorded for an object in a location file, or -1 if the location doesn't refer to the object,
+   * or no size was recorded.
+   */
+  private static long recordedSize(File locationFile, String contentId) {
+    Optional<Properties> properties = readProperties(locationFile);
+    if (!properties.isPresent() || !contentId.equals(properties.get().getProperty(CONTENT_ID))) {
+      return -1;
+    }
+    return parseSize(properties.get());
+  }
+
+  private static long parseSize(Properties properties) {
+    String sizeBytes = properties.getProperty(SIZE_BYTES);
+    if (sizeBytes == null) {
+      return -1;
+    }
+    try {
+      return Long.parseLong(sizeBytes);
+    } catch (NumberFormatException e) {
+      return -1;
+    }
+  }
+
+  private static long sizeOf(File file) {
+    long size = 0;
+    for (File f : Files.fileTreeTraverser().preOrderTraversal(file)) {
+      if (f.isFile()) {
+        size += f.length();
+      }
+    }
+    return size;
+  }
+
+  private static List<File> listFiles(File dir) {
+    File[] files = dir.listFiles();
+    return files == null ? ImmutableList.<File>of() : ImmutableList.copyOf(files);
+  }
+
+  private static void delete(File file) {
+    try {
+      Utils.deleteRecursively(file);
+    } catch (IOException e) {
+      LOG.log(Level.WARNING, "Couldn't delete: " + file, e);
+    }
+  }
+
+  /**
+   * Reads a location file. Returns absent if the file doesn't exist, or can't be read, eg because it was
+   * deleted by another process.
+   */
+  private static Optional<Properties> readProperties(File file) {
+    Properties properties = new Properties();
+    try {
+      InputStream in = new FileInputStream(file);
+      try {
+        properties.load(in);
+      } finally {
+        in.close();
+      }
+    } catch (IOException e) {
+      return Optional.absent();
+    }
+    return properties.getProperty(CONTENT_ID) == null ? Optional.<Properties>absent() : Optional.of(properties);
+  }
+
+  private static void writeProperties(Properties properties, File file) throws TzarException {
+    try {
+      OutputStream out = new FileOutputStream(file);
+      try {
+        properties.store(out, null);
+      } finally {
+        out.close();
+      }
+    } catch (IOException e) {
+      throw new TzarException("Couldn't write cache entry: " + file, e);
+    }
+  }
+
+  /**
+   * Told about the objects evicted from a cache.
+   */
+  public interface EvictionListener {
+    /**
+     * Called after an object has been evicted.
+     *
+     * @param contentId id of the evicted object
+     * @param locations the locations whose content the object was
+     */
+    void evicted(String contentId, List<Location> locations) throws TzarException;
+  }
+
+  /**
+   * A location in a repository: the repository type, uri and revision.
+   */
+  public static class Location {
+    private final String repositoryType;
+    private final URI uri;
+    private final String revision;
+
+    public Location(String repositoryType, URI uri, String revision) {
+      this.repositoryType = repositoryType;
+      this.uri = uri;
+      this.revision = revision;
+    }
+
+    /**
+     * A hash of the repository type, uri and revision, which identifies the location.
+     */
+    public String getId() {
+      return Hashing.sha256().hashString(repositoryType + "\n" + uri + "\n" + revision, Charsets.UTF_8)
+          .toString();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) return true;
+      if (o == null || getClass() != o.getClass()) return false;
+      Location that = (Location) o;
+      return repositoryType.equals(that.repositoryType) && uri.equals(that.uri) && revision.equals(that.revision);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hashCode(repositoryType, uri, revision);
+    }
+
+    @Override
+    public String toString() {
+      return repositoryType.toLowerCase() + ":" + uri + (revision.isEmpty() ? "" : "@" + revision);
+    }
+  }
+
+  /**
+   * An object in the cache, and the locations which refer to it.
+   */
+  public static class Entry {
+    private final File object;
+    private final long sizeBytes;
+    private final long lastUsed;
+    private final List<Location> locations;
+
+    Entry(File object, long sizeBytes, long lastUsed, List<Location> locations) {
+      this.object = object;
+      this.sizeBytes = sizeBytes;
+      this.lastUsed = lastUsed;
+      this.locations = locations;
+    }
+
+    public File getObject() {
+      return object;
+    }
+
+    public long getSizeBytes() {
+      return sizeBytes;
+    }
+
+    public long getLastUsed() {
+      return lastUsed;
+    }
+
+    public List<Location> getLocations() {
+      return locations;
+    }
+  }
+}
@@ -0,0 +1,112 @@
+package au.edu.rmit.tzar.repository;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Joiner;
+import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.hash.Hashing;
+import com.google.common.io.Files;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Lists the files in an object in the content cache, with their sizes and SHA-256 hashes, so that a copy of the
+ * object can be fetched from other nodes one file (or part of a file) at a time, and checked once it has been
+ * fetched.
+ *
+ * The manifest is serialised as one line per file or directory, in path order, of: type (f or d), size, hash
+ * and path, separated by tabs. Paths are relative to the object, separated by '/'. An object which is a single
+ * file has a single entry, with an empty path.
+ */
+class ContentManifest {
+  private final List<Entry> entries;
+
+  private ContentManifest(List<Entry> entries) {
+    this.entries = entries;
+  }
+
+  /**
+   * Creates the manifest for an object, reading every file in it.
+   */
+  static ContentManifest of(File object) throws IOException {
+    if (object.isFile()) {
+      return new ContentManifest(ImmutableList.of(fileEntry(object, "")));
+    }
+    String rootPath = object.getPath() + File.separator;
+    List<Entry> entries = Lists.newArrayList();
+    for (File file : Files.fileTreeTraverser().preOrderTraversal(object)) {
+      if (file.equals(object)) {
+        continue;
+      }
+      String path = file.getPath().substring(rootPath.length()).replace(File.separatorChar, '/');
+      entries.add(file.isDirectory() ? new Entry(true, path, 0, "-") : fileEntry(file, path));
+    }
+    Collections.sort(entries);
+    return new ContentManifest(entries);
+  }
+
+  /**
+   * Parses a serialised manifest.
+   *
+   * @throws IllegalArgumentException if the manifest is malformed
+   */
+  static ContentManifest parse(byte[] bytes) {
+    List<Entry> entries = Lists.newArrayList();
+    for (String line : Splitter.on('\n').omitEmptyStrings().split(new String(bytes, Charsets.UTF_8))) {
+      List<String> fields = Lists.newArrayList(Splitter.on('\t').limit(4).split(line));
+      if (fields.size() != 4 || !(fields.get(0).equals("f") || fields.get(0).equals("d"))) {
+        throw new IllegalArgumentException("Malformed manifest line: " + line);
+      }
+      entries.add(new Entry(fields.get(0).equals("d"), fields.get(3), Long.parseLong(fields.get(1)),
+          fields.get(2)));
+    }
+    return new ContentManifest(entries);
+  }
+
+  byte[] toBytes() {
+    StringBuilder builder = new StringBuilder();
+    for (Entry entry : entries) {
+      builder.append(Joiner.on('\t').join(entry.directory ? "d" : "f", entry.size, entry.sha256, entry.path))
+          .append('\n');
+    }
+    return builder.toString().getBytes(Charsets.UTF_8);
+  }
+
+  List<Entry> getEntries() {
+    return entries;
+  }
+
+  /**
+   * Whether the object is a single file, rather than a directory.
+   */
+  boolean isFile() {
+    return entries.size() == 1 && entries.get(0).path.isEmpty();
+  }
+
+  private static Entry fileEntry(File file, String path) throws IOException {
+    return new Entry(false, path, file.length(), Files.hash(file, Hashing.sha256()).toString());
+  }
+
+  static class Entry implements Comparable<Entry> {
+    final boolean directory;
+    final String path;
+    final long size;
+    final String sha256;
+
+    Entry(boolean directory, String path, long size, String sha256) {
+      this.directory = directory;
+      this.path = path;
+      this.size = size;
+      this.sha256 = sha256;
+    }
+
+    @Override
+    public int compareTo(Entry o) {
+      return path.compareTo(o.path);
+    }
+  }
+}
@@ -0,0 +1,101 @@
+package au.edu.rmit.tzar.repository;
+
+import au.edu.rmit.tzar.api.TzarException;
+import com.google.common.base.Objects;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The other nodes in the cluster which have objects in their content caches, and serve them over http, so that
+ * models and libraries can be copied from them, rather than every node downloading them from the origin server.
+ */
+public interface ContentPeers {
+  /**
+   * Finds the peers which have a copy of the content for a location. If no peer has a copy, and no other node
+   * is downloading it, this node claims the download, so that other nodes wait for it to finish rather than also
+   * downloading from the origin. If another node is downloading it, waits for that node to finish (up to a
+   * timeout).
+   *
+   * @return peers which all have the same, most recently advertised, content for the location, in the order
+   *         they should be used. empty if this node should download the content from the origin
+   * @throws TzarException if the peers can't be looked up, or the thread is interrupted while waiting
+   */
+  List<Peer> findPeers(ContentCache.Location location) throws TzarException;
+
+  /**
+   * Advertises that this node has the content for a location in its cache, replacing any claim to download it.
+   *
+   * @param location the location the content was retrieved from
+   * @param contentId id of the object in the cache
+   * @param manifestHash hash of the object's manifest, by which other nodes check the copy they fetch
+   * @param validators http validators (ETag and Last-Modified) of the content, by which other nodes can check
+   *                   that the content is still current
+   */
+  void advertise(ContentCache.Location location, String contentId, String manifestHash,
+      Map<String, String> validators) throws TzarException;
+
+  /**
+   * Withdraws this node's claim to download a location, or its advertisement of it, eg because the download
+   * failed.
+   */
+  void withdraw(ContentCache.Location location) throws TzarException;
+
+  /**
+   * A node which has a copy of an object in its cache.
+   */
+  class Peer {
+    private final String hostname;
+    private final String cacheUrl;
+    private final String contentId;
+    private final String manifestHash;
+    private final Map<String, String> validators;
+
+    /**
+     * Constructor.
+     *
+     * @param hostname name of the node
+     * @param cacheUrl url at which the node serves its content cache
+     * @param contentId id of the object in the cache
+     * @param manifestHash hash of the object's manifest
+     * @param validators http validators of the content
+     */
+    public Peer(String hostname, String cacheUrl, String contentId, String manifestHash,
+        Map<String, String> validators) {
+      this.hostname = hostname;
+      this.cacheUrl = cacheUrl;
+      this.contentId = contentId;
+      this.manifestHash = manifestHash;
+      this.validators = validators;
+    }
+
+    public String getHostname() {
+      return hostname;
+    }
+
+    public String getCacheUrl() {
+      return cacheUrl;
+    }
+
+    public String getContentId() {
+      return contentId;
+    }
+
+    public String getManifestHash() {
+      return manifestHash;
+    }
+
+    public Map<String, String> getValidators() {
+      return validators;
+    }
+
+    @Override
+    public String toString() {
+      return Objects.toStringHelper(this)
+          .add("hostname", hostname)
+          .add("cacheUrl", cacheUrl)
+          .add("contentId", contentId)
+          .toString();
+    }
+  }
+}
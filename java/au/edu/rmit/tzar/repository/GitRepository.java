@@ -0,0 +1,273 @@
+package au.edu.rmit.tzar.repository;
+
+import au.edu.rmit.tzar.Utils;
+import au.edu.rmit.tzar.api.TzarException;
+import com.google.common.base.Charsets;
+import com.google.common.base.Joiner;
+import com.google.common.base.Optional;
+import com.google.common.collect.Lists;
+import com.google.common.hash.Hashing;
+import com.google.common.io.ByteStreams;
+import com.google.common.io.Files;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URI;
+import java.util.Arrays;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Pattern;
+
+/**
+ * A git repository, accessed using the git command line client, which must be on the path.
+ *
+ * Each node keeps one bare object store per remote repository, into which only the commits needed by runs are
+ * fetched, with a depth of 1. Each commit is then checked out into its own worktree, which shares the objects in
+ * the store. Worktrees are never modified once they have been created, so runs at a revision which has already
+ * been checked out on the node don't need to contact the remote at all.
+ *
+ * The revision may be a commit id (possibly abbreviated), or the name of a branch or tag. Branch and tag names
+ * are resolved against the remote each time the model is retrieved.
+ */
+public class GitRepository extends UrlRepository {
+  private static final Logger LOG = Logger.getLogger(GitRepository.class.getName());
+
+  // directory, within the base model path, containing the object stores.
+  static final String STORES_DIR = "git";
+  private static final Pattern COMMIT_ID = Pattern.compile("[0-9a-f]{7,40}");
+  private static final int FULL_COMMIT_ID_LENGTH = 40;
+  // created next to a worktree once it has been completely checked out.
+  private static final String COMPLETE_SUFFIX = ".complete";
+
+  /**
+   * Constructor.
+   *
+   * @param sourceUri uri of the remote repository, in any form understood by git clone
+   */
+  public GitRepository(URI sourceUri) {
+    super(sourceUri);
+  }
+
+  @Override
+  public File retrieveModel(String revision, String name, File baseModelPath) throws TzarException {
+    File store = getStore(baseModelPath);
+    String modelPathPrefix = createModelPath(name, baseModelPath, sourceUri).getPath() + "_";
+    if (isFullCommitId(revision)) {
+      File modelPath = new File(modelPathPrefix + revision);
+      if (isComplete(modelPath)) {
+        LOG.info(String.format("Model already exists at %s so not fetching", modelPath));
+        return modelPath;
+      }
+    }
+
+    PathLock lock = PathLock.acquire(store);
+    try {
+      String commit = fetchCommit(store, revision);
+      File modelPath = new File(modelPathPrefix + commit);
+      if (isComplete(modelPath)) {
+        LOG.info(String.format("Model already exists at %s so not checking out", modelPath));
+        return modelPath;
+      }
+      LOG.info(String.format("Checking out commit %s of %s to %s", commit, sourceUri, modelPath));
+      if (modelPath.exists()) {
+        // left behind by a checkout which didn't complete.
+        delete(modelPath);
+      }
+      git(store, "worktree", "prune");
+      git(store, "worktree", "add", "--detach", modelPath.getAbsolutePath(), commit);
+      try {
+        Files.touch(completeMarker(modelPath));
+      } catch (IOException e) {
+        throw new TzarException("Couldn't mark checkout as complete: " + modelPath, e);
+      }
+      return modelPath;
+    } finally {
+      lock.release();
+    }
+  }
+
+  /**
+   * Each commit is checked out into its own worktree, so this can't affect running models.
+   */
+  @Override
+  public Optional<File> prefetchModel(String revision, String name, File baseModelPath) throws TzarException {
+    return Optional.of(retrieveModel(revision, name, baseModelPath));
+  }
+
+  @Override
+  public File retrieveProjectParams(String projectParamFilename, String revision, File destPath)
+      throws TzarException {
+    File store = getStore(destPath);
+    File tempDir = Files.createTempDir();
+    File file = new File(tempDir, projectParamFilename);
+    LOG.fine("Retrieving project params at revision: " + revision + ", to local path:" + file);
+    PathLock lock = PathLock.acquire(store);
+    try {
+      String commit = fetchCommit(store, revision);
+      file.getParentFile().mkdirs();
+      OutputStream out = new FileOutputStream(file);
+      try {
+        runGit(out, "--git-dir=" + store.getAbsolutePath(), "show", commit + ":" + projectParamFilename);
+      } finally {
+        out.close();
+      }
+      return file;
+    } catch (IOException e) {
+      throw new TzarException("Couldn't write project params to: " + file, e);
+    } finally {
+      lock.release();
+    }
+  }
+
+  /**
+   * Returns the id of the commit at the head of the remote repository.
+   */
+  @Override
+  public String getHeadRevision() throws TzarException {
+    String output = runGit(null, "ls-remote", sourceUri.toString(), "HEAD");
+    if (output.isEmpty()) {
+      throw new TzarException("Couldn't find the HEAD revision of git repository: " + sourceUri);
+    }
+    return output.split("\\s+")[0];
+  }
+
+  /**
+   * Makes sure that the given revision is in the store, fetching it from the remote if necessary.
+   *
+   * @return the full id of the commit
+   */
+  private String fetchCommit(File store, String revision) throws TzarException {
+    if (!new File(store, "HEAD").exists()) {
+      LOG.fine("Creating object store for " + sourceUri + " at " + store);
+      store.mkdirs();
+      git(store, "init", "--bare", "--quiet");
+    }
+    if (COMMIT_ID.matcher(revision).matches()) {
+      try {
+        return git(store, "rev-parse", "--quiet", "--verify", revision + "^{commit}");
+      } catch (TzarException e) {
+        // not in the store yet.
+      }
+    }
+    // abbreviated commit ids can't be fetched directly, and some servers won't allow commits to be fetched by
+    // id, so if the shallow fetch fails, fetch the history of all branches and tags instead.
+    try {
+      git(store, "fetch", "--quiet", "--depth=1", sourceUri.toString(), revision);
+      return git(store, "rev-parse", "--verify", "FETCH_HEAD^{commit}");
+    } catch (TzarException e) {
+      LOG.log(Level.FINE, "Shallow fetch of " + revision + " failed. Fetching all branches and tags.", e);
+    }
+    List<String> args = Lists.newArrayList("fetch", "--quiet");
+    if (new File(store, "shallow").exists()) {
+      args.add("--unshallow");
+    }
+    args.add(sourceUri.toString());
+    args.add("+refs/heads/*:refs/heads/*");
+    args.add("+refs/tags/*:refs/tags/*");
+    git(store, args.toArray(new String[args.size()]));
+    try {
+      return git(store, "rev-parse", "--verify", revision + "^{commit}");
+    } catch (TzarException e) {
+      throw new TzarException("Revision: " + revision + " was not found in git repository: " + sourceUri, e);
+    }
+  }
+
+  private File getStore(File baseModelPath) {
+    String id = Hashing.sha256().hashString(sourceUri.toString(), Charsets.UTF_8).toString().substring(0, 16);
+    return new File(new File(baseModelPath, STORES_DIR), id + ".git");
+  }
+
+  private String git(File store, String... args) throws TzarException {
+    String[] gitArgs = new String[args.length + 1];
+    gitArgs[0] = "--git-dir=" + store.getAbsolutePath();
+    System.arraycopy(args, 0, gitArgs, 1, args.length);
+    return runGit(null, gitArgs);
+  }
+
+  /**
+   * Runs a git command.
+   *
+   * @param out stream to write the output of the command to, or null to return it
+   * @return the output of the command, with surrounding whitespace removed, if out is null
+   * @throws TzarException if the command fails
+   */
+  private String runGit(OutputStream out, String... args) throws TzarException {
+    List<String> command = Lists.newArrayList("git");
+    command.addAll(Arrays.asList(args));
+    LOG.fine(Joiner.on(" ").join(command));
+    ProcessBuilder processBuilder = new ProcessBuilder(command);
+    // fail rather than waiting for a password to be typed.
+    processBuilder.environment().put("GIT_TERMINAL_PROMPT", "0");
+    try {
+      Process process = processBuilder.start();
+      process.getOutputStream().close();
+      StreamCollector stderr = new StreamCollector(process.getErrorStream());
+      stderr.start();
+      ByteArrayOutputStream stdout = new ByteArrayOutputStream();
+      ByteStreams.copy(process.getInputStream(), out == null ? stdout : out);
+      int returnValue = process.waitFor();
+      stderr.join();
+      if (returnValue != 0) {
+        throw new TzarException(String.format("Command: %s failed with exit code %d. Output was: %s",
+            Joiner.on(" ").join(command), returnValue, stderr.getOutput().trim()));
+      }
+      return new String(stdout.toByteArray(), Charsets.UTF_8).trim();
+    } catch (IOException e) {
+      throw new TzarException("Couldn't run git. Is it installed?", e);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new TzarException(e);
+    }
+  }
+
+  private static boolean isFullCommitId(String revision) {
+    return revision.length() == FULL_COMMIT_ID_LENGTH && COMMIT_ID.matcher(revision).matches();
+  }
+
+  private static boolean isComplete(File modelPath) {
+    return completeMarker(modelPath).exists() && modelPath.isDirectory();
+  }
+
+  private static File completeMarker(File modelPath) {
+    return new File(modelPath.getPath() + COMPLETE_SUFFIX);
+  }
+
+  private static void delete(File file) throws TzarException {
+    try {
+      Utils.deleteRecursively(file);
+    } catch (IOException e) {
+      throw new TzarException("Couldn't delete incomplete checkout: " + file, e);
+    }
+  }
+
+  /**
+   * Reads a stream on a separate thread, so that a process can't block writing to it.
+   */
+  private static class StreamCollector extends Thread {
+    private final InputStream in;
+    private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+    StreamCollector(InputStream in) {
+      this.in = in;
+      setDaemon(true);
+    }
+
+    @Override
+    public void run() {
+      try {
+        ByteStreams.copy(in, out);
+      } catch (IOException e) {
+        LOG.log(Level.FINE, "Couldn't read output of git.", e);
+      }
+    }
+
+    String getOutput() {
+      return new String(out.toByteArray(), Charsets.UTF_8);
+    }
+  }
+}
@@ -1,10 +1,18 @@
 package au.edu.rmit.tzar.repository;
 
 import au.edu.rmit.tzar.api.TzarException;
+import au.edu.rmit.tzar.parser.beans.DownloadMode;
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Optional;
 import com.google.common.io.Closeables;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Maps;
+import com.google.common.hash.HashCode;
+import com.google.common.io.ByteStreams;
 import com.google.common.io.Files;
-import org.apache.http.HttpEntity;
+import org.apache.http.Header;
+import org.apache.http.HttpHeaders;
 import org.apache.http.HttpStatus;
 import org.apache.http.client.methods.CloseableHttpResponse;
 import org.apache.http.client.methods.HttpGet;
@@ -14,8 +22,16 @@ import org.apache.http.impl.client.CloseableHttpClient;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
@@ -27,29 +43,166 @@ public class HttpRepository extends UrlRepository {
 
   @VisibleForTesting
   final CloseableHttpClient client;
-  private final boolean downloadOnce;
+  private final DownloadMode downloadMode;
+  private final Optional<ContentPeers> contentPeers;
 
   /**
    * @param httpClient
    * @param sourceUri the URL to download from
-   * @param downloadOnce whether to use locally cached copy of the downloaded files
+   * @param downloadMode whether to download the file every time, revalidate the locally cached copy, or use the
+   *                     locally cached copy without checking the server
    */
-  public HttpRepository(CloseableHttpClient httpClient, URI sourceUri, boolean downloadOnce) {
+  public HttpRepository(CloseableHttpClient httpClient, URI sourceUri, DownloadMode downloadMode) {
+    this(httpClient, sourceUri, downloadMode, Optional.<ContentPeers>absent());
+  }
+
+  /**
+   * @param contentPeers other nodes from which the model can be copied, or absent to always download it from
+   *                     the server
+   */
+  public HttpRepository(CloseableHttpClient httpClient, URI sourceUri, DownloadMode downloadMode,
+      Optional<ContentPeers> contentPeers) {
     super(sourceUri);
-    this.downloadOnce = downloadOnce;
+    this.downloadMode = downloadMode;
+    this.contentPeers = contentPeers;
     client = httpClient;
   }
 
+  /**
+   * Retrieves the model into the node's content cache. If the model is already in the cache, and the server
+   * reports that it hasn't changed since it was downloaded (using the ETag or Last-Modified headers), the cached
+   * copy is used without downloading it again. This works for objects of any size, unlike the http client's
+   * cache. If the download mode is ONCE, the cached copy is used without contacting the server, and if it is
+   * FORCE, the model is always downloaded again.
+   *
+   * If content peers are configured, and the model isn't in this node's cache, it is copied from other nodes
+   * which have it, provided that the server reports that it hasn't changed since they downloaded it. If no
+   * other node has it, this node claims the download, so that other nodes copy it from this node rather than
+   * all downloading it from the server at once.
+   */
   @Override
   public File retrieveModel(String revision, String name, File baseModelPath) throws TzarException {
-    File modelPath = createModelPath(name, baseModelPath, sourceUri);
-    LOG.info(String.format("Retrieving model from %s to %s", sourceUri, modelPath));
-    if (downloadOnce && modelPath.exists()) {
-      LOG.info(String.format("Model already exists at %s so not downloading", modelPath));
-    } else {
-      retrieveFile(modelPath);
+    ContentCache cache = ContentCache.inModelPath(baseModelPath);
+    ContentCache.Location location = new ContentCache.Location(getRepositoryType(), sourceUri, "");
+    Optional<File> cached = cache.get(location);
+    if (cached.isPresent() && downloadMode == DownloadMode.ONCE) {
+      LOG.info(String.format("Model from %s already exists at %s so not downloading", sourceUri, cached.get()));
+      advertise(cache, location, cached.get().getName(), cache.getAttributes(location));
+      return cached.get();
+    }
+    if (cached.isPresent() || downloadMode == DownloadMode.FORCE || !contentPeers.isPresent()) {
+      return retrieve(cache, location, cached, ImmutableList.<ContentPeers.Peer>of());
+    }
+    List<ContentPeers.Peer> peers = contentPeers.get().findPeers(location);
+    boolean retrieved = false;
+    try {
+      File object = retrieve(cache, location, cached, peers);
+      retrieved = true;
+      return object;
+    } finally {
+      if (!retrieved && peers.isEmpty()) {
+        // release this node's claim, so that other nodes don't wait for it.
+        try {
+          contentPeers.get().withdraw(location);
+        } catch (TzarException e) {
+          LOG.log(Level.WARNING, "Couldn't withdraw claim to download " + location, e);
+        }
+      }
+    }
+  }
+
+  /**
+   * Retrieves the model from the server, or from the peers if the server reports that it is unchanged since
+   * they downloaded it (or if the download mode is ONCE).
+   *
+   * @param cached the copy of the model in the cache, if any
+   * @param peers other nodes which have the model. may be empty
+   */
+  private File retrieve(ContentCache cache, ContentCache.Location location, Optional<File> cached,
+      List<ContentPeers.Peer> peers) throws TzarException {
+    File staged = cache.newStagingFile();
+    Map<String, String> validators = ImmutableMap.of();
+    if (!peers.isEmpty()) {
+      if (downloadMode == DownloadMode.ONCE) {
+        Optional<File> copied = copyFromPeers(cache, location, peers, staged);
+        if (copied.isPresent()) {
+          return copied.get();
+        }
+      } else {
+        validators = peers.get(0).getValidators();
+      }
+    } else if (cached.isPresent() && downloadMode == DownloadMode.CACHE) {
+      validators = cache.getAttributes(location);
+    }
+
+    HttpGet request = new HttpGet(sourceUri);
+    if (validators.containsKey(HttpHeaders.ETAG)) {
+      request.addHeader(HttpHeaders.IF_NONE_MATCH, validators.get(HttpHeaders.ETAG));
+    }
+    if (validators.containsKey(HttpHeaders.LAST_MODIFIED)) {
+      request.addHeader(HttpHeaders.IF_MODIFIED_SINCE, validators.get(HttpHeaders.LAST_MODIFIED));
+    }
+    LOG.info(String.format("Retrieving model from %s to %s", sourceUri, staged));
+    Optional<Download> download = download(request, staged);
+    if (!download.isPresent()) {
+      if (cached.isPresent()) {
+        LOG.info(String.format("Model from %s is unchanged at %s so not downloading", sourceUri, cached.get()));
+        advertise(cache, location, cached.get().getName(), cache.getAttributes(location));
+        return cached.get();
+      }
+      Optional<File> copied = copyFromPeers(cache, location, peers, staged);
+      if (copied.isPresent()) {
+        return copied.get();
+      }
+      // the peers' copies couldn't be fetched, so download it after all.
+      download = download(new HttpGet(sourceUri), staged);
+    }
+    return publish(cache, location, download.get().contentHash + getContentIdSuffix(), staged,
+        download.get().validators);
+  }
+
+  private Optional<File> copyFromPeers(ContentCache cache, ContentCache.Location location,
+      List<ContentPeers.Peer> peers, File staged) throws TzarException {
+    LOG.info(String.format("Copying model from %s from %d other nodes to %s", sourceUri, peers.size(), staged));
+    if (!new PeerFetcher().fetch(peers, staged)) {
+      return Optional.absent();
+    }
+    ContentPeers.Peer peer = peers.get(0);
+    return Optional.of(publish(cache, location, peer.getContentId(), staged, peer.getValidators()));
+  }
+
+  /**
+   * Publishes the model to the cache, and advertises it to the other nodes.
+   */
+  private File publish(ContentCache cache, ContentCache.Location location, String contentId, File staged,
+      Map<String, String> validators) throws TzarException {
+    File object = cache.publish(location, contentId, staged, validators);
+    advertise(cache, location, contentId, validators);
+    return object;
+  }
+
+  /**
+   * Advertises the model in the cache to the other nodes. This is also done each time the cached copy is used,
+   * so that the advertisement doesn't expire while the model is still in use.
+   */
+  private void advertise(ContentCache cache, ContentCache.Location location, String contentId,
+      Map<String, String> validators) {
+    if (contentPeers.isPresent()) {
+      try {
+        contentPeers.get().advertise(location, contentId, cache.getManifestHash(contentId), validators);
+      } catch (TzarException e) {
+        LOG.log(Level.WARNING, "Couldn't advertise " + location + " to other nodes.", e);
+      }
     }
-    return modelPath;
+  }
+
+  /**
+   * Retrieves the model into the content cache. Objects in the cache are never modified, so this can't affect
+   * running models.
+   */
+  @Override
+  public Optional<File> prefetchModel(String revision, String name, File baseModelPath) throws TzarException {
+    return Optional.of(retrieveModel(revision, name, baseModelPath));
   }
 
   @Override
@@ -74,24 +227,93 @@ public class HttpRepository extends UrlRepository {
   }
 
   void retrieveFile(File outputFile) throws TzarException {
+    download(new HttpGet(sourceUri), outputFile);
+  }
+
+  /**
+   * The repository type recorded in the content cache for models retrieved from this repository.
+   */
+  String getRepositoryType() {
+    return "http_file";
+  }
+
+  /**
+   * Appended to the hash of the downloaded file to give the content id of the model in the content cache.
+   */
+  String getContentIdSuffix() {
+    return "";
+  }
+
+  /**
+   * Writes the downloaded content to the output file, as it is downloaded.
+   *
+   * @param in the content. need not be read to the end
+   * @param outputFile the file (or directory) to write to
+   */
+  void unpack(InputStream in, File outputFile) throws IOException, TzarException {
+    OutputStream out = new FileOutputStream(outputFile);
+    try {
+      ByteStreams.copy(in, out);
+    } finally {
+      out.close();
+    }
+  }
+
+  /**
+   * Downloads the file at the source URI, and unpacks it into the output file.
+   *
+   * @param request the request to send, which may be conditional
+   * @return details of the download, or absent if the server responded that the file wasn't modified
+   * @throws TzarException if the server returns an error, or the file can't be downloaded or unpacked
+   */
+  private Optional<Download> download(HttpGet request, File outputFile) throws TzarException {
     try {
-      CloseableHttpResponse response = client.execute(new HttpGet(sourceUri));
+      CloseableHttpResponse response = client.execute(request);
       boolean exceptionOccurred = true;
       try {
-        HttpEntity entity = response.getEntity();
         int statusCode = response.getStatusLine().getStatusCode();
+        if (statusCode == HttpStatus.SC_NOT_MODIFIED && (request.containsHeader(HttpHeaders.IF_NONE_MATCH) ||
+            request.containsHeader(HttpHeaders.IF_MODIFIED_SINCE))) {
+          exceptionOccurred = false;
+          return Optional.absent();
+        }
         if (statusCode != HttpStatus.SC_OK) {
           throw new TzarException(String.format("Http error retrieving file from URL: %s. Error was: %s", sourceUri,
               response.getStatusLine()));
         }
-        FileOutputStream fileOutputStream = new FileOutputStream(outputFile);
-        entity.writeTo(fileOutputStream);
+        DigestInputStream in = new DigestInputStream(response.getEntity().getContent(),
+            MessageDigest.getInstance("SHA-256"));
+        unpack(in, outputFile);
+        // read whatever wasn't needed to unpack the file, so that the hash covers all of it.
+        ByteStreams.copy(in, ByteStreams.nullOutputStream());
+
+        Map<String, String> validators = Maps.newHashMap();
+        for (String header : new String[]{HttpHeaders.ETAG, HttpHeaders.LAST_MODIFIED}) {
+          Header value = response.getFirstHeader(header);
+          if (value != null) {
+            validators.put(header, value.getValue());
+          }
+        }
         exceptionOccurred = false;
+        return Optional.of(new Download(HashCode.fromBytes(in.getMessageDigest().digest()).toString(),
+            validators));
       } finally {
         Closeables.close(response, exceptionOccurred);
       }
     } catch (IOException e) {
       throw new TzarException(e);
+    } catch (NoSuchAlgorithmException e) {
+      throw new TzarException(e);
+    }
+  }
+
+  private static class Download {
+    private final String contentHash;
+    private final Map<String, String> validators;
+
+    private Download(String contentHash, Map<String, String> validators) {
+      this.contentHash = contentHash;
+      this.validators = validators;
     }
   }
 }
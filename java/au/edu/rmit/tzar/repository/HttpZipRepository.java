@@ -1,45 +1,70 @@
 package au.edu.rmit.tzar.repository;
 
 import au.edu.rmit.tzar.api.TzarException;
-import net.lingala.zip4j.core.ZipFile;
-import net.lingala.zip4j.exception.ZipException;
+import au.edu.rmit.tzar.parser.beans.DownloadMode;
+import com.google.common.base.Optional;
 import org.apache.http.impl.client.CloseableHttpClient;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
 import java.net.URI;
 
 /**
  * A client for a repository which stores files as a zip file accessible
  * via http. This class will retrieve the zip file and extract the contents,
- * returning the path to the extracted contents.
+ * returning the path to the extracted contents. The contents are extracted as
+ * the zip file is downloaded, so the zip file itself is never written to disk.
  */
 public class HttpZipRepository extends HttpRepository {
   /**
    * Constructor.
    * @param httpClient
    * @param sourceUri the URL pointing to the zip file to download
-   * @param downloadOnce
+   * @param downloadMode whether to download the zip file every time, or use the extracted copy in the cache
    */
-  public HttpZipRepository(CloseableHttpClient httpClient, URI sourceUri, boolean downloadOnce) {
-    super(httpClient, sourceUri, downloadOnce);
+  public HttpZipRepository(CloseableHttpClient httpClient, URI sourceUri, DownloadMode downloadMode) {
+    super(httpClient, sourceUri, downloadMode);
+  }
+
+  /**
+   * Constructor.
+   * @param contentPeers other nodes from which the extracted contents can be copied, or absent to always
+   *                     download the zip file
+   */
+  public HttpZipRepository(CloseableHttpClient httpClient, URI sourceUri, DownloadMode downloadMode,
+      Optional<ContentPeers> contentPeers) {
+    super(httpClient, sourceUri, downloadMode, contentPeers);
+  }
+
+  @Override
+  String getRepositoryType() {
+    return "http_zip";
+  }
+
+  /**
+   * The extracted contents of a zip file are a different object in the cache to the zip file itself.
+   */
+  @Override
+  String getContentIdSuffix() {
+    return "_unzipped";
   }
 
   @Override
-  void retrieveFile(File outputFile) throws TzarException {
-    File zipFile;
+  void unpack(InputStream in, File outputFile) throws IOException, TzarException {
+    int entries;
     try {
-      zipFile = File.createTempFile("httpziprepository", ".zip");
+      entries = new ZipStreamExtractor().extract(in, outputFile);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new TzarException(e);
     } catch (IOException e) {
-      throw new TzarException("Couldn't create temp file to download zip file into.", e);
-    }
-    super.retrieveFile(zipFile);
-    try {
-      ZipFile zip = new ZipFile(zipFile);
-      zip.extractAll(outputFile.getAbsolutePath());
-    } catch (ZipException e) {
       throw new TzarException(String.format("Error occurred extracting files from zip file. Perhaps the URL (%s) " +
           "doesn't point to an actual zip file.", sourceUri), e);
     }
+    if (entries == 0) {
+      throw new TzarException(String.format("No files were extracted from the zip file. Perhaps the URL (%s) " +
+          "doesn't point to an actual zip file.", sourceUri));
+    }
   }
 }
@@ -2,6 +2,7 @@ package au.edu.rmit.tzar.repository;
 
 import au.edu.rmit.tzar.api.CodeRepository;
 import au.edu.rmit.tzar.api.TzarException;
+import com.google.common.base.Optional;
 
 import java.io.File;
 import java.net.URI;
@@ -25,6 +26,14 @@ public class LocalFileRepository implements CodeRepository {
     return this.modelPath;
   }
 
+  /**
+   * The code is already local, so there is nothing to retrieve.
+   */
+  @Override
+  public Optional<File> prefetchModel(String revision, String name, File modelPath) {
+    return Optional.absent();
+  }
+
   @Override
   public File retrieveProjectParams(String projectParamFilename, String revision, File destPath) throws TzarException {
     return new File(modelPath, projectParamFilename);
@@ -0,0 +1,137 @@
+package au.edu.rmit.tzar.repository;
+
+import au.edu.rmit.tzar.api.Constants;
+import au.edu.rmit.tzar.api.TzarException;
+import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Retrieves models, libraries and revisions concurrently, on a pool of threads shared by the whole process, so
+ * that the number of retrievals in progress at once is bounded. A retrieval which is requested while an identical
+ * retrieval is in progress (eg by another run, or by the prefetcher) waits for and shares its result, rather than
+ * retrieving the same thing again.
+ */
+public class ParallelRetriever {
+  private static final ExecutorService EXECUTOR = Executors.newFixedThreadPool(Constants.RETRIEVAL_THREADS,
+      new ThreadFactoryBuilder().setDaemon(true).setNameFormat("retriever-%d").build());
+  // retrievals in progress, by key.
+  private static final ConcurrentMap<Object, FutureTask<?>> IN_FLIGHT = Maps.newConcurrentMap();
+  // set in the pool's threads, which retrieve everything they are given themselves, so that a retrieval can't wait
+  // for a pool thread which is waiting for it.
+  private static final ThreadLocal<Boolean> IN_POOL = new ThreadLocal<Boolean>() {
+    @Override
+    protected Boolean initialValue() {
+      return false;
+    }
+  };
+
+  private ParallelRetriever() {
+  }
+
+  /**
+   * Runs a retrieval, unless an identical retrieval is already in progress, in which case waits for that
+   * retrieval and returns its result.
+   *
+   * @param key identifies the retrieval. keys must implement equals and hashCode
+   * @param retrieval the retrieval to run
+   * @return the result of the retrieval
+   * @throws TzarException if the retrieval fails, or the thread is interrupted
+   */
+  public static <V> V retrieveOnce(Object key, Callable<V> retrieval) throws TzarException {
+    FutureTask<V> task = new FutureTask<V>(retrieval);
+    @SuppressWarnings("unchecked")
+    FutureTask<V> existing = (FutureTask<V>) IN_FLIGHT.putIfAbsent(key, task);
+    if (existing != null) {
+      return getResult(existing);
+    }
+    try {
+      task.run();
+    } finally {
+      IN_FLIGHT.remove(key, task);
+    }
+    return getResult(task);
+  }
+
+  /**
+   * Runs several retrievals concurrently, and waits for them all to finish.
+   *
+   * @param retrievals the retrievals to run, by name
+   * @return the results of the retrievals, by name, in the same order as the retrievals
+   * @throws TzarException if any of the retrievals fail (in which case those not yet started are cancelled), or
+   *                       the thread is interrupted
+   */
+  public static <K, V> Map<K, V> retrieveAll(Map<K, ? extends Callable<V>> retrievals) throws TzarException {
+    Map<K, V> results = Maps.newLinkedHashMap();
+    if (retrievals.size() < 2 || IN_POOL.get()) {
+      for (Map.Entry<K, ? extends Callable<V>> retrieval : retrievals.entrySet()) {
+        results.put(retrieval.getKey(), call(retrieval.getValue()));
+      }
+      return results;
+    }
+    Map<K, Future<V>> futures = Maps.newLinkedHashMap();
+    try {
+      for (Map.Entry<K, ? extends Callable<V>> retrieval : retrievals.entrySet()) {
+        final Callable<V> callable = retrieval.getValue();
+        futures.put(retrieval.getKey(), EXECUTOR.submit(new Callable<V>() {
+          @Override
+          public V call() throws Exception {
+            IN_POOL.set(true);
+            try {
+              return callable.call();
+            } finally {
+              IN_POOL.set(false);
+            }
+          }
+        }));
+      }
+      for (Map.Entry<K, Future<V>> future : futures.entrySet()) {
+        results.put(future.getKey(), getResult(future.getValue()));
+      }
+      return results;
+    } finally {
+      for (Future<V> future : futures.values()) {
+        future.cancel(false);
+      }
+    }
+  }
+
+  private static <V> V call(Callable<V> callable) throws TzarException {
+    try {
+      return callable.call();
+    } catch (TzarException e) {
+      throw e;
+    } catch (RuntimeException e) {
+      throw e;
+    } catch (Exception e) {
+      throw new TzarException(e);
+    }
+  }
+
+  private static <V> V getResult(Future<V> future) throws TzarException {
+    try {
+      return future.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new TzarException(e);
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof TzarException) {
+        throw (TzarException) cause;
+      } else if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      } else if (cause instanceof Error) {
+        throw (Error) cause;
+      }
+      throw new TzarException(cause);
+    }
+  }
+}
@@ -0,0 +1,132 @@
+package au.edu.rmit.tzar.repository;
+
+import au.edu.rmit.tzar.api.TzarException;
+import com.google.common.base.Optional;
+import com.google.common.collect.Maps;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A lease on a local path (eg an object in the content cache), held by each run which is using the path, so that
+ * it isn't deleted while it is in use. Any number of runs, in this or other processes, can hold a lease on the
+ * same path at once. A process which wants to delete the path must first acquire the exclusive lease, which it
+ * can only do while no other leases are held.
+ *
+ * Leases are held as locks on a lease file, which is shared for ordinary leases and exclusive for the exclusive
+ * lease. File locks are held on behalf of the whole JVM, so the leases held by threads in this process share a
+ * single file lock, which is released when the last of them is released.
+ */
+public class PathLease {
+  private static final Logger LOG = Logger.getLogger(PathLease.class.getName());
+
+  // the leases held by this process, by lease file. guarded by itself.
+  private static final Map<File, PathLease> LEASES = Maps.newHashMap();
+
+  private final File leaseFile;
+  private final FileLock fileLock;
+  private final boolean exclusive;
+  private int holders;
+
+  private PathLease(File leaseFile, FileLock fileLock, boolean exclusive) {
+    this.leaseFile = leaseFile;
+    this.fileLock = fileLock;
+    this.exclusive = exclusive;
+  }
+
+  /**
+   * Acquires a lease, waiting if another process holds the exclusive lease. The caller must call {@link #release}
+   * in a finally block.
+   *
+   * @param leaseFile the file on which the lease is held. it is created if it doesn't exist.
+   * @throws TzarException if the lease file can't be created
+   */
+  public static PathLease acquire(File leaseFile) throws TzarException {
+    File key = leaseFile.getAbsoluteFile();
+    synchronized (LEASES) {
+      PathLease lease = LEASES.get(key);
+      while (lease != null && lease.exclusive) {
+        try {
+          LEASES.wait();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          throw new TzarException("Interrupted while waiting for the lease on: " + leaseFile, e);
+        }
+        lease = LEASES.get(key);
+      }
+      if (lease == null) {
+        try {
+          FileChannel channel = open(key);
+          lease = new PathLease(key, channel.lock(0, Long.MAX_VALUE, true), false);
+        } catch (IOException e) {
+          throw new TzarException("Couldn't lease: " + leaseFile, e);
+        }
+        LEASES.put(key, lease);
+      }
+      lease.holders++;
+      return lease;
+    }
+  }
+
+  /**
+   * Acquires the exclusive lease, if no other leases are held, by this or any other process. No other leases can
+   * be acquired until it is released. The caller must call {@link #release} in a finally block.
+   *
+   * @param leaseFile the file on which the lease is held
+   * @return the lease, or absent if other leases are held
+   * @throws TzarException if the lease file can't be created
+   */
+  public static Optional<PathLease> tryAcquireExclusive(File leaseFile) throws TzarException {
+    File key = leaseFile.getAbsoluteFile();
+    synchronized (LEASES) {
+      if (LEASES.containsKey(key)) {
+        return Optional.absent();
+      }
+      FileLock fileLock;
+      try {
+        FileChannel channel = open(key);
+        fileLock = channel.tryLock();
+        if (fileLock == null) {
+          channel.close();
+          return Optional.absent();
+        }
+      } catch (IOException e) {
+        throw new TzarException("Couldn't lease: " + leaseFile, e);
+      }
+      PathLease lease = new PathLease(key, fileLock, true);
+      lease.holders = 1;
+      LEASES.put(key, lease);
+      return Optional.of(lease);
+    }
+  }
+
+  /**
+   * Releases the lease. The exclusive lease may delete the lease file before it is released.
+   */
+  public void release() {
+    synchronized (LEASES) {
+      if (--holders > 0) {
+        return;
+      }
+      LEASES.remove(leaseFile);
+      LEASES.notifyAll();
+      try {
+        fileLock.release();
+        fileLock.channel().close();
+      } catch (IOException e) {
+        LOG.log(Level.WARNING, "Couldn't release lease on: " + leaseFile, e);
+      }
+    }
+  }
+
+  private static FileChannel open(File leaseFile) throws IOException {
+    leaseFile.getParentFile().mkdirs();
+    return new RandomAccessFile(leaseFile, "rw").getChannel();
+  }
+}
@@ -0,0 +1,74 @@
+package au.edu.rmit.tzar.repository;
+
+import au.edu.rmit.tzar.api.TzarException;
+import com.google.common.collect.Maps;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileLock;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * An exclusive lock on a local path (eg a working copy), shared by all threads and processes on the node. The
+ * lock is held on a file next to the path, named with the suffix ".lock".
+ *
+ * File locks are held on behalf of the whole JVM, so threads in this process are also synchronised with each
+ * other, by a lock per path.
+ */
+public class PathLock {
+  private static final Logger LOG = Logger.getLogger(PathLock.class.getName());
+
+  private static final Map<File, ReentrantLock> THREAD_LOCKS = Maps.newHashMap();
+
+  private final File path;
+  private final ReentrantLock threadLock;
+  private final FileLock fileLock;
+
+  private PathLock(File path, ReentrantLock threadLock, FileLock fileLock) {
+    this.path = path;
+    this.threadLock = threadLock;
+    this.fileLock = fileLock;
+  }
+
+  /**
+   * Waits until the lock for a path can be acquired, and acquires it. The caller must call {@link #release}
+   * in a finally block.
+   *
+   * @throws TzarException if the lock file can't be created
+   */
+  public static PathLock acquire(File path) throws TzarException {
+    ReentrantLock threadLock;
+    synchronized (THREAD_LOCKS) {
+      File key = path.getAbsoluteFile();
+      threadLock = THREAD_LOCKS.get(key);
+      if (threadLock == null) {
+        threadLock = new ReentrantLock();
+        THREAD_LOCKS.put(key, threadLock);
+      }
+    }
+    threadLock.lock();
+    File lockFile = new File(path.getPath() + ".lock");
+    try {
+      lockFile.getParentFile().mkdirs();
+      return new PathLock(path, threadLock, new RandomAccessFile(lockFile, "rw").getChannel().lock());
+    } catch (IOException e) {
+      threadLock.unlock();
+      throw new TzarException("Couldn't lock: " + path, e);
+    }
+  }
+
+  public void release() {
+    try {
+      fileLock.release();
+      fileLock.channel().close();
+    } catch (IOException e) {
+      LOG.log(Level.WARNING, "Couldn't unlock: " + path, e);
+    } finally {
+      threadLock.unlock();
+    }
+  }
+}
@@ -0,0 +1,229 @@
+package au.edu.rmit.tzar.repository;
+
+import au.edu.rmit.tzar.Utils;
+import au.edu.rmit.tzar.api.TzarException;
+import com.google.common.base.Optional;
+import com.google.common.collect.Lists;
+import com.google.common.hash.Hashing;
+import com.google.common.io.ByteStreams;
+import com.google.common.io.Closeables;
+import com.google.common.io.Files;
+import org.apache.http.HttpHeaders;
+import org.apache.http.HttpStatus;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Copies an object from the content caches of other nodes. The object's files are split into chunks, which are
+ * fetched from several peers at once, using http range requests. If a peer fails, its chunks are fetched from the
+ * other peers. Each file is checked against the hash in the object's manifest, and the manifest is checked
+ * against the hash advertised for it.
+ */
+class PeerFetcher {
+  private static final Logger LOG = Logger.getLogger(PeerFetcher.class.getName());
+
+  static final int CHUNK_BYTES = 4 * 1024 * 1024;
+  private static final int THREADS = 8;
+
+  /**
+   * Fetches an object from peers into a path in the cache's staging directory.
+   *
+   * @param peers peers which all have the object
+   * @param staged path to fetch the object to, from {@link ContentCache#newStagingFile}
+   * @return true if the object was fetched and checked. false if it couldn't be fetched from any of the peers,
+   *         in which case nothing is left at the staged path
+   * @throws TzarException if the thread is interrupted
+   */
+  boolean fetch(final List<ContentPeers.Peer> peers, File staged) throws TzarException {
+    final CloseableHttpClient client = HttpClients.custom()
+        .setMaxConnPerRoute(THREADS)
+        .setMaxConnTotal(THREADS)
+        .build();
+    ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+    boolean fetched = false;
+    try {
+      Optional<ContentManifest> manifest = fetchManifest(client, peers);
+      if (!manifest.isPresent()) {
+        return false;
+      }
+      String stagedPath = staged.getCanonicalPath() + File.separator;
+      List<Future<Void>> chunks = Lists.newArrayList();
+      for (final ContentManifest.Entry entry : manifest.get().getEntries()) {
+        final File file = entry.path.isEmpty() ? staged : new File(staged, entry.path);
+        if (!entry.path.isEmpty() && !file.getCanonicalPath().startsWith(stagedPath)) {
+          LOG.warning("Manifest path: " + entry.path + " is outside of the object. Not fetching from peers.");
+          return false;
+        }
+        if (entry.directory) {
+          file.mkdirs();
+          continue;
+        }
+        file.getParentFile().mkdirs();
+        RandomAccessFile out = new RandomAccessFile(file, "rw");
+        try {
+          out.setLength(entry.size);
+        } finally {
+          out.close();
+        }
+        for (long offset = 0; offset < entry.size; offset += CHUNK_BYTES) {
+          final long chunkOffset = offset;
+          final long chunkLength = Math.min(CHUNK_BYTES, entry.size - offset);
+          // spread the chunks over the peers, starting each file with a different peer.
+          final int firstPeer = chunks.size();
+          chunks.add(executor.submit(new Callable<Void>() {
+            @Override
+            public Void call() throws IOException {
+              fetchChunk(client, peers, firstPeer, peers.get(0).getContentId(), entry, file, chunkOffset,
+                  chunkLength);
+              return null;
+            }
+          }));
+        }
+      }
+      for (Future<Void> chunk : chunks) {
+        chunk.get();
+      }
+      for (ContentManifest.Entry entry : manifest.get().getEntries()) {
+        File file = entry.path.isEmpty() ? staged : new File(staged, entry.path);
+        if (!entry.directory && !Files.hash(file, Hashing.sha256()).toString().equals(entry.sha256)) {
+          LOG.warning("File: " + entry.path + " fetched from peers doesn't match its hash.");
+          return false;
+        }
+      }
+      fetched = true;
+      return true;
+    } catch (ExecutionException e) {
+      LOG.log(Level.WARNING, "Couldn't fetch " + peers.get(0).getContentId() + " from peers.", e.getCause());
+      return false;
+    } catch (IOException e) {
+      LOG.log(Level.WARNING, "Couldn't fetch " + peers.get(0).getContentId() + " from peers.", e);
+      return false;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new TzarException(e);
+    } finally {
+      executor.shutdownNow();
+      try {
+        client.close();
+      } catch (IOException e) {
+        LOG.log(Level.FINE, "Couldn't close http client.", e);
+      }
+      if (!fetched && staged.exists()) {
+        delete(staged);
+      }
+    }
+  }
+
+  private Optional<ContentManifest> fetchManifest(CloseableHttpClient client, List<ContentPeers.Peer> peers) {
+    for (ContentPeers.Peer peer : peers) {
+      try {
+        byte[] bytes = get(client, url(peer, "manifests/" + peer.getContentId()), null);
+        if (Hashing.sha256().hashBytes(bytes).toString().equals(peer.getManifestHash())) {
+          return Optional.of(ContentManifest.parse(bytes));
+        }
+        LOG.warning("Manifest from " + peer + " doesn't match its hash.");
+      } catch (IOException e) {
+        LOG.log(Level.FINE, "Couldn't fetch manifest from " + peer, e);
+      } catch (IllegalArgumentException e) {
+        LOG.log(Level.WARNING, "Malformed manifest from " + peer, e);
+      }
+    }
+    LOG.warning("Couldn't fetch the manifest of " + peers.get(0).getContentId() + " from any peer.");
+    return Optional.absent();
+  }
+
+  /**
+   * Fetches a chunk of a file, trying each of the peers in turn, and writes it to the file.
+   *
+   * @throws IOException if the chunk couldn't be fetched from any peer
+   */
+  private void fetchChunk(CloseableHttpClient client, List<ContentPeers.Peer> peers, int firstPeer,
+      String contentId, ContentManifest.Entry entry, File file, long offset, long length) throws IOException {
+    String path = "objects/" + contentId + (entry.path.isEmpty() ? "" : "/" + entry.path);
+    String range = String.format("bytes=%d-%d", offset, offset + length - 1);
+    boolean wholeFile = offset == 0 && length == entry.size;
+    IOException lastException = null;
+    for (int i = 0; i < peers.size(); i++) {
+      ContentPeers.Peer peer = peers.get((firstPeer + i) % peers.size());
+      try {
+        byte[] bytes = get(client, url(peer, path), wholeFile ? null : range);
+        if (bytes.length != length) {
+          throw new IOException(String.format("Expected %d bytes of %s from %s, but got %d.", length, path, peer,
+              bytes.length));
+        }
+        RandomAccessFile out = new RandomAccessFile(file, "rw");
+        try {
+          out.seek(offset);
+          out.write(bytes);
+        } finally {
+          out.close();
+        }
+        return;
+      } catch (IOException e) {
+        LOG.log(Level.FINE, "Couldn't fetch " + range + " of " + path + " from " + peer, e);
+        lastException = e;
+      }
+    }
+    throw lastException;
+  }
+
+  /**
+   * Fetches a url, or a byte range of it, returning the body.
+   */
+  private static byte[] get(CloseableHttpClient client, URI url, String range) throws IOException {
+    HttpGet request = new HttpGet(url);
+    if (range != null) {
+      request.addHeader(HttpHeaders.RANGE, range);
+    }
+    CloseableHttpResponse response = client.execute(request);
+    try {
+      int expectedStatus = range == null ? HttpStatus.SC_OK : HttpStatus.SC_PARTIAL_CONTENT;
+      if (response.getStatusLine().getStatusCode() != expectedStatus) {
+        throw new IOException("Request for " + url + " failed: " + response.getStatusLine());
+      }
+      InputStream in = response.getEntity().getContent();
+      try {
+        return ByteStreams.toByteArray(ByteStreams.limit(in, CHUNK_BYTES + 1L));
+      } finally {
+        in.close();
+      }
+    } finally {
+      Closeables.close(response, true);
+    }
+  }
+
+  private static URI url(ContentPeers.Peer peer, String path) throws IOException {
+    try {
+      URI base = new URI(peer.getCacheUrl());
+      return new URI(base.getScheme(), base.getUserInfo(), base.getHost(), base.getPort(),
+          base.getPath() + "/" + path, null, null);
+    } catch (URISyntaxException e) {
+      throw new IOException("Invalid cache url for peer: " + peer, e);
+    }
+  }
+
+  private static void delete(File file) {
+    try {
+      Utils.deleteRecursively(file);
+    } catch (IOException e) {
+      LOG.log(Level.WARNING, "Couldn't delete: " + file, e);
+    }
+  }
+}
@@ -1,6 +1,9 @@
 package au.edu.rmit.tzar.repository;
 
+import au.edu.rmit.tzar.Utils;
 import au.edu.rmit.tzar.api.TzarException;
+import com.google.common.base.Optional;
+import com.google.common.hash.Hashing;
 import com.google.common.io.Files;
 import org.tmatesoft.svn.core.SVNDepth;
 import org.tmatesoft.svn.core.SVNException;
@@ -11,22 +14,26 @@ import org.tmatesoft.svn.core.io.SVNRepositoryFactory;
 import org.tmatesoft.svn.core.wc.*;
 
 import java.io.File;
+import java.io.IOException;
 import java.net.URI;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
  * A representation of the repository for different compiled versions of the model code.
+ *
+ * Each revision of a model is exported into the node's content cache (see {@link ContentCache}), where it is
+ * never modified, so runs at other revisions can't change the code of a running model. Exports are read-only
+ * copies without svn metadata, and are evicted from the cache like other models once they are no longer in use,
+ * so the disk used doesn't grow with every revision that is run. The model is locked while a revision is being
+ * exported, so that concurrent runs and processes share a single export of each revision.
  */
 public class SvnRepository extends UrlRepository {
   private static final Logger LOG = Logger.getLogger(SvnRepository.class.getName());
+  // the repository type recorded in the content cache for models exported from svn.
+  private static final String REPOSITORY_TYPE = "svn";
 
   private final SVNUpdateClient updateClient;
-  private final SVNWCClient wcClient;
-
-  // TODO(river): these are a hack, and will break under concurrent thread use. Find a nicer /
-  // threadsafe way to do this.
-  private static SVNRevision lastRevision;
-  private static URI lastSourceUri;
 
   /**
    * Constructor.
@@ -34,49 +41,74 @@ public class SvnRepository extends UrlRepository {
    * @param sourceUri      uri to the project location in the subversion repository
    */
   public SvnRepository(URI sourceUri) {
-    this(sourceUri, SVNClientManager.newInstance().getUpdateClient(),
-        SVNClientManager.newInstance().getWCClient());
+    this(sourceUri, SVNClientManager.newInstance().getUpdateClient());
   }
 
   /**
    * Constructor.
    *
    * @param sourceUri      uri to the project location in the subversion repository
-   * @param updateClient   SVNUpdateClient object (for updating the local svn client)
-   * @param wcClient       SVNWCClient object (for cleaning up the local svn client)
+   * @param updateClient   SVNUpdateClient object (for exporting from the svn repository)
    */
-  SvnRepository(URI sourceUri, SVNUpdateClient updateClient, SVNWCClient wcClient) {
+  SvnRepository(URI sourceUri, SVNUpdateClient updateClient) {
     super(sourceUri);
     this.updateClient = updateClient;
-    this.wcClient = wcClient;
     DAVRepositoryFactory.setup();
   }
 
   @Override
   public File retrieveModel(String revision, String name, File baseModelPath) throws TzarException {
-    File modelPath = createModelPath(name, baseModelPath, sourceUri);
-    LOG.info(String.format("Retrieving code revision: %s, to %s", revision, modelPath));
+    SVNRevision svnRevision = parseSvnRevision(revision);
+    ContentCache cache = ContentCache.inModelPath(baseModelPath);
+    ContentCache.Location location = new ContentCache.Location(REPOSITORY_TYPE, sourceUri,
+        Long.toString(svnRevision.getNumber()));
+    PathLock lock = PathLock.acquire(createModelPath(name, baseModelPath, sourceUri));
     try {
-      SVNURL url = getUrl();
-      SVNRevision svnRevision = parseSvnRevision(revision);
-
-      if (svnRevision.equals(lastRevision) && sourceUri.equals(lastSourceUri)) {
-        LOG.info(String.format("Model already exists in local SVN client at correct version with path %s so not " +
-                "downloading", modelPath));
-        return modelPath;
+      Optional<File> cached = cache.get(location);
+      if (cached.isPresent()) {
+        LOG.info(String.format("Model from %s at revision %s already exists at %s so not downloading", sourceUri,
+            revision, cached.get()));
+        return cached.get();
       }
+      return export(cache, location, svnRevision);
+    } finally {
+      lock.release();
+    }
+  }
 
-      // we do a cleanup here because otherwise, if an update is aborted part way through (by sigkill for instance),
-      // the local repository is left in a bad state, and future updates all fail.
-      if (modelPath.exists()) {
-        wcClient.doCleanup(modelPath);
-      }
-      updateClient.doCheckout(url, modelPath, svnRevision, svnRevision, SVNDepth.INFINITY, true);
-      lastRevision = svnRevision;
-      lastSourceUri = sourceUri;
-      return modelPath;
+  /**
+   * Exports the model into the content cache. Objects in the cache are never modified, so this can't affect
+   * running models.
+   */
+  @Override
+  public Optional<File> prefetchModel(String revision, String name, File baseModelPath) throws TzarException {
+    return Optional.of(retrieveModel(revision, name, baseModelPath));
+  }
+
+  /**
+   * Exports a revision into the cache. The caller must hold the lock on the model path.
+   */
+  private File export(ContentCache cache, ContentCache.Location location, SVNRevision svnRevision)
+      throws TzarException {
+    File staged = cache.newStagingFile();
+    LOG.info(String.format("Retrieving code revision: %s, to %s", svnRevision, staged));
+    try {
+      updateClient.doExport(getUrl(), staged, svnRevision, svnRevision, null, true, SVNDepth.INFINITY);
+      // an id derived from the files in the export, so that revisions with the same content share one object.
+      String contentId = Hashing.sha256().hashBytes(ContentManifest.of(staged).toBytes()).toString() + "-svn";
+      return cache.publish(location, contentId, staged);
     } catch (SVNException e) {
       throw new TzarException("Error retrieving model from SVN", e);
+    } catch (IOException e) {
+      throw new TzarException("Couldn't read exported model: " + staged, e);
+    } finally {
+      if (staged.exists()) {
+        try {
+          Utils.deleteRecursively(staged);
+        } catch (IOException e) {
+          LOG.log(Level.WARNING, "Couldn't delete: " + staged, e);
+        }
+      }
     }
   }
 
@@ -0,0 +1,135 @@
+package au.edu.rmit.tzar.repository;
+
+import com.google.common.collect.Lists;
+import com.google.common.io.ByteStreams;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+/**
+ * Extracts a zip file as it is read from a stream (eg as it is downloaded), so that the zip file itself never
+ * needs to be written to disk.
+ *
+ * Entries are necessarily decompressed one at a time, in the order they appear in the stream, but small entries
+ * are written to disk by a pool of threads while the following entries are being read. Large entries are
+ * written directly by the reading thread, so that the memory used is bounded.
+ */
+class ZipStreamExtractor {
+  // entries larger than this are written directly by the reading thread.
+  private static final int MAX_BUFFERED_ENTRY_BYTES = 8 * 1024 * 1024;
+  // maximum number of bytes of entries waiting to be written.
+  private static final int MAX_BUFFERED_BYTES = 64 * 1024 * 1024;
+  private static final int WRITER_THREADS = 4;
+
+  /**
+   * Extracts the zip file read from a stream into a directory. Only the zip entries are read from the stream;
+   * the central directory at the end of the zip file is left unread. The stream is not closed.
+   *
+   * @param in stream to read the zip file from
+   * @param outputDir directory to extract into. created if it doesn't exist
+   * @return the number of entries extracted
+   * @throws IOException if the stream can't be read or isn't a zip file, an entry would be extracted outside
+   *                     of the output directory, or the output can't be written
+   */
+  int extract(InputStream in, File outputDir) throws IOException, InterruptedException {
+    if (!outputDir.isDirectory() && !outputDir.mkdirs()) {
+      throw new IOException("Couldn't create directory: " + outputDir);
+    }
+    String outputDirPath = outputDir.getCanonicalPath() + File.separator;
+    // not closed, as that would close the underlying stream.
+    ZipInputStream zipStream = new ZipInputStream(in);
+    final Semaphore bufferedBytes = new Semaphore(MAX_BUFFERED_BYTES);
+    ExecutorService executor = Executors.newFixedThreadPool(WRITER_THREADS);
+    List<Future<Void>> writes = Lists.newArrayList();
+    int entries = 0;
+    try {
+      ZipEntry entry;
+      while ((entry = zipStream.getNextEntry()) != null) {
+        final File target = new File(outputDir, entry.getName());
+        if (!target.getCanonicalPath().startsWith(outputDirPath)) {
+          throw new IOException("Zip entry: " + entry.getName() + " is outside of the output directory.");
+        }
+        entries++;
+        if (entry.isDirectory()) {
+          mkdirs(target);
+          continue;
+        }
+        mkdirs(target.getParentFile());
+        final long time = entry.getTime();
+
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        long copied = ByteStreams.copy(ByteStreams.limit(zipStream, MAX_BUFFERED_ENTRY_BYTES), buffer);
+        if (copied == MAX_BUFFERED_ENTRY_BYTES) {
+          // too large to buffer. write what has been read so far, followed by the rest of the entry.
+          OutputStream out = new FileOutputStream(target);
+          try {
+            buffer.writeTo(out);
+            ByteStreams.copy(zipStream, out);
+          } finally {
+            out.close();
+          }
+          setTime(target, time);
+          continue;
+        }
+
+        final byte[] bytes = buffer.toByteArray();
+        bufferedBytes.acquire(bytes.length);
+        writes.add(executor.submit(new Callable<Void>() {
+          @Override
+          public Void call() throws IOException {
+            try {
+              OutputStream out = new FileOutputStream(target);
+              try {
+                out.write(bytes);
+              } finally {
+                out.close();
+              }
+              setTime(target, time);
+              return null;
+            } finally {
+              bufferedBytes.release(bytes.length);
+            }
+          }
+        }));
+      }
+      for (Future<Void> write : writes) {
+        try {
+          write.get();
+        } catch (ExecutionException e) {
+          if (e.getCause() instanceof IOException) {
+            throw (IOException) e.getCause();
+          }
+          throw new IOException("Couldn't write zip entry.", e.getCause());
+        }
+      }
+      return entries;
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  private static void mkdirs(File dir) throws IOException {
+    if (!dir.isDirectory() && !dir.mkdirs()) {
+      throw new IOException("Couldn't create directory: " + dir);
+    }
+  }
+
+  private static void setTime(File file, long time) {
+    if (time > 0) {
+      file.setLastModified(time);
+    }
+  }
+}
@@ -9,7 +9,8 @@ import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
- * A ResultsCopier wrapper which also updates the runs database. 
+ * A ResultsCopier wrapper which also updates the runs database. The updates are queued and written in
+ * batches (see {@link RunDao#persistRunDeferred}), because nothing else waits on them.
  * TODO(river): unit tests
  */
 public class DbUpdatingResultsCopier implements ResultsCopier {
@@ -38,11 +39,7 @@ public class DbUpdatingResultsCopier implements ResultsCopier {
         run.setState(Run.State.COPIED);
       }
       run.setRemoteOutputPath(new File(baseOutputPath, sourcePath.getName()));
-      try {
-        runDao.persistRun(run);
-      } catch (TzarException e) {
-        LOG.log(Level.SEVERE, "Failure updating run: " + run, e);
-      }
+      runDao.persistRunDeferred(run);
     } catch (TzarException e) {
       LOG.log(Level.WARNING, "Error copying results for run: " + run, e);
       handleFail(run, success);
@@ -57,10 +54,6 @@ public class DbUpdatingResultsCopier implements ResultsCopier {
     }
 
     run.setState(Run.State.COPY_FAILED);
-    try {
-      runDao.persistRun(run);
-    } catch (TzarException e) {
-      LOG.log(Level.SEVERE, "Failure updating status to 'copy_failed' for run: " + run, e);
-    }
+    runDao.persistRunDeferred(run);
   }
 }
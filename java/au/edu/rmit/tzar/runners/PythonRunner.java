@@ -5,10 +5,14 @@ import au.edu.rmit.tzar.api.Runner;
 import au.edu.rmit.tzar.api.StopRun;
 import au.edu.rmit.tzar.api.TzarException;
 import com.beust.jcommander.Parameter;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
 import com.google.common.io.Files;
 
 import java.io.File;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Map;
 import java.util.logging.Logger;
 
@@ -32,7 +36,11 @@ public class PythonRunner extends SystemRunner implements Runner {
     File pythonRunner = RunnerUtils.extractResourceToFile(tempDirectory, "python/", "pythonrunner.py");
     RunnerUtils.extractResourceToFile(tempDirectory, "python/", "basemodel.py");
 
-    Map<String, String> env = ImmutableMap.of("PYTHONPATH", model.getAbsolutePath());
+    String pythonPath = model.getAbsolutePath();
+    if (flags.requirements != null) {
+      pythonPath += File.pathSeparator + getEnvironment(model, flags, logger, stopRun).getAbsolutePath();
+    }
+    Map<String, String> env = ImmutableMap.of("PYTHONPATH", pythonPath);
     return executeCommand(model, logger, env, stopRun, flags.pythonLocation.getPath(),
         pythonRunner.getPath(),
         "--paramfile=" + variablesFile.getPath(),
@@ -41,6 +49,30 @@ public class PythonRunner extends SystemRunner implements Runner {
         "--runid=" + runId);
   }
 
+  /**
+   * Returns the directory containing the requirements declared by the project, installing them first if they
+   * haven't already been installed on this node.
+   */
+  private File getEnvironment(final File model, final Flags flags, final Logger logger, final StopRun stopRun)
+      throws TzarException {
+    final File requirements = new File(model, flags.requirements.getPath());
+    String findLinks = flags.findLinks == null ? "" : flags.findLinks.getAbsolutePath();
+    return getEnvironments().getEnvironment("python", requirements, ImmutableList.of(
+        flags.pythonLocation.getPath(), findLinks), new RuntimeEnvironments.Builder() {
+      @Override
+      public boolean build(File directory) throws TzarException {
+        List<String> command = Lists.newArrayList(flags.pythonLocation.getPath(), "-m", "pip", "install",
+            "--disable-pip-version-check", "--no-cache-dir", "--target", directory.getAbsolutePath(),
+            "--requirement", requirements.getAbsolutePath());
+        if (flags.findLinks != null) {
+          command.addAll(Arrays.asList("--no-index", "--find-links", flags.findLinks.getAbsolutePath()));
+        }
+        return executeCommand(model, logger, ImmutableMap.<String, String>of(), stopRun,
+            command.toArray(new String[command.size()]));
+      }
+    });
+  }
+
   @com.beust.jcommander.Parameters(separators = "= ")
   private static class Flags {
     /**
@@ -48,5 +80,20 @@ public class PythonRunner extends SystemRunner implements Runner {
      */
     @Parameter(names = "--python-location", description = "Name of the python executable. Default: python")
     private final File pythonLocation = new File("python");
+
+    /**
+     * Path to the requirements file for the model, relative to the model directory.
+     */
+    @Parameter(names = "--requirements", description = "Pip requirements file for the model. If set, the " +
+        "requirements are installed once on each node, into a read-only directory shared by the runs with the " +
+        "same requirements, which is added to the PYTHONPATH.")
+    private File requirements = null;
+
+    /**
+     * Local directory of packages from which to install the requirements.
+     */
+    @Parameter(names = "--find-links", description = "Local directory of packages from which to install the " +
+        "requirements, rather than from the package index (eg for testing offline).")
+    private File findLinks = null;
   }
 }
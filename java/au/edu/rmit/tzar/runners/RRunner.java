@@ -1,14 +1,17 @@
 package au.edu.rmit.tzar.runners;
 
+import au.edu.rmit.tzar.api.Constants;
 import au.edu.rmit.tzar.api.Parameters;
 import au.edu.rmit.tzar.api.Runner;
 import au.edu.rmit.tzar.api.StopRun;
 import au.edu.rmit.tzar.api.TzarException;
 import com.beust.jcommander.Parameter;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.Map;
 import java.util.logging.Logger;
 
 /**
@@ -35,7 +38,14 @@ public class RRunner extends SystemRunner implements Runner {
     }
     RunnerUtils.extractResource("R/rrunner.R", rRunnerPath);
 
-    return executeCommand(model, logger, ImmutableMap.<String, String>of(), stopRun, flags.rLocation.getPath(),
+    Map<String, String> env = ImmutableMap.of();
+    if (flags.rPackages != null) {
+      String environment = getEnvironment(model, flags, logger, stopRun).getAbsolutePath();
+      // R adds the directories in R_LIBS to the start of its library path.
+      env = ImmutableMap.of("R_LIBS", environment, "TZAR_R_ENVIRONMENT", environment);
+    }
+
+    return executeCommand(model, logger, env, stopRun, flags.rLocation.getPath(),
         rRunnerPath.toString(),
         "--paramfile=" + variablesFile.getPath(),
         "--rscript=" + new File(model, flags.rScript.getPath()).getPath(),
@@ -44,6 +54,40 @@ public class RRunner extends SystemRunner implements Runner {
     );
   }
 
+  /**
+   * Returns the directory containing the packages declared by the project, installing them first if they haven't
+   * already been installed on this node.
+   */
+  private File getEnvironment(final File model, final Flags flags, final Logger logger, final StopRun stopRun)
+      throws TzarException {
+    final File packageFile = new File(model, flags.rPackages.getPath());
+    return getEnvironments().getEnvironment("r", packageFile, ImmutableList.of(flags.rLocation.getPath(),
+        flags.rRepos), new RuntimeEnvironments.Builder() {
+      @Override
+      public boolean build(File directory) throws TzarException {
+        File buildScript;
+        try {
+          buildScript = File.createTempFile("renvironment", ".R");
+        } catch (IOException e) {
+          throw new TzarException(e);
+        }
+        try {
+          RunnerUtils.extractResource("R/renvironment.R", buildScript);
+          return executeCommand(model, logger, ImmutableMap.<String, String>of(), stopRun,
+              flags.rLocation.getPath(),
+              buildScript.toString(),
+              "--packagefile=" + packageFile.getAbsolutePath(),
+              "--lib=" + directory.getAbsolutePath(),
+              "--repos=" + flags.rRepos);
+        } finally {
+          if (!buildScript.delete()) {
+            LOG.warning("Couldn't delete temporary file: " + buildScript);
+          }
+        }
+      }
+    });
+  }
+
   /**
    * Helper class to parse the flags passed to the runner.
    */
@@ -60,5 +104,21 @@ public class RRunner extends SystemRunner implements Runner {
      */
     @Parameter(names = "--rscript", description = "Name of the R script to execute. Default: model.R")
     private File rScript = new File("model.R");
+
+    /**
+     * Path to a file listing the R packages used by the model, relative to the model directory.
+     */
+    @Parameter(names = "--rpackages", description = "File listing the R packages used by the model, one per " +
+        "line. If set, the packages are installed once on each node, into a read-only library shared by the runs " +
+        "which list the same packages, rather than at run time.")
+    private File rPackages = null;
+
+    /**
+     * Url of the repository from which to install the R packages.
+     */
+    @Parameter(names = "--rrepos", description = "Url of the CRAN-like repository from which to install the " +
+        "packages listed by --rpackages. May be a file:// url of a local repository. Default: " +
+        Constants.DEFAULT_R_REPOSITORY)
+    private String rRepos = Constants.DEFAULT_R_REPOSITORY;
   }
 }
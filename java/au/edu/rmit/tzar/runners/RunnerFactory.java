@@ -1,15 +1,37 @@
 package au.edu.rmit.tzar.runners;
 
 import au.edu.rmit.tzar.DynamicObjectFactory;
+import au.edu.rmit.tzar.api.Constants;
 import au.edu.rmit.tzar.api.Runner;
 import au.edu.rmit.tzar.api.TzarException;
 
+import java.io.File;
+
 /**
  * Factory to create runners by classname. This class currently just wraps
  * the call to newInstance to hide the exception handling.
  */
 public class RunnerFactory extends DynamicObjectFactory<Runner> {
+  private final File environmentsDir;
+
+  public RunnerFactory() {
+    this(new File(Constants.DEFAULT_TZAR_BASE_DIR, Constants.ENVIRONMENTS_DIR));
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param environmentsDir directory in which runners build the runtime environments declared by projects
+   */
+  public RunnerFactory(File environmentsDir) {
+    this.environmentsDir = environmentsDir;
+  }
+
   public Runner getRunner(String runnerClass) throws TzarException {
-    return getInstance(runnerClass);
+    Runner runner = getInstance(runnerClass);
+    if (runner instanceof SystemRunner) {
+      ((SystemRunner) runner).setEnvironmentsDir(environmentsDir);
+    }
+    return runner;
   }
 }
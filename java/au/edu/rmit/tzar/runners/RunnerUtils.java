@@ -4,6 +4,7 @@ import au.edu.rmit.tzar.api.Parameters;
 import au.edu.rmit.tzar.api.TzarException;
 import com.beust.jcommander.JCommander;
 import com.beust.jcommander.ParameterException;
+import com.google.common.collect.ImmutableMap;
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
 
@@ -20,7 +21,9 @@ class RunnerUtils {
       Gson gson = new GsonBuilder().setPrettyPrinting().create();
 
       FileWriter writer = new FileWriter(outputFile);
-      gson.toJson(parameters, writer);
+      // written in the same form as gson's default serialisation of the original flat Parameters class,
+      // as this is the format that runners expect.
+      gson.toJson(ImmutableMap.of("parameters", parameters.asMap()), writer);
       writer.close();
       return outputFile;
     } catch (IOException e) {
@@ -0,0 +1,134 @@
+package au.edu.rmit.tzar.runners;
+
+import au.edu.rmit.tzar.Utils;
+import au.edu.rmit.tzar.api.TzarException;
+import au.edu.rmit.tzar.repository.PathLock;
+import com.google.common.base.Charsets;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.common.io.Files;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * The runtime environments (eg R packages, or Python requirements) declared by projects, which are built once on
+ * each node, and shared by all of the runs which declare the same environment. Each environment is built into a
+ * directory named by the hash of its declaration (and of whatever else the build depends on), and made read-only
+ * once it is complete, so that runs can't modify it, and don't need to install anything at run time.
+ */
+class RuntimeEnvironments {
+  private static final Logger LOG = Logger.getLogger(RuntimeEnvironments.class.getName());
+
+  private final File environmentsDir;
+
+  /**
+   * Constructor.
+   *
+   * @param environmentsDir directory in which to build the environments
+   */
+  RuntimeEnvironments(File environmentsDir) {
+    this.environmentsDir = environmentsDir;
+  }
+
+  /**
+   * Returns the directory containing an environment, building it first if it hasn't already been built on this
+   * node. If another run (in this or another process) is building the same environment, waits for it to finish.
+   *
+   * @param kind the type of environment, eg "r" or "python"
+   * @param declaration file declaring the environment, eg a list of packages
+   * @param buildInputs anything else which affects the environment that is built, eg the path of the interpreter,
+   *                    or the repository from which packages are installed
+   * @param builder builds the environment
+   * @return the directory containing the environment
+   * @throws TzarException if the declaration can't be read, or the environment can't be built
+   */
+  File getEnvironment(String kind, File declaration, Iterable<String> buildInputs, Builder builder)
+      throws TzarException {
+    File environment = new File(environmentsDir, kind + "-" + hash(kind, declaration, buildInputs));
+    // complete environments are moved into place, so if the directory exists, it is complete.
+    if (environment.isDirectory()) {
+      return environment;
+    }
+    PathLock lock = PathLock.acquire(environment);
+    try {
+      if (environment.isDirectory()) {
+        return environment;
+      }
+      File staging = new File(environmentsDir, environment.getName() + ".building");
+      deleteRecursively(staging); // left behind by a build which was killed.
+      if (!staging.mkdirs()) {
+        throw new TzarException("Couldn't create directory: " + staging);
+      }
+      LOG.info(String.format("Building %s environment: %s from %s.", kind, environment.getName(), declaration));
+      boolean built = false;
+      try {
+        built = builder.build(staging);
+      } finally {
+        if (!built) {
+          deleteRecursively(staging);
+        }
+      }
+      if (!built) {
+        throw new TzarException(String.format("Couldn't build %s environment from %s.", kind, declaration));
+      }
+      setWritable(staging, false);
+      if (!staging.renameTo(environment)) {
+        throw new TzarException(String.format("Couldn't move %s to %s.", staging, environment));
+      }
+      return environment;
+    } finally {
+      lock.release();
+    }
+  }
+
+  private static String hash(String kind, File declaration, Iterable<String> buildInputs) throws TzarException {
+    Hasher hasher = Hashing.sha256().newHasher().putString(kind, Charsets.UTF_8);
+    for (String input : buildInputs) {
+      hasher.putInt(input.length()).putString(input, Charsets.UTF_8);
+    }
+    try {
+      return hasher.putBytes(Files.toByteArray(declaration)).hash().toString();
+    } catch (IOException e) {
+      throw new TzarException("Couldn't read environment declaration: " + declaration, e);
+    }
+  }
+
+  private static void setWritable(File file, boolean writable) {
+    if (!file.setWritable(writable, false)) {
+      LOG.warning("Couldn't change permissions of: " + file);
+    }
+    if (file.isDirectory()) {
+      for (File child : file.listFiles()) {
+        setWritable(child, writable);
+      }
+    }
+  }
+
+  private static void deleteRecursively(File file) {
+    if (!file.exists()) {
+      return;
+    }
+    // the build may have been killed after the environment was made read-only.
+    setWritable(file, true);
+    try {
+      Utils.deleteRecursively(file);
+    } catch (IOException e) {
+      LOG.log(Level.WARNING, "Couldn't delete: " + file, e);
+    }
+  }
+
+  /**
+   * Builds an environment.
+   */
+  interface Builder {
+    /**
+     * Builds the environment into an empty directory.
+     *
+     * @return true if the environment was built
+     */
+    boolean build(File directory) throws TzarException;
+  }
+}
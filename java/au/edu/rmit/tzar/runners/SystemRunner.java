@@ -1,6 +1,7 @@
 package au.edu.rmit.tzar.runners;
 
 import au.edu.rmit.tzar.Utils;
+import au.edu.rmit.tzar.api.Constants;
 import au.edu.rmit.tzar.api.Runner;
 import au.edu.rmit.tzar.api.StopRun;
 import au.edu.rmit.tzar.api.TzarException;
@@ -19,6 +20,20 @@ import java.util.logging.Logger;
  * system command (eg Python, or R) and run a script.
  */
 public abstract class SystemRunner implements Runner {
+  private RuntimeEnvironments environments = new RuntimeEnvironments(new File(Constants.DEFAULT_TZAR_BASE_DIR,
+      Constants.ENVIRONMENTS_DIR));
+
+  /**
+   * Sets the directory in which the runtime environments declared by projects are built.
+   */
+  void setEnvironmentsDir(File environmentsDir) {
+    environments = new RuntimeEnvironments(environmentsDir);
+  }
+
+  protected RuntimeEnvironments getEnvironments() {
+    return environments;
+  }
+
   protected boolean executeCommand(File model, Logger logger, Map<String, String> environment, StopRun stopRun,
       String... command) throws TzarException {
     try {
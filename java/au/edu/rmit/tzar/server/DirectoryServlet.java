@@ -1,15 +1,23 @@
 package au.edu.rmit.tzar.server;
 
+import com.google.common.base.Strings;
+import com.google.common.io.ByteStreams;
 import com.sun.net.httpserver.HttpExchange;
 import com.sun.net.httpserver.HttpHandler;
 
 import java.io.*;
 import java.net.URI;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 /**
- * Basic servlet that recursively serves the contents of a directory.
+ * Basic servlet that recursively serves the contents of a directory. Requests for a single byte range of a file
+ * are supported.
  */
 public class DirectoryServlet implements HttpHandler {
+  // a single byte range, eg "bytes=0-1023" or "bytes=1024-".
+  private static final Pattern RANGE = Pattern.compile("bytes=(\\d+)-(\\d*)");
+
   private final File baseDir;
 
   /**
@@ -49,15 +57,33 @@ public class DirectoryServlet implements HttpHandler {
       os.write(response.getBytes());
       os.close();
     } else {
-      // Object exists and is a file: accept with response code 200.
-      t.sendResponseHeaders(200, 0);
+      long start = 0;
+      long length = file.length();
+      Matcher range = RANGE.matcher(Strings.nullToEmpty(t.getRequestHeaders().getFirst("Range")));
+      t.getResponseHeaders().set("Accept-Ranges", "bytes");
+      if (range.matches()) {
+        // Part of the file was requested (eg by another node fetching a cached library in chunks): accept
+        // with response code 206, or reject with 416 if the range isn't within the file.
+        start = Long.parseLong(range.group(1));
+        long end = range.group(2).isEmpty() ? file.length() - 1 : Math.min(Long.parseLong(range.group(2)),
+            file.length() - 1);
+        if (start > end) {
+          t.getResponseHeaders().set("Content-Range", "bytes */" + file.length());
+          t.sendResponseHeaders(416, -1);
+          t.close();
+          return;
+        }
+        length = end - start + 1;
+        t.getResponseHeaders().set("Content-Range", String.format("bytes %d-%d/%d", start, end, file.length()));
+        t.sendResponseHeaders(206, length);
+      } else {
+        // Object exists and is a file: accept with response code 200.
+        t.sendResponseHeaders(200, 0);
+      }
       OutputStream os = t.getResponseBody();
       FileInputStream fs = new FileInputStream(file);
-      final byte[] buffer = new byte[0x10000];
-      int count;
-      while ((count = fs.read(buffer)) >= 0) {
-        os.write(buffer, 0, count);
-      }
+      ByteStreams.skipFully(fs, start);
+      ByteStreams.copy(ByteStreams.limit(fs, length), os);
       fs.close();
       os.close();
     }
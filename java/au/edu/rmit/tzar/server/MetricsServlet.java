@@ -0,0 +1,22 @@
+package au.edu.rmit.tzar.server;
+
+import au.edu.rmit.tzar.Metrics;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+
+/**
+ * Serves the current values of the metrics in {@link Metrics} as plain text.
+ */
+public class MetricsServlet implements HttpHandler {
+  @Override
+  public void handle(HttpExchange t) throws IOException {
+    t.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+    t.sendResponseHeaders(200, 0);
+    PrintWriter writer = new PrintWriter(t.getResponseBody());
+    Metrics.print(writer);
+    writer.close();
+  }
+}
@@ -17,6 +17,7 @@ public class WebServer implements Runnable {
   public WebServer(int port, File baseDir) throws IOException {
     httpServer = HttpServer.create(new InetSocketAddress(port), 0);
     httpServer.createContext("/", new DirectoryServlet(baseDir));
+    httpServer.createContext("/metrics", new MetricsServlet());
     httpServer.setExecutor(Executors.newCachedThreadPool());
   }
 
@@ -27,4 +28,16 @@ public class WebServer implements Runnable {
   public void run() {
     httpServer.start();
   }
+
+  /**
+   * The port the server is listening on. Useful if the server was created with port 0, to listen on any free
+   * port.
+   */
+  public int getPort() {
+    return httpServer.getAddress().getPort();
+  }
+
+  public void stop() {
+    httpServer.stop(0);
+  }
 }
@@ -0,0 +1,44 @@
+package au.edu.rmit.tzar;
+
+import junit.framework.TestCase;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+
+/**
+ * Tests for Metrics.
+ */
+public class MetricsTest extends TestCase {
+  public void testTimer() {
+    Metrics.Timer timer = Metrics.timer("test_timer");
+    assertSame(timer, Metrics.timer("test_timer"));
+    timer.record(2000000000L);
+    timer.record(500000000L);
+    assertEquals(2, timer.getCount());
+    assertEquals(2500000000L, timer.getTotalNanos());
+    assertEquals(2000000000L, timer.getMaxNanos());
+
+    String output = print();
+    assertTrue(output, output.contains("test_timer_count 2\n"));
+    assertTrue(output, output.contains("test_timer_seconds_total 2.5\n"));
+    assertTrue(output, output.contains("test_timer_seconds_max 2.0\n"));
+  }
+
+  public void testGauge() {
+    Metrics.registerGauge("test_gauge", new Metrics.Gauge() {
+      @Override
+      public long getValue() {
+        return 42;
+      }
+    });
+    assertTrue(print().contains("test_gauge 42\n"));
+  }
+
+  private static String print() {
+    StringWriter out = new StringWriter();
+    PrintWriter writer = new PrintWriter(out);
+    Metrics.print(writer);
+    writer.flush();
+    return out.toString().replace(System.getProperty("line.separator"), "\n");
+  }
+}
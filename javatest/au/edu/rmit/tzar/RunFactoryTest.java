@@ -1,6 +1,7 @@
 package au.edu.rmit.tzar;
 
 import au.edu.rmit.tzar.api.*;
+import au.edu.rmit.tzar.parser.LinearStepGenerator;
 import au.edu.rmit.tzar.parser.beans.DownloadMode;
 import au.edu.rmit.tzar.repository.CodeSourceImpl;
 import com.google.common.collect.ImmutableList;
@@ -9,6 +10,7 @@ import com.google.common.collect.Lists;
 import junit.framework.TestCase;
 import org.apache.http.impl.client.CloseableHttpClient;
 
+import java.math.BigDecimal;
 import java.net.URI;
 import java.util.ArrayList;
 import java.util.List;
@@ -63,7 +65,7 @@ public class RunFactoryTest extends TestCase {
     List<Parameters> repetitionsParams = new ArrayList<Parameters>();
     repetitionsParams.add(Parameters.createParameters(ImmutableMap.of("A", 3, "B", 4)));
     repetitionsParams.add(Parameters.createParameters(ImmutableMap.of("A", 5, "B", 6)));
-    when(mockRepetitions.getParamsList()).thenReturn(repetitionsParams);
+    when(mockRepetitions.getParams()).thenReturn(repetitionsParams);
 
     List<Run> runs = runFactory.createRuns(2);
     assertEquals(8, runs.size()); // 2 scenarios, 2 repetitions,numRuns = 2 => 2*2*2 = 8 runs
@@ -91,4 +93,28 @@ public class RunFactoryTest extends TestCase {
     }
     assertEquals(0, expected.size());
   }
+
+  /**
+   * Tests that the runs in a range are the same as the runs at those positions of the whole sequence, for ranges
+   * which start and end part way through a repetition, and span several copies of the runs.
+   */
+  public void testGenerateRunRanges() throws TzarException {
+    RunFactory runFactory = new RunFactory(codeSource, RUNSET, CLUSTER_NAME, mockProjectSpec);
+    when(mockProjectSpec.getBaseParams()).thenReturn(Parameters.EMPTY_PARAMETERS);
+    when(mockProjectSpec.getScenarios()).thenReturn(ImmutableList.of(
+        new Scenario("scenario1", Parameters.createParameters(ImmutableMap.of("A", 1))),
+        new Scenario("scenario2", Parameters.createParameters(ImmutableMap.of("A", 2)))));
+    List<RepetitionGenerator<?>> generators = Lists.newArrayList();
+    generators.add(new LinearStepGenerator("B", BigDecimal.ZERO, 3, BigDecimal.ONE));
+    when(mockProjectSpec.getRepetitions()).thenReturn(new Repetitions(ImmutableList.<Parameters>of(), generators));
+
+    List<Run> runs = runFactory.createRuns(3);
+    assertEquals(18, runs.size());
+    assertEquals(18, runFactory.countRuns(3));
+    for (int from = 0; from <= 18; from++) {
+      for (int to = from; to <= 20; to++) {
+        assertEquals(runs.subList(from, Math.min(18, to)), Lists.newArrayList(runFactory.generateRuns(3, from, to)));
+      }
+    }
+  }
 }
@@ -0,0 +1,127 @@
+package au.edu.rmit.tzar;
+
+import au.edu.rmit.tzar.api.Parameters;
+import au.edu.rmit.tzar.api.TzarException;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Maps;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * Timing harness for the WildcardReplacer. This is not a unit test, and isn't run by the build. It substitutes
+ * the wildcards in a typical set of project parameters for many runs, in the ways they can be substituted, and
+ * prints the median time per run for each.
+ *
+ * Usage: java au.edu.rmit.tzar.WildcardReplacerBenchmark [runs per trial] [trials]
+ */
+public class WildcardReplacerBenchmark {
+  private static final int PARAMETERS = 200;
+
+  public static void main(String[] args) throws TzarException {
+    int runs = args.length > 0 ? Integer.parseInt(args[0]) : 10000;
+    int trials = args.length > 1 ? Integer.parseInt(args[1]) : 15;
+    Parameters params = createParameters();
+    File root = new File(System.getProperty("java.io.tmpdir"));
+    WildcardReplacer.Context[] contexts = new WildcardReplacer.Context[runs];
+    for (int i = 0; i < runs; i++) {
+      contexts[i] = new WildcardReplacer.Context(i, root, ImmutableMap.of("lib", root), root, root, "runset");
+    }
+
+    System.out.printf("%d parameters, %d runs per trial, median of %d trials%n", PARAMETERS, runs, trials);
+    for (Mode mode : Mode.values()) {
+      long[] times = new long[trials];
+      for (int i = 0; i < trials; i++) {
+        times[i] = mode.time(params, contexts);
+      }
+      Arrays.sort(times);
+      System.out.printf("%-28s %8.2f us/run%n", mode.description, times[trials / 2] / 1000.0 / runs);
+    }
+  }
+
+  /**
+   * Creates parameters like those of a typical project: mostly numbers and strings without wildcards, with some
+   * input and output paths, and a few values which are just a wildcard.
+   */
+  private static Parameters createParameters() {
+    Map<String, Object> values = Maps.newLinkedHashMap();
+    for (int i = 0; i < PARAMETERS; i++) {
+      switch (i % 10) {
+        case 0:
+          values.put("output" + i, "$$output_path$$/output" + i + ".csv");
+          break;
+        case 1:
+          values.put("input" + i, "<<$$library_path(lib)$$/input" + i + ".csv>>");
+          break;
+        case 2:
+          values.put("seed" + i, "$$run_id$$");
+          break;
+        case 3:
+          values.put("list" + i, ImmutableList.of(i, "name" + i, "$$runset$$"));
+          break;
+        case 4:
+        case 5:
+          values.put("name" + i, "a string without wildcards " + i);
+          break;
+        default:
+          values.put("number" + i, i * 0.5);
+      }
+    }
+    return Parameters.createParameters(values);
+  }
+
+  private enum Mode {
+    NEW_REPLACER("new replacer for each run") {
+      @Override
+      Parameters apply(Parameters params, WildcardReplacer.Context[] contexts) throws TzarException {
+        Parameters result = null;
+        for (WildcardReplacer.Context context : contexts) {
+          result = new WildcardReplacer().replaceWildcards(params, context);
+        }
+        return result;
+      }
+    },
+    SHARED_REPLACER("shared replacer") {
+      @Override
+      Parameters apply(Parameters params, WildcardReplacer.Context[] contexts) throws TzarException {
+        WildcardReplacer replacer = new WildcardReplacer();
+        Parameters result = null;
+        for (WildcardReplacer.Context context : contexts) {
+          result = replacer.replaceWildcards(params, context);
+        }
+        return result;
+      }
+    },
+    COMPILED("compiled once") {
+      @Override
+      Parameters apply(Parameters params, WildcardReplacer.Context[] contexts) throws TzarException {
+        WildcardReplacer.CompiledParameters compiled = new WildcardReplacer().compile(params);
+        Parameters result = null;
+        for (WildcardReplacer.Context context : contexts) {
+          result = compiled.apply(context);
+        }
+        return result;
+      }
+    };
+
+    private final String description;
+
+    Mode(String description) {
+      this.description = description;
+    }
+
+    abstract Parameters apply(Parameters params, WildcardReplacer.Context[] contexts) throws TzarException;
+
+    long time(Parameters params, WildcardReplacer.Context[] contexts) throws TzarException {
+      long start = System.nanoTime();
+      Parameters result = apply(params, contexts);
+      long time = System.nanoTime() - start;
+      if (result.asMap().size() != PARAMETERS) {
+        throw new IllegalStateException("Unexpected number of parameters: " + result.asMap().size());
+      }
+      return time;
+    }
+  }
+}
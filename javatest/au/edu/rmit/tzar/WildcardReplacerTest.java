@@ -135,4 +135,24 @@ public class WildcardReplacerTest extends TestCase {
     }
   }
 
+  public void testLiteralParametersAreNotCopied() throws TzarException {
+    assertSame(parameters, wildcardReplacer.replaceWildcards(this.parameters, context));
+  }
+
+  public void testCompiledParametersAppliedToEachRun() throws TzarException {
+    List<Object> list = Lists.<Object>newArrayList("abc", 123);
+    parameters = Parameters.createParameters(ImmutableMap.<String, Object>of("param1", "run$$run_id$$",
+        "param2", list, "param3", "<<foo/bar>>"));
+    WildcardReplacer.CompiledParameters compiled = wildcardReplacer.compile(parameters);
+    WildcardReplacer.Context context2 = new WildcardReplacer.Context(5678, new File(""),
+        ImmutableMap.<String, File>of(), OUTPUT_PATH, OUTPUT_METADATA_PATH, "a runset");
+
+    Map<String, Object> map1 = compiled.apply(context).asMap();
+    Map<String, Object> map2 = compiled.apply(context2).asMap();
+    assertEquals("run" + RUN_ID, map1.get("param1"));
+    assertEquals("run5678", map2.get("param1"));
+    assertSame(list, map2.get("param2"));
+    assertEquals(new File("foo/bar").getPath(), map2.get("param3"));
+  }
+
 }
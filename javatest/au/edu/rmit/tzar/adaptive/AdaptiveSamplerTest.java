@@ -0,0 +1,89 @@
+package au.edu.rmit.tzar.adaptive;
+
+import au.edu.rmit.tzar.api.Parameters;
+import au.edu.rmit.tzar.api.Run;
+import au.edu.rmit.tzar.db.RunDao;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Maps;
+import junit.framework.TestCase;
+
+import java.util.Map;
+
+import static org.mockito.Matchers.anyCollectionOf;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.*;
+
+/**
+ * Tests for the AdaptiveSampler.
+ */
+public class AdaptiveSamplerTest extends TestCase {
+  private RunDao runDao;
+  private AdaptiveSampler sampler;
+
+  public void setUp() throws Exception {
+    runDao = mock(RunDao.class);
+    // all released runs have finished by the time they are polled.
+    when(runDao.getRunStates(anyCollectionOf(Integer.class))).thenReturn(Maps.<Integer, Run.State>newHashMap());
+    sampler = new AdaptiveSampler(runDao, "score", new ConvergenceCriterion(0.5, false), 2, 0,
+        ImmutableList.of("seed"));
+  }
+
+  public void testConvergedGroupIsCancelled() throws Exception {
+    for (int i = 1; i <= 6; i++) {
+      sampler.addRun(createRun(i, "a", 1, i));
+    }
+    when(runDao.getMetrics(anyCollectionOf(Integer.class), eq("score"))).thenReturn(
+        ImmutableMap.of(1, 5.0, 2, 5.02));
+    when(runDao.cancelRuns(anyCollectionOf(Integer.class))).thenReturn(4);
+    sampler.run();
+    verify(runDao).releaseRuns(ImmutableList.of(1, 2));
+    verify(runDao).cancelRuns(ImmutableList.of(3, 4, 5, 6));
+    verify(runDao, times(1)).releaseRuns(anyCollectionOf(Integer.class));
+  }
+
+  public void testUnconvergedGroupReleasesNextWave() throws Exception {
+    for (int i = 1; i <= 4; i++) {
+      sampler.addRun(createRun(i, "a", 1, i));
+    }
+    when(runDao.getMetrics(anyCollectionOf(Integer.class), eq("score"))).thenReturn(
+        ImmutableMap.of(1, 1.0, 2, 9.0));
+    sampler.run();
+    verify(runDao).releaseRuns(ImmutableList.of(1, 2));
+    verify(runDao).releaseRuns(ImmutableList.of(3, 4));
+    verify(runDao, never()).cancelRuns(anyCollectionOf(Integer.class));
+  }
+
+  public void testRunsAreGroupedByScenarioAndParameters() throws Exception {
+    sampler.addRun(createRun(1, "a", 1, 1));
+    sampler.addRun(createRun(2, "a", 2, 2));
+    sampler.addRun(createRun(3, "b", 1, 3));
+    sampler.addRun(createRun(4, "a", 1, 4));
+    when(runDao.getMetrics(anyCollectionOf(Integer.class), eq("score"))).thenReturn(
+        ImmutableMap.<Integer, Double>of());
+    sampler.run();
+    verify(runDao).releaseRuns(ImmutableList.of(1, 4));
+    verify(runDao).releaseRuns(ImmutableList.of(2));
+    verify(runDao).releaseRuns(ImmutableList.of(3));
+  }
+
+  public void testWaitsForOutstandingRuns() throws Exception {
+    sampler.addRun(createRun(1, "a", 1, 1));
+    sampler.addRun(createRun(2, "a", 1, 2));
+    Map<Integer, Run.State> inProgress = ImmutableMap.of(1, Run.State.COMPLETED, 2, Run.State.IN_PROGRESS);
+    Map<Integer, Run.State> finished = ImmutableMap.of(1, Run.State.COMPLETED, 2, Run.State.FAILED);
+    when(runDao.getRunStates(anyCollectionOf(Integer.class))).thenReturn(inProgress, finished);
+    when(runDao.getMetrics(anyCollectionOf(Integer.class), eq("score"))).thenReturn(
+        ImmutableMap.of(1, 1.0));
+    sampler.run();
+    verify(runDao, times(2)).getRunStates(anyCollectionOf(Integer.class));
+    verify(runDao).getMetrics(ImmutableList.of(1, 2), "score");
+  }
+
+  private static Run createRun(int runId, String scenario, int x, int seed) {
+    Map<String, Object> params = ImmutableMap.<String, Object>of("x", x, "seed", seed);
+    return new Run(new Run.ProjectInfo("project", null, null, "runner", ""), scenario)
+        .setRunId(runId)
+        .setParameters(Parameters.createParameters(params));
+  }
+}
@@ -0,0 +1,43 @@
+package au.edu.rmit.tzar.adaptive;
+
+import com.google.common.collect.ImmutableList;
+import junit.framework.TestCase;
+
+import java.util.List;
+
+/**
+ * Tests for the ConvergenceCriterion.
+ */
+public class ConvergenceCriterionTest extends TestCase {
+  private static final List<Double> SAMPLES = ImmutableList.of(9.0, 10.0, 11.0, 10.0);
+
+  public void testHalfWidth() {
+    assertEquals(10.0, ConvergenceCriterion.mean(SAMPLES), 1e-9);
+    // sd = sqrt(2/3), t(3) = 3.182
+    assertEquals(3.182 * Math.sqrt(2.0 / 3) / 2, ConvergenceCriterion.halfWidth(SAMPLES), 1e-9);
+  }
+
+  public void testLargeSampleUsesNormalApproximation() {
+    ImmutableList.Builder<Double> builder = ImmutableList.builder();
+    for (int i = 0; i < 1000; i++) {
+      builder.add((double) (i % 2));
+    }
+    List<Double> samples = builder.build();
+    double sd = Math.sqrt(250.0 / 999);
+    assertEquals(1.96 * sd / Math.sqrt(1000), ConvergenceCriterion.halfWidth(samples), 1e-4);
+  }
+
+  public void testAbsoluteCriterion() {
+    assertTrue(new ConvergenceCriterion(1.5, false).isConverged(SAMPLES));
+    assertFalse(new ConvergenceCriterion(1.0, false).isConverged(SAMPLES));
+  }
+
+  public void testRelativeCriterion() {
+    assertTrue(new ConvergenceCriterion(0.15, true).isConverged(SAMPLES));
+    assertFalse(new ConvergenceCriterion(0.1, true).isConverged(SAMPLES));
+  }
+
+  public void testSingleSampleNeverConverges() {
+    assertFalse(new ConvergenceCriterion(1000, false).isConverged(ImmutableList.of(1.0)));
+  }
+}
@@ -0,0 +1,111 @@
+package au.edu.rmit.tzar.adaptive;
+
+import au.edu.rmit.tzar.RunFactory;
+import au.edu.rmit.tzar.api.DesignGenerator;
+import au.edu.rmit.tzar.api.ParameterSearch;
+import au.edu.rmit.tzar.api.Parameters;
+import au.edu.rmit.tzar.api.Run;
+import au.edu.rmit.tzar.db.RunDao;
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Maps;
+import junit.framework.TestCase;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import java.math.BigDecimal;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyCollectionOf;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyListOf;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.*;
+
+/**
+ * Tests for the ParameterSearcher.
+ */
+public class ParameterSearcherTest extends TestCase {
+  private static final List<DesignGenerator.Dimension> DIMENSIONS = ImmutableList.of(
+      new DesignGenerator.Dimension("x", new BigDecimal(-1), new BigDecimal(1)));
+
+  private RunDao runDao;
+  private RunFactory runFactory;
+  // the x parameter of each inserted run, by run id.
+  private final Map<Integer, Double> insertedRuns = Maps.newHashMap();
+
+  public void setUp() throws Exception {
+    runDao = mock(RunDao.class);
+    runFactory = mock(RunFactory.class);
+    when(runFactory.generateRuns(anyInt(), any(Parameters.class))).thenAnswer(new Answer<Iterable<Run>>() {
+      @Override
+      public Iterable<Run> answer(InvocationOnMock invocation) throws Throwable {
+        Parameters parameters = (Parameters) invocation.getArguments()[1];
+        return ImmutableList.of(new Run(new Run.ProjectInfo("project", null, null, "runner", ""), "scenario")
+            .setParameters(parameters));
+      }
+    });
+    doAnswer(new Answer<Void>() {
+      @Override
+      public Void answer(InvocationOnMock invocation) throws Throwable {
+        @SuppressWarnings("unchecked")
+        List<Run> runs = (List<Run>) invocation.getArguments()[0];
+        for (Run run : runs) {
+          run.setRunId(insertedRuns.size() + 1);
+          insertedRuns.put(run.getRunId(), ((BigDecimal) run.getParameters().asMap().get("x")).doubleValue());
+        }
+        return null;
+      }
+    }).when(runDao).insertRuns(anyListOf(Run.class));
+    // all runs have finished by the time they are polled.
+    when(runDao.getRunStates(anyCollectionOf(Integer.class))).thenReturn(Maps.<Integer, Run.State>newHashMap());
+  }
+
+  public void testFindsMinimum() throws Exception {
+    reportObjective();
+    ParameterSearch search = new ParameterSearch("loss", ParameterSearch.Goal.MINIMISE, DIMENSIONS, 3, 40, 1);
+    Optional<Parameters> best = new ParameterSearcher(runDao, runFactory, 1, search, 0).run();
+    verify(runDao, times(40)).insertRuns(anyListOf(Run.class));
+    assertEquals(0.3, ((BigDecimal) best.get().asMap().get("x")).doubleValue(), 0.02);
+  }
+
+  public void testFindsMaximum() throws Exception {
+    reportObjective();
+    ParameterSearch search = new ParameterSearch("loss", ParameterSearch.Goal.MAXIMISE, DIMENSIONS, 3, 40, 1);
+    Optional<Parameters> best = new ParameterSearcher(runDao, runFactory, 1, search, 0).run();
+    // the maximum of (x - 0.3)^2 in [-1, 1) is at -1.
+    assertEquals(-1, ((BigDecimal) best.get().asMap().get("x")).doubleValue(), 0.1);
+  }
+
+  public void testNoObjectiveReported() throws Exception {
+    when(runDao.getMetrics(anyCollectionOf(Integer.class), anyString())).thenReturn(
+        ImmutableMap.<Integer, Double>of());
+    ParameterSearch search = new ParameterSearch("loss", ParameterSearch.Goal.MINIMISE, DIMENSIONS, 2, 5, 1);
+    assertFalse(new ParameterSearcher(runDao, runFactory, 1, search, 0).run().isPresent());
+    verify(runDao, times(5)).insertRuns(anyListOf(Run.class));
+  }
+
+  /**
+   * Makes each run report the objective (x - 0.3)^2.
+   */
+  private void reportObjective() throws Exception {
+    when(runDao.getMetrics(anyCollectionOf(Integer.class), anyString())).thenAnswer(
+        new Answer<Map<Integer, Double>>() {
+          @Override
+          public Map<Integer, Double> answer(InvocationOnMock invocation) throws Throwable {
+            @SuppressWarnings("unchecked")
+            Collection<Integer> runIds = (Collection<Integer>) invocation.getArguments()[0];
+            Map<Integer, Double> metrics = Maps.newHashMap();
+            for (Integer runId : runIds) {
+              double x = insertedRuns.get(runId);
+              metrics.put(runId, (x - 0.3) * (x - 0.3));
+            }
+            return metrics;
+          }
+        });
+  }
+}
@@ -0,0 +1,125 @@
+package au.edu.rmit.tzar.adaptive;
+
+import au.edu.rmit.tzar.api.ParameterSearch;
+import au.edu.rmit.tzar.api.Parameters;
+import au.edu.rmit.tzar.api.Run;
+import au.edu.rmit.tzar.db.RunDao;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import junit.framework.TestCase;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+import static org.mockito.Matchers.anyCollectionOf;
+import static org.mockito.Matchers.anyListOf;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.*;
+
+/**
+ * Tests for SuccessiveHalving.
+ */
+public class SuccessiveHalvingTest extends TestCase {
+  private RunDao runDao;
+  // all runs, by run id.
+  private final Map<Integer, Run> runs = Maps.newHashMap();
+  // the rounds of runs inserted by the successive halving.
+  private final List<List<Run>> rounds = Lists.newArrayList();
+
+  public void setUp() throws Exception {
+    runDao = mock(RunDao.class);
+    doAnswer(new Answer<Void>() {
+      @Override
+      public Void answer(InvocationOnMock invocation) throws Throwable {
+        @SuppressWarnings("unchecked")
+        List<Run> inserted = (List<Run>) invocation.getArguments()[0];
+        for (Run run : inserted) {
+          insert(run);
+        }
+        rounds.add(inserted);
+        return null;
+      }
+    }).when(runDao).insertRuns(anyListOf(Run.class));
+    // all runs have finished by the time they are polled.
+    when(runDao.getRunStates(anyCollectionOf(Integer.class))).thenReturn(Maps.<Integer, Run.State>newHashMap());
+    // each run reports the metric x / timesteps, except for run 3, which reports nothing.
+    when(runDao.getMetrics(anyCollectionOf(Integer.class), anyString())).thenAnswer(
+        new Answer<Map<Integer, Double>>() {
+          @Override
+          public Map<Integer, Double> answer(InvocationOnMock invocation) throws Throwable {
+            @SuppressWarnings("unchecked")
+            Collection<Integer> runIds = (Collection<Integer>) invocation.getArguments()[0];
+            Map<Integer, Double> metrics = Maps.newHashMap();
+            for (Integer runId : runIds) {
+              if (runId != 3) {
+                Map<String, Object> params = runs.get(runId).getParameters().asMap();
+                metrics.put(runId, ((Integer) params.get("x")).doubleValue() / (Integer) params.get("timesteps"));
+              }
+            }
+            return metrics;
+          }
+        });
+  }
+
+  public void testRounds() throws Exception {
+    SuccessiveHalving halving = new SuccessiveHalving(runDao, "loss", ParameterSearch.Goal.MINIMISE, "timesteps",
+        10, 100, 3, 0);
+    for (int x = 1; x <= 20; x++) {
+      Run run = createRun(x);
+      halving.prepareRun(run);
+      assertEquals(10, run.getParameters().asMap().get("timesteps"));
+      insert(run);
+      halving.addRun(run);
+    }
+    halving.run();
+
+    // 19 runs report the metric, so 6 survive the first round, then 2, then 1 is run at the max fidelity.
+    assertEquals(3, rounds.size());
+    assertEquals(6, rounds.get(0).size());
+    assertEquals(2, rounds.get(1).size());
+    assertEquals(1, rounds.get(2).size());
+    List<Integer> secondRound = Lists.newArrayList();
+    for (Run run : rounds.get(0)) {
+      assertEquals(30, run.getParameters().asMap().get("timesteps"));
+      secondRound.add((Integer) run.getParameters().asMap().get("x"));
+    }
+    assertEquals(Lists.newArrayList(1, 2, 4, 5, 6, 7), secondRound);
+    for (Run run : rounds.get(1)) {
+      assertEquals(90, run.getParameters().asMap().get("timesteps"));
+    }
+    assertEquals(100, rounds.get(2).get(0).getParameters().asMap().get("timesteps"));
+    assertEquals(1, rounds.get(2).get(0).getParameters().asMap().get("x"));
+    verify(runDao, times(3)).insertRuns(anyListOf(Run.class));
+  }
+
+  public void testMaximiseAndMaxFidelityIsCapped() throws Exception {
+    SuccessiveHalving halving = new SuccessiveHalving(runDao, "loss", ParameterSearch.Goal.MAXIMISE, "timesteps",
+        10, 20, 3, 0);
+    for (int x = 1; x <= 6; x++) {
+      Run run = createRun(x);
+      halving.prepareRun(run);
+      insert(run);
+      halving.addRun(run);
+    }
+    halving.run();
+    // run 3 doesn't report the metric, so 1 of the other 5 survives.
+    assertEquals(1, rounds.size());
+    assertEquals(1, rounds.get(0).size());
+    assertEquals(6, rounds.get(0).get(0).getParameters().asMap().get("x"));
+    assertEquals(20, rounds.get(0).get(0).getParameters().asMap().get("timesteps"));
+  }
+
+  private void insert(Run run) {
+    run.setRunId(runs.size() + 1);
+    runs.put(run.getRunId(), run);
+  }
+
+  private static Run createRun(int x) {
+    return new Run(new Run.ProjectInfo("project", null, null, "runner", ""), "scenario")
+        .setParameters(Parameters.createParameters(ImmutableMap.of("x", x, "timesteps", 1000)));
+  }
+}
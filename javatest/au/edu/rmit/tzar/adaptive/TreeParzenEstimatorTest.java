@@ -0,0 +1,66 @@
+package au.edu.rmit.tzar.adaptive;
+
+import au.edu.rmit.tzar.parser.SplitMix64;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import junit.framework.TestCase;
+
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Tests for the TreeParzenEstimator.
+ */
+public class TreeParzenEstimatorTest extends TestCase {
+  public void testNormalCdf() {
+    assertEquals(0.5, TreeParzenEstimator.normalCdf(0), 1e-7);
+    assertEquals(0.975002, TreeParzenEstimator.normalCdf(1.96), 1e-6);
+    assertEquals(0.024998, TreeParzenEstimator.normalCdf(-1.96), 1e-6);
+  }
+
+  public void testProposalsAreInUnitHypercube() {
+    TreeParzenEstimator estimator = new TreeParzenEstimator(new SplitMix64(1));
+    List<TreeParzenEstimator.Observation> observations = ImmutableList.of(
+        new TreeParzenEstimator.Observation(new double[]{0.0, 0.99}, 1),
+        new TreeParzenEstimator.Observation(new double[]{0.5, 0.5}, 2),
+        new TreeParzenEstimator.Observation(new double[]{0.99, 0.0}, 3));
+    for (int i = 0; i < 100; i++) {
+      double[] point = estimator.propose(observations, ImmutableList.<double[]>of(), 2);
+      assertEquals(2, point.length);
+      for (double x : point) {
+        assertTrue(x >= 0 && x < 1);
+      }
+    }
+  }
+
+  /**
+   * Tests that the search finds the minimum of a simple function in far fewer evaluations than random search.
+   */
+  public void testFindsMinimum() {
+    double tpeBest = minimise(new TreeParzenEstimator(new SplitMix64(42)), 60);
+    assertTrue("best value was " + tpeBest, tpeBest < 0.002);
+
+    Random random = new SplitMix64(42);
+    double randomBest = Double.MAX_VALUE;
+    for (int i = 0; i < 60; i++) {
+      randomBest = Math.min(randomBest, objective(new double[]{random.nextDouble(), random.nextDouble()}));
+    }
+    assertTrue(tpeBest < randomBest);
+  }
+
+  private static double minimise(TreeParzenEstimator estimator, int evaluations) {
+    List<TreeParzenEstimator.Observation> observations = Lists.newArrayList();
+    double best = Double.MAX_VALUE;
+    for (int i = 0; i < evaluations; i++) {
+      double[] point = estimator.propose(observations, ImmutableList.<double[]>of(), 2);
+      double value = objective(point);
+      observations.add(new TreeParzenEstimator.Observation(point, value));
+      best = Math.min(best, value);
+    }
+    return best;
+  }
+
+  private static double objective(double[] point) {
+    return (point[0] - 0.3) * (point[0] - 0.3) + (point[1] - 0.7) * (point[1] - 0.7);
+  }
+}
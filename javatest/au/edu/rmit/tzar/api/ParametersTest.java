@@ -1,6 +1,8 @@
 package au.edu.rmit.tzar.api;
 
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Iterables;
 import junit.framework.TestCase;
 
 import java.util.Map;
@@ -30,4 +32,48 @@ public class ParametersTest extends TestCase {
     assertEquals(3, result1.asMap().get("a"));
     assertEquals(2, result1.asMap().get("b"));
   }
+
+  public void testMergedParametersEqualFlatParameters() {
+    Parameters scenario = Parameters.createParameters(ImmutableMap.of("b", 3, "c", "x"));
+    Parameters repetition = Parameters.createParameters(ImmutableMap.of("c", "y", "d", true));
+    Parameters merged = parameters.mergeParameters(scenario).mergeParameters(repetition);
+    Map<String, Object> expected = ImmutableMap.<String, Object>of("a", 1, "b", 3, "c", "y", "d", true);
+
+    assertEquals(4, merged.getSize());
+    assertEquals(expected, merged.asMap());
+    assertEquals(merged.asMap(), expected);
+    assertEquals(expected.hashCode(), merged.asMap().hashCode());
+    assertEquals(Parameters.createParameters(expected), merged);
+    assertEquals(Parameters.createParameters(expected).hashCode(), merged.hashCode());
+    assertEquals(ImmutableSet.of("a", "b", "c", "d"), merged.asMap().keySet());
+    assertTrue(merged.asMap().containsKey("a"));
+    assertFalse(merged.asMap().containsKey("e"));
+    assertNull(merged.asMap().get("e"));
+    assertEquals(4, Iterables.size(merged.asMap().entrySet()));
+  }
+
+  public void testDeeplyMergedParameters() {
+    Parameters merged = parameters;
+    for (int i = 0; i < 20; i++) {
+      merged = merged.mergeParameters(Parameters.createParameters(ImmutableMap.of("a", i, "k" + i, i)));
+    }
+    assertEquals(22, merged.getSize());
+    assertEquals(19, merged.asMap().get("a"));
+    assertEquals(2, merged.asMap().get("b"));
+    assertEquals(5, merged.asMap().get("k5"));
+  }
+
+  public void testMergeEmptyParameters() {
+    assertSame(parameters, parameters.mergeParameters(Parameters.EMPTY_PARAMETERS));
+    assertSame(parameters, Parameters.EMPTY_PARAMETERS.mergeParameters(parameters));
+  }
+
+  public void testAsMapIsUnmodifiable() {
+    try {
+      parameters.mergeParameters(Parameters.createParameters(ImmutableMap.of("c", 1))).asMap().put("d", 2);
+      fail("Expected UnsupportedOperationException.");
+    } catch (UnsupportedOperationException e) {
+      // expected
+    }
+  }
 }
@@ -0,0 +1,79 @@
+package au.edu.rmit.tzar.commands;
+
+import au.edu.rmit.tzar.Utils;
+import au.edu.rmit.tzar.api.CodeSource;
+import au.edu.rmit.tzar.db.NodeCacheDao;
+import au.edu.rmit.tzar.parser.beans.DownloadMode;
+import au.edu.rmit.tzar.repository.CodeSourceFactory;
+import au.edu.rmit.tzar.repository.CodeSourceImpl;
+import com.google.common.collect.ImmutableList;
+import com.google.common.io.Files;
+import junit.framework.TestCase;
+import org.apache.http.impl.client.CloseableHttpClient;
+
+import java.io.File;
+import java.net.URI;
+
+import static org.mockito.Matchers.anyCollectionOf;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+
+/**
+ * Tests for the CodeManifest class.
+ */
+public class CodeManifestTest extends TestCase {
+  private NodeCacheDao mockNodeCacheDao = mock(NodeCacheDao.class);
+  private CodeSourceFactory codeSourceFactory = new CodeSourceFactory(mock(CloseableHttpClient.class),
+      mock(CloseableHttpClient.class));
+  private CodeManifest manifest = new CodeManifest(mockNodeCacheDao, 10);
+  private File baseModelPath;
+
+  @Override
+  protected void setUp() throws Exception {
+    baseModelPath = Files.createTempDir();
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    Utils.deleteRecursively(baseModelPath);
+  }
+
+  public void testNewRevisionReplacesOldRevision() throws Exception {
+    CodeSource revision1 = createSvnCodeSource("1");
+    CodeSource revision2 = createSvnCodeSource("2");
+    manifest.add(revision1, createPath("model@1"));
+    manifest.add(revision2, createPath("model@2"));
+    manifest.publish();
+    verify(mockNodeCacheDao).publish(ImmutableList.of(NodeCacheDao.codeKey(revision2)));
+  }
+
+  public void testDeletedCodeIsRemoved() throws Exception {
+    CodeSource codeSource = createSvnCodeSource("1");
+    File path = createPath("model@1");
+    manifest.add(codeSource, path);
+    manifest.publish();
+    verify(mockNodeCacheDao).publish(ImmutableList.of(NodeCacheDao.codeKey(codeSource)));
+
+    Utils.deleteRecursively(path); // eg evicted from the cache
+    manifest.publish();
+    verify(mockNodeCacheDao).publish(ImmutableList.<String>of());
+  }
+
+  public void testUnchangedManifestIsNotPublishedAgain() throws Exception {
+    manifest.add(createSvnCodeSource("1"), createPath("model@1"));
+    manifest.publish();
+    manifest.publish();
+    verify(mockNodeCacheDao).publish(anyCollectionOf(String.class));
+  }
+
+  private CodeSource createSvnCodeSource(String revision) throws Exception {
+    return codeSourceFactory.createCodeSource(revision, CodeSourceImpl.RepositoryTypeImpl.SVN,
+        new URI("http://some.com/svn/model"), DownloadMode.CACHE);
+  }
+
+  private File createPath(String name) {
+    File path = new File(baseModelPath, name);
+    path.mkdirs();
+    return path;
+  }
+}
@@ -0,0 +1,105 @@
+package au.edu.rmit.tzar.commands;
+
+import au.edu.rmit.tzar.RunFactory;
+import au.edu.rmit.tzar.adaptive.AdaptiveRunset;
+import au.edu.rmit.tzar.api.Parameters;
+import au.edu.rmit.tzar.api.ProjectSpec;
+import au.edu.rmit.tzar.api.RepetitionGenerator;
+import au.edu.rmit.tzar.api.Repetitions;
+import au.edu.rmit.tzar.api.Run;
+import au.edu.rmit.tzar.api.Scenario;
+import au.edu.rmit.tzar.db.RunDao;
+import au.edu.rmit.tzar.parser.LinearStepGenerator;
+import au.edu.rmit.tzar.parser.beans.DownloadMode;
+import au.edu.rmit.tzar.repository.CodeSourceImpl;
+import com.google.common.base.Optional;
+import com.google.common.collect.HashMultiset;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Multiset;
+import junit.framework.TestCase;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import java.math.BigDecimal;
+import java.net.URI;
+import java.util.List;
+
+import static org.mockito.Matchers.anyListOf;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests for the ScheduleRuns class.
+ */
+public class ScheduleRunsTest extends TestCase {
+  private RunFactory runFactory;
+
+  @Override
+  protected void setUp() throws Exception {
+    ProjectSpec mockProjectSpec = mock(ProjectSpec.class);
+    when(mockProjectSpec.getBaseParams()).thenReturn(Parameters.createParameters(ImmutableMap.of("A", 0)));
+    when(mockProjectSpec.getScenarios()).thenReturn(ImmutableList.of(
+        new Scenario("scenario1", Parameters.createParameters(ImmutableMap.of("A", 1))),
+        new Scenario("scenario2", Parameters.createParameters(ImmutableMap.of("A", 2)))));
+    List<RepetitionGenerator<?>> generators = Lists.newArrayList();
+    generators.add(new LinearStepGenerator("B", BigDecimal.ZERO, 101, BigDecimal.ONE));
+    when(mockProjectSpec.getRepetitions()).thenReturn(new Repetitions(ImmutableList.<Parameters>of(), generators));
+    CodeSourceImpl codeSource = new CodeSourceImpl(mock(CloseableHttpClient.class), new URI("/path/to/code"),
+        CodeSourceImpl.RepositoryTypeImpl.LOCAL_FILE, "rev1", DownloadMode.FORCE);
+    runFactory = new RunFactory(codeSource, "a_runset", "a cluster", mockProjectSpec);
+  }
+
+  /**
+   * Tests that runs generated and inserted by several threads are the same as those generated by a single
+   * thread, and that the first chunk is inserted on its own before the rest of the runs are divided into ranges.
+   */
+  public void testParallelRunsMatchSequentialRuns() throws Exception {
+    int numRuns = 150; // 150 copies * 101 repetitions * 2 scenarios = 30300 runs
+    List<Run> sequential = runFactory.createRuns(numRuns);
+    assertTrue(sequential.size() > 2 * ScheduleRuns.INSERT_CHUNK_SIZE);
+
+    List<List<Run>> chunks = scheduleRuns(numRuns, 1);
+    List<Run> inserted = Lists.newArrayList();
+    for (List<Run> chunk : chunks) {
+      inserted.addAll(chunk);
+    }
+    assertEquals(sequential, inserted);
+
+    chunks = scheduleRuns(numRuns, 4);
+    assertEquals(sequential.subList(0, ScheduleRuns.INSERT_CHUNK_SIZE), chunks.get(0));
+    for (List<Run> chunk : chunks) {
+      assertTrue(chunk.size() <= ScheduleRuns.INSERT_CHUNK_SIZE);
+    }
+    Multiset<Run> parallel = HashMultiset.create();
+    for (List<Run> chunk : chunks) {
+      parallel.addAll(chunk);
+    }
+    assertEquals(HashMultiset.create(sequential), parallel);
+  }
+
+  /**
+   * Schedules the runs using a mock RunDao, and returns the chunks of runs inserted, in the order in which they
+   * were inserted.
+   */
+  private List<List<Run>> scheduleRuns(int numRuns, int insertThreads) throws Exception {
+    final List<List<Run>> chunks = Lists.newArrayList();
+    RunDao mockRunDao = mock(RunDao.class);
+    doAnswer(new Answer<Void>() {
+      @Override
+      @SuppressWarnings("unchecked")
+      public Void answer(InvocationOnMock invocation) {
+        synchronized (chunks) {
+          chunks.add(Lists.newArrayList((List<Run>) invocation.getArguments()[0]));
+        }
+        return null;
+      }
+    }).when(mockRunDao).insertRuns(anyListOf(Run.class));
+    assertTrue(new ScheduleRuns(mockRunDao, numRuns, runFactory, false, Optional.<AdaptiveRunset>absent(),
+        insertThreads).execute());
+    return chunks;
+  }
+}
@@ -1,6 +1,7 @@
 package au.edu.rmit.tzar.db;
 
 import au.edu.rmit.tzar.api.CodeSource;
+import au.edu.rmit.tzar.api.Constants;
 import au.edu.rmit.tzar.api.Parameters;
 import au.edu.rmit.tzar.api.Run;
 import au.edu.rmit.tzar.api.TzarException;
@@ -12,18 +13,23 @@ import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Lists;
 import junit.framework.TestCase;
 import org.apache.http.impl.client.CloseableHttpClient;
+import org.hamcrest.Matcher;
+import org.mockito.ArgumentMatcher;
 import org.mockito.InOrder;
 import org.postgresql.jdbc4.Jdbc4Connection;
 
 import java.io.File;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.sql.Array;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.Calendar;
 import java.util.Date;
 import java.util.GregorianCalendar;
 import java.util.List;
+import java.util.Map;
 
 import static org.mockito.Mockito.*;
 
@@ -71,6 +77,7 @@ public class RunDaoTest extends TestCase {
 
     when(mockConnection.prepareStatement(isA(String.class))).thenReturn(mock(PreparedStatement.class));
     when(mockParametersDao.createBatchInserter(mockConnection)).thenReturn(mockBatchInserter);
+    when(mockLibraryDao.createBatchAssociator(mockConnection)).thenReturn(mock(LibraryDao.BatchAssociator.class));
     runDao = new RunDao(mockConnectionFactory, mockParametersDao, mockLibraryDao, new CodeSourceFactory(mockHttpClient,
         mockHttpClient));
 
@@ -96,6 +103,39 @@ public class RunDaoTest extends TestCase {
     assertEquals(run, runDao.getNextRun(Optional.<String>absent(), CLUSTER_NAME).get());
   }
 
+  public void testGetNextRunForRunset() throws Exception {
+    setupResultSet();
+    PreparedStatement nextRunStatement = mock(PreparedStatement.class);
+    when(mockConnection.prepareStatement(RunDao.NEXT_RUN_FOR_RUNSET_SQL)).thenReturn(nextRunStatement);
+    when(nextRunStatement.executeQuery()).thenReturn(resultSet);
+    when(resultSet.next()).thenReturn(true);
+    when(mockLibraryDao.getLibraries(RUN_ID, mockConnection)).thenReturn(ImmutableMap.<String, CodeSource>of());
+    when(mockParametersDao.loadFromDatabase(RUN_ID, mockConnection)).thenReturn(Parameters.EMPTY_PARAMETERS);
+    assertEquals(RUN_ID, runDao.getNextRun(Optional.of(RUNSET), CLUSTER_NAME).get().getRunId());
+    verify(nextRunStatement).setString(1, CLUSTER_NAME);
+    verify(nextRunStatement).setString(2, RUNSET);
+  }
+
+  public void testGetNextRunForRunsetPattern() throws Exception {
+    setupResultSet();
+    PreparedStatement nextRunStatement = mock(PreparedStatement.class);
+    when(mockConnection.prepareStatement(RunDao.NEXT_RUN_FOR_RUNSET_PATTERN_SQL)).thenReturn(nextRunStatement);
+    when(nextRunStatement.executeQuery()).thenReturn(resultSet);
+    when(resultSet.next()).thenReturn(true);
+    when(mockLibraryDao.getLibraries(RUN_ID, mockConnection)).thenReturn(ImmutableMap.<String, CodeSource>of());
+    when(mockParametersDao.loadFromDatabase(RUN_ID, mockConnection)).thenReturn(Parameters.EMPTY_PARAMETERS);
+    assertEquals(RUN_ID, runDao.getNextRun(Optional.of("a run%"), CLUSTER_NAME).get().getRunId());
+    verify(nextRunStatement).setString(1, CLUSTER_NAME);
+    verify(nextRunStatement).setString(2, "a run%");
+    verify(mockConnection, never()).prepareStatement(RunDao.NEXT_RUN_FOR_RUNSET_SQL);
+  }
+
+  public void testIsRunsetPattern() {
+    assertFalse(RunDao.isRunsetPattern(RUNSET));
+    assertTrue(RunDao.isRunsetPattern("a run%"));
+    assertTrue(RunDao.isRunsetPattern("a_runset"));
+  }
+
   public void testGetNextRunNoMatch() throws Exception {
     PreparedStatement nextRunStatement = mock(PreparedStatement.class);
     when(mockConnection.prepareStatement(RunDao.NEXT_RUN_SQL)).thenReturn(nextRunStatement);
@@ -104,6 +144,66 @@ public class RunDaoTest extends TestCase {
     assertFalse(runDao.getNextRun(Optional.<String>absent(), CLUSTER_NAME).isPresent());
   }
 
+  public void testGetNextLocalRunMarksPassedOverRuns() throws Exception {
+    setupResultSet();
+    PreparedStatement nextRunStatement = mock(PreparedStatement.class);
+    PreparedStatement markStatement = mock(PreparedStatement.class);
+    when(mockConnection.prepareStatement(RunDao.NEXT_LOCAL_RUN_FOR_RUNSET_SQL)).thenReturn(nextRunStatement);
+    when(mockConnection.prepareStatement(RunDao.MARK_PASSED_OVER_SQL)).thenReturn(markStatement);
+    when(nextRunStatement.executeQuery()).thenReturn(resultSet);
+    when(resultSet.next()).thenReturn(true);
+    when(resultSet.getInt("priority")).thenReturn(1);
+    Array passedOver = mock(Array.class);
+    when(resultSet.getArray("passed_over")).thenReturn(passedOver);
+    when(mockLibraryDao.getLibraries(RUN_ID, mockConnection)).thenReturn(ImmutableMap.<String, CodeSource>of());
+    when(mockParametersDao.loadFromDatabase(RUN_ID, mockConnection)).thenReturn(Parameters.EMPTY_PARAMETERS);
+    assertEquals(RUN_ID, runDao.getNextRun(Optional.of(RUNSET), CLUSTER_NAME, "host").get().getRunId());
+    verify(nextRunStatement).setInt(1, Constants.LOCALITY_MAX_DELAY_SECONDS);
+    verify(nextRunStatement).setString(2, CLUSTER_NAME);
+    verify(nextRunStatement).setString(3, RUNSET);
+    verify(nextRunStatement).setInt(4, Constants.LOCALITY_WINDOW_RUNS);
+    verify(nextRunStatement).setString(5, "host");
+    verify(markStatement).setArray(1, passedOver);
+    verify(markStatement).executeUpdate();
+  }
+
+  public void testGetNextLocalRunInOrder() throws Exception {
+    setupResultSet();
+    PreparedStatement nextRunStatement = mock(PreparedStatement.class);
+    when(mockConnection.prepareStatement(RunDao.NEXT_LOCAL_RUN_SQL)).thenReturn(nextRunStatement);
+    when(nextRunStatement.executeQuery()).thenReturn(resultSet);
+    when(resultSet.next()).thenReturn(true);
+    when(resultSet.getInt("priority")).thenReturn(2);
+    when(mockLibraryDao.getLibraries(RUN_ID, mockConnection)).thenReturn(ImmutableMap.<String, CodeSource>of());
+    when(mockParametersDao.loadFromDatabase(RUN_ID, mockConnection)).thenReturn(Parameters.EMPTY_PARAMETERS);
+    assertEquals(RUN_ID, runDao.getNextRun(Optional.<String>absent(), CLUSTER_NAME, "host").get().getRunId());
+    verify(mockConnection, never()).prepareStatement(RunDao.MARK_PASSED_OVER_SQL);
+  }
+
+  public void testGetUpcomingCode() throws Exception {
+    PreparedStatement upcomingRunsStatement = mock(PreparedStatement.class);
+    when(mockConnection.prepareStatement(RunDao.UPCOMING_RUNS_SQL)).thenReturn(upcomingRunsStatement);
+    when(upcomingRunsStatement.executeQuery()).thenReturn(resultSet);
+    // two runs of the same model
+    when(resultSet.next()).thenReturn(true, true, false);
+    when(resultSet.getInt(1)).thenReturn(RUN_ID, RUN_ID + 1);
+    when(resultSet.getString(2)).thenReturn(MODEL_URL);
+    when(resultSet.getString(3)).thenReturn(REPO_TYPE);
+    when(resultSet.getString(4)).thenReturn(CODE_VERSION);
+    when(resultSet.getString(5)).thenReturn(PROJECT_NAME);
+    CodeSource library = new CodeSourceImpl(mockHttpClient, new URI("http://some.com/lib.zip"),
+        CodeSourceImpl.RepositoryTypeImpl.HTTP_ZIP, "", DownloadMode.CACHE);
+    when(mockLibraryDao.getLibraries(Lists.newArrayList(RUN_ID, RUN_ID + 1), mockConnection)).thenReturn(
+        ImmutableMap.of(library, "lib"));
+
+    Map<CodeSource, String> code = runDao.getUpcomingCode(Optional.<String>absent(), CLUSTER_NAME, 100);
+    CodeSource model = new CodeSourceImpl(mockHttpClient, new URI(MODEL_URL), CodeSourceImpl.RepositoryTypeImpl.SVN,
+        CODE_VERSION, DownloadMode.CACHE);
+    assertEquals(ImmutableMap.of(model, PROJECT_NAME, library, "lib"), code);
+    verify(upcomingRunsStatement).setString(1, CLUSTER_NAME);
+    verify(upcomingRunsStatement).setInt(2, 100);
+  }
+
   public void testInsertRuns() throws TzarException, SQLException, URISyntaxException {
     when(mockConnection.prepareStatement(RunDao.INSERT_RUN_SQL)).thenReturn(insertRun);
     List<Run> runs = Lists.newArrayList();
@@ -163,6 +263,7 @@ public class RunDaoTest extends TestCase {
     inOrder.verify(insertRun).setString(9, RUNSET);
     inOrder.verify(insertRun).setString(10, CLUSTER_NAME);
     inOrder.verify(insertRun).setString(11, RUNNER_CLASS);
+    verify(mockConnection).prepareStatement(RunDao.LOCK_RUN_IDS_SQL);
   }
 
   public void testInsertRunWithParams() throws Exception {
@@ -220,8 +321,10 @@ public class RunDaoTest extends TestCase {
 
     InOrder inOrder = inOrder(updateRun, mockConnection);
     runDao.persistRun(run);
-    inOrder.verify(updateRun).setTimestamp(1, new java.sql.Timestamp(START_TIME.getTime()), RunDao.UTC);
-    inOrder.verify(updateRun).setTimestamp(2, new java.sql.Timestamp(END_TIME.getTime()), RunDao.UTC);
+    inOrder.verify(updateRun).setTimestamp(eq(1), eq(new java.sql.Timestamp(START_TIME.getTime())),
+        argThat(isUtcCalendar()));
+    inOrder.verify(updateRun).setTimestamp(eq(2), eq(new java.sql.Timestamp(END_TIME.getTime())),
+        argThat(isUtcCalendar()));
     inOrder.verify(updateRun).setString(3, STATE.name().toLowerCase());
     inOrder.verify(updateRun).setString(4, HOSTNAME);
     inOrder.verify(updateRun).setString(5, HOST_IP);
@@ -232,6 +335,44 @@ public class RunDaoTest extends TestCase {
     inOrder.verify(mockConnection).commit();
   }
 
+  public void testGetRunsetStats() throws Exception {
+    PreparedStatement statsStatement = mock(PreparedStatement.class);
+    when(mockConnection.prepareStatement(RunDao.RUNSET_STATS_SQL + " WHERE runset = ?")).thenReturn(statsStatement);
+    when(statsStatement.executeQuery()).thenReturn(resultSet);
+    when(resultSet.next()).thenReturn(true);
+    when(resultSet.getString("runset")).thenReturn(RUNSET);
+    when(resultSet.getInt("num_runs")).thenReturn(10);
+    when(resultSet.getInt("scheduled")).thenReturn(3);
+    when(resultSet.getInt("copied")).thenReturn(7);
+    when(resultSet.getDouble("total_cpu_seconds")).thenReturn(123.5);
+
+    RunsetStats stats = runDao.getRunsetStats(RUNSET).get();
+    verify(statsStatement).setString(1, RUNSET);
+    assertEquals(RUNSET, stats.getRunset());
+    assertEquals(10, stats.getNumRuns());
+    assertEquals(3, stats.getCount(Run.State.SCHEDULED));
+    assertEquals(7, stats.getCount(Run.State.COPIED));
+    assertEquals(0, stats.getCount(Run.State.FAILED));
+    assertEquals(123.5, stats.getTotalCpuSeconds());
+  }
+
+  public void testGetRunsetStatsNoMatch() throws Exception {
+    PreparedStatement statsStatement = mock(PreparedStatement.class);
+    when(mockConnection.prepareStatement(RunDao.RUNSET_STATS_SQL + " WHERE runset = ?")).thenReturn(statsStatement);
+    when(statsStatement.executeQuery()).thenReturn(resultSet);
+    when(resultSet.next()).thenReturn(false);
+    assertFalse(runDao.getRunsetStats(RUNSET).isPresent());
+  }
+
+  private static Matcher<Calendar> isUtcCalendar() {
+    return new ArgumentMatcher<Calendar>() {
+      @Override
+      public boolean matches(Object argument) {
+        return "UTC".equals(((Calendar) argument).getTimeZone().getID());
+      }
+    };
+  }
+
   private void setupResultSet() throws SQLException {
     when(resultSet.getInt("run_id")).thenReturn(RUN_ID);
     when(resultSet.getString("project_name")).thenReturn(PROJECT_NAME);
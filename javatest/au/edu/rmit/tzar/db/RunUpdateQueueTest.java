@@ -0,0 +1,211 @@
+package au.edu.rmit.tzar.db;
+
+import au.edu.rmit.tzar.api.Run;
+import au.edu.rmit.tzar.api.TzarException;
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.io.Files;
+import junit.framework.TestCase;
+import org.mockito.InOrder;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import java.io.File;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.SortedMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.mockito.Mockito.*;
+
+/**
+ * Tests for the RunUpdateQueue.
+ */
+public class RunUpdateQueueTest extends TestCase {
+  private ConnectionFactory mockConnectionFactory;
+  private Connection mockConnection;
+  private PreparedStatement updateRun;
+  private RunUpdateQueue queue;
+
+  public void setUp() throws Exception {
+    mockConnection = mock(Connection.class);
+    updateRun = mock(PreparedStatement.class);
+    mockConnectionFactory = mock(ConnectionFactory.class);
+    when(mockConnectionFactory.createConnection()).thenReturn(mockConnection);
+    when(mockConnection.prepareStatement(RunDao.UPDATE_RUN_SQL)).thenReturn(updateRun);
+    // long interval so that the background thread doesn't flush during the test.
+    queue = new RunUpdateQueue(mockConnectionFactory, 1000000, Optional.<RunJournal>absent());
+  }
+
+  public void testUpdatesAreCoalesced() throws Exception {
+    Run run = createRun(2);
+    queue.add(run.setState(Run.State.COMPLETED));
+    queue.add(run.setState(Run.State.COPIED));
+    queue.add(createRun(1).setState(Run.State.FAILED));
+
+    assertEquals(2, queue.flush());
+    InOrder inOrder = inOrder(updateRun, mockConnection);
+    inOrder.verify(updateRun).setString(3, "failed");
+    inOrder.verify(updateRun).setInt(8, 1);
+    inOrder.verify(updateRun).addBatch();
+    inOrder.verify(updateRun).setString(3, "copied");
+    inOrder.verify(updateRun).setInt(8, 2);
+    inOrder.verify(updateRun).addBatch();
+    inOrder.verify(updateRun).executeBatch();
+    inOrder.verify(mockConnection).commit();
+    verify(updateRun, never()).setString(3, "completed");
+    assertEquals(0, queue.size());
+  }
+
+  public void testUpdateIsSnapshotWhenQueued() throws Exception {
+    Run run = createRun(1).setState(Run.State.COMPLETED);
+    queue.add(run);
+    run.setState(Run.State.COPY_FAILED);
+    queue.flush();
+    verify(updateRun).setString(3, "completed");
+  }
+
+  public void testFlushEmptyQueue() throws Exception {
+    assertEquals(0, queue.flush());
+    verifyZeroInteractions(mockConnection);
+  }
+
+  public void testFailedFlushIsRequeued() throws Exception {
+    when(updateRun.executeBatch()).thenThrow(new SQLException("db down"));
+    queue.add(createRun(1).setState(Run.State.COMPLETED));
+    try {
+      queue.flush();
+      fail("Expected TzarException.");
+    } catch (TzarException e) {
+      // expected
+    }
+    verify(mockConnection).rollback();
+    assertEquals(1, queue.size());
+  }
+
+  public void testDiscard() throws Exception {
+    queue.add(createRun(1).setState(Run.State.COMPLETED));
+    queue.discard(1);
+    assertEquals(0, queue.flush());
+  }
+
+  public void testFailedFlushIsJournalled() throws Exception {
+    File journalFile = new File(Files.createTempDir(), "journal");
+    RunJournal journal = new RunJournal(journalFile);
+    queue = new RunUpdateQueue(mockConnectionFactory, 1000000, Optional.of(journal));
+    when(updateRun.executeBatch()).thenThrow(new SQLException("db down")).thenReturn(new int[0]);
+
+    queue.add(createRun(1).setState(Run.State.COMPLETED));
+    queue.add(createRun(2).setState(Run.State.COMPLETED));
+    try {
+      queue.flush();
+      fail("Expected TzarException.");
+    } catch (TzarException e) {
+      // expected
+    }
+    assertEquals(0, queue.size());
+    assertTrue(queue.hasJournalledUpdates());
+    assertEquals(2, journal.read().size());
+
+    // a newer update for run 2 should replace the journalled one.
+    queue.add(createRun(2).setState(Run.State.COPIED));
+    assertEquals(2, queue.flush());
+    verify(updateRun, times(3)).setString(3, "completed"); // twice in the failed flush, then run 1 again
+    verify(updateRun).setString(3, "copied");
+    verify(updateRun, times(4)).addBatch();
+    assertFalse(queue.hasJournalledUpdates());
+    assertFalse(journalFile.exists());
+  }
+
+  public void testJournalSkipsPartialLines() throws Exception {
+    File journalFile = new File(Files.createTempDir(), "journal");
+    Files.write("{\"runId\":3,\"sta".getBytes(), journalFile); // eg from a crash while appending
+    RunJournal journal = new RunJournal(journalFile);
+    journal.append(java.util.Collections.singletonList(
+        RunUpdateQueue.RunUpdate.of(createRun(4).setState(Run.State.FAILED))));
+    SortedMap<Integer, RunUpdateQueue.RunUpdate> updates = journal.read();
+    assertEquals(1, updates.size());
+    assertEquals(4, updates.get(4).getRunId());
+  }
+
+  /**
+   * Tests two queues sharing a journal, as tzar processes sharing a base directory do. While one queue is
+   * replaying the journal, the other can't replay it as well, and the updates it journals aren't lost when the
+   * first queue clears the journal.
+   */
+  public void testQueuesSharingJournal() throws Exception {
+    File journalFile = new File(Files.createTempDir(), "journal");
+    new RunJournal(journalFile).append(java.util.Collections.singletonList(
+        RunUpdateQueue.RunUpdate.of(createRun(1).setState(Run.State.COMPLETED))));
+
+    // the first queue's write blocks until it is released.
+    final CountDownLatch writing = new CountDownLatch(1);
+    final CountDownLatch release = new CountDownLatch(1);
+    when(updateRun.executeBatch()).thenAnswer(new Answer<int[]>() {
+      @Override
+      public int[] answer(InvocationOnMock invocation) throws Throwable {
+        writing.countDown();
+        release.await();
+        return new int[0];
+      }
+    });
+    final RunUpdateQueue queue1 = new RunUpdateQueue(mockConnectionFactory, 1000000,
+        Optional.of(new RunJournal(journalFile)));
+
+    // the second queue can't write to the database.
+    Connection connection2 = mock(Connection.class);
+    PreparedStatement updateRun2 = mock(PreparedStatement.class);
+    ConnectionFactory connectionFactory2 = mock(ConnectionFactory.class);
+    when(connectionFactory2.createConnection()).thenReturn(connection2);
+    when(connection2.prepareStatement(RunDao.UPDATE_RUN_SQL)).thenReturn(updateRun2);
+    when(updateRun2.executeBatch()).thenThrow(new SQLException("db down"));
+    final RunUpdateQueue queue2 = new RunUpdateQueue(connectionFactory2, 1000000,
+        Optional.of(new RunJournal(journalFile)));
+    queue2.add(createRun(2).setState(Run.State.FAILED));
+
+    ExecutorService executor = Executors.newFixedThreadPool(2);
+    try {
+      Future<Integer> flush1 = executor.submit(new Callable<Integer>() {
+        @Override
+        public Integer call() throws Exception {
+          return queue1.flush();
+        }
+      });
+      writing.await();
+      Future<Integer> flush2 = executor.submit(new Callable<Integer>() {
+        @Override
+        public Integer call() throws Exception {
+          return queue2.flush();
+        }
+      });
+      Thread.sleep(200);
+      assertFalse("The second queue shouldn't replay the journal while the first is.", flush2.isDone());
+      release.countDown();
+
+      assertEquals(1, flush1.get().intValue());
+      try {
+        flush2.get();
+        fail("Expected TzarException.");
+      } catch (ExecutionException e) {
+        assertTrue(e.getCause() instanceof TzarException);
+      }
+    } finally {
+      release.countDown();
+      executor.shutdownNow();
+    }
+    // run 1 was only replayed by the first queue, and run 2 is still in the journal.
+    verify(updateRun).setInt(8, 1);
+    verify(updateRun2, never()).setInt(8, 1);
+    assertEquals(ImmutableSet.of(2), new RunJournal(journalFile).read().keySet());
+  }
+
+  private static Run createRun(int runId) {
+    return new Run(new Run.ProjectInfo("project", null, null, "runner", ""), "scenario").setRunId(runId);
+  }
+}
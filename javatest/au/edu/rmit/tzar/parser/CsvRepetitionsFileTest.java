@@ -0,0 +1,118 @@
+package au.edu.rmit.tzar.parser;
+
+import au.edu.rmit.tzar.Utils;
+import au.edu.rmit.tzar.api.Parameters;
+import au.edu.rmit.tzar.api.TzarException;
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.google.common.io.Files;
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.math.BigDecimal;
+import java.util.List;
+
+/**
+ * Tests for the CsvRepetitionsFile class.
+ */
+public class CsvRepetitionsFileTest extends TestCase {
+  private File tempDir;
+
+  @Override
+  protected void setUp() throws Exception {
+    tempDir = Files.createTempDir();
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    Utils.deleteRecursively(tempDir);
+  }
+
+  public void testTypedAndInferredColumns() throws Exception {
+    CsvRepetitionsFile file = createFile("a,b:float,c:str,d,e\n" +
+        "1,2,3,true,x\n" +
+        "4.5,6,,FALSE,\"y, z\"\n");
+    List<Parameters> rows = Lists.newArrayList(file);
+    assertEquals(2, rows.size());
+    assertEquals(Parameters.createParameters(ImmutableMap.of("a", 1, "b", new BigDecimal("2"), "c", "3", "d", true,
+        "e", "x")), rows.get(0));
+    // the empty cell for c is skipped
+    assertEquals(Parameters.createParameters(ImmutableMap.of("a", new BigDecimal("4.5"), "b", new BigDecimal("6"),
+        "d", false, "e", "y, z")), rows.get(1));
+    // the file can be iterated over more than once
+    assertEquals(rows, Lists.newArrayList(file));
+  }
+
+  public void testContentHash() throws Exception {
+    CsvRepetitionsFile file = createFile("a\n1\n");
+    assertEquals(64, file.getContentHash().length());
+    assertEquals(file.getContentHash(), createFile("a\n1\n").getContentHash());
+    assertFalse(file.getContentHash().equals(createFile("a\n2\n").getContentHash()));
+  }
+
+  public void testInvalidValue() throws Exception {
+    CsvRepetitionsFile file = createFile("a:int\n1\nx\n");
+    try {
+      Lists.newArrayList(file);
+      fail("Expected IllegalArgumentException.");
+    } catch (IllegalArgumentException e) {
+      assertTrue(e.getMessage(), e.getMessage().contains("Row 3"));
+    }
+  }
+
+  public void testWrongNumberOfValues() throws Exception {
+    CsvRepetitionsFile file = createFile("a,b\n1\n");
+    try {
+      Lists.newArrayList(file);
+      fail("Expected IllegalArgumentException.");
+    } catch (IllegalArgumentException e) {
+      // expected
+    }
+  }
+
+  /**
+   * Tests that rows are read correctly across the boundaries between batches, including rows which span several
+   * lines, and lines with windows line endings.
+   */
+  public void testRowsInSeveralBatches() throws Exception {
+    StringBuilder contents = new StringBuilder("a,b:str\r\n");
+    for (int i = 0; i < CsvRepetitionsFile.BATCH_ROWS * 2 + 1; i++) {
+      contents.append(i).append(i % 3 == 0 ? ",\"x\ny\"\n" : ",\u00e9\r\n");
+    }
+    List<Parameters> rows = Lists.newArrayList(createFile(contents.toString()));
+    assertEquals(CsvRepetitionsFile.BATCH_ROWS * 2 + 1, rows.size());
+    for (int i = 0; i < rows.size(); i++) {
+      assertEquals(Parameters.createParameters(ImmutableMap.of("a", i, "b", i % 3 == 0 ? "x\ny" : "\u00e9")),
+          rows.get(i));
+    }
+  }
+
+  public void testModifiedFile() throws Exception {
+    CsvRepetitionsFile file = createFile("a\n1\n");
+    File modified = new File(tempDir, "reps.csv");
+    Files.write("a\n2\n", modified, Charsets.UTF_8);
+    modified.setLastModified(modified.lastModified() + 10000);
+    try {
+      file.iterator();
+      fail("Expected IllegalStateException.");
+    } catch (IllegalStateException e) {
+      // expected
+    }
+  }
+
+  public void testMissingFile() {
+    try {
+      new CsvRepetitionsFile("missing.csv", new File(tempDir, "missing.csv"));
+      fail("Expected TzarException.");
+    } catch (TzarException e) {
+      // expected
+    }
+  }
+
+  private CsvRepetitionsFile createFile(String contents) throws Exception {
+    File file = new File(tempDir, "reps.csv");
+    Files.write(contents, file, Charsets.UTF_8);
+    return new CsvRepetitionsFile("reps.csv", file);
+  }
+}
@@ -0,0 +1,87 @@
+package au.edu.rmit.tzar.parser;
+
+import au.edu.rmit.tzar.api.DesignGenerator;
+import com.google.common.collect.ImmutableList;
+import junit.framework.TestCase;
+
+import java.math.BigDecimal;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Tests for the design generators.
+ */
+public class DesignGeneratorTest extends TestCase {
+  private static final List<DesignGenerator.Dimension> DIMENSIONS = ImmutableList.of(
+      new DesignGenerator.Dimension("a", BigDecimal.ZERO, BigDecimal.ONE),
+      new DesignGenerator.Dimension("b", BigDecimal.valueOf(10), BigDecimal.valueOf(20)),
+      new DesignGenerator.Dimension("c", BigDecimal.valueOf(-1), BigDecimal.ONE));
+
+  /**
+   * Tests that each stratum of each dimension contains exactly one sample.
+   */
+  public void testLatinHypercubeIsStratified() {
+    assertStratified(new LatinHypercubeDesign(DIMENSIONS, 50), 50);
+  }
+
+  /**
+   * Tests that the first 2^k points of a sobol sequence are stratified in every dimension.
+   */
+  public void testSobolIsStratified() {
+    assertStratified(new SobolDesign(DIMENSIONS, 64), 64);
+  }
+
+  public void testSobolFirstPoints() {
+    List<Map<String, Object>> samples = new SobolDesign(DIMENSIONS.subList(0, 2), 4).generate();
+    assertSample(samples.get(0), 0, 10);
+    assertSample(samples.get(1), 0.5, 15);
+    assertSample(samples.get(2), 0.75, 12.5);
+    assertSample(samples.get(3), 0.25, 17.5);
+  }
+
+  public void testSobolMaxDimensions() {
+    ImmutableList.Builder<DesignGenerator.Dimension> builder = ImmutableList.builder();
+    for (int i = 0; i < SobolDesign.MAX_DIMENSIONS; i++) {
+      builder.add(new DesignGenerator.Dimension("key" + i, BigDecimal.ZERO, BigDecimal.ONE));
+    }
+    assertStratified(new SobolDesign(builder.build(), 32), 32);
+    builder.add(new DesignGenerator.Dimension("one_too_many", BigDecimal.ZERO, BigDecimal.ONE));
+    try {
+      new SobolDesign(builder.build(), 32);
+      fail("Expected IllegalArgumentException");
+    } catch (IllegalArgumentException e) {
+      // expected
+    }
+  }
+
+  public void testHaltonFirstPoints() {
+    List<Map<String, Object>> samples = new HaltonDesign(DIMENSIONS.subList(0, 2), 4).generate();
+    assertSample(samples.get(0), 0, 10);
+    assertSample(samples.get(1), 0.5, 10 + 10.0 / 3);
+    assertSample(samples.get(2), 0.25, 10 + 20.0 / 3);
+    assertSample(samples.get(3), 0.75, 10 + 10.0 / 9);
+  }
+
+  private static void assertSample(Map<String, Object> sample, double a, double b) {
+    assertEquals(2, sample.size());
+    assertEquals(a, ((BigDecimal) sample.get("a")).doubleValue(), 1e-9);
+    assertEquals(b, ((BigDecimal) sample.get("b")).doubleValue(), 1e-9);
+  }
+
+  private static void assertStratified(DesignGenerator design, int count) {
+    List<Map<String, Object>> samples = design.generate();
+    assertEquals(count, samples.size());
+    for (DesignGenerator.Dimension dimension : design.getDimensions()) {
+      double lower = dimension.getLowerBound().doubleValue();
+      double width = dimension.getUpperBound().doubleValue() - lower;
+      boolean[] seen = new boolean[count];
+      for (Map<String, Object> sample : samples) {
+        double value = ((BigDecimal) sample.get(dimension.getKey())).doubleValue();
+        int stratum = (int) Math.floor((value - lower) / width * count);
+        assertTrue("Value out of range: " + value, stratum >= 0 && stratum < count);
+        assertFalse("Stratum sampled twice for: " + dimension, seen[stratum]);
+        seen[stratum] = true;
+      }
+    }
+  }
+}
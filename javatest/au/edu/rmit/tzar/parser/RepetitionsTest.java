@@ -5,6 +5,7 @@ import au.edu.rmit.tzar.api.RepetitionGenerator;
 import au.edu.rmit.tzar.api.Repetitions;
 import au.edu.rmit.tzar.api.TzarException;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
 import junit.framework.TestCase;
 
@@ -64,4 +65,41 @@ public class RepetitionsTest extends TestCase {
       assertEquals(BigDecimal.valueOf(1.0 + (i * 2)), variables.get(KEY));
     }
   }
+
+  /**
+   * Tests that repetitions are generated on demand, so that a very large sweep (here 20^6 = 64M repetitions)
+   * can be iterated over without being held in memory.
+   */
+  public void testGeneratedRepetitionsAreLazy() throws TzarException {
+    List<RepetitionGenerator<?>> generators = Lists.newArrayList();
+    for (int i = 0; i < 6; i++) {
+      generators.add(new LinearStepGenerator(KEY + i, BigDecimal.ZERO, 20, BigDecimal.ONE));
+    }
+    Repetitions repetitions = new Repetitions(staticRepetitions, generators);
+    List<Parameters> first = Lists.newArrayList(Iterables.limit(repetitions.getParams(), 21));
+    assertEquals(21, first.size());
+    assertEquals("y", first.get(0).asMap().get("x"));
+    assertEquals(BigDecimal.ZERO, first.get(0).asMap().get(KEY + "5"));
+    assertEquals(BigDecimal.ONE, first.get(1).asMap().get(KEY + "5"));
+    assertEquals(BigDecimal.ONE, first.get(20).asMap().get(KEY + "4"));
+    assertEquals(BigDecimal.ZERO, first.get(20).asMap().get(KEY + "5"));
+  }
+
+  /**
+   * Tests that the repetitions in a range are the same as the repetitions at those positions of the whole
+   * sequence, so that ranges can be generated separately.
+   */
+  public void testParamsRanges() throws TzarException {
+    List<RepetitionGenerator<?>> generators = Lists.newArrayList();
+    generators.add(new LinearStepGenerator(KEY, BigDecimal.ZERO, 3, BigDecimal.ONE));
+    generators.add(new UniformDistributionGenerator("u", BigDecimal.ZERO, BigDecimal.ONE, 4));
+    Repetitions repetitions = new Repetitions(staticRepetitions, generators);
+    List<Parameters> all = repetitions.getParamsList();
+    assertEquals(24, all.size());
+    assertEquals(24, repetitions.getParamsCount());
+    for (int from = 0; from <= 24; from += 5) {
+      assertEquals(all.subList(from, Math.min(24, from + 7)),
+          Lists.newArrayList(repetitions.getParams(from, from + 7)));
+    }
+  }
 }
@@ -0,0 +1,42 @@
+package au.edu.rmit.tzar.parser;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests for the SplitMix64 random number generator.
+ */
+public class SplitMix64Test extends TestCase {
+  /**
+   * Tests against the output of the reference implementation.
+   */
+  public void testReferenceValues() {
+    SplitMix64 random = new SplitMix64(0);
+    assertEquals(0xe220a8397b1dcdafL, random.nextLong());
+    assertEquals(0x6e789e6aa1b965f4L, random.nextLong());
+  }
+
+  public void testSameSeedGivesSameValues() {
+    SplitMix64 random1 = new SplitMix64(1234);
+    SplitMix64 random2 = new SplitMix64(1234);
+    for (int i = 0; i < 100; i++) {
+      assertEquals(random1.nextGaussian(), random2.nextGaussian());
+      assertEquals(random1.nextInt(10), random2.nextInt(10));
+    }
+    random1.setSeed(1234);
+    assertEquals(new SplitMix64(1234).nextDouble(), random1.nextDouble());
+  }
+
+  public void testNextDoubleInRange() {
+    SplitMix64 random = new SplitMix64(SplitMix64.newSeed());
+    for (int i = 0; i < 1000; i++) {
+      double value = random.nextDouble();
+      assertTrue(value >= 0 && value < 1);
+    }
+  }
+
+  public void testDerivedSeeds() {
+    assertEquals(SplitMix64.deriveSeed(42, "key"), SplitMix64.deriveSeed(42, "key"));
+    assertFalse(SplitMix64.deriveSeed(42, "key") == SplitMix64.deriveSeed(42, "key2"));
+    assertFalse(SplitMix64.deriveSeed(42, "key") == SplitMix64.deriveSeed(43, "key"));
+  }
+}
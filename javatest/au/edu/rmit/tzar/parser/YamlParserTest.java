@@ -9,9 +9,12 @@ import au.edu.rmit.tzar.runners.mapreduce.Concatenator;
 import au.edu.rmit.tzar.runners.mapreduce.FileSelector;
 import au.edu.rmit.tzar.runners.mapreduce.MapReduce;
 import au.edu.rmit.tzar.runners.mapreduce.Reducer;
+import com.google.common.base.Charsets;
 import com.google.common.collect.*;
+import com.google.common.io.Files;
 import junit.framework.TestCase;
 import org.apache.http.impl.client.CloseableHttpClient;
+import org.yaml.snakeyaml.error.YAMLException;
 
 import java.io.File;
 import java.math.BigDecimal;
@@ -151,4 +154,140 @@ public class YamlParserTest extends TestCase {
     assertEquals(2, paramsList.size());
     assertEquals(set.size(), paramsList.size()); // assert that all items in the list are unique
   }
+
+  /**
+   * Tests that a design contributes one sample per repetition, rather than the product of its variables.
+   * 2 static repetitions * 3 linear steps * 8 samples = 48.
+   */
+  public void testDesignDeserialisationAndGeneration() throws TzarException {
+    String yaml =
+        "static_repetitions : \n" +
+            "  - A : 1\n" +
+            "  - A : 2\n" +
+            "generators : \n" +
+            "  - key : B \n" +
+            "    generator_type : linear_step \n" +
+            "    start : 0 \n" +
+            "    step_size : 1 \n" +
+            "    count : 3\n" +
+            "designs : \n" +
+            "  - design_type : latin_hypercube \n" +
+            "    count : 8 \n" +
+            "    variables : \n" +
+            "      - key : C \n" +
+            "        lower_bound : 0 \n" +
+            "        upper_bound : 1 \n" +
+            "      - key : D \n" +
+            "        lower_bound : -5.5 \n" +
+            "        upper_bound : 5.5 \n" +
+            "      - key : E \n" +
+            "        lower_bound : 100 \n" +
+            "        upper_bound : 200";
+    Repetitions repetitions = yamlParser.repetitionsFromYaml(yaml);
+    assertEquals(LatinHypercubeDesign.class, repetitions.getDesigns().get(0).getClass());
+    assertEquals(3, repetitions.getDesigns().get(0).getDimensions().size());
+
+    List<Parameters> paramsList = repetitions.getParamsList();
+    assertEquals(48, paramsList.size());
+    assertEquals(Sets.newHashSet(paramsList).size(), paramsList.size());
+    for (Parameters parameters : paramsList) {
+      assertEquals(5, parameters.getSize());
+    }
+  }
+
+  /**
+   * Tests that random generators and designs produce the same values each time they are generated,
+   * and for each parse of a project with the same seed.
+   */
+  public void testSeededRepetitionsAreReproducible() throws TzarException {
+    String yaml =
+        "seed : 1234 \n" +
+            "generators : \n" +
+            "  - key : A \n" +
+            "    generator_type : uniform_distribution \n" +
+            "    lower_bound : 0 \n" +
+            "    upper_bound : 1 \n" +
+            "    count : 3\n" +
+            "  - key : B \n" +
+            "    generator_type : normal_distribution \n" +
+            "    mean : 0 \n" +
+            "    std_dev : 5 \n" +
+            "    count : 3\n" +
+            "designs : \n" +
+            "  - design_type : latin_hypercube \n" +
+            "    count : 4 \n" +
+            "    variables : \n" +
+            "      - key : C \n" +
+            "        lower_bound : 0 \n" +
+            "        upper_bound : 1 \n";
+    Repetitions repetitions = yamlParser.repetitionsFromYaml(yaml);
+    List<Parameters> paramsList = repetitions.getParamsList();
+    assertEquals(36, paramsList.size());
+    assertEquals(paramsList, repetitions.getParamsList());
+    assertEquals(paramsList, yamlParser.repetitionsFromYaml(yaml).getParamsList());
+    assertFalse(paramsList.equals(yamlParser.repetitionsFromYaml(yaml.replace("1234", "1235")).getParamsList()));
+  }
+
+  /**
+   * Tests that a search is parsed from the repetitions, and that it doesn't add to the generated repetitions.
+   */
+  public void testSearchDeserialisation() throws TzarException {
+    String yaml =
+        "static_repetitions : \n" +
+            "  - A : 1\n" +
+            "  - A : 2\n" +
+            "search : \n" +
+            "  objective : fit \n" +
+            "  goal : maximise \n" +
+            "  batch_size : 4 \n" +
+            "  max_evaluations : 50 \n" +
+            "  seed : 99 \n" +
+            "  variables : \n" +
+            "    - key : C \n" +
+            "      lower_bound : 0 \n" +
+            "      upper_bound : 10 \n";
+    Repetitions repetitions = yamlParser.repetitionsFromYaml(yaml);
+    assertEquals(new ParameterSearch("fit", ParameterSearch.Goal.MAXIMISE, ImmutableList.of(
+        new DesignGenerator.Dimension("C", new BigDecimal(0), new BigDecimal(10))), 4, 50, 99),
+        repetitions.getSearch().get());
+    assertEquals(2, repetitions.getParamsList().size());
+
+    try {
+      yamlParser.repetitionsFromYaml(yaml.replace("maximise", "maximize"));
+      fail("Expected YAMLException.");
+    } catch (YAMLException e) {
+      // expected
+    }
+  }
+
+  /**
+   * Tests that the rows of a repetitions file, found relative to the repetitions yaml, are combined with the
+   * static repetitions and generators.
+   */
+  public void testRepetitionsFile() throws Exception {
+    File tempDir = Files.createTempDir();
+    try {
+      Files.write("A,B:str\n1,x\n2,y\n", new File(tempDir, "design.csv"), Charsets.UTF_8);
+      File yamlFile = new File(tempDir, "repetitions.yaml");
+      Files.write("static_repetitions : \n" +
+          "  - A : 0\n" +
+          "repetitions_file : design.csv\n" +
+          "generators : \n" +
+          "  - key : C \n" +
+          "    generator_type : linear_step \n" +
+          "    start : 0 \n" +
+          "    step_size : 1 \n" +
+          "    count : 2\n", yamlFile, Charsets.UTF_8);
+      Repetitions repetitions = yamlParser.repetitionsFromYaml(yamlFile);
+      assertEquals("design.csv", repetitions.getRepetitionsFile().get().getPath());
+      List<Parameters> paramsList = repetitions.getParamsList();
+      assertEquals(6, paramsList.size());
+      assertEquals(1, paramsList.get(2).asMap().get("A"));
+      assertEquals("x", paramsList.get(2).asMap().get("B"));
+      assertEquals(2, paramsList.get(5).asMap().get("A"));
+      assertEquals("y", paramsList.get(5).asMap().get("B"));
+    } finally {
+      Utils.deleteRecursively(tempDir);
+    }
+  }
 }
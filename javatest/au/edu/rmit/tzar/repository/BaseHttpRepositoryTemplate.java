@@ -38,12 +38,16 @@ public abstract class BaseHttpRepositoryTemplate extends TestCase {
   }
 
   protected File retrieveModel(int statusCode) throws IOException, TzarException {
-    CloseableHttpResponse mockResponse = mock(CloseableHttpResponse.class);
+    CloseableHttpResponse mockResponse = mockResponse(statusCode);
     when(mockHttpClient.execute(isA(HttpGet.class))).thenReturn(mockResponse);
+    return repository.retrieveModel(REVISION, "project_name", baseModelPath);
+  }
+
+  protected CloseableHttpResponse mockResponse(int statusCode) {
+    CloseableHttpResponse mockResponse = mock(CloseableHttpResponse.class);
     when(mockResponse.getStatusLine()).thenReturn(new BasicStatusLine(new ProtocolVersion("", 0, 0), statusCode,
         ""));
     when(mockResponse.getEntity()).thenReturn(returnedByteArray);
-
-    return repository.retrieveModel(REVISION, "project_name", baseModelPath);
+    return mockResponse;
   }
 }
@@ -4,11 +4,11 @@ import au.edu.rmit.tzar.api.TzarException;
 import au.edu.rmit.tzar.parser.beans.DownloadMode;
 import com.google.common.io.Files;
 import junit.framework.TestCase;
-import org.apache.http.HttpEntity;
 import org.apache.http.HttpStatus;
 import org.apache.http.ProtocolVersion;
 import org.apache.http.client.methods.CloseableHttpResponse;
 import org.apache.http.client.methods.HttpGet;
+import org.apache.http.entity.ByteArrayEntity;
 import org.apache.http.impl.client.CloseableHttpClient;
 import org.apache.http.message.BasicStatusLine;
 
@@ -39,7 +39,7 @@ public class CodeSourceFactoryTest extends TestCase {
     when(cachingHttpClient.execute(isA(HttpGet.class))).thenReturn(response);
     when(response.getStatusLine()).thenReturn(new BasicStatusLine(new ProtocolVersion("http", 1, 1), HttpStatus.SC_OK,
         ""));
-    when(response.getEntity()).thenReturn(mock(HttpEntity.class));
+    when(response.getEntity()).thenReturn(new ByteArrayEntity(new byte[0]));
     codeSource.getCode(Files.createTempDir(), "name");
   }
 
@@ -51,7 +51,7 @@ public class CodeSourceFactoryTest extends TestCase {
     when(nonCachingHttpClient.execute(isA(HttpGet.class))).thenReturn(response);
     when(response.getStatusLine()).thenReturn(new BasicStatusLine(new ProtocolVersion("http", 1, 1), HttpStatus.SC_OK,
         ""));
-    when(response.getEntity()).thenReturn(mock(HttpEntity.class));
+    when(response.getEntity()).thenReturn(new ByteArrayEntity(new byte[0]));
     codeSource.getCode(Files.createTempDir(), "name");
   }
 
@@ -63,10 +63,34 @@ public class CodeSourceFactoryTest extends TestCase {
     when(nonCachingHttpClient.execute(isA(HttpGet.class))).thenReturn(response);
     when(response.getStatusLine()).thenReturn(new BasicStatusLine(new ProtocolVersion("http", 1, 1), HttpStatus.SC_OK,
         ""));
-    when(response.getEntity()).thenReturn(mock(HttpEntity.class));
+    when(response.getEntity()).thenReturn(new ByteArrayEntity(new byte[0]));
     File tempDir = Files.createTempDir();
     codeSource.getCode(tempDir, "name");
     codeSource.getCode(tempDir, "name");
     verify(nonCachingHttpClient, times(1)).execute(isA(HttpGet.class));
   }
+
+  /**
+   * Tests that a relative repetitions file can't be read from an http repository, which only contains the
+   * project spec.
+   */
+  public void testRepetitionsFileInHttpRepository() throws Exception {
+    CodeSourceImpl codeSource = codeSourceFactory.createCodeSource("", CodeSourceImpl.RepositoryTypeImpl.HTTP_FILE,
+        new URI("http://some.com/project.yaml"), DownloadMode.FORCE);
+
+    CloseableHttpResponse response = mock(CloseableHttpResponse.class);
+    when(nonCachingHttpClient.execute(isA(HttpGet.class))).thenReturn(response);
+    when(response.getStatusLine()).thenReturn(new BasicStatusLine(new ProtocolVersion("http", 1, 1), HttpStatus.SC_OK,
+        ""));
+    when(response.getEntity()).thenReturn(new ByteArrayEntity(("project_name : a_project\n" +
+        "runner_class : RRunner\n" +
+        "repetitions :\n" +
+        "  repetitions_file : design.csv\n").getBytes("UTF-8")));
+    try {
+      codeSource.getProjectSpec(Files.createTempDir(), codeSourceFactory, "project.yaml");
+      fail("Expected TzarException to be thrown.");
+    } catch (TzarException e) {
+      assertTrue(e.getMessage().contains("design.csv"));
+    }
+  }
 }
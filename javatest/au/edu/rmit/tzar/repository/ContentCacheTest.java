@@ -0,0 +1,172 @@
+package au.edu.rmit.tzar.repository;
+
+import au.edu.rmit.tzar.Utils;
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.io.Files;
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.net.URI;
+import java.util.List;
+
+/**
+ * Tests for the ContentCache class.
+ */
+public class ContentCacheTest extends TestCase {
+  private static final long HOUR_MS = 60 * 60 * 1000L;
+
+  private File root;
+  private ContentCache cache;
+  private ContentCache.Location location1;
+  private ContentCache.Location location2;
+
+  @Override
+  protected void setUp() throws Exception {
+    root = Files.createTempDir();
+    cache = new ContentCache(root, 0, HOUR_MS);
+    location1 = new ContentCache.Location("http_file", new URI("http://some.com/model1"), "");
+    location2 = new ContentCache.Location("http_file", new URI("http://some.com/model2"), "");
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    Utils.deleteRecursively(root);
+  }
+
+  public void testPublishAndGet() throws Exception {
+    assertFalse(cache.get(location1).isPresent());
+    File object = publish(location1, "contents");
+    assertEquals("contents", Files.toString(object, Charsets.UTF_8));
+    assertEquals(object, cache.get(location1).get());
+    // the staging directory is empty once the object is published
+    assertEquals(0, new File(root, "staging").listFiles().length);
+  }
+
+  public void testSameContentIsStoredOnce() throws Exception {
+    File object1 = publish(location1, "contents");
+    File object2 = publish(location2, "contents");
+    assertEquals(object1, object2);
+
+    List<ContentCache.Entry> entries = cache.list();
+    assertEquals(1, entries.size());
+    assertEquals(2, entries.get(0).getLocations().size());
+    assertTrue(entries.get(0).getLocations().containsAll(ImmutableList.of(location1, location2)));
+  }
+
+  public void testRepublishUpdatesLocation() throws Exception {
+    publish(location1, "old contents");
+    File object = publish(location1, "new contents");
+    assertEquals(object, cache.get(location1).get());
+  }
+
+  public void testEvictLeastRecentlyUsed() throws Exception {
+    File object1 = publish(location1, "1234567890");
+    File object2 = publish(location2, "abcdefghij");
+    long now = System.currentTimeMillis();
+    object1.setLastModified(now - 3 * HOUR_MS);
+    object2.setLastModified(now - 2 * HOUR_MS);
+
+    assertEquals(10, cache.evict(15));
+    assertFalse(object1.exists());
+    assertFalse(cache.get(location1).isPresent());
+    assertEquals(object2, cache.get(location2).get());
+    assertEquals(1, cache.list().size());
+  }
+
+  public void testRecentlyUsedObjectsAreNotEvicted() throws Exception {
+    File object1 = publish(location1, "1234567890");
+    publish(location2, "abcdefghij");
+    object1.setLastModified(System.currentTimeMillis() - 2 * HOUR_MS);
+
+    // only the object which hasn't been used for an hour can be evicted.
+    assertEquals(10, cache.evict(0));
+    assertEquals(1, cache.list().size());
+    assertTrue(cache.get(location2).isPresent());
+  }
+
+  public void testLeasedObjectsAreNotEvicted() throws Exception {
+    File object1 = publish(location1, "1234567890");
+    File object2 = publish(location2, "abcdefghij");
+    long now = System.currentTimeMillis();
+    object1.setLastModified(now - 3 * HOUR_MS);
+    object2.setLastModified(now - 2 * HOUR_MS);
+
+    PathLease lease = cache.lease(object1).get();
+    try {
+      assertEquals(10, cache.evict(0));
+      assertTrue(object1.exists());
+      assertFalse(object2.exists());
+    } finally {
+      lease.release();
+    }
+    assertEquals(10, cache.evict(0));
+    assertFalse(object1.exists());
+  }
+
+  public void testOnlyObjectsInTheCacheAreLeased() throws Exception {
+    assertFalse(cache.lease(root).isPresent());
+  }
+
+  public void testQuotaIsEnforcedOnPublish() throws Exception {
+    cache = new ContentCache(root, 15, 0);
+    File object1 = publish(location1, "1234567890");
+    object1.setLastModified(System.currentTimeMillis() - HOUR_MS);
+    File object2 = publish(location2, "abcdefghij");
+    assertFalse(object1.exists());
+    assertTrue(object2.exists());
+  }
+
+  public void testEvictionListenersAreNotified() throws Exception {
+    final List<String> evicted = Lists.newArrayList();
+    ContentCache.EvictionListener listener = new ContentCache.EvictionListener() {
+      @Override
+      public void evicted(String contentId, List<ContentCache.Location> locations) {
+        evicted.add(contentId + " " + locations);
+      }
+    };
+    ContentCache.addEvictionListener(listener);
+    try {
+      File object1 = publish(location1, "1234567890");
+      publish(location2, "1234567890");
+      object1.setLastModified(System.currentTimeMillis() - 2 * HOUR_MS);
+      cache.evict(0);
+    } finally {
+      ContentCache.removeEvictionListener(listener);
+    }
+    assertEquals(1, evicted.size());
+    assertTrue(cache.list().isEmpty());
+    assertTrue(evicted.get(0), evicted.get(0).contains(location1.toString()));
+    assertTrue(evicted.get(0), evicted.get(0).contains(location2.toString()));
+  }
+
+  public void testSizesAreRecordedOnPublish() throws Exception {
+    File object = publish(location1, "1234567890");
+    // the object isn't read again to find its size.
+    Files.append("abc", object, Charsets.UTF_8);
+    assertEquals(10, cache.list().get(0).getSizeBytes());
+    object.setLastModified(System.currentTimeMillis() - 2 * HOUR_MS);
+    assertEquals(10, cache.evict(0));
+
+    // republishing an object which is already in the cache keeps its recorded size.
+    object = publish(location1, "1234567890");
+    Files.append("abc", object, Charsets.UTF_8);
+    assertEquals(object, cache.publish(location1, object.getName(), null));
+    assertEquals(10, cache.list().get(0).getSizeBytes());
+  }
+
+  public void testObjectsWithoutRecordedSizesAreMeasured() throws Exception {
+    publish(location1, "1234567890");
+    for (File locationFile : new File(root, "locations").listFiles()) {
+      locationFile.delete();
+    }
+    assertEquals(10, cache.list().get(0).getSizeBytes());
+  }
+
+  private File publish(ContentCache.Location location, String contents) throws Exception {
+    File staged = cache.newStagingFile();
+    Files.write(contents, staged, Charsets.UTF_8);
+    return cache.publish(location, ContentCache.contentId(staged, ""), staged);
+  }
+}
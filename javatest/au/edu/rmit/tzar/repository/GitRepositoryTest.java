@@ -0,0 +1,108 @@
+package au.edu.rmit.tzar.repository;
+
+import au.edu.rmit.tzar.Utils;
+import au.edu.rmit.tzar.api.TzarException;
+import com.google.common.base.Charsets;
+import com.google.common.io.ByteStreams;
+import com.google.common.io.Files;
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.net.URI;
+
+/**
+ * Tests for the GitRepository class, using a git repository in a local directory as the remote.
+ */
+public class GitRepositoryTest extends TestCase {
+  private File tempDir;
+  private File remote;
+  private File baseModelPath;
+  private GitRepository repository;
+
+  @Override
+  protected void setUp() throws Exception {
+    tempDir = Files.createTempDir();
+    remote = new File(tempDir, "remote");
+    baseModelPath = new File(tempDir, "models");
+    remote.mkdirs();
+    git(remote, "init", "--quiet");
+    repository = new GitRepository(new URI("file://" + remote.getAbsolutePath()));
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    Utils.deleteRecursively(tempDir);
+  }
+
+  public void testRetrieveModelAtEachRevision() throws Exception {
+    String revision1 = commit("model.R", "version 1");
+    String revision2 = commit("model.R", "version 2");
+    assertEquals(revision2, repository.getHeadRevision());
+
+    File model1 = repository.retrieveModel(revision1, "model", baseModelPath);
+    File model2 = repository.retrieveModel(revision2, "model", baseModelPath);
+    assertFalse(model1.equals(model2));
+    assertEquals("version 1", Files.toString(new File(model1, "model.R"), Charsets.UTF_8));
+    assertEquals("version 2", Files.toString(new File(model2, "model.R"), Charsets.UTF_8));
+
+    // both checkouts share a single object store
+    assertEquals(1, new File(baseModelPath, GitRepository.STORES_DIR).listFiles(new FileFilter() {
+      @Override
+      public boolean accept(File file) {
+        return file.isDirectory();
+      }
+    }).length);
+  }
+
+  public void testRetrieveExistingCheckoutDoesNotContactRemote() throws Exception {
+    String revision = commit("model.R", "version 1");
+    File model = repository.retrieveModel(revision, "model", baseModelPath);
+    Utils.deleteRecursively(remote);
+    assertEquals(model, repository.retrieveModel(revision, "model", baseModelPath));
+  }
+
+  public void testRetrieveModelByBranchAndAbbreviatedId() throws Exception {
+    String revision1 = commit("model.R", "version 1");
+    commit("model.R", "version 2");
+    String branch = git(remote, "rev-parse", "--abbrev-ref", "HEAD");
+    File branchModel = repository.retrieveModel(branch, "model", baseModelPath);
+    assertEquals("version 2", Files.toString(new File(branchModel, "model.R"), Charsets.UTF_8));
+    File abbreviatedModel = repository.retrieveModel(revision1.substring(0, 8), "model", baseModelPath);
+    assertEquals("version 1", Files.toString(new File(abbreviatedModel, "model.R"), Charsets.UTF_8));
+  }
+
+  public void testRetrieveProjectParams() throws Exception {
+    String revision1 = commit("project.yaml", "name: one");
+    commit("project.yaml", "name: two");
+    File params = repository.retrieveProjectParams("project.yaml", revision1, baseModelPath);
+    assertEquals("name: one", Files.toString(params, Charsets.UTF_8));
+  }
+
+  public void testUnknownRevision() throws Exception {
+    commit("model.R", "version 1");
+    try {
+      repository.retrieveModel("no_such_branch", "model", baseModelPath);
+      fail("Expected TzarException.");
+    } catch (TzarException e) {
+      // expected
+    }
+  }
+
+  private String commit(String filename, String contents) throws Exception {
+    Files.write(contents, new File(remote, filename), Charsets.UTF_8);
+    git(remote, "add", filename);
+    git(remote, "-c", "user.name=test", "-c", "user.email=test@example.com", "commit", "--quiet", "-m", contents);
+    return git(remote, "rev-parse", "HEAD");
+  }
+
+  private static String git(File dir, String... args) throws Exception {
+    String[] command = new String[args.length + 1];
+    command[0] = "git";
+    System.arraycopy(args, 0, command, 1, args.length);
+    Process process = new ProcessBuilder(command).directory(dir).redirectErrorStream(true).start();
+    String output = new String(ByteStreams.toByteArray(process.getInputStream()), Charsets.UTF_8).trim();
+    assertEquals(output, 0, process.waitFor());
+    return output;
+  }
+}
@@ -1,14 +1,37 @@
 package au.edu.rmit.tzar.repository;
 
+import au.edu.rmit.tzar.Utils;
+import au.edu.rmit.tzar.api.Constants;
 import au.edu.rmit.tzar.api.TzarException;
+import au.edu.rmit.tzar.parser.beans.DownloadMode;
+import au.edu.rmit.tzar.server.WebServer;
+import com.google.common.base.Charsets;
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+import com.google.common.io.Files;
 import junit.framework.Assert;
+import org.apache.http.HttpHeaders;
 import org.apache.http.HttpStatus;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpGet;
 import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.message.BasicHeader;
+import org.mockito.ArgumentCaptor;
 
 import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileReader;
 import java.io.IOException;
+import java.net.URI;
+
+import static org.mockito.Matchers.anyMapOf;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Matchers.isA;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
 
 /**
  * Tests for the HttpRepository
@@ -17,7 +40,7 @@ public class HttpRepositoryTest extends BaseHttpRepositoryTemplate {
   @Override
   public void setUp() throws Exception {
     super.setUp();
-    repository = new HttpRepository(mockHttpClient, sourceUri, false);
+    repository = new HttpRepository(mockHttpClient, sourceUri, DownloadMode.CACHE);
     returnedByteArray = new ByteArrayEntity(EXPECTED.getBytes());
   }
 
@@ -25,12 +48,125 @@ public class HttpRepositoryTest extends BaseHttpRepositoryTemplate {
     File model = retrieveModel(HttpStatus.SC_OK);
     assertTrue(model.exists());
     assertTrue(model.isFile());
-    assertEquals(baseModelPath, model.getParentFile());
+    assertEquals(new File(new File(baseModelPath, Constants.CONTENT_CACHE_DIR), "objects"), model.getParentFile());
     BufferedReader reader = new BufferedReader(new FileReader(model));
     String line = reader.readLine();
     Assert.assertEquals(HttpRepositoryTest.EXPECTED, line);
   }
 
+  public void testRetrieveModelTwiceSharesCachedCopy() throws Exception {
+    File model = retrieveModel(HttpStatus.SC_OK);
+    returnedByteArray = new ByteArrayEntity(EXPECTED.getBytes());
+    repository = new HttpRepository(mockHttpClient, new URI("http://another.com/same_content"),
+        DownloadMode.CACHE);
+    assertEquals(model, retrieveModel(HttpStatus.SC_OK));
+    assertEquals(1, model.getParentFile().listFiles().length);
+  }
+
+  public void testRetrieveModelRevalidatesCachedCopy() throws Exception {
+    CloseableHttpResponse okResponse = mockResponse(HttpStatus.SC_OK);
+    when(okResponse.getFirstHeader(HttpHeaders.ETAG)).thenReturn(new BasicHeader(HttpHeaders.ETAG, "\"v1\""));
+    when(mockHttpClient.execute(isA(HttpGet.class))).thenReturn(okResponse);
+    File model = repository.retrieveModel(REVISION, "project_name", baseModelPath);
+
+    CloseableHttpResponse notModifiedResponse = mockResponse(HttpStatus.SC_NOT_MODIFIED);
+    when(mockHttpClient.execute(isA(HttpGet.class))).thenReturn(notModifiedResponse);
+    assertEquals(model, repository.retrieveModel(REVISION, "project_name", baseModelPath));
+
+    ArgumentCaptor<HttpGet> requests = ArgumentCaptor.forClass(HttpGet.class);
+    verify(mockHttpClient, times(2)).execute(requests.capture());
+    assertFalse(requests.getAllValues().get(0).containsHeader(HttpHeaders.IF_NONE_MATCH));
+    assertEquals("\"v1\"", requests.getAllValues().get(1).getFirstHeader(HttpHeaders.IF_NONE_MATCH).getValue());
+  }
+
+  public void testRetrieveModelDownloadOnceDoesNotContactServer() throws Exception {
+    File model = retrieveModel(HttpStatus.SC_OK);
+    repository = new HttpRepository(mockHttpClient, sourceUri, DownloadMode.ONCE);
+    assertEquals(model, repository.retrieveModel(REVISION, "project_name", baseModelPath));
+    verify(mockHttpClient, times(1)).execute(isA(HttpGet.class));
+  }
+
+  public void testRetrieveModelForceDoesNotRevalidate() throws Exception {
+    CloseableHttpResponse okResponse = mockResponse(HttpStatus.SC_OK);
+    when(okResponse.getFirstHeader(HttpHeaders.ETAG)).thenReturn(new BasicHeader(HttpHeaders.ETAG, "\"v1\""));
+    when(mockHttpClient.execute(isA(HttpGet.class))).thenReturn(okResponse);
+    repository.retrieveModel(REVISION, "project_name", baseModelPath);
+
+    returnedByteArray = new ByteArrayEntity(EXPECTED.getBytes());
+    repository = new HttpRepository(mockHttpClient, sourceUri, DownloadMode.FORCE);
+    retrieveModel(HttpStatus.SC_OK);
+    ArgumentCaptor<HttpGet> requests = ArgumentCaptor.forClass(HttpGet.class);
+    verify(mockHttpClient, times(2)).execute(requests.capture());
+    assertFalse(requests.getAllValues().get(1).containsHeader(HttpHeaders.IF_NONE_MATCH));
+  }
+
+  public void testRetrieveModelCopiesFromPeer() throws Exception {
+    // another node downloads the model, and serves its cache.
+    CloseableHttpResponse okResponse = mockResponse(HttpStatus.SC_OK);
+    when(okResponse.getFirstHeader(HttpHeaders.ETAG)).thenReturn(new BasicHeader(HttpHeaders.ETAG, "\"v1\""));
+    when(mockHttpClient.execute(isA(HttpGet.class))).thenReturn(okResponse);
+    File peerModel = repository.retrieveModel(REVISION, "project_name", baseModelPath);
+    ContentCache peerCache = ContentCache.inModelPath(baseModelPath);
+    WebServer peerServer = new WebServer(0, new File(baseModelPath, Constants.CONTENT_CACHE_DIR));
+    peerServer.run();
+    File localModelPath = Files.createTempDir();
+    try {
+      ContentPeers contentPeers = mock(ContentPeers.class);
+      when(contentPeers.findPeers(isA(ContentCache.Location.class))).thenReturn(ImmutableList.of(
+          new ContentPeers.Peer("peer", "http://localhost:" + peerServer.getPort(), peerModel.getName(),
+              peerCache.getManifestHash(peerModel.getName()), peerCache.getAttributes(
+              new ContentCache.Location("http_file", sourceUri, "")))));
+      CloseableHttpResponse notModifiedResponse = mockResponse(HttpStatus.SC_NOT_MODIFIED);
+      when(mockHttpClient.execute(isA(HttpGet.class))).thenReturn(notModifiedResponse);
+
+      repository = new HttpRepository(mockHttpClient, sourceUri, DownloadMode.CACHE, Optional.of(contentPeers));
+      File model = repository.retrieveModel(REVISION, "project_name", localModelPath);
+      assertEquals(peerModel.getName(), model.getName());
+      assertEquals(EXPECTED, Files.toString(model, Charsets.UTF_8));
+
+      // the server was asked whether the peer's copy is still current.
+      ArgumentCaptor<HttpGet> requests = ArgumentCaptor.forClass(HttpGet.class);
+      verify(mockHttpClient, times(2)).execute(requests.capture());
+      assertEquals("\"v1\"", requests.getAllValues().get(1).getFirstHeader(HttpHeaders.IF_NONE_MATCH).getValue());
+      verify(contentPeers).advertise(isA(ContentCache.Location.class), eq(model.getName()), anyString(),
+          anyMapOf(String.class, String.class));
+    } finally {
+      peerServer.stop();
+      Utils.deleteRecursively(localModelPath);
+    }
+  }
+
+  public void testUsingCachedCopyRenewsAdvertisement() throws Exception {
+    CloseableHttpResponse okResponse = mockResponse(HttpStatus.SC_OK);
+    when(okResponse.getFirstHeader(HttpHeaders.ETAG)).thenReturn(new BasicHeader(HttpHeaders.ETAG, "\"v1\""));
+    when(mockHttpClient.execute(isA(HttpGet.class))).thenReturn(okResponse);
+    File model = repository.retrieveModel(REVISION, "project_name", baseModelPath);
+    ContentPeers contentPeers = mock(ContentPeers.class);
+    repository = new HttpRepository(mockHttpClient, sourceUri, DownloadMode.CACHE, Optional.of(contentPeers));
+    CloseableHttpResponse notModifiedResponse = mockResponse(HttpStatus.SC_NOT_MODIFIED);
+    when(mockHttpClient.execute(isA(HttpGet.class))).thenReturn(notModifiedResponse);
+    assertEquals(model, repository.retrieveModel(REVISION, "project_name", baseModelPath));
+
+    repository = new HttpRepository(mockHttpClient, sourceUri, DownloadMode.ONCE, Optional.of(contentPeers));
+    assertEquals(model, repository.retrieveModel(REVISION, "project_name", baseModelPath));
+    verify(contentPeers, times(2)).advertise(isA(ContentCache.Location.class), eq(model.getName()), anyString(),
+        anyMapOf(String.class, String.class));
+  }
+
+  public void testFailedDownloadWithdrawsClaim() throws Exception {
+    ContentPeers contentPeers = mock(ContentPeers.class);
+    when(contentPeers.findPeers(isA(ContentCache.Location.class))).thenReturn(
+        ImmutableList.<ContentPeers.Peer>of());
+    repository = new HttpRepository(mockHttpClient, sourceUri, DownloadMode.CACHE, Optional.of(contentPeers));
+    try {
+      retrieveModel(HttpStatus.SC_INTERNAL_SERVER_ERROR);
+      fail("Exception was not thrown.");
+    } catch (TzarException e) {
+      // expected.
+    }
+    verify(contentPeers).withdraw(isA(ContentCache.Location.class));
+  }
+
   public void testRetrieveModel500() throws IOException {
     try {
       retrieveModel(HttpStatus.SC_INTERNAL_SERVER_ERROR);
@@ -1,5 +1,7 @@
 package au.edu.rmit.tzar.repository;
 
+import au.edu.rmit.tzar.api.Constants;
+import au.edu.rmit.tzar.parser.beans.DownloadMode;
 import com.google.common.io.Files;
 import junit.framework.Assert;
 import net.lingala.zip4j.core.ZipFile;
@@ -19,7 +21,7 @@ public class HttpZipRepositoryTest extends BaseHttpRepositoryTemplate {
   @Override
   public void setUp() throws Exception {
     super.setUp();
-    repository = new HttpZipRepository(mockHttpClient, sourceUri, false);
+    repository = new HttpZipRepository(mockHttpClient, sourceUri, DownloadMode.CACHE);
     ByteArrayInputStream bis = new ByteArrayInputStream(BaseHttpRepositoryTemplate.EXPECTED.getBytes());
     ZipParameters zp = new ZipParameters();
     zp.setSourceExternalStream(true);
@@ -37,7 +39,7 @@ public class HttpZipRepositoryTest extends BaseHttpRepositoryTemplate {
 
     assertTrue(model.exists());
     assertTrue(model.isDirectory());
-    assertEquals(baseModelPath, model.getParentFile());
+    assertEquals(new File(new File(baseModelPath, Constants.CONTENT_CACHE_DIR), "objects"), model.getParentFile());
 
     File[] files = model.listFiles();
     assertEquals(1, files.length);
@@ -0,0 +1,116 @@
+package au.edu.rmit.tzar.repository;
+
+import au.edu.rmit.tzar.api.TzarException;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Maps;
+import junit.framework.TestCase;
+
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Tests for the ParallelRetriever class.
+ */
+public class ParallelRetrieverTest extends TestCase {
+  public void testRetrieveAllRunsConcurrently() throws Exception {
+    // each retrieval only finishes once both have started.
+    final CountDownLatch started = new CountDownLatch(2);
+    Map<String, Callable<String>> retrievals = Maps.newLinkedHashMap();
+    for (final String name : ImmutableList.of("b", "a")) {
+      retrievals.put(name, new Callable<String>() {
+        @Override
+        public String call() throws Exception {
+          started.countDown();
+          assertTrue(started.await(10, TimeUnit.SECONDS));
+          return name + name;
+        }
+      });
+    }
+    Map<String, String> results = ParallelRetriever.retrieveAll(retrievals);
+    assertEquals(ImmutableList.of("b", "a"), ImmutableList.copyOf(results.keySet()));
+    assertEquals("bb", results.get("b"));
+    assertEquals("aa", results.get("a"));
+  }
+
+  public void testRetrieveAllThrowsFailure() throws Exception {
+    Map<String, Callable<String>> retrievals = Maps.newLinkedHashMap();
+    retrievals.put("a", new Callable<String>() {
+      @Override
+      public String call() throws Exception {
+        return "a";
+      }
+    });
+    retrievals.put("b", new Callable<String>() {
+      @Override
+      public String call() throws Exception {
+        throw new TzarException("failed");
+      }
+    });
+    try {
+      ParallelRetriever.retrieveAll(retrievals);
+      fail("Expected TzarException.");
+    } catch (TzarException e) {
+      assertEquals("failed", e.getMessage());
+    }
+  }
+
+  public void testRetrieveOnceSharesRetrievalInProgress() throws Exception {
+    final CountDownLatch started = new CountDownLatch(1);
+    final CountDownLatch finish = new CountDownLatch(1);
+    final AtomicInteger calls = new AtomicInteger();
+    final Callable<String> retrieval = new Callable<String>() {
+      @Override
+      public String call() throws Exception {
+        calls.incrementAndGet();
+        started.countDown();
+        assertTrue(finish.await(10, TimeUnit.SECONDS));
+        return "result";
+      }
+    };
+    final Map<String, String> results = Maps.newConcurrentMap();
+    Thread first = retrieveInThread("first", retrieval, results);
+    assertTrue(started.await(10, TimeUnit.SECONDS));
+    Thread second = retrieveInThread("second", retrieval, results);
+    // the second thread blocks, either waiting for the first retrieval, or (wrongly) in a retrieval of its own.
+    while (second.getState() != Thread.State.WAITING && second.getState() != Thread.State.TIMED_WAITING) {
+      Thread.sleep(10);
+    }
+    finish.countDown();
+    first.join();
+    second.join();
+    assertEquals("result", results.get("first"));
+    assertEquals("result", results.get("second"));
+    assertEquals(1, calls.get());
+  }
+
+  public void testRetrieveOnceRetrievesAgainAfterCompletion() throws Exception {
+    final AtomicInteger calls = new AtomicInteger();
+    Callable<Integer> retrieval = new Callable<Integer>() {
+      @Override
+      public Integer call() throws Exception {
+        return calls.incrementAndGet();
+      }
+    };
+    assertEquals(1, (int) ParallelRetriever.retrieveOnce("key", retrieval));
+    assertEquals(2, (int) ParallelRetriever.retrieveOnce("key", retrieval));
+  }
+
+  private static Thread retrieveInThread(final String name, final Callable<String> retrieval,
+      final Map<String, String> results) {
+    Thread thread = new Thread() {
+      @Override
+      public void run() {
+        try {
+          results.put(name, ParallelRetriever.retrieveOnce("key", retrieval));
+        } catch (TzarException e) {
+          results.put(name, e.toString());
+        }
+      }
+    };
+    thread.start();
+    return thread;
+  }
+}
@@ -0,0 +1,120 @@
+package au.edu.rmit.tzar.repository;
+
+import au.edu.rmit.tzar.Utils;
+import au.edu.rmit.tzar.server.WebServer;
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.google.common.io.Files;
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.net.URI;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Tests for the PeerFetcher class, which fetch objects from the caches of peers served by local web servers.
+ */
+public class PeerFetcherTest extends TestCase {
+  private static final long HOUR_MS = 60 * 60 * 1000L;
+
+  private final List<File> roots = Lists.newArrayList();
+  private final List<WebServer> servers = Lists.newArrayList();
+  private final List<ContentPeers.Peer> peers = Lists.newArrayList();
+  private ContentCache.Location location;
+  private byte[] large;
+  private String contentId;
+  private ContentCache localCache;
+
+  @Override
+  protected void setUp() throws Exception {
+    location = new ContentCache.Location("http_zip", new URI("http://some.com/model.zip"), "");
+    // large enough to be fetched in several chunks.
+    large = new byte[2 * PeerFetcher.CHUNK_BYTES + 1000];
+    new Random(1).nextBytes(large);
+    for (int i = 0; i < 3; i++) {
+      File root = Files.createTempDir();
+      roots.add(root);
+      ContentCache cache = new ContentCache(root, 0, HOUR_MS);
+      File staged = cache.newStagingFile();
+      new File(staged, "dir").mkdirs();
+      new File(staged, "empty").mkdirs();
+      Files.write("file a", new File(staged, "a.txt"), Charsets.UTF_8);
+      Files.write(large, new File(staged, "dir/large.dat"));
+      contentId = "content_id";
+      cache.publish(location, contentId, staged);
+      WebServer server = new WebServer(0, root);
+      server.run();
+      servers.add(server);
+      peers.add(new ContentPeers.Peer("peer" + i, "http://localhost:" + server.getPort(), contentId,
+          cache.getManifestHash(contentId), ImmutableMap.<String, String>of()));
+    }
+    File localRoot = Files.createTempDir();
+    roots.add(localRoot);
+    localCache = new ContentCache(localRoot, 0, HOUR_MS);
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    for (WebServer server : servers) {
+      server.stop();
+    }
+    for (File root : roots) {
+      Utils.deleteRecursively(root);
+    }
+  }
+
+  public void testFetchFromSeveralPeers() throws Exception {
+    File staged = localCache.newStagingFile();
+    assertTrue(new PeerFetcher().fetch(peers, staged));
+    assertContents(staged);
+  }
+
+  public void testFetchWithDeadPeer() throws Exception {
+    servers.get(1).stop();
+    File staged = localCache.newStagingFile();
+    assertTrue(new PeerFetcher().fetch(peers, staged));
+    assertContents(staged);
+  }
+
+  public void testFetchSingleFile() throws Exception {
+    ContentCache cache = new ContentCache(roots.get(0), 0, HOUR_MS);
+    File staged = cache.newStagingFile();
+    Files.write(large, staged);
+    cache.publish(location, "file_id", staged);
+    ContentPeers.Peer peer = new ContentPeers.Peer("peer0", peers.get(0).getCacheUrl(), "file_id",
+        cache.getManifestHash("file_id"), ImmutableMap.<String, String>of());
+
+    File fetched = localCache.newStagingFile();
+    assertTrue(new PeerFetcher().fetch(ImmutableList.of(peer), fetched));
+    assertTrue(Arrays.equals(large, Files.toByteArray(fetched)));
+  }
+
+  public void testCorruptPeer() throws Exception {
+    // the first peer's copy of the file no longer matches its manifest.
+    File corrupt = new File(roots.get(0), "objects/" + contentId + "/dir/large.dat");
+    byte[] corrupted = new byte[large.length];
+    Files.write(corrupted, corrupt);
+    File staged = localCache.newStagingFile();
+    assertFalse(new PeerFetcher().fetch(peers, staged));
+    assertFalse(staged.exists());
+  }
+
+  public void testManifestDoesNotMatchHash() throws Exception {
+    ContentPeers.Peer peer = peers.get(0);
+    ContentPeers.Peer badPeer = new ContentPeers.Peer(peer.getHostname(), peer.getCacheUrl(), contentId,
+        "0000", ImmutableMap.<String, String>of());
+    File staged = localCache.newStagingFile();
+    assertFalse(new PeerFetcher().fetch(ImmutableList.of(badPeer), staged));
+    assertFalse(staged.exists());
+  }
+
+  private void assertContents(File staged) throws Exception {
+    assertEquals("file a", Files.toString(new File(staged, "a.txt"), Charsets.UTF_8));
+    assertTrue(Arrays.equals(large, Files.toByteArray(new File(staged, "dir/large.dat"))));
+    assertTrue(new File(staged, "empty").isDirectory());
+  }
+}
@@ -1,19 +1,32 @@
 package au.edu.rmit.tzar.repository;
 
+import au.edu.rmit.tzar.Utils;
+import au.edu.rmit.tzar.api.Constants;
 import au.edu.rmit.tzar.api.TzarException;
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
 import junit.framework.TestCase;
 import org.mockito.Mockito;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
 import org.tmatesoft.svn.core.SVNDepth;
+import org.tmatesoft.svn.core.SVNErrorMessage;
 import org.tmatesoft.svn.core.SVNException;
 import org.tmatesoft.svn.core.SVNURL;
 import org.tmatesoft.svn.core.wc.SVNRevision;
 import org.tmatesoft.svn.core.wc.SVNUpdateClient;
-import org.tmatesoft.svn.core.wc.SVNWCClient;
 
 import java.io.File;
 import java.net.URI;
 import java.net.URISyntaxException;
 
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyBoolean;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 
 /**
@@ -21,37 +34,109 @@ import static org.mockito.Mockito.verify;
  */
 public class SvnRepositoryTest extends TestCase {
   private static final String TEST_URL = "http://foobar.com/blah";
-  private static final File BASE_MODEL_PATH = new File("/tmp/foo");
+  private File baseModelPath;
+  private File cacheDir;
   private SVNUpdateClient mockClient;
   private SvnRepository repository;
 
   @Override
   public void setUp() throws Exception {
+    baseModelPath = Files.createTempDir();
+    cacheDir = new File(baseModelPath, Constants.CONTENT_CACHE_DIR);
     mockClient = Mockito.mock(SVNUpdateClient.class);
-    SVNWCClient mockWCClient = Mockito.mock(SVNWCClient.class);
-    repository = new SvnRepository(new URI(TEST_URL), mockClient, mockWCClient);
+    // the mock client exports a model whose content is the revision number.
+    doAnswer(new Answer<Long>() {
+      @Override
+      public Long answer(InvocationOnMock invocation) throws Throwable {
+        File dstPath = (File) invocation.getArguments()[1];
+        long revision = ((SVNRevision) invocation.getArguments()[3]).getNumber();
+        dstPath.mkdirs();
+        Files.write("revision " + revision, new File(dstPath, "model.R"), Charsets.UTF_8);
+        return revision;
+      }
+    }).when(mockClient).doExport(any(SVNURL.class), any(File.class), any(SVNRevision.class),
+        any(SVNRevision.class), anyString(), anyBoolean(), any(SVNDepth.class));
+    repository = new SvnRepository(new URI(TEST_URL), mockClient);
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    Utils.deleteRecursively(baseModelPath);
   }
 
   /**
    * Simulates retrieving the model from sourceforge.
    */
-  public void testGetModel() throws SVNException, TzarException, URISyntaxException {
-    String revision = "1000";
+  public void testGetModel() throws Exception {
+    File modelPath = repository.retrieveModel("1000", "a_project", baseModelPath);
+
+    SVNRevision svnRevision = SVNRevision.create(1000);
+    verify(mockClient).doExport(eq(SVNURL.parseURIEncoded(TEST_URL)), any(File.class), eq(svnRevision),
+        eq(svnRevision), (String) eq(null), eq(true), eq(SVNDepth.INFINITY));
+    assertEquals(new File(cacheDir, "objects"), modelPath.getParentFile());
+    assertEquals("revision 1000", Files.toString(new File(modelPath, "model.R"), Charsets.UTF_8));
+    // the staging directory is empty once the model is published
+    assertEquals(0, new File(cacheDir, "staging").listFiles().length);
+  }
+
+  public void testGetModelAtSameRevisionReusesExport() throws Exception {
+    File modelPath = repository.retrieveModel("1000", "a_project", baseModelPath);
+
+    // a new repository object, as if tzar had been restarted.
+    repository = new SvnRepository(new URI(TEST_URL), mockClient);
+    assertEquals(modelPath, repository.retrieveModel("1000", "a_project", baseModelPath));
+    verify(mockClient, times(1)).doExport(any(SVNURL.class), any(File.class), any(SVNRevision.class),
+        any(SVNRevision.class), anyString(), anyBoolean(), any(SVNDepth.class));
+  }
+
+  public void testPrefetchModel() throws Exception {
+    assertEquals(repository.prefetchModel("1000", "a_project", baseModelPath).get(),
+        repository.retrieveModel("1000", "a_project", baseModelPath));
+    verify(mockClient, times(1)).doExport(any(SVNURL.class), any(File.class), any(SVNRevision.class),
+        any(SVNRevision.class), anyString(), anyBoolean(), any(SVNDepth.class));
+  }
+
+  /**
+   * Tests that switching revisions leaves the export of the old revision alone while it is in use, and that
+   * exports of old revisions are evicted once they aren't, so that disk use doesn't grow with each revision.
+   */
+  public void testSwitchingRevisions() throws Exception {
+    File oldModelPath = repository.retrieveModel("1000", "a_project", baseModelPath);
+    ContentCache cache = new ContentCache(cacheDir, 0, 0);
+    PathLease oldLease = cache.lease(oldModelPath).get();
+    File newModelPath = repository.retrieveModel("1001", "a_project", baseModelPath);
+    assertFalse(oldModelPath.equals(newModelPath));
+    assertEquals("revision 1000", Files.toString(new File(oldModelPath, "model.R"), Charsets.UTF_8));
+    assertEquals("revision 1001", Files.toString(new File(newModelPath, "model.R"), Charsets.UTF_8));
 
-    String moduleName = "a_project";
-    File expectedPath = repository.createModelPath(moduleName, BASE_MODEL_PATH, repository.sourceUri);
+    PathLease newLease = cache.lease(newModelPath).get();
+    oldLease.release();
+    repository.retrieveModel("1002", "a_project", baseModelPath);
+    cache.evict(0);
+    newLease.release();
 
-    File modelPath = repository.retrieveModel(revision, moduleName, BASE_MODEL_PATH);
+    // only the export in use is left.
+    assertEquals(1, cache.list().size());
+    assertEquals(newModelPath, cache.list().get(0).getObject());
+  }
 
-    SVNRevision svnRevision = SVNRevision.create(Long.parseLong(revision));
-    verify(mockClient).doCheckout(SVNURL.parseURIEncoded(TEST_URL), expectedPath, svnRevision,
-        svnRevision, SVNDepth.INFINITY, true);
-    assertEquals(expectedPath, modelPath);
+  public void testFailedExportIsDiscarded() throws Exception {
+    doThrow(new SVNException(SVNErrorMessage.UNKNOWN_ERROR_MESSAGE)).when(mockClient).doExport(
+        any(SVNURL.class), any(File.class), any(SVNRevision.class), any(SVNRevision.class), anyString(),
+        anyBoolean(), any(SVNDepth.class));
+    try {
+      repository.retrieveModel("1000", "a_project", baseModelPath);
+      fail("Expected TzarException to be thrown.");
+    } catch (TzarException e) {
+      // expected
+    }
+    assertEquals(0, new File(cacheDir, "staging").listFiles().length);
+    assertTrue(new ContentCache(cacheDir, 0, 0).list().isEmpty());
   }
 
-  public void testGetModelBadRevision() {
+  public void testGetModelBadRevision() throws URISyntaxException {
     try {
-      repository.retrieveModel("foo", "a_project", BASE_MODEL_PATH);
+      repository.retrieveModel("foo", "a_project", baseModelPath);
       fail("Expected TzarException to be thrown.");
     } catch (TzarException e) {
     }
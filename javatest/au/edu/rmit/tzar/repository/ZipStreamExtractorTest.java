@@ -0,0 +1,74 @@
+package au.edu.rmit.tzar.repository;
+
+import au.edu.rmit.tzar.Utils;
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
+import junit.framework.TestCase;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Tests for the ZipStreamExtractor class.
+ */
+public class ZipStreamExtractorTest extends TestCase {
+  private File outputDir;
+
+  @Override
+  protected void setUp() throws Exception {
+    outputDir = Files.createTempDir();
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    Utils.deleteRecursively(outputDir);
+  }
+
+  public void testExtract() throws Exception {
+    byte[] large = new byte[9 * 1024 * 1024]; // larger than the entries which are buffered
+    Arrays.fill(large, (byte) 'x');
+    ByteArrayOutputStream zip = new ByteArrayOutputStream();
+    ZipOutputStream out = new ZipOutputStream(zip);
+    addEntry(out, "a.txt", "file a".getBytes(Charsets.UTF_8));
+    out.putNextEntry(new ZipEntry("dir/"));
+    addEntry(out, "dir/b.txt", "file b".getBytes(Charsets.UTF_8));
+    addEntry(out, "other/large.dat", large);
+    out.close();
+
+    assertEquals(4, new ZipStreamExtractor().extract(new ByteArrayInputStream(zip.toByteArray()), outputDir));
+    assertEquals("file a", Files.toString(new File(outputDir, "a.txt"), Charsets.UTF_8));
+    assertEquals("file b", Files.toString(new File(outputDir, "dir/b.txt"), Charsets.UTF_8));
+    assertTrue(Arrays.equals(large, Files.toByteArray(new File(outputDir, "other/large.dat"))));
+  }
+
+  public void testEntryOutsideOutputDirectory() throws Exception {
+    ByteArrayOutputStream zip = new ByteArrayOutputStream();
+    ZipOutputStream out = new ZipOutputStream(zip);
+    addEntry(out, "../escaped.txt", "bad".getBytes(Charsets.UTF_8));
+    out.close();
+
+    try {
+      new ZipStreamExtractor().extract(new ByteArrayInputStream(zip.toByteArray()), outputDir);
+      fail("Expected IOException.");
+    } catch (IOException e) {
+      // expected
+    }
+    assertFalse(new File(outputDir.getParentFile(), "escaped.txt").exists());
+  }
+
+  public void testNotAZipFile() throws Exception {
+    byte[] notAZip = "not a zip file".getBytes(Charsets.UTF_8);
+    assertEquals(0, new ZipStreamExtractor().extract(new ByteArrayInputStream(notAZip), outputDir));
+  }
+
+  private static void addEntry(ZipOutputStream out, String name, byte[] contents) throws IOException {
+    out.putNextEntry(new ZipEntry(name));
+    out.write(contents);
+    out.closeEntry();
+  }
+}
@@ -0,0 +1,132 @@
+package au.edu.rmit.tzar.runners;
+
+import au.edu.rmit.tzar.Utils;
+import au.edu.rmit.tzar.api.Parameters;
+import au.edu.rmit.tzar.api.StopRun;
+import au.edu.rmit.tzar.api.TzarException;
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.google.common.io.Files;
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Logger;
+
+/**
+ * Tests for the RRunner class, using a runner which records the commands it would execute rather than executing
+ * them.
+ */
+public class RRunnerTest extends TestCase {
+  private static final Logger LOG = Logger.getLogger(RRunnerTest.class.getName());
+
+  private File root;
+  private File model;
+  private File outputPath;
+  private RecordingRRunner runner;
+
+  @Override
+  protected void setUp() throws Exception {
+    root = Files.createTempDir();
+    model = new File(root, "model");
+    model.mkdir();
+    outputPath = new File(root, "output");
+    outputPath.mkdir();
+    Files.write("optparse\n", new File(model, "packages.txt"), Charsets.UTF_8);
+    runner = new RecordingRRunner();
+    runner.setEnvironmentsDir(new File(root, "environments"));
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    makeWritable(root);
+    Utils.deleteRecursively(root);
+  }
+
+  public void testBuildsEnvironmentWithDeclaredPackages() throws Exception {
+    assertTrue(runner.runModel(model, outputPath, "1", "--rpackages=packages.txt --rrepos=file:///tmp/repos",
+        Parameters.EMPTY_PARAMETERS, LOG, new StopRun()));
+    assertEquals(2, runner.commands.size());
+
+    List<String> build = runner.commands.get(0);
+    assertEquals(5, build.size());
+    assertEquals("Rscript", build.get(0));
+    String lib = build.get(3).substring("--lib=".length());
+    assertEquals(ImmutableList.of("--packagefile=" + new File(model, "packages.txt").getAbsolutePath(),
+        "--lib=" + lib, "--repos=file:///tmp/repos"), build.subList(2, 5));
+    assertTrue(runner.scripts.get(0).contains("install.packages("));
+    assertFalse("The build script should be deleted.", new File(build.get(1)).exists());
+
+    // the library is built in a temporary directory, which is renamed to the environment once it is complete.
+    String environment = runner.environments.get(1).get("R_LIBS");
+    assertTrue(lib.startsWith(environment));
+    assertTrue(new File(environment).isDirectory());
+    assertEquals(ImmutableMap.of("R_LIBS", environment, "TZAR_R_ENVIRONMENT", environment),
+        runner.environments.get(1));
+  }
+
+  public void testEnvironmentIsOnlyBuiltOnce() throws Exception {
+    runner.runModel(model, outputPath, "1", "--rpackages=packages.txt", Parameters.EMPTY_PARAMETERS, LOG,
+        new StopRun());
+    runner.runModel(model, outputPath, "2", "--rpackages=packages.txt", Parameters.EMPTY_PARAMETERS, LOG,
+        new StopRun());
+    assertEquals(3, runner.commands.size());
+    assertEquals(runner.environments.get(1), runner.environments.get(2));
+  }
+
+  public void testBuildScriptIsDeletedIfBuildFails() throws Exception {
+    runner.buildSucceeds = false;
+    try {
+      runner.runModel(model, outputPath, "1", "--rpackages=packages.txt", Parameters.EMPTY_PARAMETERS, LOG,
+          new StopRun());
+      fail("Expected TzarException.");
+    } catch (TzarException e) {
+      // expected
+    }
+    assertEquals(1, runner.commands.size());
+    assertFalse("The build script should be deleted.", new File(runner.commands.get(0).get(1)).exists());
+  }
+
+  public void testNoEnvironmentWithoutPackages() throws Exception {
+    assertTrue(runner.runModel(model, outputPath, "1", "", Parameters.EMPTY_PARAMETERS, LOG, new StopRun()));
+    assertEquals(1, runner.commands.size());
+    assertEquals(ImmutableMap.<String, String>of(), runner.environments.get(0));
+  }
+
+  private static void makeWritable(File file) {
+    file.setWritable(true);
+    if (file.isDirectory()) {
+      for (File child : file.listFiles()) {
+        makeWritable(child);
+      }
+    }
+  }
+
+  /**
+   * Records the commands, their environments and the contents of the scripts they execute, instead of executing
+   * them. The build of an environment succeeds or fails, and the runs succeed.
+   */
+  private static class RecordingRRunner extends RRunner {
+    private final List<List<String>> commands = Lists.newArrayList();
+    private final List<Map<String, String>> environments = Lists.newArrayList();
+    private final List<String> scripts = Lists.newArrayList();
+    private boolean buildSucceeds = true;
+
+    @Override
+    protected boolean executeCommand(File model, Logger logger, Map<String, String> environment, StopRun stopRun,
+        String... command) throws TzarException {
+      commands.add(ImmutableList.copyOf(command));
+      environments.add(environment);
+      try {
+        scripts.add(Files.toString(new File(command[1]), Charsets.UTF_8));
+      } catch (IOException e) {
+        throw new TzarException(e);
+      }
+      return !command[2].startsWith("--packagefile=") || buildSucceeds;
+    }
+  }
+}
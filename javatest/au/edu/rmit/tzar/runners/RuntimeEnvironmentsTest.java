@@ -0,0 +1,116 @@
+package au.edu.rmit.tzar.runners;
+
+import au.edu.rmit.tzar.Utils;
+import au.edu.rmit.tzar.api.TzarException;
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableList;
+import com.google.common.io.Files;
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Tests for the RuntimeEnvironments class, using a builder which writes the declaration to the environment.
+ */
+public class RuntimeEnvironmentsTest extends TestCase {
+  private File root;
+  private File environmentsDir;
+  private File declaration;
+  private RuntimeEnvironments environments;
+  private AtomicInteger builds;
+
+  @Override
+  protected void setUp() throws Exception {
+    root = Files.createTempDir();
+    environmentsDir = new File(root, "environments");
+    declaration = new File(root, "requirements.txt");
+    Files.write("package1\npackage2\n", declaration, Charsets.UTF_8);
+    environments = new RuntimeEnvironments(environmentsDir);
+    builds = new AtomicInteger();
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    makeWritable(root);
+    Utils.deleteRecursively(root);
+  }
+
+  public void testBuildsEnvironmentOnce() throws Exception {
+    File environment = environments.getEnvironment("python", declaration, ImmutableList.of("python"),
+        new CopyingBuilder(true));
+    assertEquals(1, builds.get());
+    assertEquals("package1\npackage2\n", Files.toString(new File(environment, "packages"), Charsets.UTF_8));
+    if (!"root".equals(System.getProperty("user.name"))) { // root can write to anything.
+      assertFalse(environment.canWrite());
+      assertFalse(new File(environment, "packages").canWrite());
+    }
+
+    assertEquals(environment, environments.getEnvironment("python", declaration, ImmutableList.of("python"),
+        new CopyingBuilder(true)));
+    assertEquals(1, builds.get());
+  }
+
+  public void testDifferentDeclarationsHaveDifferentEnvironments() throws Exception {
+    File environment1 = environments.getEnvironment("python", declaration, ImmutableList.of("python"),
+        new CopyingBuilder(true));
+    File environment2 = environments.getEnvironment("python", declaration, ImmutableList.of("python3"),
+        new CopyingBuilder(true));
+    Files.write("package1\n", declaration, Charsets.UTF_8);
+    File environment3 = environments.getEnvironment("python", declaration, ImmutableList.of("python"),
+        new CopyingBuilder(true));
+    assertEquals(3, builds.get());
+    assertFalse(environment1.equals(environment2));
+    assertFalse(environment1.equals(environment3));
+    assertEquals("package1\n", Files.toString(new File(environment3, "packages"), Charsets.UTF_8));
+  }
+
+  public void testFailedBuild() throws Exception {
+    try {
+      environments.getEnvironment("r", declaration, ImmutableList.of("Rscript"), new CopyingBuilder(false));
+      fail("Expected TzarException.");
+    } catch (TzarException e) {
+      // expected
+    }
+    for (File file : environmentsDir.listFiles()) {
+      assertTrue("Unexpected file: " + file, file.getName().endsWith(".lock"));
+    }
+    // the build is tried again by the next run.
+    File environment = environments.getEnvironment("r", declaration, ImmutableList.of("Rscript"),
+        new CopyingBuilder(true));
+    assertTrue(new File(environment, "packages").exists());
+    assertEquals(2, builds.get());
+  }
+
+  private static void makeWritable(File file) {
+    file.setWritable(true);
+    if (file.isDirectory()) {
+      for (File child : file.listFiles()) {
+        makeWritable(child);
+      }
+    }
+  }
+
+  /**
+   * Writes the declaration to the environment, and then succeeds or fails.
+   */
+  private class CopyingBuilder implements RuntimeEnvironments.Builder {
+    private final boolean succeed;
+
+    private CopyingBuilder(boolean succeed) {
+      this.succeed = succeed;
+    }
+
+    @Override
+    public boolean build(File directory) throws TzarException {
+      builds.incrementAndGet();
+      try {
+        Files.copy(declaration, new File(directory, "packages"));
+      } catch (IOException e) {
+        throw new TzarException(e);
+      }
+      return succeed;
+    }
+  }
+}